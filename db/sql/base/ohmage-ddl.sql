@@ -204,6 +204,24 @@ CREATE TABLE user_registration(
     CONSTRAINT user_id FOREIGN KEY (user_id) REFERENCES user (id) ON UPDATE CASCADE ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
+-- --------------------------------------------------------------------
+-- The authentication tokens when they are kept in the database.
+-- --------------------------------------------------------------------
+CREATE TABLE user_auth_token(
+    -- The token.
+    token CHAR(36) NOT NULL,
+    -- A reference to the user.
+    user_id int unsigned NOT NULL,
+    -- The last time the token was used in milliseconds since epoch.
+    last_used BIGINT NOT NULL,
+    -- The token is the primary key.
+    PRIMARY KEY (token),
+    -- Expired tokens are found by their last use.
+    INDEX user_auth_token_last_used (last_used),
+    -- Link the user table.
+    CONSTRAINT user_auth_token_fk_user_id FOREIGN KEY (user_id) REFERENCES user (id) ON UPDATE CASCADE ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
 -- --------------------------------------------------------------------
 -- User role lookup table.
 -- --------------------------------------------------------------------
@@ -301,6 +319,8 @@ CREATE TABLE survey_response (
   PRIMARY KEY (id),
   KEY key_user_id (user_id),
   KEY key_campaign_id (campaign_id),
+  INDEX `survey_response_index_campaign_epoch_millis`
+    (`campaign_id`,`epoch_millis`),
   CONSTRAINT FOREIGN KEY (user_id) REFERENCES user (id) ON DELETE CASCADE ON UPDATE CASCADE,    
   CONSTRAINT FOREIGN KEY (campaign_id) REFERENCES campaign (id) ON DELETE CASCADE ON UPDATE CASCADE,
   CONSTRAINT FOREIGN KEY (privacy_state_id) REFERENCES survey_response_privacy_state (id) ON DELETE CASCADE ON UPDATE CASCADE
@@ -324,6 +344,7 @@ CREATE TABLE prompt_response (
   INDEX (survey_response_id),
   INDEX (prompt_id),
   INDEX response_image (response(36)),
+  FULLTEXT INDEX `prompt_response_index_response_text` (`response`),
   
   CONSTRAINT FOREIGN KEY (survey_response_id) REFERENCES survey_response (id) ON DELETE CASCADE ON UPDATE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -658,10 +679,12 @@ CREATE TABLE observer_stream_data (
   INDEX observer_stream_data_index_time_adjusted (time_adjusted),
   INDEX `observer_stream_data_query`
     (`user_id`,`observer_stream_link_id`,`time_adjusted`,`time`),
+  INDEX `observer_stream_data_seek`
+    (`user_id`,`observer_stream_link_id`,`time`,`id`),
   INDEX `observer_stream_data_index_link_user_adjusted`
     (`observer_stream_link_id`,`user_id`,`time_adjusted`),
-  INDEX `osd_duplicate_data_point_read`
-    (`user_id`, `observer_stream_link_id`, `uid`),  
+  UNIQUE KEY `observer_stream_data_unique_user_stream_uid`
+    (`user_id`, `observer_stream_link_id`, `uid`),
   CONSTRAINT observer_stream_data_foreign_key_user_id 
     FOREIGN KEY (user_id) 
     REFERENCES user (id) 
@@ -672,6 +695,45 @@ CREATE TABLE observer_stream_data (
     ON DELETE CASCADE ON UPDATE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
+-- --------------------------------------------------------------------
+-- The total time each user spent in each Mobility mode on each day, in
+-- the points' time zones. This is computed from the Mobility observer's
+-- stream data whenever a day's data is uploaded.
+-- --------------------------------------------------------------------
+CREATE TABLE mobility_mode_rollup (
+  id int unsigned NOT NULL AUTO_INCREMENT,
+  user_id int unsigned NOT NULL,
+  day date NOT NULL,
+  mode varchar(30) NOT NULL,
+  duration bigint(20) NOT NULL,
+  count int unsigned NOT NULL,
+  first_time bigint(20) NOT NULL,
+  last_time bigint(20) NOT NULL,
+  PRIMARY KEY (id),
+  UNIQUE KEY mobility_mode_rollup_unique_user_day_mode (user_id, day, mode),
+  CONSTRAINT mobility_mode_rollup_foreign_key_user_id
+    FOREIGN KEY (user_id)
+    REFERENCES user (id)
+    ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+-- --------------------------------------------------------------------
+-- The days for which each user's Mobility mode totals have been
+-- computed, including days without any points. A day's row is locked
+-- while its totals are recomputed.
+-- --------------------------------------------------------------------
+CREATE TABLE mobility_mode_rollup_day (
+  id int unsigned NOT NULL AUTO_INCREMENT,
+  user_id int unsigned NOT NULL,
+  day date NOT NULL,
+  PRIMARY KEY (id),
+  UNIQUE KEY mobility_mode_rollup_day_unique_user_day (user_id, day),
+  CONSTRAINT mobility_mode_rollup_day_foreign_key_user_id
+    FOREIGN KEY (user_id)
+    REFERENCES user (id)
+    ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
 -- --------------------------------------------------------------------
 -- A lookup table for survey IDs to their respective campaigns.
 -- --------------------------------------------------------------------
@@ -160,6 +160,18 @@ BEGIN
             (`user_id`,`observer_stream_link_id`,`time_adjusted`,`time`);
     END IF;
 
+    -- Add the index for continuing a stream read from a cursor.
+    IF (SELECT NOT EXISTS(
+        SELECT * FROM INFORMATION_SCHEMA.STATISTICS
+        WHERE TABLE_SCHEMA = 'ohmage'
+        AND TABLE_NAME = 'observer_stream_data'
+        AND INDEX_NAME = 'observer_stream_data_seek'))
+    THEN
+        CREATE INDEX `observer_stream_data_seek`
+            ON observer_stream_data
+            (`user_id`,`observer_stream_link_id`,`time`,`id`);
+    END IF;
+
     -- Add the index for the Mobility dates query.
     IF (SELECT NOT EXISTS(
         SELECT * FROM INFORMATION_SCHEMA.STATISTICS
@@ -172,6 +184,114 @@ BEGIN
             (`observer_stream_link_id`, `user_id`, `time_adjusted`);
     END IF;
 
+    -- Make each point's ID unique for its user and stream, so that points
+    -- uploaded to more than one server at once are only stored once. The
+    -- earliest copy of each existing duplicate is kept. This index replaces
+    -- the one that was used to look for duplicates.
+    IF (SELECT NOT EXISTS(
+        SELECT * FROM INFORMATION_SCHEMA.STATISTICS
+        WHERE TABLE_SCHEMA = 'ohmage'
+        AND TABLE_NAME = 'observer_stream_data'
+        AND INDEX_NAME = 'observer_stream_data_unique_user_stream_uid'))
+    THEN
+        DELETE duplicate
+            FROM observer_stream_data duplicate
+            JOIN observer_stream_data original
+                ON duplicate.user_id = original.user_id
+                AND duplicate.observer_stream_link_id =
+                    original.observer_stream_link_id
+                AND duplicate.uid = original.uid
+                AND duplicate.id > original.id;
+        
+        CREATE UNIQUE INDEX `observer_stream_data_unique_user_stream_uid`
+            ON observer_stream_data
+            (`user_id`, `observer_stream_link_id`, `uid`);
+    END IF;
+    
+    IF (SELECT EXISTS(
+        SELECT * FROM INFORMATION_SCHEMA.STATISTICS
+        WHERE TABLE_SCHEMA = 'ohmage'
+        AND TABLE_NAME = 'observer_stream_data'
+        AND INDEX_NAME = 'osd_duplicate_data_point_read'))
+    THEN
+        DROP INDEX `osd_duplicate_data_point_read` ON observer_stream_data;
+    END IF;
+
+    -- Add the index for paging through a campaign's survey responses.
+    IF (SELECT NOT EXISTS(
+        SELECT * FROM INFORMATION_SCHEMA.STATISTICS
+        WHERE TABLE_SCHEMA = 'ohmage'
+        AND TABLE_NAME = 'survey_response'
+        AND INDEX_NAME = 'survey_response_index_campaign_epoch_millis'))
+    THEN
+        CREATE INDEX `survey_response_index_campaign_epoch_millis`
+            ON survey_response
+            (`campaign_id`,`epoch_millis`);
+    END IF;
+
+    -- Add the full-text index for searching prompt responses.
+    IF (SELECT NOT EXISTS(
+        SELECT * FROM INFORMATION_SCHEMA.STATISTICS
+        WHERE TABLE_SCHEMA = 'ohmage'
+        AND TABLE_NAME = 'prompt_response'
+        AND INDEX_NAME = 'prompt_response_index_response_text'))
+    THEN
+        CREATE FULLTEXT INDEX `prompt_response_index_response_text`
+            ON prompt_response
+            (`response`);
+    END IF;
+
+    -- Add the table for the authentication tokens.
+    CREATE TABLE IF NOT EXISTS `user_auth_token` (
+        `token` char(36) NOT NULL,
+        `user_id` int(10) unsigned NOT NULL,
+        `last_used` bigint(20) NOT NULL,
+        PRIMARY KEY (`token`),
+        KEY `user_auth_token_last_used` (`last_used`),
+        CONSTRAINT `user_auth_token_fk_user_id`
+            FOREIGN KEY (`user_id`)
+            REFERENCES `user` (`id`)
+            ON DELETE CASCADE
+            ON UPDATE CASCADE
+    ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+    -- Add the table for the daily Mobility mode totals. It is filled in
+    -- for existing data the first time each day is read.
+    CREATE TABLE IF NOT EXISTS `mobility_mode_rollup` (
+        `id` int(10) unsigned NOT NULL AUTO_INCREMENT,
+        `user_id` int(10) unsigned NOT NULL,
+        `day` date NOT NULL,
+        `mode` varchar(30) NOT NULL,
+        `duration` bigint(20) NOT NULL,
+        `count` int(10) unsigned NOT NULL,
+        `first_time` bigint(20) NOT NULL,
+        `last_time` bigint(20) NOT NULL,
+        PRIMARY KEY (`id`),
+        UNIQUE KEY `mobility_mode_rollup_unique_user_day_mode`
+            (`user_id`,`day`,`mode`),
+        CONSTRAINT `mobility_mode_rollup_foreign_key_user_id`
+            FOREIGN KEY (`user_id`)
+            REFERENCES `user` (`id`)
+            ON DELETE CASCADE
+            ON UPDATE CASCADE
+    ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+    -- Add the table that records which days' Mobility mode totals have
+    -- been computed, so that a day is only filled in once.
+    CREATE TABLE IF NOT EXISTS `mobility_mode_rollup_day` (
+        `id` int(10) unsigned NOT NULL AUTO_INCREMENT,
+        `user_id` int(10) unsigned NOT NULL,
+        `day` date NOT NULL,
+        PRIMARY KEY (`id`),
+        UNIQUE KEY `mobility_mode_rollup_day_unique_user_day`
+            (`user_id`,`day`),
+        CONSTRAINT `mobility_mode_rollup_day_foreign_key_user_id`
+            FOREIGN KEY (`user_id`)
+            REFERENCES `user` (`id`)
+            ON DELETE CASCADE
+            ON UPDATE CASCADE
+    ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
     -- Set the result to 0.
     SET resultCode = 0;
 END //
@@ -110,6 +110,7 @@ public class Annotator {
 		SURVEY_INVALID_IMAGES_VALUE ("0628"),
 		SURVEY_INVALID_PROMPT_RESPONSE_SEARCH ("0629"),
 		SURVEY_INVALID_SURVEY_PROMPT_MAP ("0630"),
+		SURVEY_INVALID_CURSOR ("0631"),
 
 		CAMPAIGN_INVALID_ID ("0700"),
 		CAMPAIGN_INVALID_NAME ("0701"),
@@ -204,6 +205,7 @@ public class Annotator {
 		OBSERVER_INVALID_COLUMN_LIST ("1514"),
 		OBSERVER_INVALID_CHRONOLOGICAL_VALUE ("1515"),
 		OBSERVER_INVALID_PRESERVE_INVALID_POINTS ("1516"),
+		OBSERVER_INVALID_CURSOR ("1517"),
 		
 		VIDEO_INVALID_ID("1600"),
 
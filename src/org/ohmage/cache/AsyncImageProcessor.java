@@ -3,11 +3,20 @@ package org.ohmage.cache;
 import java.util.Collection;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.ohmage.domain.Image;
-import org.ohmage.domain.Image.Size;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.service.ImageServices;
@@ -17,226 +26,484 @@ import org.springframework.beans.factory.DisposableBean;
  * <p>
  * A background process for retrieving images that have not been processed and
  * processing them.
- * </p> 
+ * </p>
+ *
+ * <p>
+ * The unprocessed images are swept periodically and whenever
+ * {@link #signal()} is called, e.g. after images are uploaded. Each image is
+ * processed by one of a pool of workers, one per core, and an image is only
+ * queued once no matter how many sweeps find it before it is processed.
+ * </p>
  *
  * @author John Jenkins
  */
 public class AsyncImageProcessor
 	extends TimerTask
 	implements DisposableBean {
-	
+
 	/**
 	 * <p>
-	 * A task for processing the images that always runs as long as this thread
-	 * is running.
+	 * Processes one image and records how long it waited and how long it
+	 * took.
 	 * </p>
 	 *
 	 * @author John Jenkins
 	 */
-	public static class ImageProcessor extends Thread {
-		/**
-		 * Whether or not this process should continue running.
-		 */
-		private boolean running = true;
-		
-		/**
-		 * The number of milliseconds between each sweep of the images.
-		 */
-		private static final long MILLISECONDS_TO_SLEEP = 1000 * 60 * 5;
-		
-		/**
-		 * The queue of images to be processed.
-		 */
-		private final ConcurrentLinkedDeque<Image> imageQueue =
-			new ConcurrentLinkedDeque<Image>();
-		
-		/**
-		 * Adds an individual Image to be processed and moves it to the front
-		 * of the list.
-		 * 
-		 * @param image The Image to add to the list.
-		 */
-		public void queueImage(final Image image) {
-			imageQueue.addFirst(image);
-		}
-		
+	private final class ImageTask implements Runnable {
+		private final Image image;
+		private final long queuedTime;
+
 		/**
-		 * Adds a set of image Images whose data should be processed and
-		 * updated.
-		 * 
-		 * @param images The Images to add to the list.
+		 * Creates a task for an image.
+		 *
+		 * @param image The image to process.
+		 *
+		 * @param queuedTime The time at which the image was queued.
 		 */
-		protected synchronized void queueImages(
-			final Collection<Image> images) {
-			
-			// If the images are null, then we ignore it the same as if the
-			// list was empty.
-			if(images == null) {
-				return;
-			}
-			
-			// Remove duplicates.
-			images.removeAll(imageQueue);
-			
-			// Add the ones that were not already part of the list.
-			imageQueue.addAll(images);
+		private ImageTask(final Image image, final long queuedTime) {
+			this.image = image;
+			this.queuedTime = queuedTime;
 		}
 
 		/**
-		 * Shuts the process down by setting
-		 */
-		public void shutdown() {
-			running = false;
-			interrupt();
-		}
-		
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Thread#run()
+		 * Processes the image and then removes it from the set of queued
+		 * images, so that a later sweep may queue it again if it could not
+		 * be processed.
 		 */
 		@Override
 		public void run() {
-			while(running) {
-				// Attempt to retrieve the next image in the queue.
-				Image nextUrl = imageQueue.poll();
-				
-				// If we don't have any images to process, put ourselves to
-				// sleep for a while. This can be set relatively high because
-				// if new images are found we will be interrupted. It shouldn't
-				// be set too high in case the controller is shutdown, in which
-				// case we will sleep for too long never being interrupted.
-				if(nextUrl == null) {
-					try {
-						sleep(MILLISECONDS_TO_SLEEP);
-					}
-					catch(InterruptedException e) {
-						// Someone has woken us up, so we need to check the
-						// list.
-					}
-				}
-				// If an image Image was returned, process it.
-				else {
-					processImage(nextUrl);
-				}
-			}
-		}
-		
-		/**
-		 * Reads the original data, creates the sub-images and saves them.
-		 * 
-		 * @param image
-		 *        The image that should be validated and have its variants
-		 *        saved and processed.
-		 */
-		private void processImage(final Image image) {
-			// Validate that the image data is valid.
+			long start = System.currentTimeMillis();
+			long waited = start - queuedTime;
+			totalWaitMillis.addAndGet(waited);
+			updateMax(maxWaitMillis, waited);
+
+			boolean processed = false;
 			try {
-				image.validate();
+				processed = processImage(image);
 			}
-			catch(DomainException e) {
-				LOGGER
-					.error(
-						"The image data is invalid: " + 
-							image.getId().toString(),
-						e);
-				return;
+			finally {
+				queuedImages.remove(image.getId());
 			}
-			
-			// Create the sub-images.
-			try {
-				for(Size size : Image.getSizes()) {
-					// If the size of the image does not exist, create it.
-					if(! image.sizeExists(size)) {
-						image.saveImage(size);
-					}
-				}
-			}
-			catch(DomainException e) {
-				LOGGER
-					.error(
-						"One of the sizes of the image could not be " +
-							"created: " + 
-							image.getId().toString(),
-						e);
-				return;
+
+			long elapsed = System.currentTimeMillis() - start;
+			totalProcessMillis.addAndGet(elapsed);
+			updateMax(maxProcessMillis, elapsed);
+			if(processed) {
+				numProcessed.incrementAndGet();
 			}
-			
-			// Mark the image as processed.
-			try {
-				ImageServices.instance().markImageAsProcessed(image.getId());
+			else {
+				numFailed.incrementAndGet();
 			}
-			catch(ServiceException e) {
+
+			if(LOGGER.isDebugEnabled()) {
 				LOGGER
-					.error(
-						"The image could not be marked as processed: " + 
-							image.getId().toString(),
-						e);
-				return;
+					.debug(
+						"Processed image " +
+							image.getId().toString() +
+							" in " +
+							elapsed +
+							"ms after waiting " +
+							waited +
+							"ms; " +
+							getQueueDepth() +
+							" waiting.");
 			}
 		}
 	}
-	/**
-	 * The instance of the image processor.
-	 */
-	private final ImageProcessor processor = new ImageProcessor();
-	
+
 	/**
 	 * The logger for this class.
 	 */
-	private static final Logger LOGGER = 
+	private static final Logger LOGGER =
 		Logger.getLogger(AsyncImageProcessor.class);
-	
+
 	/**
-	 * The cleanup task that is periodically run to clean up expired 
-	 * registration requests.
+	 * The timer that periodically sweeps the unprocessed images.
 	 */
 	private static final Timer PROCESSOR = new Timer("Image Processor", true);
-	
+
 	/**
 	 * The number of milliseconds between each sweep of the images.
 	 */
 	private static final long MILLISECONDS_BETWEEN_CHECKING = 1000 * 30;
-	
+
+	/**
+	 * The number of milliseconds to wait for the workers to finish the images
+	 * they are processing when shutting down.
+	 */
+	private static final long MILLISECONDS_TO_TERMINATE = 1000 * 10;
+
+	/**
+	 * The singular instance of this class.
+	 */
+	private static AsyncImageProcessor instance;
+
+	/**
+	 * The workers that process the images.
+	 */
+	private final ThreadPoolExecutor workers;
+
+	/**
+	 * The IDs of the images that are queued or being processed and the time
+	 * at which each was queued.
+	 */
+	private final ConcurrentMap<UUID, Long> queuedImages =
+		new ConcurrentHashMap<UUID, Long>();
+
+	/**
+	 * Whether or not a sweep has been requested by {@link #signal()} but has
+	 * not started yet.
+	 */
+	private final AtomicBoolean sweepRequested = new AtomicBoolean(false);
+
+	private final AtomicLong numQueued = new AtomicLong(0);
+	private final AtomicLong numProcessed = new AtomicLong(0);
+	private final AtomicLong numFailed = new AtomicLong(0);
+	private final AtomicLong totalProcessMillis = new AtomicLong(0);
+	private final AtomicLong maxProcessMillis = new AtomicLong(0);
+	private final AtomicLong totalWaitMillis = new AtomicLong(0);
+	private final AtomicLong maxWaitMillis = new AtomicLong(0);
+
 	/**
 	 * Default constructor that will be called by Spring via reflection.
+	 *
+	 * @throws IllegalStateException An instance of this class already exists.
 	 */
 	private AsyncImageProcessor() {
-		LOGGER.info("Creating the image processing task.");
-		
+		if(instance != null) {
+			throw new IllegalStateException(
+				"An instance of this class already exists.");
+		}
+
+		int numWorkers = Runtime.getRuntime().availableProcessors();
+		LOGGER
+			.info(
+				"Creating the image processing task with " +
+					numWorkers +
+					" workers.");
+
+		final AtomicInteger numThreads = new AtomicInteger(0);
+		workers =
+			new ThreadPoolExecutor(
+				numWorkers,
+				numWorkers,
+				0,
+				TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread result =
+							new Thread(
+								runnable,
+								"Image Processor " +
+									numThreads.getAndIncrement());
+						result.setDaemon(true);
+						return result;
+					}
+				});
+
 		// Create the task that will be run periodically.
 		PROCESSOR.schedule(
-			this, 
-			MILLISECONDS_BETWEEN_CHECKING, 
+			this,
+			MILLISECONDS_BETWEEN_CHECKING,
 			MILLISECONDS_BETWEEN_CHECKING);
-		
-		// Start the image processing sub-process.
-		processor.start();
+
+		instance = this;
 	}
-	
+
+	/**
+	 * Returns the instance of this class.
+	 *
+	 * @return The instance of this class or null if it has not been created
+	 * 		   or has been shut down.
+	 */
+	public static AsyncImageProcessor instance() {
+		return instance;
+	}
+
+	/**
+	 * Requests that the unprocessed images be swept now rather than at the
+	 * next periodic sweep, e.g. because new images were uploaded. Requests
+	 * that are made before the requested sweep starts are combined.
+	 */
+	public static void signal() {
+		final AsyncImageProcessor processor = instance;
+		if(processor == null) {
+			return;
+		}
+
+		if(processor.sweepRequested.compareAndSet(false, true)) {
+			try {
+				PROCESSOR.schedule(
+					new TimerTask() {
+						@Override
+						public void run() {
+							processor.sweepRequested.set(false);
+							processor.sweep();
+						}
+					},
+					0);
+			}
+			catch(IllegalStateException e) {
+				// The processor has been shut down.
+				processor.sweepRequested.set(false);
+			}
+		}
+	}
+
 	/**
 	 * Retrieves the images that need to be processed, and adds them to its
 	 * queue.
 	 */
 	@Override
 	public void run() {
-		LOGGER.info("Queueing unprocessed images.");
-		try {
-			processor
-				.queueImages(
-					ImageServices.instance().getUnprocessedImages());
-			processor.interrupt();
+		sweep();
+	}
+
+	/**
+	 * Adds images to be processed. Images that are already queued or being
+	 * processed are ignored.
+	 *
+	 * @param images The images to add.
+	 *
+	 * @return The number of images that were added.
+	 */
+	public int queueImages(final Collection<Image> images) {
+		// If the images are null, then we ignore it the same as if the list
+		// was empty.
+		if(images == null) {
+			return 0;
 		}
-		catch(ServiceException e) {
-			LOGGER.error("Failed to retrieve the unprocessed images.", e);
+
+		int result = 0;
+		long now = System.currentTimeMillis();
+		for(Image image : images) {
+			UUID id = image.getId();
+			if(queuedImages.putIfAbsent(id, now) != null) {
+				continue;
+			}
+
+			try {
+				workers.execute(new ImageTask(image, now));
+				numQueued.incrementAndGet();
+				result++;
+			}
+			catch(RejectedExecutionException e) {
+				// The workers have been shut down.
+				queuedImages.remove(id);
+				break;
+			}
 		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the number of images that are waiting to be processed.
+	 *
+	 * @return The number of images.
+	 */
+	public int getQueueDepth() {
+		return workers.getQueue().size();
 	}
-	
+
 	/**
-	 * Stops the cleanup task.
+	 * Returns how long the image that has been queued the longest has been
+	 * waiting or being processed.
+	 *
+	 * @return The number of milliseconds or 0 if no images are queued.
+	 */
+	public long getBacklogAgeMillis() {
+		long oldest = Long.MAX_VALUE;
+		for(Long queuedTime : queuedImages.values()) {
+			if(queuedTime < oldest) {
+				oldest = queuedTime;
+			}
+		}
+
+		if(oldest == Long.MAX_VALUE) {
+			return 0;
+		}
+		return System.currentTimeMillis() - oldest;
+	}
+
+	/**
+	 * Returns the number of images that were added to the queue.
+	 *
+	 * @return The number of images.
+	 */
+	public long getNumQueued() {
+		return numQueued.get();
+	}
+
+	/**
+	 * Returns the number of images that were processed.
+	 *
+	 * @return The number of images.
+	 */
+	public long getNumProcessed() {
+		return numProcessed.get();
+	}
+
+	/**
+	 * Returns the number of images that could not be processed.
+	 *
+	 * @return The number of images.
+	 */
+	public long getNumFailed() {
+		return numFailed.get();
+	}
+
+	/**
+	 * Returns the average number of milliseconds it took to validate, resize,
+	 * and save an image.
+	 *
+	 * @return The average number of milliseconds.
+	 */
+	public double getAverageProcessMillis() {
+		long images = numProcessed.get() + numFailed.get();
+		if(images == 0) {
+			return 0;
+		}
+
+		return ((double) totalProcessMillis.get()) / images;
+	}
+
+	/**
+	 * Returns the longest number of milliseconds it took to validate, resize,
+	 * and save an image.
+	 *
+	 * @return The longest number of milliseconds.
+	 */
+	public long getMaxProcessMillis() {
+		return maxProcessMillis.get();
+	}
+
+	/**
+	 * Returns the average number of milliseconds an image waited in the
+	 * queue before it was processed.
+	 *
+	 * @return The average number of milliseconds.
+	 */
+	public double getAverageWaitMillis() {
+		long images = numProcessed.get() + numFailed.get();
+		if(images == 0) {
+			return 0;
+		}
+
+		return ((double) totalWaitMillis.get()) / images;
+	}
+
+	/**
+	 * Returns the longest number of milliseconds an image waited in the queue
+	 * before it was processed.
+	 *
+	 * @return The longest number of milliseconds.
+	 */
+	public long getMaxWaitMillis() {
+		return maxWaitMillis.get();
+	}
+
+	/**
+	 * Stops the sweeps and the workers, waiting briefly for the images that
+	 * are being processed.
 	 */
 	@Override
 	public void destroy() throws Exception {
-		processor.shutdown();
 		PROCESSOR.cancel();
+		instance = null;
+
+		workers.shutdownNow();
+		workers.awaitTermination(
+			MILLISECONDS_TO_TERMINATE,
+			TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Retrieves the images that need to be processed and queues the ones that
+	 * are not already queued.
+	 */
+	private void sweep() {
+		try {
+			int numAdded =
+				queueImages(ImageServices.instance().getUnprocessedImages());
+
+			LOGGER
+				.info(
+					"Queued " +
+						numAdded +
+						" unprocessed images; " +
+						getQueueDepth() +
+						" waiting, oldest queued " +
+						getBacklogAgeMillis() +
+						"ms ago, " +
+						numProcessed.get() +
+						" processed, " +
+						numFailed.get() +
+						" failed, averaging " +
+						Math.round(getAverageProcessMillis()) +
+						"ms each.");
+		}
+		catch(ServiceException e) {
+			LOGGER.error("Failed to retrieve the unprocessed images.", e);
+		}
+	}
+
+	/**
+	 * Reads the original data, creates the sub-images and saves them.
+	 *
+	 * @param image
+	 *        The image that should be validated and have its variants
+	 *        saved and processed.
+	 *
+	 * @return Whether or not the image was processed.
+	 */
+	private static boolean processImage(final Image image) {
+		// Create the sub-images. The original is decoded once for all of the
+		// missing sizes, which also validates that the image data is valid.
+		try {
+			image.saveImages(Image.getSizes());
+		}
+		catch(DomainException e) {
+			LOGGER
+				.error(
+					"The image data is invalid or one of the sizes of the " +
+						"image could not be created: " +
+						image.getId().toString(),
+					e);
+			return false;
+		}
+
+		// Mark the image as processed.
+		try {
+			ImageServices.instance().markImageAsProcessed(image.getId());
+		}
+		catch(ServiceException e) {
+			LOGGER
+				.error(
+					"The image could not be marked as processed: " +
+						image.getId().toString(),
+					e);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Raises a maximum to a new value if the new value is larger.
+	 *
+	 * @param max The maximum.
+	 *
+	 * @param value The new value.
+	 */
+	private static void updateMax(final AtomicLong max, final long value) {
+		long current;
+		while((current = max.get()) < value) {
+			if(max.compareAndSet(current, value)) {
+				break;
+			}
+		}
 	}
-}
\ No newline at end of file
+}
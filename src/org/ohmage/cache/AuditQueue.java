@@ -0,0 +1,931 @@
+package org.ohmage.cache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.ohmage.domain.PendingAudit;
+import org.ohmage.exception.DomainException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.service.AuditServices;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * <p>
+ * A bounded queue of audits waiting to be written to the database and the
+ * small pool of threads that write them in batches. Requests only have to
+ * add their audit to the queue, so a burst of requests no longer creates a
+ * thread and a transaction per request.
+ * </p>
+ *
+ * <p>
+ * When the queue is full, the {@link OverloadPolicy} decides whether the
+ * request waits for room, its audit is dropped, or its audit is appended to
+ * a local spill file. Spilled audits are written to the database once the
+ * writers are idle again, including those left over from a previous run.
+ * Audits that could not be written to the database are spilled as well, so
+ * they are retried later rather than lost.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class AuditQueue implements DisposableBean {
+	private static final Logger LOGGER = Logger.getLogger(AuditQueue.class);
+
+	/**
+	 * What to do with an audit when the queue is full.
+	 *
+	 * @author John Jenkins
+	 */
+	public static enum OverloadPolicy {
+		/**
+		 * The request waits until there is room in the queue.
+		 */
+		BLOCK,
+		/**
+		 * The audit is discarded and counted.
+		 */
+		DROP,
+		/**
+		 * The audit is appended to the spill file.
+		 */
+		SPILL;
+	}
+
+	/**
+	 * The number of milliseconds a writer waits for an audit before checking
+	 * for spilled audits and whether or not it should stop.
+	 */
+	private static final long MILLISECONDS_TO_POLL = 1000;
+	/**
+	 * The number of milliseconds to wait for the writers to finish when
+	 * shutting down.
+	 */
+	private static final long MILLISECONDS_TO_JOIN = 1000 * 10;
+	/**
+	 * The number of drops between each warning about dropped audits.
+	 */
+	private static final long DROPS_BETWEEN_WARNINGS = 1000;
+	/**
+	 * The suffix added to the spill file while it is being replayed.
+	 */
+	private static final String REPLAY_SUFFIX = ".replay";
+	/**
+	 * The suffix added to the replay file's name for the file that records
+	 * how many of its lines have been replayed.
+	 */
+	private static final String PROGRESS_SUFFIX = ".progress";
+	/**
+	 * The number of milliseconds to wait before replaying again after a
+	 * replay could not write all of its audits.
+	 */
+	private static final long MILLISECONDS_BETWEEN_FAILED_REPLAYS = 1000 * 60;
+	/**
+	 * The number of milliseconds between each summary of the queue's
+	 * activity.
+	 */
+	private static final long MILLISECONDS_BETWEEN_SUMMARIES = 1000 * 60;
+	/**
+	 * The character set used for the spill file.
+	 */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * A thread that takes batches of audits off of the queue and writes them.
+	 *
+	 * @author John Jenkins
+	 */
+	private final class AuditWriter extends Thread {
+		/**
+		 * Creates a new writer.
+		 *
+		 * @param number This writer's number, which is only used in its name.
+		 */
+		private AuditWriter(final int number) {
+			super("Audit Writer " + number);
+
+			setDaemon(true);
+		}
+
+		/**
+		 * Writes batches of audits until the queue has been shut down and
+		 * emptied.
+		 */
+		@Override
+		public void run() {
+			List<PendingAudit> batch = new ArrayList<PendingAudit>(batchSize);
+			while(true) {
+				PendingAudit audit;
+				try {
+					audit = queue.poll(MILLISECONDS_TO_POLL, TimeUnit.MILLISECONDS);
+				}
+				catch(InterruptedException e) {
+					audit = queue.poll();
+				}
+
+				if(audit == null) {
+					if(! running) {
+						return;
+					}
+
+					replaySpilledAudits();
+					logSummary();
+					continue;
+				}
+
+				batch.add(audit);
+				queue.drainTo(batch, batchSize - 1);
+
+				for(PendingAudit failed : write(batch)) {
+					spill(failed);
+				}
+				batch.clear();
+
+				logSummary();
+			}
+		}
+	}
+
+	private static AuditQueue instance;
+
+	private final BlockingQueue<PendingAudit> queue;
+	private final int batchSize;
+	private final OverloadPolicy overloadPolicy;
+	private final File spillFile;
+	private final File replayFile;
+	private final File progressFile;
+
+	private final AuditWriter[] writers;
+	private volatile boolean running = true;
+
+	/**
+	 * The lock for appending to the spill file and for moving it aside to be
+	 * replayed.
+	 */
+	private final Object spillLock = new Object();
+	private Writer spillWriter = null;
+	private final AtomicBoolean replaying = new AtomicBoolean(false);
+	private volatile long nextReplayMillis = 0;
+
+	private final AtomicLong numQueued = new AtomicLong(0);
+	private final AtomicLong numDropped = new AtomicLong(0);
+	private final AtomicLong numSpilled = new AtomicLong(0);
+	private final AtomicLong numWritten = new AtomicLong(0);
+	private final AtomicLong numFailed = new AtomicLong(0);
+	private final AtomicLong numBatches = new AtomicLong(0);
+	private final AtomicLong totalWriteMillis = new AtomicLong(0);
+	private final AtomicLong maxWriteMillis = new AtomicLong(0);
+
+	/**
+	 * When the next summary is due and the number of audits that had been
+	 * queued at the last one.
+	 */
+	private final AtomicLong nextSummaryMillis =
+		new AtomicLong(
+			System.currentTimeMillis() + MILLISECONDS_BETWEEN_SUMMARIES);
+	private volatile long numQueuedAtLastSummary = 0;
+
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 *
+	 * @param capacity The maximum number of audits that may wait to be
+	 * 				   written.
+	 *
+	 * @param numWriters The number of threads writing audits.
+	 *
+	 * @param batchSize The maximum number of audits a writer takes off of the
+	 * 					queue at once.
+	 *
+	 * @param overloadPolicy The name of the {@link OverloadPolicy}.
+	 *
+	 * @param spillFile The file that audits are spilled to, which is only
+	 * 					required for the {@link OverloadPolicy#SPILL} policy.
+	 *
+	 * @throws IllegalStateException An instance of this class already exists.
+	 *
+	 * @throws IllegalArgumentException One of the parameters is invalid.
+	 */
+	private AuditQueue(
+			final int capacity,
+			final int numWriters,
+			final int batchSize,
+			final String overloadPolicy,
+			final String spillFile) {
+
+		if(instance != null) {
+			throw new IllegalStateException(
+				"An instance of this class already exists.");
+		}
+
+		if(capacity < 1) {
+			throw new IllegalArgumentException(
+				"The capacity must be positive.");
+		}
+		if(numWriters < 1) {
+			throw new IllegalArgumentException(
+				"There must be at least one writer.");
+		}
+		if(batchSize < 1) {
+			throw new IllegalArgumentException(
+				"The batch size must be positive.");
+		}
+		if(overloadPolicy == null) {
+			throw new IllegalArgumentException(
+				"The overload policy is null.");
+		}
+
+		this.overloadPolicy =
+			OverloadPolicy.valueOf(overloadPolicy.trim().toUpperCase());
+		if((spillFile == null) || (spillFile.trim().length() == 0)) {
+			if(OverloadPolicy.SPILL.equals(this.overloadPolicy)) {
+				throw new IllegalArgumentException(
+					"The spill file is required to spill audits.");
+			}
+
+			this.spillFile = null;
+			this.replayFile = null;
+			this.progressFile = null;
+		}
+		else {
+			this.spillFile = new File(spillFile.trim());
+			this.replayFile =
+				new File(this.spillFile.getPath() + REPLAY_SUFFIX);
+			this.progressFile =
+				new File(this.replayFile.getPath() + PROGRESS_SUFFIX);
+		}
+
+		this.batchSize = batchSize;
+		queue = new ArrayBlockingQueue<PendingAudit>(capacity);
+
+		LOGGER
+			.info(
+				"Creating the audit queue with room for " +
+					capacity +
+					" audits, " +
+					numWriters +
+					" writers, and the " +
+					this.overloadPolicy +
+					" overload policy.");
+
+		writers = new AuditWriter[numWriters];
+		for(int i = 0; i < numWriters; i++) {
+			writers[i] = new AuditWriter(i);
+			writers[i].start();
+		}
+
+		instance = this;
+	}
+
+	/**
+	 * Returns the singleton instance of this class.
+	 *
+	 * @return The singleton instance of this class.
+	 */
+	public static AuditQueue instance() {
+		return instance;
+	}
+
+	/**
+	 * Adds an audit to the queue. If the queue is full, the overload policy
+	 * decides what happens to it.
+	 *
+	 * @param audit The audit to write.
+	 *
+	 * @return True if the audit was queued or spilled; false if it was
+	 * 		   dropped.
+	 */
+	public boolean add(final PendingAudit audit) {
+		if(audit == null) {
+			return false;
+		}
+
+		if(running && queue.offer(audit)) {
+			numQueued.incrementAndGet();
+			return true;
+		}
+
+		switch(overloadPolicy) {
+		case BLOCK:
+			if(running) {
+				try {
+					queue.put(audit);
+					numQueued.incrementAndGet();
+					return true;
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			break;
+
+		case SPILL:
+			if(spill(audit)) {
+				return true;
+			}
+			break;
+
+		default:
+			break;
+		}
+
+		long dropped = numDropped.incrementAndGet();
+		if((dropped % DROPS_BETWEEN_WARNINGS) == 1) {
+			LOGGER
+				.warn(
+					"The audit queue is full, and " +
+						dropped +
+						" audits have been dropped.");
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of audits waiting to be written.
+	 *
+	 * @return The number of audits in the queue.
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the number of audits that were added to the queue.
+	 *
+	 * @return The number of audits.
+	 */
+	public long getNumQueued() {
+		return numQueued.get();
+	}
+
+	/**
+	 * Returns the number of audits that were dropped because the queue was
+	 * full or they could not be spilled.
+	 *
+	 * @return The number of audits.
+	 */
+	public long getNumDropped() {
+		return numDropped.get();
+	}
+
+	/**
+	 * Returns the number of audits that were appended to the spill file.
+	 *
+	 * @return The number of audits.
+	 */
+	public long getNumSpilled() {
+		return numSpilled.get();
+	}
+
+	/**
+	 * Returns the number of audits that were written to the database.
+	 *
+	 * @return The number of audits.
+	 */
+	public long getNumWritten() {
+		return numWritten.get();
+	}
+
+	/**
+	 * Returns the number of audits that could not be written to the
+	 * database.
+	 *
+	 * @return The number of audits.
+	 */
+	public long getNumFailed() {
+		return numFailed.get();
+	}
+
+	/**
+	 * Returns the average number of milliseconds it took to write a batch.
+	 *
+	 * @return The average number of milliseconds.
+	 */
+	public double getAverageWriteMillis() {
+		long batches = numBatches.get();
+		if(batches == 0) {
+			return 0;
+		}
+
+		return ((double) totalWriteMillis.get()) / batches;
+	}
+
+	/**
+	 * Returns the longest number of milliseconds it took to write a batch.
+	 *
+	 * @return The longest number of milliseconds.
+	 */
+	public long getMaxWriteMillis() {
+		return maxWriteMillis.get();
+	}
+
+	/**
+	 * Stops accepting audits, waits for the writers to empty the queue, and
+	 * spills anything that is left over.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		LOGGER.info("Shutting down the audit queue.");
+		running = false;
+
+		for(AuditWriter writer : writers) {
+			writer.interrupt();
+		}
+		for(AuditWriter writer : writers) {
+			writer.join(MILLISECONDS_TO_JOIN);
+		}
+
+		List<PendingAudit> remaining = new ArrayList<PendingAudit>();
+		queue.drainTo(remaining);
+		if(remaining.size() > 0) {
+			LOGGER
+				.warn(
+					remaining.size() +
+						" audits were not written before shutting down.");
+			for(PendingAudit audit : remaining) {
+				if(! spill(audit)) {
+					numDropped.incrementAndGet();
+				}
+			}
+		}
+
+		synchronized(spillLock) {
+			closeSpillWriter();
+		}
+
+		nextSummaryMillis.set(0);
+		logSummary();
+
+		instance = null;
+	}
+
+	/**
+	 * Logs the queue's depth and counts and how long its writes have taken,
+	 * if a summary is due and audits have been queued or are waiting since
+	 * the last one. Only one writer logs each summary.
+	 */
+	private void logSummary() {
+		long now = System.currentTimeMillis();
+		long next = nextSummaryMillis.get();
+		if((now < next) ||
+			(! nextSummaryMillis.compareAndSet(
+				next,
+				now + MILLISECONDS_BETWEEN_SUMMARIES))) {
+
+			return;
+		}
+
+		long queued = getNumQueued();
+		int depth = getQueueDepth();
+		if((queued == numQueuedAtLastSummary) && (depth == 0)) {
+			return;
+		}
+		numQueuedAtLastSummary = queued;
+
+		LOGGER
+			.info(
+				"Queued " +
+					queued +
+					" audits; " +
+					depth +
+					" waiting, " +
+					getNumWritten() +
+					" written, " +
+					getNumFailed() +
+					" failed, " +
+					getNumDropped() +
+					" dropped, " +
+					getNumSpilled() +
+					" spilled, averaging " +
+					Math.round(getAverageWriteMillis()) +
+					"ms and at most " +
+					getMaxWriteMillis() +
+					"ms per batch.");
+	}
+
+	/**
+	 * Writes a batch of audits to the database and records how long it took.
+	 *
+	 * @param batch The audits to write.
+	 *
+	 * @return The audits that could not be written, which is empty if all of
+	 * 		   them were written.
+	 */
+	private List<PendingAudit> write(final List<PendingAudit> batch) {
+		long start = System.currentTimeMillis();
+
+		List<PendingAudit> failed = new ArrayList<PendingAudit>();
+		try {
+			AuditServices.instance().createAudits(batch);
+			numWritten.addAndGet(batch.size());
+		}
+		catch(ServiceException batchException) {
+			// The whole batch was rolled back, so write each audit on its own
+			// to keep one bad audit from losing the others.
+			LOGGER
+				.warn(
+					"The batch of audits could not be written, so they " +
+						"will be written individually.",
+					batchException);
+			for(PendingAudit audit : batch) {
+				try {
+					AuditServices
+						.instance()
+						.createAudits(Collections.singletonList(audit));
+					numWritten.incrementAndGet();
+				}
+				catch(ServiceException e) {
+					numFailed.incrementAndGet();
+					failed.add(audit);
+					LOGGER.error("Error while auditing the request.", e);
+				}
+			}
+		}
+		
+		long elapsed = System.currentTimeMillis() - start;
+		numBatches.incrementAndGet();
+		totalWriteMillis.addAndGet(elapsed);
+		long max;
+		while((max = maxWriteMillis.get()) < elapsed) {
+			if(maxWriteMillis.compareAndSet(max, elapsed)) {
+				break;
+			}
+		}
+
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER
+				.debug(
+					"Wrote " +
+						batch.size() +
+						" audits in " +
+						elapsed +
+						"ms; " +
+						queue.size() +
+						" waiting, " +
+						numWritten.get() +
+						" written, " +
+						numFailed.get() +
+						" failed, " +
+						numDropped.get() +
+						" dropped, " +
+						numSpilled.get() +
+						" spilled.");
+		}
+
+		return failed;
+	}
+
+	/**
+	 * Appends an audit to the spill file.
+	 *
+	 * @param audit The audit to spill.
+	 *
+	 * @return Whether or not the audit was spilled.
+	 */
+	private boolean spill(final PendingAudit audit) {
+		if(spillFile == null) {
+			return false;
+		}
+
+		StringWriter line = new StringWriter();
+		try {
+			JsonGenerator generator = JSON_FACTORY.createJsonGenerator(line);
+			audit.writeJson(generator);
+			generator.close();
+		}
+		catch(IOException e) {
+			LOGGER.error("The audit could not be serialized.", e);
+			return false;
+		}
+
+		synchronized(spillLock) {
+			try {
+				if(spillWriter == null) {
+					File parent = spillFile.getAbsoluteFile().getParentFile();
+					if((parent != null) && (! parent.exists())) {
+						parent.mkdirs();
+					}
+
+					spillWriter =
+						new OutputStreamWriter(
+							new FileOutputStream(spillFile, true),
+							CHARSET);
+				}
+
+				spillWriter.write(line.toString());
+				spillWriter.write('\n');
+				spillWriter.flush();
+			}
+			catch(IOException e) {
+				LOGGER
+					.error(
+						"The audit could not be spilled to: " +
+							spillFile.getAbsolutePath(),
+						e);
+				closeSpillWriter();
+				return false;
+			}
+		}
+
+		numSpilled.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Writes any spilled audits to the database. The spill file is moved
+	 * aside first, so new audits may continue to be spilled while it is
+	 * being replayed. Only one writer replays at a time.
+	 *
+	 * The number of lines that have been replayed is saved after each batch,
+	 * so a replay that was stopped by a shutdown resumes after the last
+	 * batch it wrote on the next start. Any audits in a batch that could not
+	 * be written are spilled again before that progress is saved, and the
+	 * rest of the file is left for a later replay.
+	 */
+	private void replaySpilledAudits() {
+		if((spillFile == null) ||
+			(System.currentTimeMillis() < nextReplayMillis) ||
+			(! replaying.compareAndSet(false, true))) {
+
+			return;
+		}
+
+		try {
+			if(! replayFile.exists()) {
+				synchronized(spillLock) {
+					if(! spillFile.exists()) {
+						return;
+					}
+
+					closeSpillWriter();
+					if(progressFile.exists() && (! progressFile.delete())) {
+						LOGGER
+							.error(
+								"The old replay progress could not be " +
+									"deleted: " +
+									progressFile.getAbsolutePath());
+						return;
+					}
+					if(! spillFile.renameTo(replayFile)) {
+						LOGGER
+							.error(
+								"The spill file could not be moved aside: " +
+									spillFile.getAbsolutePath());
+						return;
+					}
+				}
+			}
+
+			if(replay()) {
+				if(! replayFile.delete()) {
+					LOGGER
+						.error(
+							"The replayed spill file could not be deleted: " +
+								replayFile.getAbsolutePath());
+				}
+				else if(progressFile.exists() && (! progressFile.delete())) {
+					LOGGER
+						.error(
+							"The replay progress could not be deleted: " +
+								progressFile.getAbsolutePath());
+				}
+			}
+		}
+		finally {
+			replaying.set(false);
+		}
+	}
+
+	/**
+	 * Writes the audits in the replay file that have not already been
+	 * replayed, saving the progress after each batch.
+	 *
+	 * @return True if every line in the file has been replayed; false if the
+	 * 		   replay stopped early and the file must be kept.
+	 */
+	private boolean replay() {
+		long linesReplayed;
+		try {
+			linesReplayed = readProgress();
+		}
+		catch(IOException e) {
+			LOGGER
+				.error(
+					"The replay progress could not be read: " +
+						progressFile.getAbsolutePath(),
+					e);
+			nextReplayMillis =
+				System.currentTimeMillis() + MILLISECONDS_BETWEEN_FAILED_REPLAYS;
+			return false;
+		}
+
+		LOGGER
+			.info(
+				"Writing the spilled audits from: " +
+					replayFile.getAbsolutePath() +
+					(linesReplayed == 0 ?
+						"" :
+						" after line " + linesReplayed));
+
+		BufferedReader reader = null;
+		try {
+			reader =
+				new BufferedReader(
+					new InputStreamReader(
+						new FileInputStream(replayFile),
+						CHARSET));
+
+			long linesRead = 0;
+			List<PendingAudit> batch = new ArrayList<PendingAudit>(batchSize);
+			String line;
+			while(true) {
+				line = reader.readLine();
+				if(line != null) {
+					linesRead++;
+					if(linesRead <= linesReplayed) {
+						continue;
+					}
+
+					if(line.trim().length() > 0) {
+						try {
+							batch.add(
+								PendingAudit.fromJson(MAPPER.readTree(line)));
+						}
+						catch(IOException e) {
+							numFailed.incrementAndGet();
+							LOGGER.error("A spilled audit is not valid JSON.", e);
+						}
+						catch(DomainException e) {
+							numFailed.incrementAndGet();
+							LOGGER.error("A spilled audit is invalid.", e);
+						}
+					}
+
+					if(batch.size() < batchSize) {
+						continue;
+					}
+				}
+				else if(linesRead <= linesReplayed) {
+					return true;
+				}
+
+				// Write the batch and then record that its lines have been
+				// replayed. Any that failed are spilled again first, so they
+				// are neither lost nor written twice.
+				boolean allWritten = true;
+				List<PendingAudit> failedAudits =
+					batch.isEmpty() ?
+						Collections.<PendingAudit>emptyList() :
+						write(batch);
+				for(PendingAudit failed : failedAudits) {
+					allWritten = false;
+					if(! spill(failed)) {
+						nextReplayMillis =
+							System.currentTimeMillis() +
+								MILLISECONDS_BETWEEN_FAILED_REPLAYS;
+						return false;
+					}
+				}
+				batch.clear();
+
+				writeProgress(linesRead);
+				linesReplayed = linesRead;
+
+				if(! allWritten) {
+					nextReplayMillis =
+						System.currentTimeMillis() +
+							MILLISECONDS_BETWEEN_FAILED_REPLAYS;
+				}
+				if(line == null) {
+					return true;
+				}
+				if((! allWritten) || (! running)) {
+					return false;
+				}
+			}
+		}
+		catch(IOException e) {
+			LOGGER
+				.error(
+					"The spilled audits could not be replayed: " +
+						replayFile.getAbsolutePath(),
+					e);
+			nextReplayMillis =
+				System.currentTimeMillis() + MILLISECONDS_BETWEEN_FAILED_REPLAYS;
+			return false;
+		}
+		finally {
+			if(reader != null) {
+				try {
+					reader.close();
+				}
+				catch(IOException e) {
+					LOGGER.warn("Could not close the spill file.", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the number of lines of the replay file that have already been
+	 * replayed.
+	 *
+	 * @return The number of lines, which is 0 if none have been replayed.
+	 *
+	 * @throws IOException The progress file could not be read.
+	 */
+	private long readProgress() throws IOException {
+		if(! progressFile.exists()) {
+			return 0;
+		}
+
+		BufferedReader reader =
+			new BufferedReader(
+				new InputStreamReader(
+					new FileInputStream(progressFile),
+					CHARSET));
+		try {
+			String line = reader.readLine();
+			if(line == null) {
+				return 0;
+			}
+
+			return Long.parseLong(line.trim());
+		}
+		catch(NumberFormatException e) {
+			throw new IOException(
+				"The replay progress is not a number.",
+				e);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Saves the number of lines of the replay file that have been replayed.
+	 * The number is written to a temporary file that then replaces the
+	 * progress file, so a shutdown never leaves it half written.
+	 *
+	 * @param linesReplayed The number of lines.
+	 *
+	 * @throws IOException The progress could not be saved.
+	 */
+	private void writeProgress(final long linesReplayed) throws IOException {
+		File temporaryFile = new File(progressFile.getPath() + ".tmp");
+
+		FileOutputStream output = new FileOutputStream(temporaryFile);
+		try {
+			output.write(Long.toString(linesReplayed).getBytes(CHARSET));
+			output.getFD().sync();
+		}
+		finally {
+			output.close();
+		}
+
+		if(! temporaryFile.renameTo(progressFile)) {
+			throw new IOException(
+				"The replay progress could not be saved: " +
+					progressFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Closes the spill file's writer, if it is open. The caller must hold
+	 * the spill lock.
+	 */
+	private void closeSpillWriter() {
+		if(spillWriter == null) {
+			return;
+		}
+
+		try {
+			spillWriter.close();
+		}
+		catch(IOException e) {
+			LOGGER.warn("Could not close the spill file.", e);
+		}
+		spillWriter = null;
+	}
+}
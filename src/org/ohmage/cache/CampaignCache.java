@@ -0,0 +1,246 @@
+package org.ohmage.cache;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ohmage.domain.campaign.Campaign;
+import org.ohmage.exception.DomainException;
+
+/**
+ * <p>
+ * A cache of parsed campaign XML. Parsing a campaign builds an XML document
+ * and walks every survey, prompt, and condition, which is slow for large
+ * campaigns and was being done on every campaign read and survey upload.
+ * </p>
+ *
+ * <p>
+ * Each campaign is cached by its ID and creation timestamp, which changes
+ * whenever its XML changes, so a campaign whose XML was replaced is never
+ * returned. The cached campaigns are never handed out. Instead, each lookup
+ * returns a new {@link Campaign} that shares the cached campaign's surveys
+ * but has its own description, states, users, classes, and masks, which are
+ * not part of the XML.
+ * </p>
+ *
+ * <p>
+ * At most {@link #MAX_SIZE} campaigns are cached, and the least-recently
+ * used campaign is evicted first.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public final class CampaignCache {
+	/**
+	 * The maximum number of campaigns that are cached.
+	 */
+	public static final int MAX_SIZE = 256;
+
+	/**
+	 * A parsed campaign and the creation timestamp of the XML it was parsed
+	 * from.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Entry {
+		private final long creationTime;
+		private final Campaign campaign;
+
+		/**
+		 * Creates a new entry.
+		 *
+		 * @param creationTime
+		 *        The campaign's creation timestamp.
+		 *
+		 * @param campaign
+		 *        The parsed campaign.
+		 */
+		private Entry(final long creationTime, final Campaign campaign) {
+			this.creationTime = creationTime;
+			this.campaign = campaign;
+		}
+	}
+
+	/**
+	 * The parsed campaigns by their ID in least-recently used order. All
+	 * access is synchronized on the map.
+	 */
+	private static final Map<String, Entry> ENTRIES =
+		new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			/**
+			 * Evicts the least-recently used campaign once the cache is full.
+			 */
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<String, Entry> eldest) {
+
+				return size() > MAX_SIZE;
+			}
+		};
+
+	private static final AtomicLong NUM_HITS = new AtomicLong(0);
+	private static final AtomicLong NUM_MISSES = new AtomicLong(0);
+
+	/**
+	 * This class is never instantiated.
+	 */
+	private CampaignCache() {}
+
+	/**
+	 * Returns a campaign if its XML has already been parsed.
+	 *
+	 * @param id
+	 *        The campaign's unique identifier.
+	 *
+	 * @param description
+	 *        The campaign's current description, which may be null.
+	 *
+	 * @param runningState
+	 *        The campaign's current running state.
+	 *
+	 * @param privacyState
+	 *        The campaign's current privacy state.
+	 *
+	 * @param creationTimestamp
+	 *        The campaign's creation timestamp.
+	 *
+	 * @return The campaign or null if its XML has not been parsed.
+	 *
+	 * @throws DomainException
+	 *         One of the parameters is invalid.
+	 */
+	public static Campaign lookup(
+			final String id,
+			final String description,
+			final Campaign.RunningState runningState,
+			final Campaign.PrivacyState privacyState,
+			final Date creationTimestamp)
+			throws DomainException {
+
+		Entry entry;
+		synchronized(ENTRIES) {
+			entry = ENTRIES.get(id);
+		}
+
+		if(
+			(entry == null) ||
+			(entry.creationTime != creationTimestamp.getTime())) {
+
+			return null;
+		}
+
+		NUM_HITS.incrementAndGet();
+		return
+			new Campaign(
+				entry.campaign,
+				description,
+				runningState,
+				privacyState);
+	}
+
+	/**
+	 * Returns a campaign, parsing its XML only if it has not already been
+	 * parsed.
+	 *
+	 * @param id
+	 *        The campaign's unique identifier.
+	 *
+	 * @param description
+	 *        The campaign's current description, which may be null.
+	 *
+	 * @param runningState
+	 *        The campaign's current running state.
+	 *
+	 * @param privacyState
+	 *        The campaign's current privacy state.
+	 *
+	 * @param creationTimestamp
+	 *        The campaign's creation timestamp.
+	 *
+	 * @param xml
+	 *        The campaign's XML.
+	 *
+	 * @return The campaign.
+	 *
+	 * @throws DomainException
+	 *         One of the parameters is invalid or the XML is invalid.
+	 */
+	public static Campaign get(
+			final String id,
+			final String description,
+			final Campaign.RunningState runningState,
+			final Campaign.PrivacyState privacyState,
+			final Date creationTimestamp,
+			final String xml)
+			throws DomainException {
+
+		Campaign result =
+			lookup(
+				id,
+				description,
+				runningState,
+				privacyState,
+				creationTimestamp);
+
+		if(result == null) {
+			NUM_MISSES.incrementAndGet();
+
+			// The ID is read from the XML, as it always has been.
+			result =
+				new Campaign(
+					null,
+					null,
+					description,
+					runningState,
+					privacyState,
+					creationTimestamp,
+					xml);
+
+			// Cache a copy, so the caller may modify the result.
+			Campaign parsed =
+				new Campaign(result, null, runningState, privacyState);
+			synchronized(ENTRIES) {
+				ENTRIES
+					.put(
+						id,
+						new Entry(creationTimestamp.getTime(), parsed));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Removes a campaign. This must be called whenever a campaign's XML is
+	 * updated or the campaign is deleted.
+	 *
+	 * @param id
+	 *        The campaign's unique identifier.
+	 */
+	public static void remove(final String id) {
+		synchronized(ENTRIES) {
+			ENTRIES.remove(id);
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that found a parsed campaign.
+	 *
+	 * @return The number of hits.
+	 */
+	public static long getNumHits() {
+		return NUM_HITS.get();
+	}
+
+	/**
+	 * Returns the number of times a campaign had to be parsed.
+	 *
+	 * @return The number of misses.
+	 */
+	public static long getNumMisses() {
+		return NUM_MISSES.get();
+	}
+}
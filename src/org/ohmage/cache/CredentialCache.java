@@ -0,0 +1,345 @@
+package org.ohmage.cache;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * A short-lived cache of the username and password combinations that were
+ * recently verified against their BCrypt hash. Clients that send a username
+ * and password with every request would otherwise pay for a BCrypt hash on
+ * each one.
+ * </p>
+ *
+ * <p>
+ * The plaintext password is never kept. Instead, each user's entry holds a
+ * keyed hash, HMAC-SHA256, of their username and password and the BCrypt
+ * hash that it was verified against. The key is random and only lives in
+ * memory, so the entries are useless outside of this process. An entry only
+ * stands in for BCrypt, so the BCrypt hash must still be checked against the
+ * user's current one; if the password was changed elsewhere in the meantime,
+ * that check fails and the entry is removed.
+ * </p>
+ *
+ * <p>
+ * Entries live for {@link #LIFETIME} milliseconds, and at most
+ * {@link #MAX_SIZE} users are cached, with the least-recently verified
+ * evicted first.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public final class CredentialCache {
+	private static final Logger LOGGER =
+		Logger.getLogger(CredentialCache.class);
+
+	/**
+	 * The number of milliseconds a verified password is cached.
+	 */
+	public static final long LIFETIME = 1000 * 60 * 5;
+	/**
+	 * The maximum number of users whose password is cached.
+	 */
+	public static final int MAX_SIZE = 10000;
+	/**
+	 * The number of milliseconds between each report of the hit rate.
+	 */
+	private static final long REPORT_PERIOD = 1000 * 60 * 10;
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * A user's verified password.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Entry {
+		private final byte[] digest;
+		private final String hashedPassword;
+		private final long expirationTime;
+
+		/**
+		 * Creates a new entry.
+		 *
+		 * @param digest
+		 *        The keyed hash of the username and password.
+		 *
+		 * @param hashedPassword
+		 *        The BCrypt hash the password was verified against.
+		 *
+		 * @param expirationTime
+		 *        The time at which this entry expires.
+		 */
+		private Entry(
+				final byte[] digest,
+				final String hashedPassword,
+				final long expirationTime) {
+
+			this.digest = digest;
+			this.hashedPassword = hashedPassword;
+			this.expirationTime = expirationTime;
+		}
+	}
+
+	/**
+	 * The key for the keyed hash.
+	 */
+	private static final SecretKeySpec KEY = createKey();
+
+	/**
+	 * A MAC per thread, because they are not thread-safe.
+	 */
+	private static final ThreadLocal<Mac> MAC = new ThreadLocal<Mac>() {
+		/**
+		 * Creates a MAC that uses the key.
+		 */
+		@Override
+		protected Mac initialValue() {
+			try {
+				Mac result = Mac.getInstance(MAC_ALGORITHM);
+				result.init(KEY);
+				return result;
+			}
+			catch(GeneralSecurityException e) {
+				throw new IllegalStateException(
+					"The MAC could not be created.",
+					e);
+			}
+		}
+	};
+
+	/**
+	 * The entries by username in least-recently verified order. All access
+	 * is synchronized on the map.
+	 */
+	private static final Map<String, Entry> ENTRIES =
+		new LinkedHashMap<String, Entry>(1024, 0.75f, false) {
+			private static final long serialVersionUID = 1L;
+
+			/**
+			 * Evicts the least-recently verified entry once the cache is
+			 * full.
+			 */
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<String, Entry> eldest) {
+
+				return size() > MAX_SIZE;
+			}
+		};
+
+	private static final AtomicLong NUM_HITS = new AtomicLong(0);
+	private static final AtomicLong NUM_MISSES = new AtomicLong(0);
+	private static final AtomicLong LAST_REPORT =
+		new AtomicLong(System.currentTimeMillis());
+
+	/**
+	 * This class is never instantiated.
+	 */
+	private CredentialCache() {}
+
+	/**
+	 * Returns the BCrypt hash of a user's password if the same username and
+	 * password were verified recently.
+	 *
+	 * @param username
+	 *        The user's username.
+	 *
+	 * @param password
+	 *        The user's plaintext password.
+	 *
+	 * @return The BCrypt hash that the password was verified against or null
+	 *         if it was not verified recently.
+	 */
+	public static String lookup(
+			final String username,
+			final String password) {
+
+		if((username == null) || (password == null)) {
+			return null;
+		}
+
+		long currentTime = System.currentTimeMillis();
+
+		Entry entry;
+		synchronized(ENTRIES) {
+			entry = ENTRIES.get(username);
+
+			if((entry != null) && (entry.expirationTime <= currentTime)) {
+				ENTRIES.remove(username);
+				entry = null;
+			}
+		}
+
+		String result = null;
+		if(
+			(entry != null) &&
+			MessageDigest.isEqual(entry.digest, digest(username, password))) {
+
+			result = entry.hashedPassword;
+			NUM_HITS.incrementAndGet();
+		}
+		else {
+			NUM_MISSES.incrementAndGet();
+		}
+
+		report(currentTime);
+		return result;
+	}
+
+	/**
+	 * Caches a username and password that was just verified.
+	 *
+	 * @param username
+	 *        The user's username.
+	 *
+	 * @param password
+	 *        The user's plaintext password.
+	 *
+	 * @param hashedPassword
+	 *        The BCrypt hash that the password was verified against.
+	 */
+	public static void add(
+			final String username,
+			final String password,
+			final String hashedPassword) {
+
+		if((username == null) || (password == null)) {
+			return;
+		}
+
+		Entry entry =
+			new Entry(
+				digest(username, password),
+				hashedPassword,
+				System.currentTimeMillis() + LIFETIME);
+
+		synchronized(ENTRIES) {
+			// Remove it first, so it moves to the end of the eviction order.
+			ENTRIES.remove(username);
+			ENTRIES.put(username, entry);
+		}
+	}
+
+	/**
+	 * Removes a user's cached password. This must be called whenever their
+	 * password is changed or reset or their account is disabled or deleted.
+	 *
+	 * @param username
+	 *        The user's username.
+	 */
+	public static void removeUser(final String username) {
+		synchronized(ENTRIES) {
+			ENTRIES.remove(username);
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that found a verified password.
+	 *
+	 * @return The number of hits.
+	 */
+	public static long getNumHits() {
+		return NUM_HITS.get();
+	}
+
+	/**
+	 * Returns the number of lookups that did not find a verified password.
+	 *
+	 * @return The number of misses.
+	 */
+	public static long getNumMisses() {
+		return NUM_MISSES.get();
+	}
+
+	/**
+	 * Returns the fraction of lookups that found a verified password.
+	 *
+	 * @return The hit rate between 0 and 1 or 0 if there have not been any
+	 *         lookups.
+	 */
+	public static double getHitRate() {
+		long hits = NUM_HITS.get();
+		long total = hits + NUM_MISSES.get();
+
+		return (total == 0) ? 0 : ((double) hits) / total;
+	}
+
+	/**
+	 * Returns the number of users whose password is cached.
+	 *
+	 * @return The number of cached users.
+	 */
+	public static int getSize() {
+		synchronized(ENTRIES) {
+			return ENTRIES.size();
+		}
+	}
+
+	/**
+	 * Logs the hit rate if it hasn't been logged for a while.
+	 *
+	 * @param currentTime
+	 *        The current time.
+	 */
+	private static void report(final long currentTime) {
+		long lastReport = LAST_REPORT.get();
+		if(
+			(currentTime - lastReport >= REPORT_PERIOD) &&
+			LAST_REPORT.compareAndSet(lastReport, currentTime)) {
+
+			LOGGER
+				.info(
+					"Credential cache: " +
+						getSize() + " users, " +
+						NUM_HITS.get() + " hits, " +
+						NUM_MISSES.get() + " misses, " +
+						String.format("%.1f", getHitRate() * 100) +
+						"% hit rate");
+		}
+	}
+
+	/**
+	 * Computes the keyed hash of a username and password.
+	 *
+	 * @param username
+	 *        The user's username.
+	 *
+	 * @param password
+	 *        The user's plaintext password.
+	 *
+	 * @return The keyed hash.
+	 */
+	private static byte[] digest(
+			final String username,
+			final String password) {
+
+		Mac mac = MAC.get();
+		mac.update(username.getBytes(CHARSET));
+		// Separate the two, so they cannot be shifted into one another.
+		mac.update((byte) 0);
+		return mac.doFinal(password.getBytes(CHARSET));
+	}
+
+	/**
+	 * Creates a random key for the keyed hash.
+	 *
+	 * @return The key.
+	 */
+	private static SecretKeySpec createKey() {
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		return new SecretKeySpec(key, MAC_ALGORITHM);
+	}
+}
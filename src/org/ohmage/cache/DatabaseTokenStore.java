@@ -0,0 +1,324 @@
+package org.ohmage.cache;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.ohmage.domain.User;
+import org.ohmage.exception.DomainException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * <p>
+ * A {@link TokenStore} that keeps the tokens in the database, so they survive
+ * a restart and are shared by every server using the same database.
+ * </p>
+ *
+ * <p>
+ * Only the token, the user's database ID, and the last time the token was
+ * used are stored; the user's username and password are read from the user
+ * table, so deleting a user deletes their tokens. Uses of a token are
+ * written behind: they are collected in memory and written in one batch
+ * each time the tokens are expired.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class DatabaseTokenStore implements TokenStore {
+	private static final Logger LOGGER =
+		Logger.getLogger(DatabaseTokenStore.class);
+
+	// Adds a new token.
+	private static final String SQL_INSERT_TOKEN =
+		"INSERT INTO user_auth_token(token, user_id, last_used) " +
+		"SELECT ?, id, ? " +
+		"FROM user " +
+		"WHERE username = ?";
+
+	// Retrieves a token's user and last use.
+	private static final String SQL_GET_TOKEN =
+		"SELECT u.username, u.password, uat.last_used " +
+		"FROM user u, user_auth_token uat " +
+		"WHERE uat.token = ? " +
+		"AND u.id = uat.user_id";
+
+	// Updates the last time a token was used.
+	private static final String SQL_UPDATE_LAST_USED =
+		"UPDATE user_auth_token " +
+		"SET last_used = GREATEST(last_used, ?) " +
+		"WHERE token = ?";
+
+	// Deletes a token.
+	private static final String SQL_DELETE_TOKEN =
+		"DELETE FROM user_auth_token " +
+		"WHERE token = ?";
+
+	// Deletes all of a user's tokens.
+	private static final String SQL_DELETE_USER_TOKENS =
+		"DELETE uat " +
+		"FROM user u, user_auth_token uat " +
+		"WHERE u.username = ? " +
+		"AND u.id = uat.user_id";
+
+	// Deletes the tokens that have expired.
+	private static final String SQL_DELETE_EXPIRED_TOKENS =
+		"DELETE FROM user_auth_token " +
+		"WHERE last_used < ?";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	/**
+	 * The uses of each token that have not yet been written.
+	 */
+	private final ConcurrentMap<String, Long> pendingUses =
+		new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Creates a store that uses the given database.
+	 *
+	 * @param dataSource
+	 *        The database's data source.
+	 */
+	public DatabaseTokenStore(final DataSource dataSource) {
+		if(dataSource == null) {
+			throw new IllegalArgumentException("The data source is null.");
+		}
+
+		jdbcTemplate = new JdbcTemplate(dataSource);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#put(java.lang.String, org.ohmage.cache.TokenStore.Token)
+	 */
+	@Override
+	public void put(
+			final String token,
+			final Token value)
+			throws DomainException {
+
+		try {
+			int numRows =
+				jdbcTemplate.update(
+					SQL_INSERT_TOKEN,
+					token,
+					value.getLastUsed(),
+					value.getUser().getUsername());
+
+			if(numRows != 1) {
+				throw new DomainException(
+					"The user does not exist: " +
+						value.getUser().getUsername());
+			}
+		}
+		catch(DataAccessException e) {
+			throw new DomainException(
+				"Error executing SQL '" +
+					SQL_INSERT_TOKEN +
+					"' with parameters: " +
+					token + ", " +
+					value.getLastUsed() + ", " +
+					value.getUser().getUsername(),
+				e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#get(java.lang.String)
+	 */
+	@Override
+	public Token get(final String token) {
+		final long currentTime = System.currentTimeMillis();
+
+		List<Token> result;
+		try {
+			result =
+				jdbcTemplate.query(
+					SQL_GET_TOKEN,
+					new Object[] { token },
+					new RowMapper<Token>() {
+						/**
+						 * Creates the logged-in user and their token.
+						 */
+						@Override
+						public Token mapRow(
+								final ResultSet rs,
+								final int rowNum)
+								throws SQLException {
+
+							try {
+								User user =
+									new User(
+										rs.getString("username"),
+										rs.getString("password"),
+										false);
+								user.setToken(token);
+								user.isLoggedIn(true);
+
+								return
+									new Token(
+										user,
+										rs.getLong("last_used"),
+										currentTime);
+							}
+							catch(DomainException e) {
+								throw new SQLException(
+									"The user could not be created.",
+									e);
+							}
+						}
+					});
+		}
+		catch(DataAccessException e) {
+			LOGGER
+				.error(
+					"Error executing SQL '" +
+						SQL_GET_TOKEN +
+						"' with parameter: " +
+						token,
+					e);
+			return null;
+		}
+
+		if(result.isEmpty()) {
+			return null;
+		}
+
+		// Include any use that has not yet been written.
+		Token value = result.get(0);
+		Long pendingUse = pendingUses.get(token);
+		if(pendingUse != null) {
+			value.touch(pendingUse, 0);
+		}
+
+		return value;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#touch(java.lang.String, long)
+	 */
+	@Override
+	public void touch(final String token, final long lastUsed) {
+		pendingUses.put(token, lastUsed);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#remove(java.lang.String)
+	 */
+	@Override
+	public void remove(final String token) {
+		pendingUses.remove(token);
+
+		try {
+			jdbcTemplate.update(SQL_DELETE_TOKEN, token);
+		}
+		catch(DataAccessException e) {
+			LOGGER
+				.error(
+					"Error executing SQL '" +
+						SQL_DELETE_TOKEN +
+						"' with parameter: " +
+						token,
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#removeUser(java.lang.String)
+	 */
+	@Override
+	public void removeUser(final String username) {
+		try {
+			jdbcTemplate.update(SQL_DELETE_USER_TOKENS, username);
+		}
+		catch(DataAccessException e) {
+			LOGGER
+				.error(
+					"Error executing SQL '" +
+						SQL_DELETE_USER_TOKENS +
+						"' with parameter: " +
+						username,
+					e);
+		}
+	}
+
+	/**
+	 * Writes the pending uses of each token and then deletes the tokens that
+	 * have expired.
+	 */
+	@Override
+	public void expire(final long currentTime) {
+		flush();
+
+		try {
+			int numRows =
+				jdbcTemplate.update(
+					SQL_DELETE_EXPIRED_TOKENS,
+					currentTime - UserBin.LIFETIME);
+
+			if(LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Deleted " + numRows + " expired tokens.");
+			}
+		}
+		catch(DataAccessException e) {
+			LOGGER
+				.error(
+					"Error executing SQL '" +
+						SQL_DELETE_EXPIRED_TOKENS +
+						"' with parameter: " +
+						(currentTime - UserBin.LIFETIME),
+					e);
+		}
+	}
+
+	/**
+	 * Writes the pending uses of each token in a single batch.
+	 */
+	private void flush() {
+		List<Object[]> args = new ArrayList<Object[]>(pendingUses.size());
+
+		Iterator<Map.Entry<String, Long>> uses =
+			pendingUses.entrySet().iterator();
+		while(uses.hasNext()) {
+			Map.Entry<String, Long> use = uses.next();
+
+			// Only remove the use if it hasn't been updated in the meantime.
+			// If it has, it will be written next time.
+			if(pendingUses.remove(use.getKey(), use.getValue())) {
+				args.add(new Object[] { use.getValue(), use.getKey() });
+			}
+		}
+
+		if(args.isEmpty()) {
+			return;
+		}
+
+		try {
+			jdbcTemplate.batchUpdate(SQL_UPDATE_LAST_USED, args);
+		}
+		catch(DataAccessException e) {
+			LOGGER
+				.error(
+					"Error executing SQL '" +
+						SQL_UPDATE_LAST_USED +
+						"' for " +
+						args.size() +
+						" tokens.",
+					e);
+		}
+	}
+}
@@ -0,0 +1,313 @@
+package org.ohmage.cache;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.DomainException;
+
+/**
+ * <p>
+ * A {@link TokenStore} that only keeps the tokens in memory. It is the
+ * {@link UserBin}'s near-cache and, when no other store is configured, the
+ * only store.
+ * </p>
+ *
+ * <p>
+ * None of the operations take a global lock. Tokens are kept in a
+ * {@link ConcurrentHashMap}, whose reads never block and whose writes only
+ * lock a single bin, and each user's tokens are indexed by their username,
+ * so removing a user only touches that user's tokens. Expired tokens are
+ * removed by a timing wheel, which only looks at the tokens that are due to
+ * expire instead of every token.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class MemoryTokenStore implements TokenStore {
+	private static final Logger LOGGER =
+		Logger.getLogger(MemoryTokenStore.class);
+
+	/**
+	 * The number of milliseconds each slot of the timing wheel covers.
+	 */
+	private static final long TICK_LENGTH = UserBin.EXECUTION_PERIOD;
+
+	/**
+	 * The number of slots in the timing wheel. Every token expires within
+	 * {@link UserBin#LIFETIME} milliseconds of being used, so this is enough
+	 * slots that the wheel never wraps onto a token before it is due, plus
+	 * one for rounding up.
+	 */
+	private static final int NUM_SLOTS =
+		(int) (UserBin.LIFETIME / TICK_LENGTH) + 2;
+
+	// A map of tokens to users and the time that their token was last used.
+	private final ConcurrentMap<String, Token> tokens =
+		new ConcurrentHashMap<String, Token>(1024, 0.75f, 64);
+	// A map of usernames to all of that user's tokens.
+	private final ConcurrentMap<String, Set<String>> userTokens =
+		new ConcurrentHashMap<String, Set<String>>(1024, 0.75f, 64);
+	// The timing wheel. Each slot holds the tokens that may expire during one
+	// tick.
+	private final Set<String>[] wheel = createWheel();
+	// The last tick of the wheel that was processed.
+	private long lastTick = System.currentTimeMillis() / TICK_LENGTH;
+
+	/**
+	 * Creates an empty store.
+	 */
+	public MemoryTokenStore() {
+		// Do nothing.
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#put(java.lang.String, org.ohmage.cache.TokenStore.Token)
+	 */
+	@Override
+	public void put(
+			final String token,
+			final Token value)
+			throws DomainException {
+
+		if(tokens.putIfAbsent(token, value) != null) {
+			throw new DomainException("UUID collision: " + token);
+		}
+
+		index(value.getUser().getUsername(), token);
+		schedule(token, value.getLastUsed() + UserBin.LIFETIME);
+	}
+
+	/**
+	 * Adds a token that was read from another store. Unlike
+	 * {@link #put(String, Token)}, this replaces the token if it is already
+	 * known.
+	 *
+	 * @param token
+	 *        The token.
+	 *
+	 * @param value
+	 *        The token's user and last use.
+	 */
+	public void load(final String token, final Token value) {
+		tokens.put(token, value);
+
+		index(value.getUser().getUsername(), token);
+		schedule(token, value.getLastUsed() + UserBin.LIFETIME);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#get(java.lang.String)
+	 */
+	@Override
+	public Token get(final String token) {
+		return tokens.get(token);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#touch(java.lang.String, long)
+	 */
+	@Override
+	public void touch(final String token, final long lastUsed) {
+		Token value = tokens.get(token);
+		if(value != null) {
+			value.touch(lastUsed, 0);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#remove(java.lang.String)
+	 */
+	@Override
+	public void remove(final String token) {
+		Token value = tokens.remove(token);
+		if(value != null) {
+			unindex(value.getUser().getUsername(), token);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.cache.TokenStore#removeUser(java.lang.String)
+	 */
+	@Override
+	public void removeUser(final String username) {
+		Set<String> removed = userTokens.remove(username);
+		if(removed != null) {
+			for(String token : removed) {
+				tokens.remove(token);
+			}
+		}
+	}
+
+	/**
+	 * Turns the timing wheel to the current time. Each slot that has come due
+	 * is emptied, its expired tokens are removed, and the tokens that were
+	 * used since they were scheduled are moved to the slot in which they will
+	 * now expire.
+	 */
+	@Override
+	public synchronized void expire(final long currentTime) {
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER
+				.debug("Number of users before expiration: " + tokens.size());
+		}
+
+		long currentTick = currentTime / TICK_LENGTH;
+
+		// Never process more than one full turn of the wheel.
+		long firstTick = Math.max(lastTick + 1, currentTick - NUM_SLOTS + 1);
+		for(long tick = firstTick; tick <= currentTick; tick++) {
+			Iterator<String> slot = wheel[slot(tick)].iterator();
+			while(slot.hasNext()) {
+				String token = slot.next();
+				slot.remove();
+
+				Token value = tokens.get(token);
+				if(value == null) {
+					continue;
+				}
+				else if(value.isExpired(currentTime)) {
+					if(LOGGER.isDebugEnabled()) {
+						LOGGER.debug("Removing user with Id " + token);
+					}
+
+					if(tokens.remove(token, value)) {
+						unindex(value.getUser().getUsername(), token);
+					}
+				}
+				else {
+					long expirationTick =
+						Math.max(
+							tick(value.getLastUsed() + UserBin.LIFETIME),
+							currentTick + 1);
+					wheel[slot(expirationTick)].add(token);
+				}
+			}
+		}
+		lastTick = currentTick;
+
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Number of users after expiration: " + tokens.size());
+		}
+	}
+
+	/**
+	 * Adds a token to its user's set of tokens.
+	 *
+	 * @param username
+	 *        The user's username.
+	 *
+	 * @param token
+	 *        The token.
+	 */
+	private void index(final String username, final String token) {
+		while(true) {
+			Set<String> currTokens = userTokens.get(username);
+			if(currTokens == null) {
+				Set<String> newTokens =
+					Collections.newSetFromMap(
+						new ConcurrentHashMap<String, Boolean>(4));
+				currTokens = userTokens.putIfAbsent(username, newTokens);
+				if(currTokens == null) {
+					currTokens = newTokens;
+				}
+			}
+
+			currTokens.add(token);
+
+			// If the set was removed while this token was being added to it,
+			// add the token again to whichever set replaced it.
+			if(userTokens.get(username) == currTokens) {
+				return;
+			}
+
+			// If the user was removed in the meantime, the token must go
+			// with them.
+			if(! tokens.containsKey(token)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Removes a token from its user's set of tokens, and removes the set if
+	 * it is empty.
+	 *
+	 * @param username
+	 *        The user's username.
+	 *
+	 * @param token
+	 *        The token.
+	 */
+	private void unindex(final String username, final String token) {
+		Set<String> currTokens = userTokens.get(username);
+		if(currTokens != null) {
+			currTokens.remove(token);
+			if(currTokens.isEmpty()) {
+				userTokens.remove(username, currTokens);
+			}
+		}
+	}
+
+	/**
+	 * Schedules a token to be checked once it may have expired.
+	 *
+	 * @param token
+	 *        The token.
+	 *
+	 * @param expirationTime
+	 *        The time at which the token will expire if it is not used.
+	 */
+	private void schedule(final String token, final long expirationTime) {
+		wheel[slot(tick(expirationTime))].add(token);
+	}
+
+	/**
+	 * Returns the tick of the wheel during which a time falls, rounded up, so
+	 * that a token is never checked before it is due.
+	 *
+	 * @param time
+	 *        The time.
+	 *
+	 * @return The tick.
+	 */
+	private static long tick(final long time) {
+		return (time / TICK_LENGTH) + 1;
+	}
+
+	/**
+	 * Returns the slot of the wheel for a tick.
+	 *
+	 * @param tick
+	 *        The tick.
+	 *
+	 * @return The index of the slot.
+	 */
+	private static int slot(final long tick) {
+		return (int) (tick % NUM_SLOTS);
+	}
+
+	/**
+	 * Creates the empty slots of the timing wheel.
+	 *
+	 * @return The timing wheel.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Set<String>[] createWheel() {
+		Set<String>[] result = new Set[NUM_SLOTS];
+		for(int i = 0; i < NUM_SLOTS; i++) {
+			result[i] =
+				Collections.newSetFromMap(
+					new ConcurrentHashMap<String, Boolean>());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,272 @@
+package org.ohmage.cache;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.ohmage.exception.CacheMissException;
+import org.ohmage.exception.DomainException;
+import org.ohmage.exception.ServiceException;
+import org.ohmage.service.UserMediaServices;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * <p>
+ * Media that is uploaded is first written to a staging directory under its
+ * root media directory, the rows that reference it are committed, and then
+ * it is renamed into its final directory. This task periodically cleans up
+ * the staging directories that were left behind.
+ * </p>
+ *
+ * <p>
+ * A staged file whose media has a URL in the database was committed, but the
+ * server stopped or the rename failed before it was moved, so it is moved to
+ * where its URL points. Any other staged file belongs to an upload that was
+ * never committed, so it is deleted.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public final class StagedMediaReconciler
+	extends TimerTask
+	implements DisposableBean {
+
+	/**
+	 * The logger.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(StagedMediaReconciler.class);
+
+	/**
+	 * The name of the staging directory in each of the root media
+	 * directories. It is not numeric, so it is never mistaken for one of the
+	 * directories in the media hierarchy.
+	 */
+	public static final String STAGING_DIRECTORY_NAME = "staging";
+
+	/**
+	 * The preference keys for the root media directories that have staging
+	 * directories.
+	 */
+	private static final String[] ROOT_DIRECTORY_KEYS =
+		new String[] {
+			PreferenceCache.KEY_IMAGE_DIRECTORY,
+			PreferenceCache.KEY_VIDEO_DIRECTORY,
+			PreferenceCache.KEY_AUDIO_DIRECTORY };
+
+	/**
+	 * The length of a media's ID, which is the prefix of each of its files'
+	 * names.
+	 */
+	private static final int ID_LENGTH = UUID.randomUUID().toString().length();
+
+	/**
+	 * The task that is periodically run to reconcile the staged media.
+	 */
+	private static final Timer RECONCILER =
+		new Timer(
+			"StagedMediaReconciler - Reconciling abandoned staged media.",
+			true);
+
+	/**
+	 * The number of milliseconds between each reconciliation.
+	 */
+	private static final long MILLISECONDS_BETWEEN_RECONCILIATIONS =
+		1000 * 60 * 15;
+
+	/**
+	 * The number of milliseconds since an upload's staging directory was
+	 * last modified before it is considered abandoned. This is much longer
+	 * than any upload should take.
+	 */
+	private static final long MILLISECONDS_UNTIL_ABANDONED = 1000 * 60 * 60;
+
+	/**
+	 * Default constructor that will be called by Spring via reflection.
+	 */
+	private StagedMediaReconciler() {
+		LOGGER.info("Creating the staged media reconciler, periodic task.");
+
+		// Create the task that will be run periodically.
+		RECONCILER.schedule(
+			this,
+			MILLISECONDS_BETWEEN_RECONCILIATIONS,
+			MILLISECONDS_BETWEEN_RECONCILIATIONS);
+	}
+
+	/**
+	 * Creates a new, empty staging directory for one upload's media.
+	 *
+	 * @param rootDirectoryKey The preference key of the root media directory,
+	 * 						   e.g. {@link PreferenceCache#KEY_IMAGE_DIRECTORY}.
+	 *
+	 * @return The new staging directory.
+	 *
+	 * @throws DomainException The root directory is unknown or the staging
+	 * 						   directory could not be created.
+	 */
+	public static File createStagingDirectory(
+			final String rootDirectoryKey)
+			throws DomainException {
+
+		File result =
+			new File(
+				getStagingRoot(rootDirectoryKey),
+				UUID.randomUUID().toString());
+
+		try {
+			if(! result.mkdirs()) {
+				throw new DomainException(
+					"The staging directory could not be created: " +
+						result.getAbsolutePath());
+			}
+		}
+		catch(SecurityException e) {
+			throw new DomainException(
+				"The staging directory is not allowed to be created.",
+				e);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Moves or deletes the files in the abandoned staging directories.
+	 */
+	@Override
+	public void run() {
+		long abandonedBefore =
+			System.currentTimeMillis() - MILLISECONDS_UNTIL_ABANDONED;
+
+		for(String rootDirectoryKey : ROOT_DIRECTORY_KEYS) {
+			File[] uploadDirectories;
+			try {
+				uploadDirectories =
+					getStagingRoot(rootDirectoryKey).listFiles();
+			}
+			catch(DomainException e) {
+				LOGGER.error(
+					"Could not get the staging directory: " +
+						rootDirectoryKey,
+					e);
+				continue;
+			}
+
+			// The staging directory doesn't exist yet.
+			if(uploadDirectories == null) {
+				continue;
+			}
+
+			for(File uploadDirectory : uploadDirectories) {
+				if(uploadDirectory.lastModified() >= abandonedBefore) {
+					continue;
+				}
+
+				LOGGER.info(
+					"Reconciling abandoned staged media: " +
+						uploadDirectory.getAbsolutePath());
+
+				File[] files = uploadDirectory.listFiles();
+				if(files != null) {
+					for(File file : files) {
+						try {
+							reconcile(file);
+						}
+						catch(ServiceException e) {
+							LOGGER.error(
+								"Could not reconcile the staged media: " +
+									file.getAbsolutePath(),
+								e);
+						}
+					}
+				}
+
+				// This only succeeds once every file has been handled.
+				uploadDirectory.delete();
+			}
+		}
+	}
+
+	/**
+	 * Stops the reconciliation task.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		RECONCILER.cancel();
+	}
+
+	/**
+	 * Moves a staged file to where its media's URL points or, if the media
+	 * does not exist, deletes it.
+	 *
+	 * @param file The staged file.
+	 *
+	 * @throws ServiceException There was an error looking up the media.
+	 */
+	private void reconcile(final File file) throws ServiceException {
+		String name = file.getName();
+
+		UUID id;
+		try {
+			id = UUID.fromString(name.substring(0, Math.min(ID_LENGTH, name.length())));
+		}
+		catch(IllegalArgumentException e) {
+			LOGGER.warn("Deleting an unknown staged file: " + file.getAbsolutePath());
+			file.delete();
+			return;
+		}
+
+		URL url = UserMediaServices.instance().getMediaUrl(id);
+		if(url == null) {
+			LOGGER.info("Deleting uncommitted staged media: " + file.getAbsolutePath());
+			file.delete();
+			return;
+		}
+
+		// The original image's URL is shared by each of its sizes, whose files
+		// are in the same directory.
+		File destination =
+			new File(new File(url.getFile()).getParentFile(), name);
+		if(destination.exists()) {
+			file.delete();
+		}
+		else if(file.renameTo(destination)) {
+			LOGGER.info("Moved committed staged media: " + destination.getAbsolutePath());
+		}
+		else {
+			LOGGER.error(
+				"Could not move committed staged media to: " +
+					destination.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Returns the staging directory for a root media directory.
+	 *
+	 * @param rootDirectoryKey The preference key of the root media directory.
+	 *
+	 * @return The staging directory, which may not exist yet.
+	 *
+	 * @throws DomainException The root directory is unknown.
+	 */
+	private static File getStagingRoot(
+			final String rootDirectoryKey)
+			throws DomainException {
+
+		try {
+			return
+				new File(
+					PreferenceCache.instance().lookup(rootDirectoryKey),
+					STAGING_DIRECTORY_NAME);
+		}
+		catch(CacheMissException e) {
+			throw new DomainException(
+				"Preference cache doesn't know about 'known' key: " +
+					rootDirectoryKey,
+				e);
+		}
+	}
+}
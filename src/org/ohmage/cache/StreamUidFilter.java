@@ -0,0 +1,382 @@
+package org.ohmage.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * An in-memory set of bloom filters, one per user, observer, and stream, of
+ * the point IDs that are already stored. A filter can say that an ID is
+ * definitely new without querying the database, so only possible duplicates
+ * need to be checked exactly.
+ * </p>
+ *
+ * <p>
+ * A filter is only consulted once it has been primed with every ID already
+ * in the database. Until then, and once it has grown beyond the number of
+ * IDs it was sized for, every ID is reported as a possible duplicate. A
+ * saturated filter is dropped, so it will be rebuilt with more room. The
+ * total memory used by the filters is bounded, and the least-recently used
+ * filters are evicted first.
+ * </p>
+ *
+ * <p>
+ * The filters only know about points stored through this server, so another
+ * server may store an ID that a filter reports as definitely new. The unique
+ * index on the stored IDs, which makes the insert skip such a point, is what
+ * prevents duplicates; the filters only save the queries that look for them.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class StreamUidFilter {
+	private static final Logger LOGGER =
+		Logger.getLogger(StreamUidFilter.class);
+
+	/**
+	 * The number of bits used per expected ID, which gives roughly a 1% false
+	 * positive rate.
+	 */
+	private static final int BITS_PER_ID = 10;
+	/**
+	 * The number of hash functions, which is optimal for the number of bits
+	 * per ID.
+	 */
+	private static final int NUM_HASHES = 7;
+	/**
+	 * The smallest number of IDs a filter will be sized for.
+	 */
+	private static final long MIN_CAPACITY = 1024;
+	/**
+	 * The largest number of IDs a filter will be sized for. Streams with more
+	 * IDs than this are always checked against the database.
+	 */
+	private static final long MAX_CAPACITY = 4 * 1024 * 1024;
+	/**
+	 * The total number of bytes all of the filters may use.
+	 */
+	private static final long MAX_TOTAL_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * A single bloom filter for a user's stream.
+	 *
+	 * @author John Jenkins
+	 */
+	public static final class Filter {
+		private final long[] bits;
+		private final long numBits;
+		private final long capacity;
+
+		private long numIds = 0;
+		private volatile boolean primed = false;
+		private volatile boolean saturated = false;
+
+		/**
+		 * Creates an empty filter.
+		 *
+		 * @param capacity The number of IDs this filter is sized for.
+		 */
+		private Filter(final long capacity) {
+			this.capacity = capacity;
+
+			bits = new long[(int) ((capacity * BITS_PER_ID + 63) / 64)];
+			numBits = bits.length * 64L;
+		}
+
+		/**
+		 * Adds an ID to this filter.
+		 *
+		 * @param uid The ID.
+		 */
+		public synchronized void add(final String uid) {
+			long hash = hash(uid);
+			long hash1 = hash & Long.MAX_VALUE;
+			long hash2 = (hash >>> 32) | 1;
+			for(int i = 0; i < NUM_HASHES; i++) {
+				long bit = (hash1 + i * hash2) % numBits;
+				if(bit < 0) {
+					bit += numBits;
+				}
+				bits[(int) (bit >>> 6)] |= 1L << bit;
+			}
+
+			if(++numIds > capacity) {
+				saturated = true;
+			}
+		}
+
+		/**
+		 * Returns whether or not an ID may already be stored. This is always
+		 * true until the filter has been primed or once it has saturated.
+		 *
+		 * @param uid The ID.
+		 *
+		 * @return False if the ID is definitely not stored; true otherwise.
+		 */
+		public synchronized boolean mightContain(final String uid) {
+			if((! primed) || saturated) {
+				return true;
+			}
+
+			long hash = hash(uid);
+			long hash1 = hash & Long.MAX_VALUE;
+			long hash2 = (hash >>> 32) | 1;
+			for(int i = 0; i < NUM_HASHES; i++) {
+				long bit = (hash1 + i * hash2) % numBits;
+				if(bit < 0) {
+					bit += numBits;
+				}
+				if((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * Returns the number of IDs this filter is sized for. Once more IDs
+		 * than this have been added, it is saturated.
+		 *
+		 * @return The number of IDs.
+		 */
+		public long getCapacity() {
+			return capacity;
+		}
+
+		/**
+		 * Marks this filter as containing every stored ID, after which it may
+		 * be used to rule out duplicates.
+		 */
+		private void setPrimed() {
+			primed = true;
+		}
+
+		/**
+		 * Returns the number of bytes this filter uses.
+		 *
+		 * @return The number of bytes.
+		 */
+		private long getNumBytes() {
+			return bits.length * 8L;
+		}
+
+		/**
+		 * A 64-bit FNV-1a hash of the ID with a final avalanche so that both
+		 * halves are usable as independent hashes.
+		 *
+		 * @param uid The ID.
+		 *
+		 * @return The hash.
+		 */
+		private static long hash(final String uid) {
+			long result = 0xcbf29ce484222325L;
+			int length = uid.length();
+			for(int i = 0; i < length; i++) {
+				result ^= uid.charAt(i);
+				result *= 0x100000001b3L;
+			}
+
+			result ^= result >>> 33;
+			result *= 0xff51afd7ed558ccdL;
+			result ^= result >>> 33;
+			result *= 0xc4ceb9fe1a85ec53L;
+			result ^= result >>> 33;
+
+			return result;
+		}
+	}
+
+	/**
+	 * The filters by their user, observer, and stream, in least-recently used
+	 * order. All access is synchronized on the map.
+	 */
+	private final LinkedHashMap<String, Filter> filters =
+		new LinkedHashMap<String, Filter>(16, 0.75f, true);
+	private long totalBytes = 0;
+
+	private final AtomicLong numDefinitelyNew = new AtomicLong(0);
+	private final AtomicLong numPossibleDuplicates = new AtomicLong(0);
+	private final AtomicLong numFalsePositives = new AtomicLong(0);
+	private final AtomicLong numFiltersBuilt = new AtomicLong(0);
+
+	/**
+	 * Returns the primed, unsaturated filter for a user's stream. A saturated
+	 * filter is dropped.
+	 *
+	 * @param username The user's username.
+	 *
+	 * @param observerId The observer's ID.
+	 *
+	 * @param streamId The stream's ID.
+	 *
+	 * @return The filter or null if there is no usable filter.
+	 */
+	public Filter getFilter(
+			final String username,
+			final String observerId,
+			final String streamId) {
+
+		String key = getKey(username, observerId, streamId);
+		synchronized(filters) {
+			Filter result = filters.get(key);
+			if((result != null) && result.saturated) {
+				remove(key);
+				return null;
+			}
+
+			return result;
+		}
+	}
+
+	/**
+	 * Creates and registers a new, unprimed filter for a user's stream. It is
+	 * registered before it is primed so that no ID stored in the meantime is
+	 * missed: any point stored after this returns will be added to the filter
+	 * and any point stored before it will be read while priming.
+	 *
+	 * @param username The user's username.
+	 *
+	 * @param observerId The observer's ID.
+	 *
+	 * @param streamId The stream's ID.
+	 *
+	 * @param numExistingIds The number of IDs that are already stored.
+	 *
+	 * @return The new filter or null if there are too many IDs to filter.
+	 */
+	public Filter createFilter(
+			final String username,
+			final String observerId,
+			final String streamId,
+			final long numExistingIds) {
+
+		long capacity = Math.max(MIN_CAPACITY, numExistingIds * 2);
+		if(capacity > MAX_CAPACITY) {
+			return null;
+		}
+
+		Filter result = new Filter(capacity);
+		String key = getKey(username, observerId, streamId);
+		synchronized(filters) {
+			remove(key);
+
+			filters.put(key, result);
+			totalBytes += result.getNumBytes();
+
+			Iterator<Map.Entry<String, Filter>> iter =
+				filters.entrySet().iterator();
+			while((totalBytes > MAX_TOTAL_BYTES) && iter.hasNext()) {
+				Map.Entry<String, Filter> eldest = iter.next();
+				if(eldest.getValue() == result) {
+					break;
+				}
+
+				totalBytes -= eldest.getValue().getNumBytes();
+				iter.remove();
+			}
+		}
+
+		numFiltersBuilt.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Marks a filter as primed after every stored ID has been added to it.
+	 *
+	 * @param filter The filter.
+	 */
+	public void setPrimed(final Filter filter) {
+		filter.setPrimed();
+	}
+
+	/**
+	 * Drops the filter for a user's stream, e.g. because it could not be
+	 * primed.
+	 *
+	 * @param username The user's username.
+	 *
+	 * @param observerId The observer's ID.
+	 *
+	 * @param streamId The stream's ID.
+	 */
+	public void removeFilter(
+			final String username,
+			final String observerId,
+			final String streamId) {
+
+		synchronized(filters) {
+			remove(getKey(username, observerId, streamId));
+		}
+	}
+
+	/**
+	 * Records the outcome of checking a batch of IDs.
+	 *
+	 * @param numDefinitelyNew The number of IDs the filter ruled out.
+	 *
+	 * @param numPossibleDuplicates The number of IDs that had to be checked
+	 * 								against the database.
+	 *
+	 * @param numDuplicates The number of those that were duplicates.
+	 */
+	public void recordChecks(
+			final long numDefinitelyNew,
+			final long numPossibleDuplicates,
+			final long numDuplicates) {
+
+		this.numDefinitelyNew.addAndGet(numDefinitelyNew);
+		this.numPossibleDuplicates.addAndGet(numPossibleDuplicates);
+		this.numFalsePositives.addAndGet(numPossibleDuplicates - numDuplicates);
+
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER
+				.debug(
+					"Duplicate ID filter: " +
+						this.numDefinitelyNew.get() +
+						" definitely new, " +
+						this.numPossibleDuplicates.get() +
+						" possible duplicates, " +
+						this.numFalsePositives.get() +
+						" false positives, " +
+						numFiltersBuilt.get() +
+						" filters built.");
+		}
+	}
+
+	/**
+	 * Removes a filter. The caller must hold the lock on the map.
+	 *
+	 * @param key The filter's key.
+	 */
+	private void remove(final String key) {
+		Filter removed = filters.remove(key);
+		if(removed != null) {
+			totalBytes -= removed.getNumBytes();
+		}
+	}
+
+	/**
+	 * Builds the key for a user's stream.
+	 *
+	 * @param username The user's username.
+	 *
+	 * @param observerId The observer's ID.
+	 *
+	 * @param streamId The stream's ID.
+	 *
+	 * @return The key.
+	 */
+	private static String getKey(
+			final String username,
+			final String observerId,
+			final String streamId) {
+
+		// Neither a username nor an observer ID may contain a space.
+		return username + ' ' + observerId + ' ' + streamId;
+	}
+}
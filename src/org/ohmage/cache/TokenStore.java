@@ -0,0 +1,190 @@
+package org.ohmage.cache;
+
+import org.ohmage.domain.User;
+import org.ohmage.exception.DomainException;
+
+/**
+ * <p>
+ * Where the {@link UserBin} keeps its authentication tokens. The bin always
+ * keeps the tokens it is using in a {@link MemoryTokenStore}, so a store may
+ * be slow or shared between servers; the bin only reads from it when it does
+ * not know about a token or has not checked it for a while.
+ * </p>
+ *
+ * <p>
+ * Implementations must be thread-safe. Only {@link #put(String, Token)} may
+ * fail the request; errors from the other methods should be logged, and the
+ * token treated as unknown, so that a store's outage never does more than
+ * require users to reauthenticate.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public interface TokenStore {
+	/**
+	 * A user and the last time their token was used.
+	 *
+	 * @author John Jenkins
+	 */
+	public static final class Token {
+		private final User user;
+		private volatile long lastUsed;
+		private volatile long loadedTime;
+
+		/**
+		 * Creates a new token.
+		 *
+		 * @param user
+		 *        The user to whom the token belongs.
+		 *
+		 * @param lastUsed
+		 *        The last time the token was used.
+		 *
+		 * @param loadedTime
+		 *        The time at which the token was created or read from a
+		 *        store.
+		 */
+		public Token(
+				final User user,
+				final long lastUsed,
+				final long loadedTime) {
+
+			this.user = user;
+			this.lastUsed = lastUsed;
+			this.loadedTime = loadedTime;
+		}
+
+		/**
+		 * Returns the user to whom the token belongs.
+		 *
+		 * @return The user.
+		 */
+		public User getUser() {
+			return user;
+		}
+
+		/**
+		 * Returns the last time the token was used.
+		 *
+		 * @return The last time the token was used.
+		 */
+		public long getLastUsed() {
+			return lastUsed;
+		}
+
+		/**
+		 * Returns the time at which the token was created or read from a
+		 * store.
+		 *
+		 * @return The time at which the token was loaded.
+		 */
+		public long getLoadedTime() {
+			return loadedTime;
+		}
+
+		/**
+		 * Records that the token was read from a store again.
+		 *
+		 * @param loadedTime
+		 *        The time at which the token was read.
+		 */
+		public void setLoadedTime(final long loadedTime) {
+			this.loadedTime = loadedTime;
+		}
+
+		/**
+		 * Returns whether or not this token has expired.
+		 *
+		 * @param currentTime
+		 *        The current time.
+		 *
+		 * @return True if the token has expired; false, otherwise.
+		 */
+		public boolean isExpired(final long currentTime) {
+			return currentTime - lastUsed > UserBin.LIFETIME;
+		}
+
+		/**
+		 * Records that the token was used. The time is only moved forward
+		 * and only once the given granularity has passed, which keeps
+		 * concurrent requests with the same token from all writing to the
+		 * same field.
+		 *
+		 * @param time
+		 *        The time at which the token was used.
+		 *
+		 * @param granularity
+		 *        The number of milliseconds that must have passed since the
+		 *        last recorded use.
+		 *
+		 * @return Whether or not the time was updated.
+		 */
+		public boolean touch(final long time, final long granularity) {
+			if(time - lastUsed >= granularity) {
+				lastUsed = time;
+				return true;
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * Stores a new token.
+	 *
+	 * @param token
+	 *        The token.
+	 *
+	 * @param value
+	 *        The user and the time the token was created.
+	 *
+	 * @throws DomainException
+	 *         The token already exists or could not be stored.
+	 */
+	public void put(String token, Token value) throws DomainException;
+
+	/**
+	 * Returns a token's user and last use.
+	 *
+	 * @param token
+	 *        The token.
+	 *
+	 * @return The token's user and last use or null if the token is unknown.
+	 */
+	public Token get(String token);
+
+	/**
+	 * Records that a token was used. Stores may delay writing this.
+	 *
+	 * @param token
+	 *        The token.
+	 *
+	 * @param lastUsed
+	 *        The time at which it was used.
+	 */
+	public void touch(String token, long lastUsed);
+
+	/**
+	 * Removes a token.
+	 *
+	 * @param token
+	 *        The token.
+	 */
+	public void remove(String token);
+
+	/**
+	 * Removes all of a user's tokens.
+	 *
+	 * @param username
+	 *        The user's username.
+	 */
+	public void removeUser(String username);
+
+	/**
+	 * Removes the tokens that have expired. This is called periodically.
+	 *
+	 * @param currentTime
+	 *        The current time.
+	 */
+	public void expire(long currentTime);
+}
@@ -15,13 +15,9 @@
  ******************************************************************************/
 package org.ohmage.cache;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.ohmage.domain.User;
@@ -29,9 +25,22 @@ import org.ohmage.exception.DomainException;
 import org.springframework.beans.factory.DisposableBean;
 
 /**
+ * <p>
  * User storage. User objects are mapped to unique ids. Avoids dependencies on
- * JEE session management. The lifetime param set on construction controls how
- * long User objects stay active.
+ * JEE session management. A token expires once it has not been used for
+ * {@link #LIFETIME} milliseconds.
+ * </p>
+ * 
+ * <p>
+ * The tokens that are in use are always kept in a {@link MemoryTokenStore},
+ * so validating a token never takes a lock or leaves memory. If another
+ * {@link TokenStore} is configured, e.g. one that is shared between servers
+ * or survives a restart, the memory store is its near-cache: new tokens are
+ * written through to it, unknown tokens are read from it, and known tokens
+ * are checked against it again once they have been cached for
+ * {@link #NEAR_CACHE_LIFETIME} milliseconds, which bounds how long a token
+ * that was removed by another server will still be accepted.
+ * </p>
  * 
  * @author Joshua Selsky
  */
@@ -42,35 +51,28 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 * This is the length of an authentication token.
 	 */
 	public static final int LIFETIME = 1000 * 60 * 15;
-	private static final int EXECUTION_PERIOD = 60000;
-
 	/**
-	 * A class for associating users to the time their token expires.
-	 * 
-	 * @author John Jenkins
+	 * The number of milliseconds between each expiration of the tokens.
 	 */
-	private static final class UserTime {
-		private final User user;
-		private long time;
-
-		/**
-		 * Convenience constructor.
-		 * 
-		 * @param user
-		 *        The user that is being stored in the cache.
-		 * 
-		 * @param time
-		 *        The last time this user was accessed in the cache.
-		 */
-		private UserTime(User user, long time) {
-			this.user = user;
-			this.time = time;
-		}
-	}
+	static final int EXECUTION_PERIOD = 60000;
+	
+	/**
+	 * The number of milliseconds a token is trusted in the near-cache before
+	 * it is checked against the configured store again.
+	 */
+	private static final long NEAR_CACHE_LIFETIME = 1000 * 30;
+	
+	/**
+	 * The number of milliseconds a token must go unused before its last use
+	 * is updated again.
+	 */
+	private static final long ACCESS_GRANULARITY = 1000;
 
-	// A map of tokens to USERS and the time that their token expires.
-	private static final Map<String, UserTime> USERS =
-		new ConcurrentHashMap<String, UserTime>();
+	// The tokens that are in use.
+	private static volatile MemoryTokenStore nearCache = 
+		new MemoryTokenStore();
+	// The configured store or null if the tokens are only kept in memory.
+	private static volatile TokenStore store = null;
 	// An EXECUTIONER thread to purge those whose tokens have expired.
 	private static final Timer EXECUTIONER = new Timer(
 		"UserBin - User expiration process.",
@@ -78,28 +80,47 @@ public final class UserBin extends TimerTask implements DisposableBean {
 
 	// Whether or not the constructor has run which will bootstrap this
 	// Singleton class.
-	private static boolean initialized = false;
+	private static volatile boolean initialized = false;
 
 	/**
-	 * @param lifetime
-	 *        controls the number of milliseconds a User object will be
-	 *        permitted to be resident in the bin
-	 * @param executionPeriod
-	 *        controls how often the bin is checked for expired USERS
-	 * 
-	 *        TODO Enforce a max lifetime? TODO Enforce period relative to
-	 *        lifetime?
+	 * Creates a bin that only keeps the tokens in memory.
 	 */
 	private UserBin() {
+		this(null);
+	}
+	
+	/**
+	 * Creates a bin that keeps its tokens in the given store.
+	 * 
+	 * @param tokenStore
+	 *        The store, which may be null to only keep the tokens in memory.
+	 */
+	private UserBin(TokenStore tokenStore) {
 		LOGGER.info("Users will live for " +
 			LIFETIME +
 			" milliseconds and the executioner will run every " +
 			EXECUTION_PERIOD +
 			" milliseconds");
 
-		EXECUTIONER.schedule(this, EXECUTION_PERIOD * 2, EXECUTION_PERIOD);
+		if(tokenStore instanceof MemoryTokenStore) {
+			nearCache = (MemoryTokenStore) tokenStore;
+			store = null;
+		}
+		else if(tokenStore != null) {
+			LOGGER
+				.info(
+					"Tokens will be stored with: " +
+						tokenStore.getClass().getName());
+			store = tokenStore;
+		}
 
-		initialized = true;
+		synchronized(UserBin.class) {
+			if(! initialized) {
+				EXECUTIONER
+					.schedule(this, EXECUTION_PERIOD, EXECUTION_PERIOD);
+			}
+			initialized = true;
+		}
 	}
 
 	@Override
@@ -109,26 +130,28 @@ public final class UserBin extends TimerTask implements DisposableBean {
 
 	/**
 	 * Adds a user to the bin and returns an Id (token) representing that user.
-	 * If the user is already resident in the bin, their old token is removed
-	 * and a new one is generated and returned.
+	 * The user's other tokens remain valid.
 	 */
-	public static synchronized String addUser(User user)
+	public static String addUser(User user)
 		throws DomainException {
 
-		if(!initialized) {
-			new UserBin();
-		}
+		initialize();
 
 		if(LOGGER.isDebugEnabled()) {
 			LOGGER.debug("adding user to bin");
 		}
 
 		String uuid = UUID.randomUUID().toString();
-		UserTime ut = new UserTime(user, System.currentTimeMillis());
+		long currentTime = System.currentTimeMillis();
 		user.setToken(uuid);
-		if(USERS.put(uuid, ut) != null) {
-			throw new DomainException("UUID collision: " + uuid);
+		TokenStore.Token token = 
+			new TokenStore.Token(user, currentTime, currentTime);
+		
+		TokenStore currStore = store;
+		if(currStore != null) {
+			currStore.put(uuid, token);
 		}
+		nearCache.put(uuid, token);
 
 		return uuid;
 	}
@@ -139,10 +162,8 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 * @param authToken
 	 *        The authentication token to remove from the user bin.
 	 */
-	public static synchronized void expireUser(String authToken) {
-		if(!initialized) {
-			new UserBin();
-		}
+	public static void expireUser(String authToken) {
+		initialize();
 
 		if(authToken == null) {
 			throw new IllegalArgumentException("The token cannot be null.");
@@ -152,7 +173,11 @@ public final class UserBin extends TimerTask implements DisposableBean {
 			LOGGER.debug("Removing user from bin.");
 		}
 
-		USERS.remove(authToken);
+		nearCache.remove(authToken);
+		TokenStore currStore = store;
+		if(currStore != null) {
+			currStore.remove(authToken);
+		}
 	}
 
 	/**
@@ -161,10 +186,8 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 * @param username
 	 *        The user's username.
 	 */
-	public static synchronized void removeUser(String username) {
-		if(!initialized) {
-			new UserBin();
-		}
+	public static void removeUser(String username) {
+		initialize();
 
 		if(username == null) {
 			throw new IllegalArgumentException("The username cannot be null.");
@@ -174,29 +197,40 @@ public final class UserBin extends TimerTask implements DisposableBean {
 			LOGGER.debug("Removing the user from the bin.");
 		}
 
-		Set<String> userTokens = new HashSet<String>();
-		for(String token : USERS.keySet()) {
-			UserTime userTime = USERS.get(token);
-			if(userTime.user.getUsername().equals(username)) {
-				userTokens.add(token);
-			}
-		}
-
-		for(String token : userTokens) {
-			USERS.remove(token);
+		nearCache.removeUser(username);
+		TokenStore currStore = store;
+		if(currStore != null) {
+			currStore.removeUser(username);
 		}
 	}
 
 	/**
 	 * Returns the User bound to the provided Id or null if Id does not exist
-	 * in the bin.
+	 * in the bin or has expired.
 	 */
-	public static synchronized User getUser(String id) {
-		UserTime ut = USERS.get(id);
-		if(null != ut) {
-			User u = ut.user;
+	public static User getUser(String id) {
+		if(id == null) {
+			return null;
+		}
+		
+		long currentTime = System.currentTimeMillis();
+		TokenStore.Token token = lookup(id, currentTime);
+		if(null != token) {
+			if(token.isExpired(currentTime)) {
+				expireUser(id);
+				return null;
+			}
+			
+			User u = token.getUser();
 			if(null != u) {
-				ut.time = System.currentTimeMillis(); // refresh the time
+				// refresh the time
+				if(token.touch(currentTime, ACCESS_GRANULARITY)) {
+					TokenStore currStore = store;
+					if(currStore != null) {
+						currStore.touch(id, currentTime);
+					}
+				}
+				
 				try {
 					return new User(u);
 				}
@@ -217,14 +251,15 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	 * 
 	 * @return The number of milliseconds until 'Id' expires.
 	 */
-	public static synchronized long getTokenRemainingLifetimeInMillis(String id) {
-		UserTime ut = USERS.get(id);
-		if(ut == null) {
+	public static long getTokenRemainingLifetimeInMillis(String id) {
+		long currentTime = System.currentTimeMillis();
+		TokenStore.Token token = lookup(id, currentTime);
+		if(token == null) {
 			return 0;
 		}
 		else {
 			return Math.max(
-				(System.currentTimeMillis() + LIFETIME - ut.time),
+				(token.getLastUsed() + LIFETIME - currentTime),
 				0);
 		}
 	}
@@ -238,36 +273,80 @@ public final class UserBin extends TimerTask implements DisposableBean {
 	}
 
 	/**
-	 * Checks every bin location and removes Users whose tokens have expired.
+	 * Removes the expired tokens from the near-cache and the configured
+	 * store.
 	 */
-	private static synchronized void expire() {
+	private static void expire() {
 		if(LOGGER.isDebugEnabled()) {
 			LOGGER.debug("Beginning user expiration process");
 		}
 
-		Set<String> keySet = USERS.keySet();
-
-		if(LOGGER.isDebugEnabled()) {
-			LOGGER
-				.debug("Number of users before expiration: " + keySet.size());
-		}
-
 		long currentTime = System.currentTimeMillis();
-
-		for(String key : keySet) {
-			UserTime ut = USERS.get(key);
-			if(currentTime - ut.time > LIFETIME) {
-
-				if(LOGGER.isDebugEnabled()) {
-					LOGGER.debug("Removing user with Id " + key);
-				}
-
-				USERS.remove(key);
+		nearCache.expire(currentTime);
+		
+		TokenStore currStore = store;
+		if(currStore != null) {
+			currStore.expire(currentTime);
+		}
+	}
+	
+	/**
+	 * Finds a token in the near-cache or, if it isn't there or hasn't been
+	 * checked for a while, the configured store.
+	 * 
+	 * @param id
+	 *        The token.
+	 * 
+	 * @param currentTime
+	 *        The current time.
+	 * 
+	 * @return The token or null if it is unknown.
+	 */
+	private static TokenStore.Token lookup(String id, long currentTime) {
+		TokenStore.Token token = nearCache.get(id);
+		
+		TokenStore currStore = store;
+		if(currStore == null) {
+			return token;
+		}
+		
+		// If the token is in the near-cache and was checked recently, use it.
+		if((token != null) && 
+			(currentTime - token.getLoadedTime() < NEAR_CACHE_LIFETIME)) {
+			
+			return token;
+		}
+		
+		// Otherwise, check the store.
+		TokenStore.Token storedToken = currStore.get(id);
+		if(storedToken == null) {
+			if(token != null) {
+				nearCache.remove(id);
 			}
+			return null;
 		}
-
-		if(LOGGER.isDebugEnabled()) {
-			LOGGER.debug("Number of users after expiration: " + USERS.size());
+		
+		// If the token was already in the near-cache, keep its latest use.
+		if(token != null) {
+			token.touch(storedToken.getLastUsed(), 0);
+			token.setLoadedTime(currentTime);
+			return token;
+		}
+		
+		nearCache.load(id, storedToken);
+		return storedToken;
+	}
+	
+	/**
+	 * Creates the bin if Spring has not yet created it.
+	 */
+	private static void initialize() {
+		if(! initialized) {
+			synchronized(UserBin.class) {
+				if(! initialized) {
+					new UserBin();
+				}
+			}
 		}
 	}
 }
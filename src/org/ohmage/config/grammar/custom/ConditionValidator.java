@@ -20,6 +20,8 @@ import java.io.StringReader;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ohmage.config.grammar.parser.ConditionParser;
 import org.ohmage.config.grammar.parser.ParseException;
@@ -29,10 +31,31 @@ import org.ohmage.config.grammar.syntaxtree.Start;
  * A validator for conditions that relies on classes generated from JavaCC and JTB to parse and retrieve data from Condition
  * sentences.  
  * 
+ * This class is thread-safe. Each thread has its own parser, and the parsed sentences are shared, as the syntax trees are
+ * never modified once they have been built.
+ *
  * @author selsky
  */
 public final class ConditionValidator {
-	private static boolean first = true;
+	/**
+	 * The maximum number of parsed sentences that are kept. Once there are this many, new sentences are parsed every time.
+	 */
+	private static final int MAX_PARSED_SENTENCES = 10000;
+
+	/**
+	 * Each thread's parser, which is reinitialized for each sentence.
+	 */
+	private static final ThreadLocal<ConditionParser> PARSER = new ThreadLocal<ConditionParser>() {
+		@Override
+		protected ConditionParser initialValue() {
+			return new ConditionParser(new StringReader(""));
+		}
+	};
+
+	/**
+	 * The syntax tree of each sentence that has been parsed.
+	 */
+	private static final ConcurrentMap<String, Start> PARSED_SENTENCES = new ConcurrentHashMap<String, Start>();
 	
 	/**
 	 * Prevent instantiation.
@@ -57,38 +80,50 @@ public final class ConditionValidator {
 	 * @return Map of Id-Value list pairs for each Id-operation-Value in the provided Sentence
 	 * @throws ConditionParseException if the Sentence does not conform to our grammar (see spec/Condition-grammar.jj) 
 	 */
-	@SuppressWarnings("static-access")
 	public static Map<String, List<ConditionValuePair>> validate(String conditionSentence) {
-		Start s = null;
+		Start s = parse(conditionSentence);
+
+		ConditionDepthFirst<Map<String, List<ConditionValuePair>>> visitor
+			= new ConditionDepthFirst<Map<String, List<ConditionValuePair>>>();
+		Map<String, List<ConditionValuePair>>map = new HashMap<String, List<ConditionValuePair>>();
+		visitor.visit(s, map);
+		return map;
+	}
+
+	/**
+	 * Parses the provided Condition Sentence. Sentences that have already been parsed are not parsed again.
+	 *
+	 * @param conditionSentence
+	 * @return The syntax tree of the Sentence, which must not be modified
+	 * @throws ConditionParseException if the Sentence does not conform to our grammar (see spec/Condition-grammar.jj)
+	 */
+	public static Start parse(String conditionSentence) {
+		if(conditionSentence == null) {
+			throw new ConditionParseException("The Condition Sentence is null.", (Throwable) null);
+		}
+
+		Start s = PARSED_SENTENCES.get(conditionSentence);
+		if(s != null) {
+			return s;
+		}
 		
 		try {
-			
-			// TODO - fix the ConditionParser instantiation logic by rebuilding the parser and setting the JavaCC parameter STATIC
-			// to false. Without the false setting, the weird ReInit logic below must occur.
-			
-			if(first) {
-				
-				first = false;
-				s = new ConditionParser(new StringReader(conditionSentence)).start();
-				
-			} else {
-				ConditionParser.ReInit(new StringReader(conditionSentence)); // ReInit must be called for a multiple parse scenario
-				                                                             // i.e., when this method is called from a loop
-				s = ConditionParser.start();
-			}
-			
-			ConditionDepthFirst<Map<String, List<ConditionValuePair>>> visitor 
-				= new ConditionDepthFirst<Map<String, List<ConditionValuePair>>>();
-			Map<String, List<ConditionValuePair>>map = new HashMap<String, List<ConditionValuePair>>(); 
-			visitor.visit(s, map);
-			return map;
-			
+			ConditionParser parser = PARSER.get();
+			parser.ReInit(new StringReader(conditionSentence));
+			s = parser.start();
 		} catch (ParseException pe) {
 			
 			throw new ConditionParseException("Condition parse failed for Condition Sentence: " + conditionSentence, pe);
 		}
 		catch(Throwable e) {
+			// The thread's parser may have been left in a bad state.
+			PARSER.remove();
 			throw new ConditionParseException("The Condition Sentence is not well-formed: " + conditionSentence, e);
 		}
+
+		if(PARSED_SENTENCES.size() < MAX_PARSED_SENTENCES) {
+			PARSED_SENTENCES.putIfAbsent(conditionSentence, s);
+		}
+		return s;
 	}
 }
@@ -15,7 +15,7 @@ import org.ohmage.config.grammar.syntaxtree.Start;
 import org.ohmage.config.grammar.syntaxtree.Value;
 
 public class ConditionParser implements ConditionParserConstants {
-	static final public Start start() throws ParseException {
+	final public Start start() throws ParseException {
 		Sentence n0;
 		NodeToken n1;
 		Token n2;
@@ -26,7 +26,7 @@ public class ConditionParser implements ConditionParserConstants {
 		return new Start(n0,n1);
 	}
 
-	static final public Sentence sentence() throws ParseException {
+	final public Sentence sentence() throws ParseException {
 		NodeChoice n0;
 		NodeSequence n1;
 		Expression n2;
@@ -65,7 +65,7 @@ public class ConditionParser implements ConditionParserConstants {
 		return new Sentence(n0);
 	}
 
-	static final public SentencePrime sentence_prime() throws ParseException {
+	final public SentencePrime sentence_prime() throws ParseException {
 		NodeOptional n0 = new NodeOptional();
 		NodeSequence n1;
 		Conjunction n2;
@@ -86,7 +86,7 @@ public class ConditionParser implements ConditionParserConstants {
 		return new SentencePrime(n0);
 	}
 
-	static final public Expression expr() throws ParseException {
+	final public Expression expr() throws ParseException {
 		Id n0;
 		Condition n1;
 		Value n2;
@@ -96,7 +96,7 @@ public class ConditionParser implements ConditionParserConstants {
 		return new Expression(n0,n1,n2);
 	}
 
-	static final public Id id() throws ParseException {
+	final public Id id() throws ParseException {
 		NodeToken n0;
 		Token n1;
 		n1 = jj_consume_token(TEXT);
@@ -104,7 +104,7 @@ public class ConditionParser implements ConditionParserConstants {
 		return new Id(n0);
 	}
 
-	static final public Condition condition() throws ParseException {
+	final public Condition condition() throws ParseException {
 		NodeChoice n0;
 		NodeToken n1;
 		Token n2;
@@ -149,7 +149,7 @@ public class ConditionParser implements ConditionParserConstants {
 		return new Condition(n0);
 	}
 
-	static final public Value value() throws ParseException {
+	final public Value value() throws ParseException {
 		NodeToken n0;
 		Token n1;
 		n1 = jj_consume_token(TEXT);
@@ -157,7 +157,7 @@ public class ConditionParser implements ConditionParserConstants {
 		return new Value(n0);
 	}
 
-	static final public Conjunction conjunction() throws ParseException {
+	final public Conjunction conjunction() throws ParseException {
 		NodeChoice n0;
 		NodeToken n1;
 		Token n2;
@@ -178,116 +178,116 @@ public class ConditionParser implements ConditionParserConstants {
 		return new Conjunction(n0);
 	}
 
-	static private boolean jj_2_1(int xla) {
+	private boolean jj_2_1(int xla) {
 		jj_la = xla; jj_lastpos = jj_scanpos = token;
 		try { return !jj_3_1(); }
 		catch(LookaheadSuccess ls) { return true; }
 		finally { jj_save(0, xla); }
 	}
 
-	static private boolean jj_2_2(int xla) {
+	private boolean jj_2_2(int xla) {
 		jj_la = xla; jj_lastpos = jj_scanpos = token;
 		try { return !jj_3_2(); }
 		catch(LookaheadSuccess ls) { return true; }
 		finally { jj_save(1, xla); }
 	}
 
-	static private boolean jj_2_3(int xla) {
+	private boolean jj_2_3(int xla) {
 		jj_la = xla; jj_lastpos = jj_scanpos = token;
 		try { return !jj_3_3(); }
 		catch(LookaheadSuccess ls) { return true; }
 		finally { jj_save(2, xla); }
 	}
 
-	static private boolean jj_2_4(int xla) {
+	private boolean jj_2_4(int xla) {
 		jj_la = xla; jj_lastpos = jj_scanpos = token;
 		try { return !jj_3_4(); }
 		catch(LookaheadSuccess ls) { return true; }
 		finally { jj_save(3, xla); }
 	}
 
-	static private boolean jj_2_5(int xla) {
+	private boolean jj_2_5(int xla) {
 		jj_la = xla; jj_lastpos = jj_scanpos = token;
 		try { return !jj_3_5(); }
 		catch(LookaheadSuccess ls) { return true; }
 		finally { jj_save(4, xla); }
 	}
 
-	static private boolean jj_2_6(int xla) {
+	private boolean jj_2_6(int xla) {
 		jj_la = xla; jj_lastpos = jj_scanpos = token;
 		try { return !jj_3_6(); }
 		catch(LookaheadSuccess ls) { return true; }
 		finally { jj_save(5, xla); }
 	}
 
-	static private boolean jj_2_7(int xla) {
+	private boolean jj_2_7(int xla) {
 		jj_la = xla; jj_lastpos = jj_scanpos = token;
 		try { return !jj_3_7(); }
 		catch(LookaheadSuccess ls) { return true; }
 		finally { jj_save(6, xla); }
 	}
 
-	static private boolean jj_2_8(int xla) {
+	private boolean jj_2_8(int xla) {
 		jj_la = xla; jj_lastpos = jj_scanpos = token;
 		try { return !jj_3_8(); }
 		catch(LookaheadSuccess ls) { return true; }
 		finally { jj_save(7, xla); }
 	}
 
-	static private boolean jj_2_9(int xla) {
+	private boolean jj_2_9(int xla) {
 		jj_la = xla; jj_lastpos = jj_scanpos = token;
 		try { return !jj_3_9(); }
 		catch(LookaheadSuccess ls) { return true; }
 		finally { jj_save(8, xla); }
 	}
 
-	static private boolean jj_2_10(int xla) {
+	private boolean jj_2_10(int xla) {
 		jj_la = xla; jj_lastpos = jj_scanpos = token;
 		try { return !jj_3_10(); }
 		catch(LookaheadSuccess ls) { return true; }
 		finally { jj_save(9, xla); }
 	}
 
-	static private boolean jj_2_11(int xla) {
+	private boolean jj_2_11(int xla) {
 		jj_la = xla; jj_lastpos = jj_scanpos = token;
 		try { return !jj_3_11(); }
 		catch(LookaheadSuccess ls) { return true; }
 		finally { jj_save(10, xla); }
 	}
 
-	static private boolean jj_3_11() {
+	private boolean jj_3_11() {
 		if (jj_scan_token(10)) return true;
 		return false;
 	}
 
-	static private boolean jj_3R_1() {
+	private boolean jj_3R_1() {
 		if (jj_3R_4()) return true;
 		if (jj_3R_5()) return true;
 		return false;
 	}
 
-	static private boolean jj_3_2() {
+	private boolean jj_3_2() {
 		if (jj_scan_token(1)) return true;
 		if (jj_3R_2()) return true;
 		return false;
 	}
 
-	static private boolean jj_3_5() {
+	private boolean jj_3_5() {
 		if (jj_scan_token(4)) return true;
 		return false;
 	}
 
-	static private boolean jj_3_10() {
+	private boolean jj_3_10() {
 		if (jj_scan_token(9)) return true;
 		return false;
 	}
 
-	static private boolean jj_3_4() {
+	private boolean jj_3_4() {
 		if (jj_scan_token(3)) return true;
 		return false;
 	}
 
-	static private boolean jj_3R_3() {
+	private boolean jj_3R_3() {
 		Token xsp;
 		xsp = jj_scanpos;
 		if (jj_3_10()) {
@@ -297,7 +297,7 @@ public class ConditionParser implements ConditionParserConstants {
 		return false;
 	}
 
-	static private boolean jj_3R_5() {
+	private boolean jj_3R_5() {
 		Token xsp;
 		xsp = jj_scanpos;
 		if (jj_3_4()) {
@@ -319,17 +319,17 @@ public class ConditionParser implements ConditionParserConstants {
 		return false;
 	}
 
-	static private boolean jj_3_1() {
+	private boolean jj_3_1() {
 		if (jj_3R_1()) return true;
 		return false;
 	}
 
-	static private boolean jj_3R_4() {
+	private boolean jj_3R_4() {
 		if (jj_scan_token(TEXT)) return true;
 		return false;
 	}
 
-	static private boolean jj_3R_2() {
+	private boolean jj_3R_2() {
 		Token xsp;
 		xsp = jj_scanpos;
 		if (jj_3_1()) {
@@ -339,44 +339,43 @@ public class ConditionParser implements ConditionParserConstants {
 		return false;
 	}
 
-	static private boolean jj_3_9() {
+	private boolean jj_3_9() {
 		if (jj_scan_token(8)) return true;
 		return false;
 	}
 
-	static private boolean jj_3_8() {
+	private boolean jj_3_8() {
 		if (jj_scan_token(7)) return true;
 		return false;
 	}
 
-	static private boolean jj_3_7() {
+	private boolean jj_3_7() {
 		if (jj_scan_token(6)) return true;
 		return false;
 	}
 
-	static private boolean jj_3_3() {
+	private boolean jj_3_3() {
 		if (jj_3R_3()) return true;
 		if (jj_3R_2()) return true;
 		return false;
 	}
 
-	static private boolean jj_3_6() {
+	private boolean jj_3_6() {
 		if (jj_scan_token(5)) return true;
 		return false;
 	}
 
-	static private boolean jj_initialized_once = false;
 	/** Generated Token Manager. */
-	static public ConditionParserTokenManager token_source;
-	static SimpleCharStream jj_input_stream;
+	public ConditionParserTokenManager token_source;
+	SimpleCharStream jj_input_stream;
 	/** Current token. */
-	static public Token token;
+	public Token token;
 	/** Next token. */
-	static public Token jj_nt;
-	static private Token jj_scanpos, jj_lastpos;
-	static private int jj_la;
-	static private int jj_gen;
-	static final private int[] jj_la1 = new int[0];
+	public Token jj_nt;
+	private Token jj_scanpos, jj_lastpos;
+	private int jj_la;
+	private int jj_gen;
+	final private int[] jj_la1 = new int[0];
 	static private int[] jj_la1_0;
 	static {
 		jj_la1_init_0();
@@ -384,9 +383,9 @@ public class ConditionParser implements ConditionParserConstants {
 	private static void jj_la1_init_0() {
 		jj_la1_0 = new int[] {};
 	}
-	static final private JJCalls[] jj_2_rtns = new JJCalls[11];
-	static private boolean jj_rescan = false;
-	static private int jj_gc = 0;
+	final private JJCalls[] jj_2_rtns = new JJCalls[11];
+	private boolean jj_rescan = false;
+	private int jj_gc = 0;
 
 	/** Constructor with InputStream. */
 	public ConditionParser(java.io.InputStream stream) {
@@ -394,13 +393,6 @@ public class ConditionParser implements ConditionParserConstants {
 	}
 	/** Constructor with InputStream and supplied encoding */
 	public ConditionParser(java.io.InputStream stream, String encoding) {
-		if (jj_initialized_once) {
-			System.out.println("ERROR: Second call to constructor of static parser.  ");
-			System.out.println("       You must either use ReInit() or set the JavaCC option STATIC to false");
-			System.out.println("       during parser generation.");
-			throw new Error();
-		}
-		jj_initialized_once = true;
 		try { jj_input_stream = new SimpleCharStream(stream, encoding, 1, 1); } catch(java.io.UnsupportedEncodingException e) { throw new RuntimeException(e); }
 		token_source = new ConditionParserTokenManager(jj_input_stream);
 		token = new Token();
@@ -410,13 +402,13 @@ public class ConditionParser implements ConditionParserConstants {
 	}
 
 	/** Reinitialise. */
-	static public void ReInit(java.io.InputStream stream) {
+	public void ReInit(java.io.InputStream stream) {
 		ReInit(stream, null);
 	}
 	/** Reinitialise. */
-	static public void ReInit(java.io.InputStream stream, String encoding) {
+	public void ReInit(java.io.InputStream stream, String encoding) {
 		try { jj_input_stream.ReInit(stream, encoding, 1, 1); } catch(java.io.UnsupportedEncodingException e) { throw new RuntimeException(e); }
-		ConditionParserTokenManager.ReInit(jj_input_stream);
+		token_source.ReInit(jj_input_stream);
 		token = new Token();
 		jj_gen = 0;
 		for (int i = 0; i < 0; i++) jj_la1[i] = -1;
@@ -425,13 +417,6 @@ public class ConditionParser implements ConditionParserConstants {
 
 	/** Constructor. */
 	public ConditionParser(java.io.Reader stream) {
-		if (jj_initialized_once) {
-			System.out.println("ERROR: Second call to constructor of static parser. ");
-			System.out.println("       You must either use ReInit() or set the JavaCC option STATIC to false");
-			System.out.println("       during parser generation.");
-			throw new Error();
-		}
-		jj_initialized_once = true;
 		jj_input_stream = new SimpleCharStream(stream, 1, 1);
 		token_source = new ConditionParserTokenManager(jj_input_stream);
 		token = new Token();
@@ -441,9 +426,9 @@ public class ConditionParser implements ConditionParserConstants {
 	}
 
 	/** Reinitialise. */
-	static public void ReInit(java.io.Reader stream) {
+	public void ReInit(java.io.Reader stream) {
 		jj_input_stream.ReInit(stream, 1, 1);
-		ConditionParserTokenManager.ReInit(jj_input_stream);
+		token_source.ReInit(jj_input_stream);
 		token = new Token();
 		jj_gen = 0;
 		for (int i = 0; i < 0; i++) jj_la1[i] = -1;
@@ -452,13 +437,6 @@ public class ConditionParser implements ConditionParserConstants {
 
 	/** Constructor with generated Token Manager. */
 	public ConditionParser(ConditionParserTokenManager tm) {
-		if (jj_initialized_once) {
-			System.out.println("ERROR: Second call to constructor of static parser. ");
-			System.out.println("       You must either use ReInit() or set the JavaCC option STATIC to false");
-			System.out.println("       during parser generation.");
-			throw new Error();
-		}
-		jj_initialized_once = true;
 		token_source = tm;
 		token = new Token();
 		jj_gen = 0;
@@ -475,10 +453,10 @@ public class ConditionParser implements ConditionParserConstants {
 		for (int i = 0; i < jj_2_rtns.length; i++) jj_2_rtns[i] = new JJCalls();
 	}
 
-	static private Token jj_consume_token(int kind) throws ParseException {
+	private Token jj_consume_token(int kind) throws ParseException {
 		Token oldToken;
 		if ((oldToken = token).next != null) token = token.next;
-		else token = token.next = ConditionParserTokenManager.getNextToken();
+		else token = token.next = token_source.getNextToken();
 		if (token.kind == kind) {
 			jj_gen++;
 			if (++jj_gc > 100) {
@@ -504,12 +482,12 @@ public class ConditionParser implements ConditionParserConstants {
 		 * Static-random serialVersionUID.
 		 */
 		private static final long serialVersionUID = -5534760548087927502L; }
-	static final private LookaheadSuccess jj_ls = new LookaheadSuccess();
-	static private boolean jj_scan_token(int kind) {
+	final private LookaheadSuccess jj_ls = new LookaheadSuccess();
+	private boolean jj_scan_token(int kind) {
 		if (jj_scanpos == jj_lastpos) {
 			jj_la--;
 			if (jj_scanpos.next == null) {
-				jj_lastpos = jj_scanpos = jj_scanpos.next = ConditionParserTokenManager.getNextToken();
+				jj_lastpos = jj_scanpos = jj_scanpos.next = token_source.getNextToken();
 			} else {
 				jj_lastpos = jj_scanpos = jj_scanpos.next;
 			}
@@ -528,30 +506,30 @@ public class ConditionParser implements ConditionParserConstants {
 
 
 	/** Get the next Token. */
-	static final public Token getNextToken() {
+	final public Token getNextToken() {
 		if (token.next != null) token = token.next;
-		else token = token.next = ConditionParserTokenManager.getNextToken();
+		else token = token.next = token_source.getNextToken();
 		jj_gen++;
 		return token;
 	}
 
 	/** Get the specific Token. */
-	static final public Token getToken(int index) {
+	final public Token getToken(int index) {
 		Token t = token;
 		for (int i = 0; i < index; i++) {
 			if (t.next != null) t = t.next;
-			else t = t.next = ConditionParserTokenManager.getNextToken();
+			else t = t.next = token_source.getNextToken();
 		}
 		return t;
 	}
 
-	static private java.util.List<int[]> jj_expentries = new java.util.ArrayList<int[]>();
-	static private int[] jj_expentry;
-	static private int jj_kind = -1;
-	static private int[] jj_lasttokens = new int[100];
-	static private int jj_endpos;
+	private java.util.List<int[]> jj_expentries = new java.util.ArrayList<int[]>();
+	private int[] jj_expentry;
+	private int jj_kind = -1;
+	private int[] jj_lasttokens = new int[100];
+	private int jj_endpos;
 
-	static private void jj_add_error_token(int kind, int pos) {
+	private void jj_add_error_token(int kind, int pos) {
 		if (pos >= 100) return;
 		if (pos == jj_endpos + 1) {
 			jj_lasttokens[jj_endpos++] = kind;
@@ -577,7 +555,7 @@ public class ConditionParser implements ConditionParserConstants {
 	}
 
 	/** Generate ParseException. */
-	static public ParseException generateParseException() {
+	public ParseException generateParseException() {
 		jj_expentries.clear();
 		boolean[] la1tokens = new boolean[16];
 		if (jj_kind >= 0) {
@@ -611,14 +589,14 @@ public class ConditionParser implements ConditionParserConstants {
 	}
 
 	/** Enable tracing. */
-	static final public void enable_tracing() {
+	final public void enable_tracing() {
 	}
 
 	/** Disable tracing. */
-	static final public void disable_tracing() {
+	final public void disable_tracing() {
 	}
 
-	static private void jj_rescan_token() {
+	private void jj_rescan_token() {
 		jj_rescan = true;
 		for (int i = 0; i < 11; i++) {
 			try {
@@ -647,7 +625,7 @@ public class ConditionParser implements ConditionParserConstants {
 		jj_rescan = false;
 	}
 
-	static private void jj_save(int index, int xla) {
+	private void jj_save(int index, int xla) {
 		JJCalls p = jj_2_rtns[index];
 		while (p.gen > jj_gen) {
 			if (p.next == null) { p = p.next = new JJCalls(); break; }
@@ -42,6 +42,32 @@ public class Audio extends Media {
 		super(id, type, content);
 	}
 	
+	/**
+	 * Creates a new representation of audio data that was uploaded to a
+	 * file.
+	 * 
+	 * @param id
+	 *        The unique identifier for this audio data.
+	 * 
+	 * @param type
+	 *        The content type of the media data.
+	 * 
+	 * @param file
+	 *        The uploaded file that contains the media data.
+	 * 
+	 * @throws DomainException
+	 *         One of the parameters was invalid or the file could not be
+	 *         read.
+	 */
+	public Audio(
+		final UUID id,
+		final String type,
+		final UploadedFile file)
+		throws DomainException {
+		
+		super(id, type, file);
+	}
+	
 	/**
 	 * Creates an audio file with an ID from the given URL.
 	 * 
@@ -0,0 +1,301 @@
+package org.ohmage.domain;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonNode;
+import org.ohmage.exception.DomainException;
+
+/**
+ * <p>
+ * A Concordia schema that has been compiled once and may be used to validate
+ * any number of data points from any number of threads.
+ * </p>
+ *
+ * <p>
+ * There are two engines. The {@link Engine#RHINO} engine evaluates the
+ * reference Concordia JavaScript and is always used to decide whether or not
+ * a schema is valid. The {@link Engine#NATIVE} engine compiles a valid schema
+ * into a tree of Java checks that run directly over the {@link JsonNode}. If
+ * a schema uses a feature the native engine does not support, its validator
+ * falls back to Rhino.
+ * </p>
+ *
+ * <p>
+ * Validators are cached by their stream's ID, version, and schema, so
+ * rebuilding the same stream definition, e.g. when it is read from the
+ * database for each request, does not recompile it.
+ * </p>
+ */
+public abstract class ConcordiaValidator {
+	private static final Logger LOGGER =
+		Logger.getLogger(ConcordiaValidator.class);
+
+	/**
+	 * The engines that may be used to validate data.
+	 */
+	public static enum Engine {
+		/**
+		 * Compiles the schema into Java checks.
+		 */
+		NATIVE,
+		/**
+		 * Evaluates the Concordia JavaScript with Rhino.
+		 */
+		RHINO;
+	}
+
+	/**
+	 * The maximum number of compiled validators to keep in memory.
+	 */
+	private static final int MAX_CACHED_VALIDATORS = 512;
+
+	/**
+	 * The cache of validators, which evicts the least-recently used validator
+	 * once it is full.
+	 */
+	private static final Map<Key, ConcordiaValidator> CACHE =
+		Collections.synchronizedMap(
+			new LinkedHashMap<Key, ConcordiaValidator>(64, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				/**
+				 * Evicts the least-recently used validator when the cache
+				 * grows beyond its limit.
+				 */
+				@Override
+				protected boolean removeEldestEntry(
+						final Map.Entry<Key, ConcordiaValidator> eldest) {
+
+					return size() > MAX_CACHED_VALIDATORS;
+				}
+			});
+
+	/**
+	 * The engine used by {@link #getValidator(String, long, String)}.
+	 */
+	private static volatile Engine defaultEngine = Engine.NATIVE;
+
+	/**
+	 * The key for a cached validator. The schema itself is part of the key, so
+	 * two streams that share an ID and version but not a definition, e.g. in
+	 * two different observers, will never share a validator.
+	 */
+	private static final class Key {
+		private final String streamId;
+		private final long streamVersion;
+		private final String schema;
+		private final Engine engine;
+
+		/**
+		 * Creates a new key.
+		 *
+		 * @param streamId The stream's ID.
+		 *
+		 * @param streamVersion The stream's version.
+		 *
+		 * @param schema The stream's schema.
+		 *
+		 * @param engine The engine that compiled the validator.
+		 */
+		private Key(
+				final String streamId,
+				final long streamVersion,
+				final String schema,
+				final Engine engine) {
+
+			this.streamId = streamId;
+			this.streamVersion = streamVersion;
+			this.schema = schema;
+			this.engine = engine;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			int result = 31 + streamId.hashCode();
+			result = 31 * result + (int) (streamVersion ^ (streamVersion >>> 32));
+			result = 31 * result + schema.hashCode();
+			return 31 * result + engine.hashCode();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(final Object obj) {
+			if(this == obj) {
+				return true;
+			}
+			if(! (obj instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key) obj;
+			return
+				(streamVersion == other.streamVersion) &&
+				(engine == other.engine) &&
+				streamId.equals(other.streamId) &&
+				schema.equals(other.schema);
+		}
+	}
+
+	/**
+	 * Only the engines in this package may create validators.
+	 */
+	ConcordiaValidator() {
+		// Do nothing.
+	}
+
+	/**
+	 * Sets the engine used to validate stream data.
+	 *
+	 * @param engine The engine.
+	 *
+	 * @throws IllegalArgumentException The engine is null.
+	 */
+	public static void setDefaultEngine(final Engine engine) {
+		if(engine == null) {
+			throw new IllegalArgumentException("The engine is null.");
+		}
+
+		LOGGER.info("Stream data will be validated with: " + engine);
+		defaultEngine = engine;
+	}
+
+	/**
+	 * Returns the engine used to validate stream data.
+	 *
+	 * @return The engine.
+	 */
+	public static Engine getDefaultEngine() {
+		return defaultEngine;
+	}
+
+	/**
+	 * Returns the validator for a stream, compiling and caching it with the
+	 * default engine if it has not yet been compiled.
+	 *
+	 * @param streamId The stream's ID.
+	 *
+	 * @param streamVersion The stream's version.
+	 *
+	 * @param schema The stream's schema.
+	 *
+	 * @return The compiled validator.
+	 *
+	 * @throws DomainException The schema is invalid.
+	 */
+	public static ConcordiaValidator getValidator(
+			final String streamId,
+			final long streamVersion,
+			final String schema)
+			throws DomainException {
+
+		if(streamId == null) {
+			throw new DomainException("The stream ID is null.");
+		}
+		if(schema == null) {
+			throw new DomainException("The schema is null.");
+		}
+
+		Engine engine = defaultEngine;
+		Key key = new Key(streamId, streamVersion, schema, engine);
+		ConcordiaValidator result = CACHE.get(key);
+		if(result == null) {
+			// Compile outside of the lock. If two threads race on the same
+			// schema, they will build equivalent validators and the last one
+			// wins.
+			result = compile(schema, engine);
+			CACHE.put(key, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Compiles a schema with the default engine without caching it.
+	 *
+	 * @param schema The schema to compile.
+	 *
+	 * @return The compiled validator.
+	 *
+	 * @throws DomainException The schema is invalid.
+	 */
+	public static ConcordiaValidator compile(
+			final String schema)
+			throws DomainException {
+
+		return compile(schema, defaultEngine);
+	}
+
+	/**
+	 * Compiles a schema with a specific engine without caching it. The schema
+	 * is always validated by Rhino first.
+	 *
+	 * @param schema The schema to compile.
+	 *
+	 * @param engine The engine to use.
+	 *
+	 * @return The compiled validator, which will use Rhino if the native
+	 * 		   engine was requested but does not support the schema.
+	 *
+	 * @throws DomainException The schema is invalid.
+	 */
+	public static ConcordiaValidator compile(
+			final String schema,
+			final Engine engine)
+			throws DomainException {
+
+		if(schema == null) {
+			throw new DomainException("The schema is null.");
+		}
+		if(engine == null) {
+			throw new DomainException("The engine is null.");
+		}
+
+		RhinoConcordiaValidator reference =
+			new RhinoConcordiaValidator(schema);
+		if(Engine.RHINO.equals(engine)) {
+			return reference;
+		}
+
+		try {
+			return new NativeConcordiaValidator(schema);
+		}
+		catch(DomainException e) {
+			LOGGER
+				.warn(
+					"The schema could not be compiled natively, so Rhino " +
+						"will be used: " +
+						e.getMessage());
+			return reference;
+		}
+	}
+
+	/**
+	 * Returns the engine that this validator uses.
+	 *
+	 * @return The engine.
+	 */
+	public abstract Engine getEngine();
+
+	/**
+	 * Validates that some data conforms to this schema.
+	 *
+	 * @param data The data to validate.
+	 *
+	 * @return The JsonNode as passed into this function.
+	 *
+	 * @throws DomainException The data does not conform to the schema.
+	 */
+	public abstract JsonNode validate(
+			final JsonNode data)
+			throws DomainException;
+}
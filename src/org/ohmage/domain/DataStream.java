@@ -1,5 +1,6 @@
 package org.ohmage.domain;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -347,6 +348,29 @@ public class DataStream {
 	}
 	private final MetaData metaData;
 	
+	/**
+	 * Receives data points as they are read without building a DataStream
+	 * for each of them. The data is given as it was stored, so it may be
+	 * copied to the output without being parsed.
+	 *
+	 * @author John Jenkins
+	 */
+	public static interface RawDataHandler {
+		/**
+		 * Handles a single data point.
+		 * 
+		 * @param metaData The point's meta-data.
+		 * 
+		 * @param data The point's data as a JSON string.
+		 * 
+		 * @throws IOException The point could not be handled.
+		 */
+		public void handle(
+			final MetaData metaData,
+			final String data)
+			throws IOException;
+	}
+	
 	/**
 	 * The stream that defines how this data is represented.
 	 */
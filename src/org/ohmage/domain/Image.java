@@ -27,13 +27,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import org.ohmage.exception.DomainException;
 
@@ -153,6 +160,113 @@ public class Image {
 		public abstract ImageData transform(
 			final ImageData original)
 			throws DomainException;
+		
+		/**
+		 * Scales a decoded image to this size.
+		 * 
+		 * @param original The decoded original image.
+		 * 
+		 * @return The decoded image at this size.
+		 */
+		public abstract BufferedImage scale(final BufferedImage original);
+		
+		/**
+		 * Creates a new, empty image with the given dimensions and the same
+		 * type as the original.
+		 * 
+		 * @param original The original image.
+		 * 
+		 * @param width The new image's width.
+		 * 
+		 * @param height The new image's height.
+		 * 
+		 * @return The new image.
+		 */
+		protected static BufferedImage createCanvas(
+			final BufferedImage original,
+			final int width,
+			final int height) {
+			
+			// Custom image types, e.g. from some PNGs, cannot be created
+			// directly.
+			int type = original.getType();
+			if(type == BufferedImage.TYPE_CUSTOM) {
+				type =
+					original.getColorModel().hasAlpha() ?
+						BufferedImage.TYPE_INT_ARGB :
+						BufferedImage.TYPE_INT_RGB;
+			}
+			
+			return new BufferedImage(width, height, type);
+		}
+		
+		/**
+		 * Paints an image onto a canvas, scaling it to fill the canvas.
+		 * 
+		 * @param image The image to paint.
+		 * 
+		 * @param canvas The canvas to paint onto.
+		 */
+		protected static void paint(
+			final BufferedImage image,
+			final BufferedImage canvas) {
+			
+			Graphics2D graphics2d = canvas.createGraphics();
+			graphics2d
+				.setRenderingHint(
+					RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics2d
+				.drawImage(
+					image,
+					0,
+					0,
+					canvas.getWidth(),
+					canvas.getHeight(),
+					null);
+			
+			// Cleanup.
+			graphics2d.dispose();
+		}
+		
+		/**
+		 * Encodes a decoded image in memory.
+		 * 
+		 * @param image The decoded image.
+		 * 
+		 * @param imageType The format to encode it in or null to use 
+		 * 					{@link #IMAGE_STORE_FORMAT}.
+		 * 
+		 * @return The encoded image data.
+		 * 
+		 * @throws DomainException There was an error encoding the image.
+		 */
+		protected static ImageData encode(
+			final BufferedImage image,
+			final String imageType)
+			throws DomainException {
+			
+			// Create a buffer stream to read the result of the transformation.
+			ByteArrayOutputStream bufferStream = new ByteArrayOutputStream();
+			
+			// Write the scaled image to the buffer.
+			try {
+				ImageIO.write(
+					image,
+					(imageType == null) ? IMAGE_STORE_FORMAT : imageType,
+					bufferStream);
+			}
+			catch(IOException e) {
+				throw new DomainException("Error writing the image.", e);
+			}
+			
+			// Create an input stream to use to create the image data.
+			ByteArrayInputStream resultStream =
+				new ByteArrayInputStream(bufferStream.toByteArray());
+			
+			// Create the image data and return it.
+			return new ImageData(resultStream);
+		}
 	};
 	
 	/**
@@ -192,6 +306,14 @@ public class Image {
 			
 			return original;
 		}
+		
+		/**
+		 * Performs no actual scaling of the image.
+		 */
+		@Override
+		public BufferedImage scale(final BufferedImage original) {
+			return original;
+		}
 	}
 	
 	/**
@@ -231,9 +353,20 @@ public class Image {
 			final ImageData original)
 			throws DomainException {
 			
-			// Get the BufferedImage from the image data.
-			BufferedImage imageContents = original.getBufferedImage();
-
+			return
+				encode(
+					scale(
+						original
+							.getSubsampledImage(SCALING_MINIMUM_DIMENSION)),
+					original.getImageType());
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.ohmage.domain.Image.Size#scale(java.awt.image.BufferedImage)
+		 */
+		@Override
+		public BufferedImage scale(final BufferedImage imageContents) {
 			// Get the percentage to scale the image.
 			Double scalePercentage;
 			if(imageContents.getWidth() > imageContents.getHeight()) {
@@ -247,51 +380,25 @@ public class Image {
 			
 			// Calculate the scaled image's width and height.
 			int width = 
-				(new Double(
-					imageContents.getWidth() * scalePercentage)).intValue();
+				Math.max(
+					1,
+					(new Double(
+						imageContents.getWidth() * scalePercentage))
+						.intValue());
 			int height =
-				(new Double(
-					imageContents.getHeight() * scalePercentage)).intValue();
+				Math.max(
+					1,
+					(new Double(
+						imageContents.getHeight() * scalePercentage))
+						.intValue());
 			
 			// Create the new image of the same type as the original and of the
-			// scaled dimensions.
+			// scaled dimensions and paint the original onto it.
 			BufferedImage scaledContents =
-				new BufferedImage(width, height, imageContents.getType());
-			
-			// Paint the original image onto the scaled canvas.
-			Graphics2D graphics2d = scaledContents.createGraphics();
-			graphics2d
-				.setRenderingHint(
-					RenderingHints.KEY_INTERPOLATION,
-					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-			graphics2d.drawImage(imageContents, 0, 0, width, height, null);
-			
-			// Cleanup.
-			graphics2d.dispose();
-			
-			// Create a buffer stream to read the result of the transformation.
-			ByteArrayOutputStream bufferStream = new ByteArrayOutputStream();
-			
-			// Get an image type.
-			String imageType = original.getImageType();
-			if(imageType == null) {
-				imageType = IMAGE_STORE_FORMAT;
-			}
-			
-			// Write the scaled image to the buffer.
-			try {
-				ImageIO.write(scaledContents, imageType, bufferStream);
-			}
-			catch(IOException e) {
-				throw new DomainException("Error writing the image.", e);
-			}
-			
-			// Create an input stream to use to create the image data.
-			ByteArrayInputStream resultStream =
-				new ByteArrayInputStream(bufferStream.toByteArray());
+				createCanvas(imageContents, width, height);
+			paint(imageContents, scaledContents);
 			
-			// Create the image data and return it.
-			return new ImageData(resultStream);
+			return scaledContents;
 		}
 	}
 
@@ -332,9 +439,20 @@ public class Image {
 			final ImageData original)
 			throws DomainException {
 			
-			// Get the BufferedImage from the image data.
-			BufferedImage imageContents = original.getBufferedImage();
-			
+			return
+				encode(
+					scale(
+						original
+							.getSubsampledImage(SCALING_MINIMUM_DIMENSION)),
+					original.getImageType());
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.ohmage.domain.Image.Size#scale(java.awt.image.BufferedImage)
+		 */
+		@Override
+		public BufferedImage scale(final BufferedImage imageContents) {
 			// Get the original image's width and height and the offset from
 			// the corner for the smaller image.
 			int originalWidth = imageContents.getWidth();
@@ -359,54 +477,15 @@ public class Image {
 			}
 			
 			// Create the new image of the same type as the original and of the
-			// scaled dimensions.
+			// scaled dimensions and paint the cropped image onto it.
 			BufferedImage scaledContents =
-				new BufferedImage(
-					(new Double(IMAGE_SCALED_MAX_DIMENSION)).intValue(),
-					(new Double(IMAGE_SCALED_MAX_DIMENSION)).intValue(),
-					imageContents.getType());
-			
-			// Paint the original image onto the scaled canvas.
-			Graphics2D graphics2d = scaledContents.createGraphics();
-			graphics2d
-				.setRenderingHint(
-					RenderingHints.KEY_INTERPOLATION,
-					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-			graphics2d
-				.drawImage(
-					croppedContents, 
-					0, 
-					0, 
-					(new Double(IMAGE_SCALED_MAX_DIMENSION)).intValue(),
+				createCanvas(
+					imageContents,
 					(new Double(IMAGE_SCALED_MAX_DIMENSION)).intValue(),
-					null);
-			
-			// Cleanup.
-			graphics2d.dispose();
-			
-			// Create a buffer stream to read the result of the transformation.
-			ByteArrayOutputStream bufferStream = new ByteArrayOutputStream();
-			
-			// Get an image type.
-			String imageType = original.getImageType();
-			if(imageType == null) {
-				imageType = IMAGE_STORE_FORMAT;
-			}
-			
-			// Write the scaled image to the buffer.
-			try {
-				ImageIO.write(scaledContents, imageType, bufferStream);
-			}
-			catch(IOException e) {
-				throw new DomainException("Error writing the image.", e);
-			}
+					(new Double(IMAGE_SCALED_MAX_DIMENSION)).intValue());
+			paint(croppedContents, scaledContents);
 			
-			// Create an input stream to use to create the image data.
-			ByteArrayInputStream resultStream =
-				new ByteArrayInputStream(bufferStream.toByteArray());
-			
-			// Create the image data and return it.
-			return new ImageData(resultStream);
+			return scaledContents;
 		}
 	}
 	public static final Size ORIGINAL = Original.getInstance();
@@ -642,8 +721,95 @@ public class Image {
 			
 			return bufferedImage;
 		}
+		
+		/**
+		 * <p>Decodes the image data at a reduced resolution. Only every n-th
+		 * pixel in each direction is decoded, where n is the largest value
+		 * that still leaves the decoded image's shorter side at least the
+		 * given number of pixels. For a large photo, this avoids holding the
+		 * full-resolution image in memory when only a small version of it is
+		 * needed.</p>
+		 * 
+		 * <p>The result is not memoized. If the full-resolution image has
+		 * already been decoded, it is returned instead.</p>
+		 * 
+		 * @param minimumDimension The minimum length, in pixels, of the
+		 * 						   decoded image's shorter side.
+		 * 
+		 * @return The decoded image.
+		 * 
+		 * @throws DomainException There was an error reading the image data or
+		 * 						   the image data did not define an image.
+		 */
+		public BufferedImage getSubsampledImage(
+			final int minimumDimension)
+			throws DomainException {
+			
+			if(bufferedImage != null) {
+				return bufferedImage;
+			}
+			
+			InputStream imageStream = getInputStream();
+			ImageInputStream imageInputStream = null;
+			ImageReader reader = null;
+			try {
+				imageInputStream = ImageIO.createImageInputStream(imageStream);
+				if(imageInputStream == null) {
+					throw
+						new DomainException("The image could not be read.");
+				}
+				
+				Iterator<ImageReader> readers =
+					ImageIO.getImageReaders(imageInputStream);
+				if(! readers.hasNext()) {
+					throw
+						new DomainException("The image contents are invalid.");
+				}
+				reader = readers.next();
+				reader.setInput(imageInputStream, true, true);
+				
+				// Determine how many source pixels to skip for each one that
+				// is decoded.
+				int shorterSide =
+					Math.min(reader.getWidth(0), reader.getHeight(0));
+				int subsampling = Math.max(1, shorterSide / minimumDimension);
+				
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				
+				return reader.read(0, param);
+			}
+			catch(IOException e) {
+				throw new DomainException("The image could not be read.", e);
+			}
+			finally {
+				if(reader != null) {
+					reader.dispose();
+				}
+				try {
+					if(imageInputStream != null) {
+						imageInputStream.close();
+					}
+					// Streams from a URL are opened just for this decode.
+					if(url != null) {
+						imageStream.close();
+					}
+				}
+				catch(IOException e) {
+					// The image has already been read.
+				}
+			}
+		}
 	}
 	
+	/**
+	 * The minimum length, in pixels, of the shorter side of the original image
+	 * when it is decoded to create the scaled sizes. This is twice the scaled
+	 * sizes' maximum dimension, so they are always scaled down and never up.
+	 */
+	public static final int SCALING_MINIMUM_DIMENSION =
+		2 * (new Double(Size.IMAGE_SCALED_MAX_DIMENSION)).intValue();
+	
 	// The unique identifier for this image.
 	private final UUID id;
 	
@@ -893,24 +1059,116 @@ public class Image {
 		if(size == null) {
 			throw new DomainException("The size is null.");
 		}
-		// The original image must be saved with a save directory.
-		if(ORIGINAL.equals(size)) {
-			return;
+		
+		saveImages(Collections.singleton(size));
+	}
+	
+	/**
+	 * <p>Saves the given sizes of this image next to the original image,
+	 * skipping any that already exist. The original image must have been
+	 * built with a URL and is never saved by this function.</p>
+	 * 
+	 * <p>The original image is decoded at most once for all of the sizes and
+	 * at only as high a resolution as the sizes need, see
+	 * {@link #SCALING_MINIMUM_DIMENSION}. Each size is encoded into a
+	 * temporary file, which is then moved into place.</p>
+	 * 
+	 * @param sizes The sizes of the image to save.
+	 * 
+	 * @throws DomainException The original image does not have a URL, could
+	 * 						   not be read, or one of the files could not be
+	 * 						   written.
+	 * 
+	 * @see #saveImage(File)
+	 */
+	public void saveImages(final Collection<Size> sizes) throws DomainException {
+		// Validate the input.
+		if(sizes == null) {
+			throw new DomainException("The sizes are null.");
 		}
 		
 		// Get the URL for the original image.
-		URL originalUrl = imageData.get(ORIGINAL).getUrl();
+		ImageData originalData = imageData.get(ORIGINAL);
+		URL originalUrl = originalData.getUrl();
 		// If the original image doesn't have a URL, then it may have never
 		// been saved, which means there is nowhere to save the variants of the
 		// image.
-		try {
-			saveImage(size, new File(originalUrl.getFile()), false);
-		}
-		catch(DomainException e) {
+		if(originalUrl == null) {
 			throw
 				new DomainException(
-					"There was a problem creating the file.",
-					e);
+					"This Image object was not built with a default URL.");
+		}
+		String originalFile = originalUrl.getFile();
+		
+		// Determine which files need to be created. The original image must be
+		// saved with a save directory.
+		Map<Size, File> missingFiles = new LinkedHashMap<Size, File>();
+		for(Size size : sizes) {
+			if(ORIGINAL.equals(size)) {
+				continue;
+			}
+			
+			File file = new File(originalFile + size.getExtension());
+			if(! file.exists()) {
+				missingFiles.put(size, file);
+			}
+		}
+		if(missingFiles.isEmpty()) {
+			return;
+		}
+		
+		// Decode the original once for all of the sizes.
+		BufferedImage original =
+			originalData.getSubsampledImage(SCALING_MINIMUM_DIMENSION);
+		
+		// Use the original's format if it can be written.
+		String imageType = originalData.getImageType();
+		if((imageType == null) ||
+			(! ImageIO.getImageWritersByFormatName(imageType).hasNext())) {
+			
+			imageType = Size.IMAGE_STORE_FORMAT;
+		}
+		
+		for(Size size : missingFiles.keySet()) {
+			File file = missingFiles.get(size);
+			
+			// Write the image to a temporary file in the same directory and
+			// then move it into place, so that a reader never sees a
+			// partially written file.
+			File tempFile = null;
+			try {
+				tempFile =
+					File.createTempFile(
+						file.getName() + ".",
+						".tmp",
+						file.getAbsoluteFile().getParentFile());
+				
+				if(! ImageIO.write(size.scale(original), imageType, tempFile)) {
+					throw
+						new DomainException(
+							"There is no writer for the image type: " +
+								imageType);
+				}
+				
+				Files.move(
+					tempFile.toPath(),
+					file.toPath(),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch(IOException e) {
+				if(tempFile != null) {
+					tempFile.delete();
+				}
+				throw
+					new DomainException(
+						"There was a problem creating the file.",
+						e);
+			}
+			catch(DomainException e) {
+				tempFile.delete();
+				throw e;
+			}
 		}
 	}
 	
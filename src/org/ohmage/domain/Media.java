@@ -1,6 +1,8 @@
 package org.ohmage.domain;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -23,6 +25,84 @@ public abstract class Media {
 	 */
 	private static final int MAX_EXTENSION_LENGTH = 3;
 
+	/**
+	 * A stream that does not open its file until it is first read, so that
+	 * media that fails validation or is moved into place without being read
+	 * never holds a file descriptor.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class LazyFileInputStream extends InputStream {
+		private final File file;
+		private InputStream stream = null;
+		private boolean closed = false;
+
+		/**
+		 * Creates a stream for a file without opening it.
+		 *
+		 * @param file
+		 *        The file to read.
+		 */
+		private LazyFileInputStream(final File file) {
+			this.file = file;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return open().read();
+		}
+
+		@Override
+		public int read(
+			final byte[] b,
+			final int off,
+			final int len)
+			throws IOException {
+
+			return open().read(b, off, len);
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			return open().skip(n);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return open().available();
+		}
+
+		/**
+		 * Closes the file if it was opened. The stream may not be read after
+		 * it has been closed.
+		 */
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			if(stream != null) {
+				stream.close();
+			}
+		}
+
+		/**
+		 * Opens the file if it has not been opened yet.
+		 *
+		 * @return The stream connected to the file.
+		 *
+		 * @throws IOException
+		 *         The stream was closed or the file could not be opened.
+		 */
+		private InputStream open() throws IOException {
+			if(closed) {
+				throw new IOException("The stream is closed.");
+			}
+			if(stream == null) {
+				stream = new FileInputStream(file);
+			}
+			return stream;
+		}
+	}
+
 	public final UUID id;
 	public final String type;
 	public final InputStream content; 
@@ -30,6 +110,11 @@ public abstract class Media {
 	 * The size, in bytes, of the video file.
 	 */
 	public final int size;
+	/**
+	 * The uploaded file that contains the content or null if the content is
+	 * in memory or referenced by a URL.
+	 */
+	private final UploadedFile file;
 
 	/**
 	 * Creates a Media object with an ID, type, and the literal content.
@@ -88,6 +173,75 @@ public abstract class Media {
 		
 		// Validate the size.
 		this.size = content.length;
+		
+		this.file = null;
+	}
+	
+	/**
+	 * Creates a Media object with an ID, type, and the uploaded file that
+	 * contains the content. The content is read from the file rather than
+	 * held in memory, and the file is not opened until the content is first
+	 * read.
+	 * 
+	 * @param id
+	 *        The ID of the Media.
+	 * 
+	 * @param type
+	 *        The content type of the media.
+	 * 
+	 * @param file
+	 *        The uploaded file that contains the content of the media.
+	 * 
+	 * @throws DomainException
+	 *         One of the parameters was invalid or the file could not be
+	 *         read.
+	 */
+	public Media(
+		final UUID id, 
+		final String type, 
+		final UploadedFile file)
+		throws DomainException {
+		
+		// Validate the ID.
+		if(id == null) {
+			throw new DomainException("The ID is null.");
+		}
+		else {
+			this.id = id;
+		}
+		
+		// Validate the type.
+		if(type == null) {
+			throw new DomainException("The type is null.");
+		}
+		else {
+			String trimmedType = type.trim();
+			
+			if(trimmedType.length() == 0) {
+				throw new DomainException("The type is empty.");
+			}
+			else {
+				this.type = trimmedType;
+			}
+		}
+		
+		// Validate the content.
+		if(file == null) {
+			throw new DomainException("The content is null.");
+		}
+		else if(file.getSize() == 0) {
+			throw new DomainException("The content is empty.");
+		}
+		else if(file.getSize() > Integer.MAX_VALUE) {
+			throw new DomainException("The content is too large.");
+		}
+		else if(! file.getFile().isFile()) {
+			throw new DomainException("The uploaded file does not exist.");
+		}
+		
+		this.content = new LazyFileInputStream(file.getFile());
+		this.size = (int) file.getSize();
+		this.file = file;
 	}
 	
 	/**
@@ -147,6 +301,8 @@ public abstract class Media {
 		catch(IOException e) {
 			throw new DomainException("Could not connect to the file.", e);
 		}
+		
+		this.file = null;
 	}
 	
 	/**
@@ -176,6 +332,16 @@ public abstract class Media {
 		return content;
 	}
 	
+	/**
+	 * Returns the uploaded file that contains the data.
+	 * 
+	 * @return The uploaded file or null if the data is in memory or
+	 *         referenced by a URL.
+	 */
+	public UploadedFile getUploadedFile() {
+		return file;
+	}
+	
 	/**
 	 * Returns the video's size.
 	 * 
@@ -0,0 +1,241 @@
+package org.ohmage.domain;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.LocalDate;
+import org.ohmage.exception.DomainException;
+
+/**
+ * <p>
+ * The total time a user spent in one Mobility mode on one day, which is
+ * pre-computed from the user's Mobility points so that the points do not
+ * need to be read again to aggregate them.
+ * </p>
+ *
+ * <p>
+ * Each point counts for the time since the previous point, as long as that
+ * is no more than {@link #MAX_POINT_DURATION}. Otherwise, including the first
+ * point of the day, it counts for {@link #DEFAULT_POINT_DURATION}. The times
+ * of the mode's first and last points are kept so that consecutive days may
+ * be combined as if their points had been aggregated together.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class MobilityModeRollup {
+	/**
+	 * The time that a point counts for when there is no previous point or the
+	 * previous point is too far away.
+	 */
+	public static final long DEFAULT_POINT_DURATION = 1000 * 60;
+
+	/**
+	 * The longest time since the previous point that a point may count for.
+	 */
+	public static final long MAX_POINT_DURATION = 1000 * 60 * 6;
+
+	private final LocalDate day;
+	private final MobilityPoint.Mode mode;
+	private long duration;
+	private long count;
+	private final long firstTime;
+	private long lastTime;
+
+	/**
+	 * Creates a new rollup.
+	 *
+	 * @param day The day in the points' time zones.
+	 *
+	 * @param mode The mode.
+	 *
+	 * @param duration The total time in this mode in milliseconds.
+	 *
+	 * @param count The number of points in this mode.
+	 *
+	 * @param firstTime The time of the first point in this mode in
+	 * 					milliseconds since the epoch.
+	 *
+	 * @param lastTime The time of the last point in this mode in milliseconds
+	 * 				   since the epoch.
+	 *
+	 * @throws DomainException The day or mode were null.
+	 */
+	public MobilityModeRollup(
+			final LocalDate day,
+			final MobilityPoint.Mode mode,
+			final long duration,
+			final long count,
+			final long firstTime,
+			final long lastTime)
+			throws DomainException {
+
+		if(day == null) {
+			throw new DomainException("The day is null.");
+		}
+		if(mode == null) {
+			throw new DomainException("The mode is null.");
+		}
+
+		this.day = day;
+		this.mode = mode;
+		this.duration = duration;
+		this.count = count;
+		this.firstTime = firstTime;
+		this.lastTime = lastTime;
+	}
+
+	/**
+	 * Returns the day.
+	 *
+	 * @return The day in the points' time zones.
+	 */
+	public LocalDate getDay() {
+		return day;
+	}
+
+	/**
+	 * Returns the mode.
+	 *
+	 * @return The mode.
+	 */
+	public MobilityPoint.Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Returns the total time in this mode.
+	 *
+	 * @return The total time in milliseconds.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Returns the number of points in this mode.
+	 *
+	 * @return The number of points.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the time of the first point in this mode.
+	 *
+	 * @return The time in milliseconds since the epoch.
+	 */
+	public long getFirstTime() {
+		return firstTime;
+	}
+
+	/**
+	 * Returns the time of the last point in this mode.
+	 *
+	 * @return The time in milliseconds since the epoch.
+	 */
+	public long getLastTime() {
+		return lastTime;
+	}
+
+	/**
+	 * Returns the time that a point counts for.
+	 *
+	 * @param previousTime The time of the previous point in milliseconds
+	 * 					   since the epoch or null if there is no previous
+	 * 					   point.
+	 *
+	 * @param time The time of the point in milliseconds since the epoch.
+	 *
+	 * @return The time that the point counts for in milliseconds.
+	 */
+	public static long getPointDuration(
+			final Long previousTime,
+			final long time) {
+
+		if(previousTime == null) {
+			return DEFAULT_POINT_DURATION;
+		}
+
+		long difference = time - previousTime;
+		return
+			(difference <= MAX_POINT_DURATION) ?
+				difference :
+				DEFAULT_POINT_DURATION;
+	}
+
+	/**
+	 * Builds the rollups for one day from that day's points.
+	 *
+	 * @author John Jenkins
+	 */
+	public static class Builder {
+		private final LocalDate day;
+		private final Map<MobilityPoint.Mode, MobilityModeRollup> rollups =
+			new LinkedHashMap<MobilityPoint.Mode, MobilityModeRollup>();
+		private Long previousTime = null;
+
+		/**
+		 * Creates a builder for a day.
+		 *
+		 * @param day The day in the points' time zones.
+		 */
+		public Builder(final LocalDate day) {
+			this.day = day;
+		}
+
+		/**
+		 * Adds the next point. The points must be added in chronological
+		 * order.
+		 *
+		 * @param time The point's time in milliseconds since the epoch.
+		 *
+		 * @param mode The point's mode.
+		 *
+		 * @return This builder.
+		 *
+		 * @throws DomainException The mode is null.
+		 */
+		public Builder addPoint(
+				final long time,
+				final MobilityPoint.Mode mode)
+				throws DomainException {
+
+			long pointDuration = getPointDuration(previousTime, time);
+			previousTime = time;
+
+			MobilityModeRollup rollup = rollups.get(mode);
+			if(rollup == null) {
+				rollups.put(
+					mode,
+					new MobilityModeRollup(
+						day,
+						mode,
+						pointDuration,
+						1,
+						time,
+						time));
+			}
+			else {
+				rollup.duration += pointDuration;
+				rollup.count++;
+				rollup.lastTime = time;
+			}
+
+			return this;
+		}
+
+		/**
+		 * Returns the rollups for each mode that had a point.
+		 *
+		 * @return The rollups in the order in which their modes first
+		 * 		   appeared.
+		 */
+		public List<MobilityModeRollup> build() {
+			return new ArrayList<MobilityModeRollup>(rollups.values());
+		}
+	}
+}
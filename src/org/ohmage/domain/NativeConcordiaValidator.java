@@ -0,0 +1,442 @@
+package org.ohmage.domain;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.exception.DomainException;
+
+/**
+ * <p>
+ * A {@link ConcordiaValidator} that compiles a schema into a tree of Java
+ * checks. The checks run directly over the {@link JsonNode}, so the data is
+ * never serialized and re-parsed.
+ * </p>
+ *
+ * <p>
+ * The schema must already have been validated by the
+ * {@link RhinoConcordiaValidator}. This engine mirrors the reference
+ * JavaScript, including its quirks, and only refuses to compile schemas that
+ * reference remote sub-schemas.
+ * </p>
+ *
+ * <p>
+ * The compiled tree is immutable and, therefore, thread-safe.
+ * </p>
+ */
+final class NativeConcordiaValidator extends ConcordiaValidator {
+	private static final String KEYWORD_TYPE = "type";
+	private static final String KEYWORD_OPTIONAL = "optional";
+	private static final String KEYWORD_FIELDS = "fields";
+	private static final String KEYWORD_CONST_TYPE = "constType";
+	private static final String KEYWORD_CONST_LENGTH = "constLength";
+	private static final String KEYWORD_NAME = "name";
+
+	private static final String TYPE_BOOLEAN = "boolean";
+	private static final String TYPE_NUMBER = "number";
+	private static final String TYPE_STRING = "string";
+	private static final String TYPE_OBJECT = "object";
+	private static final String TYPE_ARRAY = "array";
+
+	/**
+	 * The mapper used to read the schema.
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * A single compiled check from the schema.
+	 */
+	private abstract static class Check {
+		private final boolean optional;
+
+		/**
+		 * Creates a check.
+		 *
+		 * @param optional Whether or not the value may be missing or null.
+		 */
+		protected Check(final boolean optional) {
+			this.optional = optional;
+		}
+
+		/**
+		 * Validates a value. Missing and null values are handled here, so
+		 * subclasses only see present values.
+		 *
+		 * @param data The value, which may be null if it was missing.
+		 *
+		 * @throws DomainException The value is invalid.
+		 */
+		public final void validate(final JsonNode data) throws DomainException {
+			if((data == null) || data.isNull()) {
+				if(! optional) {
+					throw invalid(missingMessage());
+				}
+				return;
+			}
+
+			validatePresent(data);
+		}
+
+		/**
+		 * Returns the message to use when a required value is missing.
+		 *
+		 * @return The message.
+		 */
+		protected String missingMessage() {
+			return "The data is null and not optional.";
+		}
+
+		/**
+		 * Validates a value that is present and not null.
+		 *
+		 * @param data The value.
+		 *
+		 * @throws DomainException The value is invalid.
+		 */
+		protected abstract void validatePresent(
+				final JsonNode data)
+				throws DomainException;
+	}
+
+	/**
+	 * Checks that a value is a boolean.
+	 */
+	private static final class BooleanCheck extends Check {
+		private BooleanCheck(final boolean optional) {
+			super(optional);
+		}
+
+		@Override
+		protected void validatePresent(
+				final JsonNode data)
+				throws DomainException {
+
+			if(! data.isBoolean()) {
+				throw invalid("The value is not a boolean: " + data);
+			}
+		}
+	}
+
+	/**
+	 * Checks that a value is a number.
+	 */
+	private static final class NumberCheck extends Check {
+		private NumberCheck(final boolean optional) {
+			super(optional);
+		}
+
+		@Override
+		protected void validatePresent(
+				final JsonNode data)
+				throws DomainException {
+
+			if(! data.isNumber()) {
+				throw invalid("The value is not a number: " + data);
+			}
+		}
+	}
+
+	/**
+	 * Checks that a value is a string.
+	 */
+	private static final class StringCheck extends Check {
+		private StringCheck(final boolean optional) {
+			super(optional);
+		}
+
+		@Override
+		protected void validatePresent(
+				final JsonNode data)
+				throws DomainException {
+
+			if(! data.isTextual()) {
+				throw invalid("The data is not a string: " + data);
+			}
+		}
+	}
+
+	/**
+	 * Checks that a value is an object and that each of the schema's fields
+	 * is valid. Additional fields are allowed.
+	 */
+	private static final class ObjectCheck extends Check {
+		private final String schema;
+		private final String[] names;
+		private final Check[] fields;
+
+		private ObjectCheck(
+				final boolean optional,
+				final String schema,
+				final String[] names,
+				final Check[] fields) {
+
+			super(optional);
+
+			this.schema = schema;
+			this.names = names;
+			this.fields = fields;
+		}
+
+		@Override
+		protected String missingMessage() {
+			return "The object data is not optional: " + schema;
+		}
+
+		@Override
+		protected void validatePresent(
+				final JsonNode data)
+				throws DomainException {
+
+			if(! data.isObject()) {
+				throw invalid("The data is not a JSON object: " + data);
+			}
+
+			for(int i = 0; i < fields.length; i++) {
+				fields[i].validate(data.get(names[i]));
+			}
+		}
+	}
+
+	/**
+	 * Checks that a value is an array whose elements all conform to the same
+	 * schema.
+	 */
+	private static final class ConstTypeArrayCheck extends Check {
+		private final String schema;
+		private final Check element;
+
+		private ConstTypeArrayCheck(
+				final boolean optional,
+				final String schema,
+				final Check element) {
+
+			super(optional);
+
+			this.schema = schema;
+			this.element = element;
+		}
+
+		@Override
+		protected String missingMessage() {
+			return "The array data is not optional: " + schema;
+		}
+
+		@Override
+		protected void validatePresent(
+				final JsonNode data)
+				throws DomainException {
+
+			if(! data.isArray()) {
+				throw invalid("The data is not a JSON array: " + data);
+			}
+
+			Iterator<JsonNode> elements = data.getElements();
+			while(elements.hasNext()) {
+				element.validate(elements.next());
+			}
+		}
+	}
+
+	/**
+	 * Checks that a value is an array of a specific length.
+	 */
+	private static final class ConstLengthArrayCheck extends Check {
+		private final String schema;
+		private final int length;
+
+		private ConstLengthArrayCheck(
+				final boolean optional,
+				final String schema,
+				final int length) {
+
+			super(optional);
+
+			this.schema = schema;
+			this.length = length;
+		}
+
+		@Override
+		protected String missingMessage() {
+			return "The array data is not optional: " + schema;
+		}
+
+		@Override
+		protected void validatePresent(
+				final JsonNode data)
+				throws DomainException {
+
+			if(! data.isArray()) {
+				throw invalid("The data is not a JSON array: " + data);
+			}
+
+			// The reference implementation only compares the lengths. Its
+			// per-index loop is bounded by the length of the schema object,
+			// which is undefined, so the elements themselves are never
+			// checked. This is mirrored here so that both engines accept the
+			// same data.
+			if(data.size() != length) {
+				throw invalid(
+					"The schema array and the data array are of different " +
+						"lengths: " +
+						data);
+			}
+		}
+	}
+
+	/**
+	 * The root of the compiled schema.
+	 */
+	private final Check root;
+
+	/**
+	 * Compiles a schema that has already been validated by the reference
+	 * implementation.
+	 *
+	 * @param schema The schema.
+	 *
+	 * @throws DomainException The schema could not be read or uses a feature
+	 * 						   that cannot be compiled.
+	 */
+	NativeConcordiaValidator(final String schema) throws DomainException {
+		JsonNode schemaNode;
+		try {
+			schemaNode = MAPPER.readTree(schema);
+		}
+		catch(JsonProcessingException e) {
+			throw new DomainException("The schema is not valid JSON.", e);
+		}
+		catch(IOException e) {
+			throw new DomainException("The schema could not be read.", e);
+		}
+
+		if((schemaNode == null) || (! schemaNode.isObject())) {
+			throw new DomainException("The schema is not a JSON object.");
+		}
+
+		root = compile(schemaNode);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.domain.ConcordiaValidator#getEngine()
+	 */
+	@Override
+	public Engine getEngine() {
+		return Engine.NATIVE;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.domain.ConcordiaValidator#validate(org.codehaus.jackson.JsonNode)
+	 */
+	@Override
+	public JsonNode validate(final JsonNode data) throws DomainException {
+		if((data == null) || (! data.isContainerNode())) {
+			throw invalid(
+				"The data must either be a JSON object or a JSON array or " +
+					"a string representing one of the two.");
+		}
+
+		root.validate(data);
+
+		return data;
+	}
+
+	/**
+	 * Compiles a single type definition and, recursively, its children.
+	 *
+	 * @param schema The type definition.
+	 *
+	 * @return The compiled check.
+	 *
+	 * @throws DomainException The type definition cannot be compiled.
+	 */
+	private static Check compile(final JsonNode schema) throws DomainException {
+		JsonNode typeNode = schema.get(KEYWORD_TYPE);
+		if((typeNode == null) || (! typeNode.isTextual())) {
+			throw new DomainException(
+				"Only inline types are supported: " + schema);
+		}
+		String type = typeNode.getTextValue();
+
+		JsonNode optionalNode = schema.get(KEYWORD_OPTIONAL);
+		boolean optional =
+			(optionalNode != null) && optionalNode.getBooleanValue();
+
+		if(TYPE_BOOLEAN.equals(type)) {
+			return new BooleanCheck(optional);
+		}
+		else if(TYPE_NUMBER.equals(type)) {
+			return new NumberCheck(optional);
+		}
+		else if(TYPE_STRING.equals(type)) {
+			return new StringCheck(optional);
+		}
+		else if(TYPE_OBJECT.equals(type)) {
+			JsonNode fieldsNode = schema.get(KEYWORD_FIELDS);
+			if((fieldsNode == null) || (! fieldsNode.isArray())) {
+				throw new DomainException(
+					"The object's fields are missing: " + schema);
+			}
+
+			int numFields = fieldsNode.size();
+			String[] names = new String[numFields];
+			Check[] fields = new Check[numFields];
+			for(int i = 0; i < numFields; i++) {
+				JsonNode field = fieldsNode.get(i);
+
+				JsonNode nameNode = field.get(KEYWORD_NAME);
+				if((nameNode == null) || (! nameNode.isTextual())) {
+					throw new DomainException(
+						"Only named fields are supported: " + schema);
+				}
+
+				names[i] = nameNode.getTextValue();
+				fields[i] = compile(field);
+			}
+
+			return new ObjectCheck(optional, schema.toString(), names, fields);
+		}
+		else if(TYPE_ARRAY.equals(type)) {
+			JsonNode constType = schema.get(KEYWORD_CONST_TYPE);
+			if(constType != null) {
+				return
+					new ConstTypeArrayCheck(
+						optional,
+						schema.toString(),
+						compile(constType));
+			}
+
+			JsonNode constLength = schema.get(KEYWORD_CONST_LENGTH);
+			if((constLength == null) || (! constLength.isArray())) {
+				throw new DomainException(
+					"The array's definition is missing: " + schema);
+			}
+
+			return
+				new ConstLengthArrayCheck(
+					optional,
+					schema.toString(),
+					constLength.size());
+		}
+		else {
+			throw new DomainException("Type unknown: " + type);
+		}
+	}
+
+	/**
+	 * Creates the exception for data that does not conform to the schema.
+	 *
+	 * @param reason Why the data is invalid.
+	 *
+	 * @return The exception.
+	 */
+	private static DomainException invalid(final String reason) {
+		return new DomainException(
+			ErrorCode.OBSERVER_INVALID_STREAM_DATA,
+			"The data does not conform to the schema: " + reason);
+	}
+}
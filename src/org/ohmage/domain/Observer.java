@@ -1,7 +1,5 @@
 package org.ohmage.domain;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.Collection;
@@ -30,11 +28,6 @@ import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonProcessingException;
 import org.codehaus.jackson.map.MappingJsonFactory;
-import org.mozilla.javascript.Context;
-import org.mozilla.javascript.Function;
-import org.mozilla.javascript.JavaScriptException;
-import org.mozilla.javascript.RhinoException;
-import org.mozilla.javascript.Scriptable;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.DataStream.MetaData;
 import org.ohmage.exception.DomainException;
@@ -49,53 +42,6 @@ import org.w3c.dom.DOMException;
  */
 @XmlRootElement
 public class Observer {
-	/**
-	 * This is the contents of the JavaSciprt file that evaluates schemas and
-	 * data against those schemas. This should be used in conjunction with
-	 * something like Rhino, in order to create a JavaScript interpreter to
-	 * evaluate the JavaScript.
-	 */
-	private static final String JS_SCHEMA;
-	static {
-		FileReader reader;
-		try {
-			reader =
-				new FileReader(
-					System.getProperty("webapp.root") + "Concordia.js");
-		}
-		catch(FileNotFoundException e) {
-			throw new IllegalStateException(
-				"The JSON Schema could not be found.",
-				e);
-		}
-		
-		try {
-			int amountRead;
-			char[] buffer = new char[4096];
-			StringBuilder builder = new StringBuilder();
-			while((amountRead = reader.read(buffer)) != -1) {
-				builder.append(buffer, 0, amountRead);
-			}
-		
-			JS_SCHEMA = builder.toString();
-		}
-		catch(IOException e) {
-			throw new IllegalStateException(
-				"There was a problem reading the JSON Schema's JavaScript file.",
-				e);
-		}
-		finally {
-			try {
-				reader.close();
-			}
-			catch(IOException e) {
-				throw new IllegalStateException(
-					"Could not close the file reader.",
-					e);
-			}
-		}
-	}
-	
 	/**
 	 * The JSON factory for creating parsers and generators.
 	 */
@@ -167,6 +113,7 @@ public class Observer {
 		@XmlElement(name=KEY_JSON_SCHEMA)
 		private final String schemaString;
 		private final JsonParser schema;
+		private final ConcordiaValidator validator;
 		
 		/**
 		 * Private, default constructor. This should never be used and would
@@ -183,6 +130,7 @@ public class Observer {
 			withLocation = null;
 			schemaString = null;
 			schema = null;
+			validator = null;
 		}
 
 		/**
@@ -245,7 +193,9 @@ public class Observer {
 			this.withTimestamp = withTimestamp;
 			this.withLocation = withLocation;
 
-			this.schema = validateSchema(schema);
+			this.validator =
+				ConcordiaValidator.getValidator(this.id, version, schema);
+			this.schema = parseSchema(schema);
 			this.schemaString = schema;
 		}
 		
@@ -407,7 +357,9 @@ public class Observer {
 			
 			schemaString = 
 				getXmlValue(stream, "schema", "stream, " + id + ", schema");
-			schema = validateSchema(schemaString);
+			validator =
+				ConcordiaValidator.getValidator(id, version, schemaString);
+			schema = parseSchema(schemaString);
 			
 		}
 
@@ -556,53 +508,7 @@ public class Observer {
 		 * @throws DomainException The data does not conform to the schema.
 		 */
 		public JsonNode validateData(JsonNode data) throws DomainException {
-			Context context = Context.enter();
-			try {
-				Scriptable scope = context.initStandardObjects();
-				Function concordiaConstructor =
-					context.compileFunction(
-						scope, 
-						JS_SCHEMA, 
-						"Concordia.js", 
-						1, 
-						null);
-				
-				Scriptable concordia =
-					concordiaConstructor.construct(
-						context, 
-						scope, 
-						new Object[] { schemaString }
-					);
-				
-				Object validateData = 
-					concordia.get("validateData", concordia);
-				if(validateData instanceof Function) {
-					Function validateDataFunction = (Function) validateData;
-					
-					validateDataFunction.call(
-						context, 
-						scope, 
-						validateDataFunction, 
-						new Object[] { data.toString() }
-					);
-				}
-				else {
-					throw new DomainException(
-						"The 'validateData' function is missing.");
-				}
-			}
-			catch(JavaScriptException e) {
-				throw new DomainException(
-					ErrorCode.OBSERVER_INVALID_STREAM_DATA,
-					"The data does not conform to the schema: " + 
-						e.getMessage(),
-					e);
-			}
-			finally {
-				Context.exit();
-			}
-			
-			return data;
+			return validator.validate(data);
 		}
 		
 		/**
@@ -648,36 +554,23 @@ public class Observer {
 				final String schema)
 				throws DomainException {
 			
-			Context context = Context.enter();
-			try {
-				Scriptable scope = context.initStandardObjects();
-				Function concordiaConstructor =
-					context.compileFunction(
-						scope, 
-						JS_SCHEMA, 
-						"Concordia.js", 
-						1, 
-						null);
-				
-				concordiaConstructor.construct(
-					context, 
-					scope, 
-					new Object[] { schema });
-			}
-			catch(JavaScriptException e) {
-				throw new DomainException(
-					ErrorCode.OBSERVER_INVALID_STREAM_DEFINITION,
-					"The schema is invalid: " + e.getMessage(),
-					e);
-			}
-			catch(RhinoException e) {
-				throw new DomainException(
-					ErrorCode.OBSERVER_INVALID_STREAM_DEFINITION, 
-					"A stream definition is not valid JSON.");
-			}
-			finally {
-				Context.exit();
-			}
+			ConcordiaValidator.compile(schema);
+			
+			return parseSchema(schema);
+		}
+		
+		/**
+		 * Creates a parser for a schema that has already been validated.
+		 * 
+		 * @param schema The stream's schema.
+		 * 
+		 * @return A parser over the schema.
+		 * 
+		 * @throws DomainException The schema could not be parsed.
+		 */
+		private static JsonParser parseSchema(
+				final String schema)
+				throws DomainException {
 			
 			try {
 				return JSON_FACTORY.createJsonParser(schema);
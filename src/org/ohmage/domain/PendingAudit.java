@@ -0,0 +1,372 @@
+package org.ohmage.domain;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.ohmage.exception.DomainException;
+import org.ohmage.jee.servlet.RequestServlet;
+
+/**
+ * <p>
+ * The information about a request that has been responded to but whose audit
+ * has not yet been written to the database. Unlike {@link Audit}, which is
+ * read back from the database, this has already been sanitized and only
+ * holds strings, so it may be queued or written to disk without holding on
+ * to the request.
+ * </p>
+ *
+ * <p>
+ * This class is immutable and, therefore, thread-safe.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class PendingAudit {
+	private static final String JSON_KEY_REQUEST_TYPE = "request_type";
+	private static final String JSON_KEY_URI = "uri";
+	private static final String JSON_KEY_CLIENT = "client";
+	private static final String JSON_KEY_REQUEST_ID = "request_id";
+	private static final String JSON_KEY_DEVICE_ID = "device_id";
+	private static final String JSON_KEY_RESPONSE = "response";
+	private static final String JSON_KEY_RECEIVED_MILLIS = "received_millis";
+	private static final String JSON_KEY_RESPONDED_MILLIS = "responded_millis";
+	private static final String JSON_KEY_PARAMETERS = "request_parameters";
+	private static final String JSON_KEY_EXTRAS = "extra_data";
+
+	private final RequestServlet.RequestType requestType;
+	private final String uri;
+	private final String client;
+	private final String requestId;
+	private final String deviceId;
+	private final String response;
+
+	private final Map<String, String[]> parameters;
+	private final Map<String, String[]> extras;
+
+	private final long receivedMillis;
+	private final long respondedMillis;
+
+	/**
+	 * Creates a new audit that is waiting to be written.
+	 *
+	 * @param requestType The HTTP request type.
+	 *
+	 * @param uri The URI of the request.
+	 *
+	 * @param client The client parameter, which may be null.
+	 *
+	 * @param requestId The unique ID given to the request, which may be null.
+	 *
+	 * @param deviceId The device ID parameter, which may be null.
+	 *
+	 * @param response The response's result as a JSON string.
+	 *
+	 * @param parameters The sanitized parameters, which may be null.
+	 *
+	 * @param extras The HTTP headers and any additional information from the
+	 * 				 request, which may be null.
+	 *
+	 * @param receivedMillis The milliseconds since epoch at which the request
+	 * 						 was received.
+	 *
+	 * @param respondedMillis The milliseconds since epoch at which the
+	 * 						  request had been completely responded to.
+	 *
+	 * @throws DomainException The request type, URI, or response is null.
+	 */
+	public PendingAudit(
+			final RequestServlet.RequestType requestType,
+			final String uri,
+			final String client,
+			final String requestId,
+			final String deviceId,
+			final String response,
+			final Map<String, String[]> parameters,
+			final Map<String, String[]> extras,
+			final long receivedMillis,
+			final long respondedMillis)
+			throws DomainException {
+
+		if(requestType == null) {
+			throw new DomainException("The request type is null.");
+		}
+		if(uri == null) {
+			throw new DomainException("The URI is null.");
+		}
+		if(response == null) {
+			throw new DomainException("The response is null.");
+		}
+
+		this.requestType = requestType;
+		this.uri = uri;
+		this.client = client;
+		this.requestId = requestId;
+		this.deviceId = deviceId;
+		this.response = response;
+
+		this.parameters =
+			(parameters == null) ?
+				Collections.<String, String[]>emptyMap() :
+				Collections.unmodifiableMap(
+					new LinkedHashMap<String, String[]>(parameters));
+		this.extras =
+			(extras == null) ?
+				Collections.<String, String[]>emptyMap() :
+				Collections.unmodifiableMap(
+					new LinkedHashMap<String, String[]>(extras));
+
+		this.receivedMillis = receivedMillis;
+		this.respondedMillis = respondedMillis;
+	}
+
+	/**
+	 * Rebuilds an audit from its JSON, as written by
+	 * {@link #writeJson(JsonGenerator)}.
+	 *
+	 * @param audit The audit's JSON.
+	 *
+	 * @return The audit.
+	 *
+	 * @throws DomainException The JSON is not a valid audit.
+	 */
+	public static PendingAudit fromJson(
+			final JsonNode audit)
+			throws DomainException {
+
+		if((audit == null) || (! audit.isObject())) {
+			throw new DomainException("The audit is not a JSON object.");
+		}
+
+		RequestServlet.RequestType requestType;
+		try {
+			requestType =
+				RequestServlet.RequestType.valueOf(
+					getText(audit, JSON_KEY_REQUEST_TYPE));
+		}
+		catch(IllegalArgumentException e) {
+			throw new DomainException("The request type is unknown.", e);
+		}
+		catch(NullPointerException e) {
+			throw new DomainException("The request type is missing.", e);
+		}
+
+		return
+			new PendingAudit(
+				requestType,
+				getText(audit, JSON_KEY_URI),
+				getText(audit, JSON_KEY_CLIENT),
+				getText(audit, JSON_KEY_REQUEST_ID),
+				getText(audit, JSON_KEY_DEVICE_ID),
+				getText(audit, JSON_KEY_RESPONSE),
+				getMap(audit, JSON_KEY_PARAMETERS),
+				getMap(audit, JSON_KEY_EXTRAS),
+				audit.path(JSON_KEY_RECEIVED_MILLIS).getLongValue(),
+				audit.path(JSON_KEY_RESPONDED_MILLIS).getLongValue());
+	}
+
+	/**
+	 * Returns the HTTP request type.
+	 *
+	 * @return The HTTP request type.
+	 */
+	public RequestServlet.RequestType getRequestType() {
+		return requestType;
+	}
+
+	/**
+	 * Returns the URI of the request.
+	 *
+	 * @return The URI of the request.
+	 */
+	public String getUri() {
+		return uri;
+	}
+
+	/**
+	 * Returns the client parameter.
+	 *
+	 * @return The client parameter, which may be null.
+	 */
+	public String getClient() {
+		return client;
+	}
+
+	/**
+	 * Returns the unique ID given to the request.
+	 *
+	 * @return The request's ID, which may be null.
+	 */
+	public String getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * Returns the device ID parameter.
+	 *
+	 * @return The device ID, which may be null.
+	 */
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	/**
+	 * Returns the response's result as a JSON string.
+	 *
+	 * @return The response.
+	 */
+	public String getResponse() {
+		return response;
+	}
+
+	/**
+	 * Returns the sanitized parameters.
+	 *
+	 * @return An unmodifiable map of the parameters, which may be empty.
+	 */
+	public Map<String, String[]> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Returns the HTTP headers and additional information from the request.
+	 *
+	 * @return An unmodifiable map of the extras, which may be empty.
+	 */
+	public Map<String, String[]> getExtras() {
+		return extras;
+	}
+
+	/**
+	 * Returns the time at which the request was received.
+	 *
+	 * @return The milliseconds since epoch at which the request was received.
+	 */
+	public long getReceivedMillis() {
+		return receivedMillis;
+	}
+
+	/**
+	 * Returns the time at which the request was responded to.
+	 *
+	 * @return The milliseconds since epoch at which the request was
+	 * 		   responded to.
+	 */
+	public long getRespondedMillis() {
+		return respondedMillis;
+	}
+
+	/**
+	 * Writes this audit as a single JSON object.
+	 *
+	 * @param generator The generator to write to.
+	 *
+	 * @throws IOException There was an error writing to the generator.
+	 */
+	public void writeJson(final JsonGenerator generator) throws IOException {
+		generator.writeStartObject();
+
+		generator.writeStringField(JSON_KEY_REQUEST_TYPE, requestType.name());
+		generator.writeStringField(JSON_KEY_URI, uri);
+		generator.writeStringField(JSON_KEY_CLIENT, client);
+		generator.writeStringField(JSON_KEY_REQUEST_ID, requestId);
+		generator.writeStringField(JSON_KEY_DEVICE_ID, deviceId);
+		generator.writeStringField(JSON_KEY_RESPONSE, response);
+		generator.writeNumberField(JSON_KEY_RECEIVED_MILLIS, receivedMillis);
+		generator.writeNumberField(JSON_KEY_RESPONDED_MILLIS, respondedMillis);
+
+		writeMap(generator, JSON_KEY_PARAMETERS, parameters);
+		writeMap(generator, JSON_KEY_EXTRAS, extras);
+
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Writes a map of keys to multiple values as a JSON object of arrays.
+	 *
+	 * @param generator The generator to write to.
+	 *
+	 * @param fieldName The field to write the object to.
+	 *
+	 * @param map The map to write.
+	 *
+	 * @throws IOException There was an error writing to the generator.
+	 */
+	private static void writeMap(
+			final JsonGenerator generator,
+			final String fieldName,
+			final Map<String, String[]> map)
+			throws IOException {
+
+		generator.writeObjectFieldStart(fieldName);
+		for(Map.Entry<String, String[]> entry : map.entrySet()) {
+			generator.writeArrayFieldStart(entry.getKey());
+			for(String value : entry.getValue()) {
+				generator.writeString(value);
+			}
+			generator.writeEndArray();
+		}
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Reads a text field from a JSON object.
+	 *
+	 * @param object The object.
+	 *
+	 * @param fieldName The field's name.
+	 *
+	 * @return The field's text or null if it is missing or null.
+	 */
+	private static String getText(
+			final JsonNode object,
+			final String fieldName) {
+
+		JsonNode field = object.get(fieldName);
+		if((field == null) || field.isNull()) {
+			return null;
+		}
+
+		return field.asText();
+	}
+
+	/**
+	 * Reads a map of keys to multiple values from a JSON object of arrays.
+	 *
+	 * @param object The object that contains the map.
+	 *
+	 * @param fieldName The field that contains the map.
+	 *
+	 * @return The map, which will be empty if the field is missing.
+	 */
+	private static Map<String, String[]> getMap(
+			final JsonNode object,
+			final String fieldName) {
+
+		Map<String, String[]> result = new LinkedHashMap<String, String[]>();
+
+		JsonNode map = object.get(fieldName);
+		if((map == null) || (! map.isObject())) {
+			return result;
+		}
+
+		Iterator<String> keys = map.getFieldNames();
+		while(keys.hasNext()) {
+			String key = keys.next();
+			JsonNode values = map.get(key);
+
+			String[] array = new String[values.size()];
+			for(int i = 0; i < array.length; i++) {
+				JsonNode value = values.get(i);
+				array[i] = value.isNull() ? null : value.asText();
+			}
+			result.put(key, array);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,204 @@
+package org.ohmage.domain;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonNode;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.exception.DomainException;
+
+/**
+ * <p>
+ * A {@link ConcordiaValidator} that evaluates the reference Concordia
+ * JavaScript with Rhino.
+ * </p>
+ *
+ * <p>
+ * The Concordia JavaScript is compiled a single time into a sealed, shared
+ * scope. Each schema then builds exactly one Concordia object, which is
+ * sealed as well. Because none of the shared objects may be modified after
+ * they are built, a validator may be used by any number of threads at the
+ * same time, each with its own Rhino {@link Context}.
+ * </p>
+ */
+final class RhinoConcordiaValidator extends ConcordiaValidator {
+	/**
+	 * This is the contents of the JavaSciprt file that evaluates schemas and
+	 * data against those schemas. This should be used in conjunction with
+	 * something like Rhino, in order to create a JavaScript interpreter to
+	 * evaluate the JavaScript.
+	 */
+	private static final String JS_SCHEMA;
+	static {
+		FileReader reader;
+		try {
+			reader =
+				new FileReader(
+					System.getProperty("webapp.root") + "Concordia.js");
+		}
+		catch(FileNotFoundException e) {
+			throw new IllegalStateException(
+				"The JSON Schema could not be found.",
+				e);
+		}
+
+		try {
+			int amountRead;
+			char[] buffer = new char[4096];
+			StringBuilder builder = new StringBuilder();
+			while((amountRead = reader.read(buffer)) != -1) {
+				builder.append(buffer, 0, amountRead);
+			}
+
+			JS_SCHEMA = builder.toString();
+		}
+		catch(IOException e) {
+			throw new IllegalStateException(
+				"There was a problem reading the JSON Schema's JavaScript file.",
+				e);
+		}
+		finally {
+			try {
+				reader.close();
+			}
+			catch(IOException e) {
+				throw new IllegalStateException(
+					"Could not close the file reader.",
+					e);
+			}
+		}
+	}
+
+	/**
+	 * The sealed scope that contains the standard JavaScript objects. This is
+	 * shared by every validator.
+	 */
+	private static final ScriptableObject SHARED_SCOPE;
+	/**
+	 * The compiled Concordia constructor.
+	 */
+	private static final Function CONCORDIA_CONSTRUCTOR;
+	static {
+		Context context = Context.enter();
+		try {
+			SHARED_SCOPE = context.initStandardObjects(null, true);
+
+			CONCORDIA_CONSTRUCTOR =
+				context.compileFunction(
+					SHARED_SCOPE,
+					JS_SCHEMA,
+					"Concordia.js",
+					1,
+					null);
+
+			// Force the constructor to build its prototype now so that it is
+			// never lazily built by two threads at once.
+			ScriptableObject.getProperty(CONCORDIA_CONSTRUCTOR, "prototype");
+
+			SHARED_SCOPE.sealObject();
+		}
+		finally {
+			Context.exit();
+		}
+	}
+
+	/**
+	 * The sealed Concordia object for this schema.
+	 */
+	private final Scriptable concordia;
+	/**
+	 * The Concordia object's "validateData" function.
+	 */
+	private final Function validateDataFunction;
+
+	/**
+	 * Compiles a schema into a validator. This is also the reference check
+	 * that a schema is valid.
+	 *
+	 * @param schema The schema to compile.
+	 *
+	 * @throws DomainException The schema is invalid.
+	 */
+	RhinoConcordiaValidator(final String schema) throws DomainException {
+		Context context = Context.enter();
+		try {
+			concordia =
+				CONCORDIA_CONSTRUCTOR.construct(
+					context,
+					SHARED_SCOPE,
+					new Object[] { schema });
+
+			Object validateData =
+				concordia.get("validateData", concordia);
+			if(validateData instanceof Function) {
+				validateDataFunction = (Function) validateData;
+			}
+			else {
+				throw new DomainException(
+					"The 'validateData' function is missing.");
+			}
+
+			if(concordia instanceof ScriptableObject) {
+				((ScriptableObject) concordia).sealObject();
+			}
+		}
+		catch(JavaScriptException e) {
+			throw new DomainException(
+				ErrorCode.OBSERVER_INVALID_STREAM_DEFINITION,
+				"The schema is invalid: " + e.getMessage(),
+				e);
+		}
+		catch(RhinoException e) {
+			throw new DomainException(
+				ErrorCode.OBSERVER_INVALID_STREAM_DEFINITION,
+				"A stream definition is not valid JSON.");
+		}
+		finally {
+			Context.exit();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.domain.ConcordiaValidator#getEngine()
+	 */
+	@Override
+	public Engine getEngine() {
+		return Engine.RHINO;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.domain.ConcordiaValidator#validate(org.codehaus.jackson.JsonNode)
+	 */
+	@Override
+	public JsonNode validate(final JsonNode data) throws DomainException {
+		Context context = Context.enter();
+		try {
+			validateDataFunction.call(
+				context,
+				SHARED_SCOPE,
+				concordia,
+				new Object[] { data.toString() });
+		}
+		catch(JavaScriptException e) {
+			throw new DomainException(
+				ErrorCode.OBSERVER_INVALID_STREAM_DATA,
+				"The data does not conform to the schema: " +
+					e.getMessage(),
+				e);
+		}
+		finally {
+			Context.exit();
+		}
+
+		return data;
+	}
+}
@@ -0,0 +1,165 @@
+package org.ohmage.domain;
+
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.exception.DomainException;
+
+/**
+ * This class represents a position in the ordered data of a stream. It is the
+ * time and database ID of the last point that was read, so the next read may
+ * seek directly to the point after it instead of skipping over every point
+ * before it. To the user, it is an opaque string. This class is immutable
+ * and, therefore, thread-safe.
+ *
+ * @author John Jenkins
+ */
+public class StreamReadCursor {
+	/**
+	 * This class is responsible for building a cursor from the points as they
+	 * are read. This class is mutable and, therefore, not thread-safe.
+	 *
+	 * @author John Jenkins
+	 */
+	public static class Builder {
+		private Long time = null;
+		private Long id = null;
+
+		/**
+		 * Creates an empty builder.
+		 */
+		public Builder() {
+			// Do nothing.
+		}
+
+		/**
+		 * Sets the position to a point that was just read.
+		 *
+		 * @param time The point's time, which may be null.
+		 *
+		 * @param id The point's database ID.
+		 *
+		 * @return This builder to facilitate chaining.
+		 */
+		public Builder setPosition(final Long time, final long id) {
+			this.time = time;
+			this.id = id;
+
+			return this;
+		}
+
+		/**
+		 * Builds the cursor.
+		 *
+		 * @return The cursor or null if no position was ever set.
+		 */
+		public StreamReadCursor build() {
+			if(id == null) {
+				return null;
+			}
+
+			return new StreamReadCursor(time, id);
+		}
+	}
+
+	/**
+	 * The separator between the time and ID in the encoded cursor.
+	 */
+	private static final char SEPARATOR = '.';
+	/**
+	 * The encoded value of a null time.
+	 */
+	private static final String NULL_TIME = "n";
+	/**
+	 * The radix used to encode the numbers.
+	 */
+	private static final int RADIX = Character.MAX_RADIX;
+
+	private final Long time;
+	private final long id;
+
+	/**
+	 * Creates a new cursor.
+	 *
+	 * @param time The last point's time, which may be null.
+	 *
+	 * @param id The last point's database ID.
+	 */
+	public StreamReadCursor(final Long time, final long id) {
+		this.time = time;
+		this.id = id;
+	}
+
+	/**
+	 * Decodes a cursor that was previously returned to a user.
+	 *
+	 * @param cursor The encoded cursor.
+	 *
+	 * @return The decoded cursor.
+	 *
+	 * @throws DomainException The cursor is invalid.
+	 */
+	public static StreamReadCursor decode(
+			final String cursor)
+			throws DomainException {
+
+		if(cursor == null) {
+			throw new DomainException(
+				ErrorCode.OBSERVER_INVALID_CURSOR,
+				"The cursor is null.");
+		}
+
+		int separatorIndex = cursor.indexOf(SEPARATOR);
+		if(separatorIndex == -1) {
+			throw new DomainException(
+				ErrorCode.OBSERVER_INVALID_CURSOR,
+				"The cursor is invalid: " + cursor);
+		}
+
+		try {
+			String timeString = cursor.substring(0, separatorIndex);
+			Long time =
+				NULL_TIME.equals(timeString) ?
+					null :
+					Long.parseLong(timeString, RADIX);
+			long id = Long.parseLong(cursor.substring(separatorIndex + 1), RADIX);
+
+			return new StreamReadCursor(time, id);
+		}
+		catch(NumberFormatException e) {
+			throw new DomainException(
+				ErrorCode.OBSERVER_INVALID_CURSOR,
+				"The cursor is invalid: " + cursor,
+				e);
+		}
+	}
+
+	/**
+	 * Returns the last point's time.
+	 *
+	 * @return The last point's time, which may be null.
+	 */
+	public Long getTime() {
+		return time;
+	}
+
+	/**
+	 * Returns the last point's database ID.
+	 *
+	 * @return The last point's database ID.
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the opaque, URL-safe encoding of this cursor.
+	 *
+	 * @return The encoded cursor.
+	 */
+	@Override
+	public String toString() {
+		return
+			((time == null) ? NULL_TIME : Long.toString(time, RADIX)) +
+			SEPARATOR +
+			Long.toString(id, RADIX);
+	}
+}
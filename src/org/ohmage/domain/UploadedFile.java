@@ -0,0 +1,179 @@
+package org.ohmage.domain;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.exception.DomainException;
+
+/**
+ * <p>
+ * A file that was uploaded as part of a request and written to a temporary
+ * file as it was read, so its contents are never held in memory.
+ * </p>
+ *
+ * <p>
+ * The temporary file belongs to the request that created it, which should
+ * {@link #delete()} it once the request has been handled unless it has been
+ * moved elsewhere.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class UploadedFile {
+	/**
+	 * The prefix for the temporary files' names.
+	 */
+	private static final String FILE_PREFIX = "ohmage-upload-";
+
+	/**
+	 * The size of the buffer used to copy the contents.
+	 */
+	private static final int BUFFER_SIZE = 4096;
+
+	private final File file;
+	private final long size;
+
+	/**
+	 * Creates a reference to an uploaded file.
+	 *
+	 * @param file
+	 *        The file that contains the contents.
+	 *
+	 * @param size
+	 *        The size of the contents in bytes.
+	 */
+	private UploadedFile(final File file, final long size) {
+		this.file = file;
+		this.size = size;
+	}
+
+	/**
+	 * Reads the contents from a stream into a new temporary file. The stream
+	 * is not closed.
+	 *
+	 * @param contents
+	 *        The contents, which may be a stream that decompresses the
+	 *        contents as they are read.
+	 *
+	 * @param suffix
+	 *        The suffix for the temporary file's name, e.g. ".jpeg", which
+	 *        may be null.
+	 *
+	 * @param maxSize
+	 *        The maximum size of the contents in bytes. For compressed
+	 *        contents, this is the size after they are decompressed.
+	 *
+	 * @return The uploaded file or null if the contents were empty.
+	 *
+	 * @throws DomainException
+	 *         The contents were too large or the temporary file could not be
+	 *         written. Nothing is left on disk.
+	 *
+	 * @throws IOException
+	 *         The contents could not be read, e.g. they claimed to be
+	 *         compressed but were not. Nothing is left on disk.
+	 */
+	public static UploadedFile create(
+			final InputStream contents,
+			final String suffix,
+			final long maxSize)
+			throws DomainException, IOException {
+
+		if(contents == null) {
+			throw new DomainException("The contents are null.");
+		}
+
+		File file;
+		FileOutputStream fos;
+		try {
+			file = File.createTempFile(FILE_PREFIX, suffix);
+			fos = new FileOutputStream(file);
+		}
+		catch(IOException e) {
+			throw new DomainException(
+				"The temporary file could not be created.",
+				e);
+		}
+
+		boolean created = false;
+		try {
+			long size = 0;
+			int amountRead;
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while((amountRead = contents.read(buffer)) != -1) {
+				size += amountRead;
+				if(size > maxSize) {
+					throw new DomainException(
+						ErrorCode.SYSTEM_REQUEST_TOO_LARGE,
+						"The file is larger than the maximum allowed size of " +
+							maxSize +
+							" bytes.");
+				}
+
+				try {
+					fos.write(buffer, 0, amountRead);
+				}
+				catch(IOException e) {
+					throw new DomainException(
+						"The temporary file could not be written.",
+						e);
+				}
+			}
+
+			try {
+				fos.close();
+			}
+			catch(IOException e) {
+				throw new DomainException(
+					"The temporary file could not be closed.",
+					e);
+			}
+
+			if(size == 0) {
+				return null;
+			}
+
+			created = true;
+			return new UploadedFile(file, size);
+		}
+		finally {
+			if(! created) {
+				try {
+					fos.close();
+				}
+				catch(IOException e) {
+					// The file is being deleted anyway.
+				}
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the file that contains the contents.
+	 *
+	 * @return The file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the size of the contents.
+	 *
+	 * @return The size of the contents in bytes.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Deletes the file if it still exists.
+	 */
+	public void delete() {
+		file.delete();
+	}
+}
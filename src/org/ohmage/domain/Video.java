@@ -39,6 +39,28 @@ public class Video extends Media {
 		super(id, type, content);
 	}
 	
+	/**
+	 * Constructs a new video object from a video that was uploaded to a
+	 * file.
+	 * 
+	 * @param id
+	 *        The video's unique identifier.
+	 * 
+	 * @param type
+	 *        The video's extension.
+	 * 
+	 * @param file
+	 *        The uploaded file that contains the video.
+	 */
+	public Video(
+		final UUID id, 
+		final String type, 
+		final UploadedFile file)
+		throws DomainException {
+		
+		super(id, type, file);
+	}
+	
 	/**
 	 * Creates a video file with an ID from the given URL.
 	 * 
@@ -33,8 +33,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 import nu.xom.Builder;
@@ -699,6 +697,59 @@ public class Campaign {
 		classes = new LinkedList<String>();
 	}
 	
+	/**
+	 * Creates a Campaign object that shares the parsed XML of another
+	 * campaign, so the XML need not be parsed again. The surveys are shared
+	 * and must not be modified. The users, classes, and masks are not
+	 * copied.
+	 * 
+	 * @param parsed The campaign whose parsed XML will be shared.
+	 * 
+	 * @param description The optional description of the configuration.
+	 * 
+	 * @param runningState The configuration's current running state.
+	 * 
+	 * @param privacyState The configuration's current privacy state.
+	 * 
+	 * @throws DomainException If any of the parameters are invalid.
+	 */
+	public Campaign(
+			final Campaign parsed,
+			final String description,
+			final RunningState runningState,
+			final PrivacyState privacyState)
+			throws DomainException {
+		
+		if(parsed == null) {
+			throw new DomainException("The parsed campaign is null.");
+		}
+		else if(runningState == null) {
+			throw new DomainException("The running state is null.");
+		}
+		else if(privacyState == null) {
+			throw new DomainException("The privacy state is null.");
+		}
+		
+		id = parsed.id;
+		name = parsed.name;
+		this.description = description;
+		
+		iconUrl = parsed.iconUrl;
+		authoredBy = parsed.authoredBy;
+		
+		surveyMap = parsed.surveyMap;
+		
+		this.runningState = runningState;
+		this.privacyState = privacyState;
+		
+		creationTimestamp = parsed.creationTimestamp;
+		
+		xml = parsed.xml;
+		
+		userRoles = new HashMap<String, Collection<Role>>();
+		classes = new LinkedList<String>();
+	}
+	
 	/**
 	 * Validates that some XML contains all required components of an ohmage
 	 * XML document and that all values, even optional ones that are given, are
@@ -2836,11 +2887,6 @@ public class Campaign {
 				promptMap, index);
 	}
 	
-	// FIXME: Hackalicious. This is a hot-fix so that concurrency won't break 
-	// condition parsing. We need to fix the condition parser to not be static
-	// as soon as possible!
-	private static final Lock parserLock = new ReentrantLock();
-	
 	/**
 	 * Creates a Prompt object based on the XML prompt Node.
 	 * 
@@ -3235,16 +3281,12 @@ public class Campaign {
 		
 		Map<String, List<ConditionValuePair>> promptIdAndConditionValues;
 		try {
-			parserLock.lock();
 			promptIdAndConditionValues = 
 					ConditionValidator.validate(condition);
 		}
 		catch(ConditionParseException e) {
 			throw new DomainException(e.getMessage(), e);
 		}
-		finally {
-			parserLock.unlock();
-		}
 		
 		for(String promptId : promptIdAndConditionValues.keySet()) {
 			// Validate that the prompt exists and comes before this prompt. 
@@ -0,0 +1,634 @@
+package org.ohmage.domain.campaign;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.ohmage.config.grammar.custom.ConditionParseException;
+import org.ohmage.config.grammar.custom.ConditionValidator;
+import org.ohmage.config.grammar.syntaxtree.Conjunction;
+import org.ohmage.config.grammar.syntaxtree.Expression;
+import org.ohmage.config.grammar.syntaxtree.NodeSequence;
+import org.ohmage.config.grammar.syntaxtree.NodeToken;
+import org.ohmage.config.grammar.syntaxtree.Sentence;
+import org.ohmage.config.grammar.syntaxtree.SentencePrime;
+import org.ohmage.domain.campaign.Response.NoResponse;
+import org.ohmage.domain.campaign.prompt.BoundedPrompt;
+import org.ohmage.domain.campaign.prompt.ChoicePrompt;
+import org.ohmage.domain.campaign.prompt.CustomChoicePrompt;
+import org.ohmage.exception.DomainException;
+
+/**
+ * <p>
+ * A survey item's condition compiled into a tree of comparisons against the
+ * responses to the prompts in the same group of survey items. Each prompt is
+ * resolved to its index, its slot in the group's map of responses, and each
+ * value is decoded for its prompt's type when the condition is compiled, so
+ * evaluating a condition is only a few map lookups and comparisons.
+ * </p>
+ *
+ * <p>
+ * Evaluation is three-valued: a condition may be true, false, or unknown.
+ * It is unknown when it depends on a response that is missing, e.g. because
+ * the prompt was masked or was not read, on the value of a prompt that was
+ * skipped or not displayed, or on a comparison the server cannot make, e.g.
+ * against a custom choice.
+ * </p>
+ *
+ * <p>
+ * The grammar has no precedence between "and" and "or", so a condition that
+ * mixes the two without parentheses is compiled as it is parsed but is
+ * flagged as {@link #isAmbiguous() ambiguous}, because clients may not read
+ * it the same way.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public final class CompiledCondition {
+	private static final int TRUE = 1;
+	private static final int FALSE = 0;
+	private static final int UNKNOWN = -1;
+
+	private static final String CONJUNCTION_AND = "and";
+
+	/**
+	 * The comparison operators in the grammar.
+	 *
+	 * @author John Jenkins
+	 */
+	private static enum Operator {
+		EQUALS ("=="),
+		NOT_EQUALS ("!="),
+		LESS_THAN ("<"),
+		GREATER_THAN (">"),
+		LESS_THAN_OR_EQUALS ("<="),
+		GREATER_THAN_OR_EQUALS (">=");
+
+		private final String symbol;
+
+		/**
+		 * Assigns the symbol to the enum constant.
+		 *
+		 * @param symbol The operator's symbol in the grammar.
+		 */
+		private Operator(final String symbol) {
+			this.symbol = symbol;
+		}
+
+		/**
+		 * Returns the operator for a symbol.
+		 *
+		 * @param symbol The operator's symbol in the grammar.
+		 *
+		 * @return The operator.
+		 *
+		 * @throws DomainException The symbol is unknown.
+		 */
+		private static Operator getValue(
+				final String symbol)
+				throws DomainException {
+
+			for(Operator operator : values()) {
+				if(operator.symbol.equals(symbol)) {
+					return operator;
+				}
+			}
+
+			throw new DomainException("The operator is unknown: " + symbol);
+		}
+
+		/**
+		 * Applies this operator to the result of a comparison.
+		 *
+		 * @param comparison The result of comparing the response to the
+		 * 					 value, which is negative, zero, or positive.
+		 *
+		 * @return Whether or not the comparison satisfies this operator.
+		 */
+		private boolean test(final int comparison) {
+			switch(this) {
+			case EQUALS:
+				return comparison == 0;
+			case NOT_EQUALS:
+				return comparison != 0;
+			case LESS_THAN:
+				return comparison < 0;
+			case GREATER_THAN:
+				return comparison > 0;
+			case LESS_THAN_OR_EQUALS:
+				return comparison <= 0;
+			case GREATER_THAN_OR_EQUALS:
+				return comparison >= 0;
+			default:
+				throw new IllegalStateException("Unknown operator: " + this);
+			}
+		}
+	}
+
+	/**
+	 * A node in the compiled condition.
+	 *
+	 * @author John Jenkins
+	 */
+	private abstract static class Node {
+		/**
+		 * Evaluates this node.
+		 *
+		 * @param responses The responses in the group by their index.
+		 *
+		 * @return TRUE, FALSE, or UNKNOWN.
+		 */
+		abstract int evaluate(final Map<Integer, Response> responses);
+	}
+
+	/**
+	 * A comparison that can never be made.
+	 */
+	private static final Node UNKNOWN_NODE = new Node() {
+		@Override
+		int evaluate(final Map<Integer, Response> responses) {
+			return UNKNOWN;
+		}
+	};
+
+	/**
+	 * Two nodes joined by "and".
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class And extends Node {
+		private final Node left;
+		private final Node right;
+
+		private And(final Node left, final Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		int evaluate(final Map<Integer, Response> responses) {
+			int leftResult = left.evaluate(responses);
+			if(leftResult == FALSE) {
+				return FALSE;
+			}
+
+			int rightResult = right.evaluate(responses);
+			if(rightResult == FALSE) {
+				return FALSE;
+			}
+
+			return
+				((leftResult == TRUE) && (rightResult == TRUE)) ?
+					TRUE :
+					UNKNOWN;
+		}
+	}
+
+	/**
+	 * Two nodes joined by "or".
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Or extends Node {
+		private final Node left;
+		private final Node right;
+
+		private Or(final Node left, final Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		int evaluate(final Map<Integer, Response> responses) {
+			int leftResult = left.evaluate(responses);
+			if(leftResult == TRUE) {
+				return TRUE;
+			}
+
+			int rightResult = right.evaluate(responses);
+			if(rightResult == TRUE) {
+				return TRUE;
+			}
+
+			return
+				((leftResult == FALSE) && (rightResult == FALSE)) ?
+					FALSE :
+					UNKNOWN;
+		}
+	}
+
+	/**
+	 * Checks whether a prompt was skipped or not displayed.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class NoResponseComparison extends Node {
+		private final int index;
+		private final NoResponse noResponse;
+		private final boolean equals;
+
+		private NoResponseComparison(
+				final int index,
+				final NoResponse noResponse,
+				final boolean equals) {
+
+			this.index = index;
+			this.noResponse = noResponse;
+			this.equals = equals;
+		}
+
+		@Override
+		int evaluate(final Map<Integer, Response> responses) {
+			Response response = responses.get(index);
+			if(response == null) {
+				return UNKNOWN;
+			}
+
+			return
+				(noResponse.equals(response.getResponse()) == equals) ?
+					TRUE :
+					FALSE;
+		}
+	}
+
+	/**
+	 * Compares a prompt's value to a constant. Prompts without a value,
+	 * because they were skipped or not displayed, cannot be compared.
+	 *
+	 * @author John Jenkins
+	 */
+	private abstract static class ValueComparison extends Node {
+		protected final int index;
+		protected final Operator operator;
+
+		private ValueComparison(final int index, final Operator operator) {
+			this.index = index;
+			this.operator = operator;
+		}
+
+		@Override
+		final int evaluate(final Map<Integer, Response> responses) {
+			Response response = responses.get(index);
+			if(response == null) {
+				return UNKNOWN;
+			}
+
+			Object value = response.getResponse();
+			if((value == null) || (value instanceof NoResponse)) {
+				return UNKNOWN;
+			}
+
+			return compare(value);
+		}
+
+		/**
+		 * Compares the prompt's value to the constant.
+		 *
+		 * @param value The prompt's value, which is never null.
+		 *
+		 * @return TRUE, FALSE, or UNKNOWN.
+		 */
+		abstract int compare(final Object value);
+	}
+
+	/**
+	 * Compares a choice prompt's key or keys to a constant key. A prompt with
+	 * multiple keys is equal to the constant if any of its keys are.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class KeyComparison extends ValueComparison {
+		private final int key;
+
+		private KeyComparison(
+				final int index,
+				final Operator operator,
+				final int key) {
+
+			super(index, operator);
+
+			this.key = key;
+		}
+
+		@Override
+		int compare(final Object value) {
+			if(value instanceof Integer) {
+				int comparison = ((Integer) value).compareTo(key);
+				return operator.test(comparison) ? TRUE : FALSE;
+			}
+			else if(value instanceof Collection<?>) {
+				boolean contains = ((Collection<?>) value).contains(key);
+
+				switch(operator) {
+				case EQUALS:
+					return contains ? TRUE : FALSE;
+				case NOT_EQUALS:
+					return contains ? FALSE : TRUE;
+				default:
+					return UNKNOWN;
+				}
+			}
+
+			return UNKNOWN;
+		}
+	}
+
+	/**
+	 * Compares a bounded prompt's number to a constant number.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class NumberComparison extends ValueComparison {
+		private final BigDecimal number;
+
+		private NumberComparison(
+				final int index,
+				final Operator operator,
+				final BigDecimal number) {
+
+			super(index, operator);
+
+			this.number = number;
+		}
+
+		@Override
+		int compare(final Object value) {
+			BigDecimal decimal;
+			if(value instanceof BigDecimal) {
+				decimal = (BigDecimal) value;
+			}
+			else if((value instanceof Long) || (value instanceof Integer)) {
+				decimal = BigDecimal.valueOf(((Number) value).longValue());
+			}
+			else {
+				return UNKNOWN;
+			}
+
+			return operator.test(decimal.compareTo(number)) ? TRUE : FALSE;
+		}
+	}
+
+	/**
+	 * Compiles the syntax tree of a condition.
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class Compiler {
+		private final Map<String, SurveyItem> surveyItems;
+		private boolean ambiguous = false;
+
+		/**
+		 * Creates a compiler for the conditions in a group of survey items.
+		 *
+		 * @param surveyItems The survey items in the group by their ID.
+		 */
+		private Compiler(final Map<String, SurveyItem> surveyItems) {
+			this.surveyItems = surveyItems;
+		}
+
+		/**
+		 * Compiles a sentence and every sentence joined to it.
+		 *
+		 * @param sentence The sentence.
+		 *
+		 * @param conjunctions The conjunctions seen so far at this level of
+		 * 					   parentheses.
+		 *
+		 * @return The compiled sentence.
+		 *
+		 * @throws DomainException The sentence references an unknown prompt
+		 * 						   or operator.
+		 */
+		private Node compile(
+				final Sentence sentence,
+				final Set<String> conjunctions)
+				throws DomainException {
+
+			NodeSequence sequence = (NodeSequence) sentence.f0.choice;
+
+			Node result;
+			SentencePrime prime;
+			// Expression() SentencePrime()
+			if(sentence.f0.which == 0) {
+				result = compile((Expression) sequence.elementAt(0));
+				prime = (SentencePrime) sequence.elementAt(1);
+			}
+			// "(" Sentence() ")" SentencePrime()
+			else {
+				Set<String> innerConjunctions = new HashSet<String>();
+				result =
+					compile((Sentence) sequence.elementAt(1), innerConjunctions);
+				ambiguous |= (innerConjunctions.size() > 1);
+
+				prime = (SentencePrime) sequence.elementAt(3);
+			}
+
+			// Conjunction() Sentence() SentencePrime()
+			while(prime.f0.present()) {
+				NodeSequence primeSequence = (NodeSequence) prime.f0.node;
+
+				String conjunction =
+					((NodeToken)
+						((Conjunction) primeSequence.elementAt(0)).f0.choice)
+						.tokenImage;
+				conjunctions.add(conjunction);
+
+				Node right =
+					compile((Sentence) primeSequence.elementAt(1), conjunctions);
+				if(CONJUNCTION_AND.equals(conjunction)) {
+					result = new And(result, right);
+				}
+				else {
+					result = new Or(result, right);
+				}
+
+				prime = (SentencePrime) primeSequence.elementAt(2);
+			}
+
+			return result;
+		}
+
+		/**
+		 * Compiles a single comparison.
+		 *
+		 * @param expression The comparison.
+		 *
+		 * @return The compiled comparison.
+		 *
+		 * @throws DomainException The comparison references an unknown prompt
+		 * 						   or operator.
+		 */
+		private Node compile(
+				final Expression expression)
+				throws DomainException {
+
+			String id = expression.f0.f0.tokenImage;
+			Operator operator =
+				Operator.getValue(
+					((NodeToken) expression.f1.f0.choice).tokenImage);
+			String value = expression.f2.f0.tokenImage;
+
+			SurveyItem surveyItem = surveyItems.get(id);
+			if(surveyItem == null) {
+				throw new DomainException("The prompt is unknown: " + id);
+			}
+			int index = surveyItem.getIndex();
+
+			NoResponse noResponse = null;
+			try {
+				noResponse = NoResponse.valueOf(value.toUpperCase());
+			}
+			catch(IllegalArgumentException notNoResponse) {
+				// It is a value for the prompt.
+			}
+			if(noResponse != null) {
+				switch(operator) {
+				case EQUALS:
+					return new NoResponseComparison(index, noResponse, true);
+				case NOT_EQUALS:
+					return new NoResponseComparison(index, noResponse, false);
+				default:
+					return UNKNOWN_NODE;
+				}
+			}
+
+			try {
+				// Custom choices are stored by their label, not their key.
+				if(surveyItem instanceof CustomChoicePrompt) {
+					return UNKNOWN_NODE;
+				}
+				else if(surveyItem instanceof ChoicePrompt) {
+					return
+						new KeyComparison(
+							index,
+							operator,
+							Integer.decode(value));
+				}
+				else if(surveyItem instanceof BoundedPrompt) {
+					return
+						new NumberComparison(
+							index,
+							operator,
+							new BigDecimal(value));
+				}
+			}
+			catch(NumberFormatException e) {
+				return UNKNOWN_NODE;
+			}
+
+			return UNKNOWN_NODE;
+		}
+	}
+
+	private final String condition;
+	private final Node root;
+	private final boolean ambiguous;
+
+	/**
+	 * Creates a compiled condition.
+	 *
+	 * @param condition The condition as it was written.
+	 *
+	 * @param root The root of the compiled condition.
+	 *
+	 * @param ambiguous Whether or not the condition mixes "and" and "or"
+	 * 					without parentheses.
+	 */
+	private CompiledCondition(
+			final String condition,
+			final Node root,
+			final boolean ambiguous) {
+
+		this.condition = condition;
+		this.root = root;
+		this.ambiguous = ambiguous;
+	}
+
+	/**
+	 * Compiles a condition. The condition should have already been validated
+	 * against its group of survey items.
+	 *
+	 * @param condition The condition.
+	 *
+	 * @param surveyItems The survey items in the condition's group by their
+	 * 					  index. These are the only prompts the condition may
+	 * 					  reference.
+	 *
+	 * @return The compiled condition.
+	 *
+	 * @throws DomainException The condition could not be parsed or references
+	 * 						   an unknown prompt.
+	 */
+	public static CompiledCondition compile(
+			final String condition,
+			final Map<Integer, SurveyItem> surveyItems)
+			throws DomainException {
+
+		Sentence sentence;
+		try {
+			sentence = ConditionValidator.parse(condition).f0;
+		}
+		catch(ConditionParseException e) {
+			throw new DomainException(e.getMessage(), e);
+		}
+
+		Map<String, SurveyItem> surveyItemsById =
+			new HashMap<String, SurveyItem>(surveyItems.size());
+		for(SurveyItem surveyItem : surveyItems.values()) {
+			surveyItemsById.put(surveyItem.getId(), surveyItem);
+		}
+
+		Compiler compiler = new Compiler(surveyItemsById);
+		Set<String> conjunctions = new HashSet<String>();
+		Node root = compiler.compile(sentence, conjunctions);
+
+		return
+			new CompiledCondition(
+				condition,
+				root,
+				compiler.ambiguous || (conjunctions.size() > 1));
+	}
+
+	/**
+	 * Evaluates this condition against the responses in its group of survey
+	 * items.
+	 *
+	 * @param responses The responses in the group by their prompt's index.
+	 *
+	 * @return True if the condition is true, false if it is false, or null if
+	 * 		   it cannot be determined from the responses.
+	 */
+	public Boolean evaluate(final Map<Integer, Response> responses) {
+		switch(root.evaluate(responses)) {
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether or not this condition mixes "and" and "or" without
+	 * parentheses, in which case clients may evaluate it differently.
+	 *
+	 * @return Whether or not this condition is ambiguous.
+	 */
+	public boolean isAmbiguous() {
+		return ambiguous;
+	}
+
+	/**
+	 * Returns the condition as it was written.
+	 *
+	 * @return The condition.
+	 */
+	@Override
+	public String toString() {
+		return condition;
+	}
+}
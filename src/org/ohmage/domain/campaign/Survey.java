@@ -82,6 +82,12 @@ public class Survey {
 	private final Map<String, Prompt> prompts;
 	private final Map<String, RepeatableSet> repeatableSets;
 	
+	/**
+	 * The compiled condition of each survey item that has one, including
+	 * those in repeatable sets, by the survey item's ID.
+	 */
+	private final Map<String, CompiledCondition> conditions;
+	
 	/**
 	 * Creates a new survey.
 	 * 
@@ -153,6 +159,9 @@ public class Survey {
 				repeatableSets.put(surveyItem.getId(), (RepeatableSet) surveyItem);
 			}
 		}
+		
+		conditions = new HashMap<String, CompiledCondition>();
+		compileConditions(surveyItems);
 	}
 	
 	/**
@@ -309,6 +318,20 @@ public class Survey {
 		return null;
 	}
 	
+	/**
+	 * Returns the compiled condition of a survey item, which may be in a
+	 * repeatable set. The conditions are compiled once, when the survey is
+	 * created.
+	 * 
+	 * @param surveyItemId The survey item's unique identifier.
+	 * 
+	 * @return The survey item's compiled condition or null if it doesn't 
+	 * 		   have a condition.
+	 */
+	public CompiledCondition getCompiledCondition(final String surveyItemId) {
+		return conditions.get(surveyItemId);
+	}
+	
 	/**
 	 * Retrieves the prompt with the given prompt ID if it exists as a prompt
 	 * or within a repeatable set. Otherwise, null is returned.
@@ -528,6 +551,34 @@ public class Survey {
 		generator.writeEndObject();
 	}
 
+	/**
+	 * Compiles the conditions of a group of survey items and of the survey
+	 * items in any of its repeatable sets. A condition may only reference
+	 * prompts in its own group.
+	 *
+	 * @param group The group of survey items by their index.
+	 *
+	 * @throws DomainException One of the conditions could not be compiled.
+	 */
+	private void compileConditions(
+			final Map<Integer, SurveyItem> group)
+			throws DomainException {
+
+		for(SurveyItem surveyItem : group.values()) {
+			String condition = surveyItem.getCondition();
+			if(condition != null) {
+				conditions.put(
+					surveyItem.getId(),
+					CompiledCondition.compile(condition, group));
+			}
+
+			if(surveyItem instanceof RepeatableSet) {
+				compileConditions(
+					((RepeatableSet) surveyItem).getSurveyItems());
+			}
+		}
+	}
+
 	/**
 	 * Generates a hash code for this survey.
 	 * 
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.ohmage.domain.campaign;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -94,6 +95,12 @@ public class SurveyResponse {
 	private static final String JSON_KEY_REPEATABLE_SET_ID = "repeatable_set_id";
 	
 	private static final String JSON_KEY_PROMPT_VALUE = "value";
+	/**
+	 * The key for whether or not a prompt's condition was met, i.e. whether
+	 * or not the prompt should have been displayed. It is only present when
+	 * the prompt has a condition and it could be evaluated.
+	 */
+	private static final String JSON_KEY_PROMPT_CONDITION_MET = "prompt_condition_met";
 	
 	private static final String JSON_KEY_COUNT = "count";
 	
@@ -782,6 +789,25 @@ public class SurveyResponse {
 		}
 	}
 	
+	/**
+	 * Receives survey responses as they are read so that they may be written
+	 * out without keeping every survey response in memory.
+	 *
+	 * @author John Jenkins
+	 */
+	public static interface SurveyResponseHandler {
+		/**
+		 * Handles a single survey response, including its prompt responses.
+		 * 
+		 * @param surveyResponse The survey response.
+		 * 
+		 * @throws IOException The survey response could not be handled.
+		 */
+		public void handle(
+			final SurveyResponse surveyResponse)
+			throws IOException;
+	}
+	
 	/**
 	 * Creates a new survey response information object based on the 
 	 * parameters. All parameters are required unless otherwise specified.
@@ -1614,8 +1640,25 @@ public class SurveyResponse {
 				JSONObject responses = new JSONObject();
 				for(Integer index : indices) {
 					Response response = this.responses.get(index);
+					JSONObject responseJson = response.toJson(false);
 					
-					responses.put(response.getId(), response.toJson(false));
+					// Include whether or not the survey item should have been
+					// displayed, so clients don't need to evaluate its 
+					// condition themselves.
+					if(response instanceof PromptResponse) {
+						Boolean conditionMet = 
+							evaluateCondition(
+								((PromptResponse) response).getPrompt(),
+								this.responses);
+						
+						if(conditionMet != null) {
+							responseJson.put(
+								JSON_KEY_PROMPT_CONDITION_MET, 
+								conditionMet);
+						}
+					}
+					
+					responses.put(response.getId(), responseJson);
 				}
 				result.put(JSON_KEY_RESPONSES, responses);
 			}
@@ -1858,9 +1901,72 @@ public class SurveyResponse {
 			}
 		}
 		
+		// Warn about survey items that were not displayed even though their
+		// condition was true, or the other way around. Clients have been
+		// uploading these for a long time, so they are not rejected.
+		for(SurveyItem surveyItem : surveyItems.values()) {
+			Response response = results.get(surveyItem.getIndex());
+			if(response == null) {
+				continue;
+			}
+			
+			Boolean conditionMet = evaluateCondition(surveyItem, results);
+			if(conditionMet == null) {
+				continue;
+			}
+			else if(conditionMet && response.wasNotDisplayed()) {
+				LOGGER.warn(
+					"The survey item was not displayed, but its condition " +
+						"is true: " + 
+						surveyItem.getId() + 
+						" in survey response " + 
+						surveyResponseId);
+			}
+			else if((! conditionMet) && (! response.wasNotDisplayed())) {
+				LOGGER.warn(
+					"The survey item was displayed, but its condition is " +
+						"false: " + 
+						surveyItem.getId() + 
+						" in survey response " + 
+						surveyResponseId);
+			}
+		}
+		
 		return results;
 	}
 	
+	/**
+	 * Evaluates a survey item's condition against the other responses in its
+	 * group of survey items.
+	 * 
+	 * @param surveyItem The survey item.
+	 * 
+	 * @param responses The responses in the survey item's group by their 
+	 * 					index.
+	 * 
+	 * @return True if the survey item should have been displayed, false if it
+	 * 		   should not have been displayed, or null if the survey item 
+	 * 		   doesn't have a condition or it could not be evaluated, e.g. 
+	 * 		   because it depends on a response that is missing or it is 
+	 * 		   ambiguous.
+	 */
+	private Boolean evaluateCondition(
+			final SurveyItem surveyItem,
+			final Map<Integer, Response> responses) {
+		
+		if(survey == null) {
+			return null;
+		}
+		
+		CompiledCondition condition = 
+			survey.getCompiledCondition(surveyItem.getId());
+		if((condition == null) || condition.isAmbiguous()) {
+			return null;
+		}
+		
+		return condition.evaluate(responses);
+	}
+	
 	/**
 	 * Creates a PromptResponse object from a Prompt and the JSONObject that
 	 * represents the response to the prompt.
@@ -0,0 +1,163 @@
+package org.ohmage.domain.campaign;
+
+import java.util.UUID;
+
+import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.exception.DomainException;
+
+/**
+ * This class represents a position in the newest-first ordering of survey
+ * responses. It is the time and unique identifier of the last survey response
+ * that was read, so the next read may seek directly to the survey response
+ * after it instead of skipping over every survey response before it. To the
+ * user, it is an opaque string. This class is immutable and, therefore,
+ * thread-safe.
+ *
+ * @author John Jenkins
+ */
+public class SurveyResponseReadCursor {
+	/**
+	 * This class is responsible for building a cursor from the survey
+	 * responses as they are read. This class is mutable and, therefore, not
+	 * thread-safe.
+	 *
+	 * @author John Jenkins
+	 */
+	public static class Builder {
+		private Long time = null;
+		private UUID id = null;
+
+		/**
+		 * Creates an empty builder.
+		 */
+		public Builder() {
+			// Do nothing.
+		}
+
+		/**
+		 * Sets the position to a survey response that was just read.
+		 *
+		 * @param time The survey response's time.
+		 *
+		 * @param id The survey response's unique identifier.
+		 *
+		 * @return This builder to facilitate chaining.
+		 */
+		public Builder setPosition(final long time, final UUID id) {
+			this.time = time;
+			this.id = id;
+
+			return this;
+		}
+
+		/**
+		 * Builds the cursor.
+		 *
+		 * @return The cursor or null if no position was ever set.
+		 */
+		public SurveyResponseReadCursor build() {
+			if(id == null) {
+				return null;
+			}
+
+			return new SurveyResponseReadCursor(time, id);
+		}
+	}
+
+	/**
+	 * The separator between the time and ID in the encoded cursor.
+	 */
+	private static final char SEPARATOR = '.';
+	/**
+	 * The radix used to encode the time.
+	 */
+	private static final int RADIX = Character.MAX_RADIX;
+
+	private final long time;
+	private final UUID id;
+
+	/**
+	 * Creates a new cursor.
+	 *
+	 * @param time The last survey response's time.
+	 *
+	 * @param id The last survey response's unique identifier.
+	 */
+	public SurveyResponseReadCursor(final long time, final UUID id) {
+		if(id == null) {
+			throw new IllegalArgumentException("The ID is null.");
+		}
+
+		this.time = time;
+		this.id = id;
+	}
+
+	/**
+	 * Decodes a cursor that was previously returned to a user.
+	 *
+	 * @param cursor The encoded cursor.
+	 *
+	 * @return The decoded cursor.
+	 *
+	 * @throws DomainException The cursor is invalid.
+	 */
+	public static SurveyResponseReadCursor decode(
+			final String cursor)
+			throws DomainException {
+
+		if(cursor == null) {
+			throw new DomainException(
+				ErrorCode.SURVEY_INVALID_CURSOR,
+				"The cursor is null.");
+		}
+
+		int separatorIndex = cursor.indexOf(SEPARATOR);
+		if(separatorIndex == -1) {
+			throw new DomainException(
+				ErrorCode.SURVEY_INVALID_CURSOR,
+				"The cursor is invalid: " + cursor);
+		}
+
+		try {
+			long time =
+				Long.parseLong(cursor.substring(0, separatorIndex), RADIX);
+			UUID id = UUID.fromString(cursor.substring(separatorIndex + 1));
+
+			return new SurveyResponseReadCursor(time, id);
+		}
+		catch(IllegalArgumentException e) {
+			throw new DomainException(
+				ErrorCode.SURVEY_INVALID_CURSOR,
+				"The cursor is invalid: " + cursor,
+				e);
+		}
+	}
+
+	/**
+	 * Returns the last survey response's time.
+	 *
+	 * @return The last survey response's time.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Returns the last survey response's unique identifier.
+	 *
+	 * @return The last survey response's unique identifier.
+	 */
+	public UUID getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the opaque, URL-safe encoding of this cursor.
+	 *
+	 * @return The encoded cursor.
+	 */
+	@Override
+	public String toString() {
+		return Long.toString(time, RADIX) + SEPARATOR + id.toString();
+	}
+}
@@ -31,14 +31,15 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.ohmage.cache.AuditQueue;
+import org.ohmage.domain.PendingAudit;
+import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
-import org.ohmage.exception.ServiceException;
 import org.ohmage.jee.filter.Log4jNdcFilter;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.Request;
 import org.ohmage.request.RequestBuilder;
 import org.ohmage.request.UserRequest;
-import org.ohmage.service.AuditServices;
 
 /**
  * Handler for all incoming HTTP requests.
@@ -107,193 +108,6 @@ public class RequestServlet extends HttpServlet {
 	 */
 	public static enum RequestType { POST, GET, OPTIONS, HEAD, PUT, DELETE, TRACE, UNKNOWN };
 	
-	/**
-	 * This will simply insert the audit information as gathered by the 
-	 * constructor into the database. This is being done in a thread to not
-	 * delay the response to the client.
-	 * 
-	 * @author John Jenkins
-	 */
-	private final class AuditThread extends Thread {
-		private final Request request;
-		
-		private final RequestType requestType;
-		private final String uri;
-		
-		private final Map<String, String[]> parameterMap;
-		private final Map<String, String[]> headerMap;
-
-		private final long receivedTimestamp;
-		private final long respondTimestamp;
-		
-		private final String requestId;
-
-		/**
-		 * Creates an object to hold the information necessary to create an
-		 * audit entry.
-		 * 
-		 * @param requestType The RequestType for the request being audited.
-		 * 
-		 * @param uri The URI of the request being audited.
-		 * 
-		 * @param parameterMap A map of parameter keys to all values given for
-		 * 					   all of the parameters passed into this request.
-		 * 
-		 * @param headerMap A map of all header keys to all values given for
-		 * 					all of the headers passed into this request.
-		 * 
-		 * @param receivedTimestamp The timestamp at which the request was 
-		 * 							received by the same measure as 
-		 * 							'respondTimestamp'.
-		 * 
-		 * @param respondTimestamp The timestamp at which the request was fully
-		 * 						   responded to by the same measure as
-		 * 						   'receivedTimestamp'.
-		 */
-		public AuditThread(
-				final Request request,
-				final RequestType requestType,
-				final String uri,
-				final String requestId,
-				final Map<String, String[]> parameterMap,
-				final Map<String, String[]> headerMap,
-				final long receivedTimestamp, 
-				final long respondTimestamp) {
-			
-			this.request = request;
-			
-			this.requestType = requestType;
-			this.uri = uri;
-			
-			this.requestId = requestId;
-			
-			this.parameterMap = parameterMap;
-			this.headerMap = headerMap;
-			
-			this.receivedTimestamp = receivedTimestamp;
-			this.respondTimestamp = respondTimestamp;
-		}
-		
-		/**
-		 * Creates the entry in the audit table.
-		 */
-		@Override
-		public void run() {
-			try {
-				// We remove any uploaded to data to avoid storing personal or
-				// sensitive data in the audit table.
-				parameterMap.remove(InputKeys.DATA);
-				parameterMap.remove(InputKeys.SURVEYS);
-				
-				// Go through the parameters and remove all values that are
-				// greater than 64kB because the database will reject it.
-				for(String key : parameterMap.keySet()) {
-					String[] values = parameterMap.get(key);
-					
-					// If it is a password or new_password, we mask it to avoid
-					// accidentally storing any passwords in the database,
-					// except in the user table.
-					if(
-						InputKeys.PASSWORD.equals(key) || 
-						InputKeys.NEW_PASSWORD.equals(key)) {
-
-						for(int i = 0; i < values.length; i++) {
-							values[i] = PASSWORD_OMITTED;
-						}
-					}
-					// If it is the list of BASE64-encoded images, then ignore
-					// them.
-					else if(InputKeys.IMAGES.equals(key)) {
-						for(int i = 0; i < values.length; i++) {
-							values[i] = MEDIA_OMITTED;
-						}
-					}
-					else {
-						// If the parameter's key is a UUID, it is probably a
-						// media file and should not be audited.
-						try {
-							UUID.fromString(key);
-							for(int i = 0; i < values.length; i++) {
-								values[i] = MEDIA_OMITTED;
-							}
-						}
-						// If it wasn't a valid UUID, then check every field to
-						// see if it is greater than the database limit.
-						catch(IllegalArgumentException e) { 
-							for(int i = 0; i < values.length; i++) {
-								if(values[i].length() > MAX_DATABASE_LENGTH) {
-									values[i] = LONG_VALUE_OMITTED;
-								}
-							}
-						}
-					}
-				}
-				
-				// Retrieve the device ID. If any number of device IDs exist,
-				// the first one reported will be used.
-				String deviceId = null;
-				String[] deviceIds = parameterMap.get(KEY_DEVICE_ID);
-				if((deviceIds != null) && (deviceIds.length == 1)) {
-					deviceId = deviceIds[0];
-				}
-				
-				// Create a result object based on whether or not the request
-				// succeeded.
-				String responseString = Request.RESPONSE_SUCCESS_JSON_TEXT;
-				if(request == null) {
-					responseString = Request.RESPONSE_ERROR_JSON_TEXT;
-				}
-				else if(request.isFailed()) {
-					responseString = request.getFailureMessage();
-					
-					if(responseString.length() > MAX_DATABASE_LENGTH) {
-						responseString = responseString.substring(0, MAX_DATABASE_LENGTH - 3) + ELLIPSE;
-					}
-				}
-				
-				// Generate an 'extras' Map based on the HTTP headers.
-				Map<String, String[]> extras = headerMap;
-				
-				// Get any extras from the request.
-				String client = null;
-				if(request != null) {
-					Map<String, String[]> requestExtras = request.getAuditInformation();
-					if(requestExtras != null) {
-						extras.putAll(requestExtras);
-					}
-					
-					if(request instanceof UserRequest) {
-						client = ((UserRequest) request).getClient();
-					}
-				}
-				
-				// Create the audit report.
-				AuditServices
-					.instance()
-					.createAudit(
-						requestType, 
-						uri, 
-						client,
-						requestId,
-						deviceId, 
-						responseString, 
-						parameterMap, 
-						extras, 
-						receivedTimestamp, 
-						respondTimestamp);
-			}
-			catch(IllegalArgumentException e) {
-				LOGGER.error("Error while auditing the request.", e);
-			}
-			catch(IllegalStateException e) {
-				LOGGER.error("Error while auditing the request.", e);
-			}
-			catch(ServiceException e) {
-				LOGGER.error("Error while auditing the request.", e);
-			}
-		}
-	}
-	
 	/**
 	 * This injects itself between Tomcat and our request servicing components,
 	 * so that we can audit all incoming requests.
@@ -357,18 +171,170 @@ public class RequestServlet extends HttpServlet {
 			parameterMap = new HashMap<String, String[]>(httpRequest.getParameterMap());
 		}
 
-		// Create a separate thread with the parameters and start that thread.
-		AuditThread auditThread =
-			new AuditThread(
-				request,
-				requestType,
-				uri,
-				(String) httpRequest.getAttribute(Log4jNdcFilter.ATTRIBUTE_REQUEST_ID),
-				parameterMap,
-				extras,
-				receivedTimestamp,
-				respondedTimestamp);
-		auditThread.start();
+		// Queue the audit to be written by the audit writers.
+		AuditQueue auditQueue = AuditQueue.instance();
+		if(auditQueue == null) {
+			LOGGER.error("The audit queue has not been created.");
+			return;
+		}
+		try {
+			auditQueue.add(
+				createAudit(
+					request,
+					requestType,
+					uri,
+					(String) httpRequest.getAttribute(Log4jNdcFilter.ATTRIBUTE_REQUEST_ID),
+					parameterMap,
+					extras,
+					receivedTimestamp,
+					respondedTimestamp));
+		}
+		catch(DomainException e) {
+			LOGGER.error("Error while auditing the request.", e);
+		}
+	}
+	
+	/**
+	 * Creates the audit for a request, removing or masking any parameters
+	 * that should not be stored. This is quick enough to do before the audit
+	 * is queued, which means the queue never holds on to the request.
+	 * 
+	 * @param request The Request that was serviced or null if one was never
+	 * 				  built.
+	 * 
+	 * @param requestType The RequestType for the request being audited.
+	 * 
+	 * @param uri The URI of the request being audited.
+	 * 
+	 * @param requestId The unique ID given to the request.
+	 * 
+	 * @param parameterMap A map of parameter keys to all values given for all
+	 * 					   of the parameters passed into this request.
+	 * 
+	 * @param headerMap A map of all header keys to all values given for all
+	 * 					of the headers passed into this request.
+	 * 
+	 * @param receivedTimestamp The timestamp at which the request was 
+	 * 							received by the same measure as 
+	 * 							'respondTimestamp'.
+	 * 
+	 * @param respondTimestamp The timestamp at which the request was fully
+	 * 						   responded to by the same measure as
+	 * 						   'receivedTimestamp'.
+	 * 
+	 * @return The audit.
+	 * 
+	 * @throws DomainException The audit is missing required information.
+	 */
+	private static PendingAudit createAudit(
+			final Request request,
+			final RequestType requestType,
+			final String uri,
+			final String requestId,
+			final Map<String, String[]> parameterMap,
+			final Map<String, String[]> headerMap,
+			final long receivedTimestamp, 
+			final long respondTimestamp)
+			throws DomainException {
+		
+		// We remove any uploaded to data to avoid storing personal or
+		// sensitive data in the audit table.
+		parameterMap.remove(InputKeys.DATA);
+		parameterMap.remove(InputKeys.SURVEYS);
+		
+		// Go through the parameters and remove all values that are greater
+		// than 64kB because the database will reject it.
+		for(String key : parameterMap.keySet()) {
+			String[] values = parameterMap.get(key);
+			
+			// If it is a password or new_password, we mask it to avoid
+			// accidentally storing any passwords in the database, except in
+			// the user table.
+			if(
+				InputKeys.PASSWORD.equals(key) || 
+				InputKeys.NEW_PASSWORD.equals(key)) {
+
+				for(int i = 0; i < values.length; i++) {
+					values[i] = PASSWORD_OMITTED;
+				}
+			}
+			// If it is the list of BASE64-encoded images, then ignore them.
+			else if(InputKeys.IMAGES.equals(key)) {
+				for(int i = 0; i < values.length; i++) {
+					values[i] = MEDIA_OMITTED;
+				}
+			}
+			else {
+				// If the parameter's key is a UUID, it is probably a media
+				// file and should not be audited.
+				try {
+					UUID.fromString(key);
+					for(int i = 0; i < values.length; i++) {
+						values[i] = MEDIA_OMITTED;
+					}
+				}
+				// If it wasn't a valid UUID, then check every field to see if
+				// it is greater than the database limit.
+				catch(IllegalArgumentException e) { 
+					for(int i = 0; i < values.length; i++) {
+						if(values[i].length() > MAX_DATABASE_LENGTH) {
+							values[i] = LONG_VALUE_OMITTED;
+						}
+					}
+				}
+			}
+		}
+		
+		// Retrieve the device ID. If any number of device IDs exist, the
+		// first one reported will be used.
+		String deviceId = null;
+		String[] deviceIds = parameterMap.get(KEY_DEVICE_ID);
+		if((deviceIds != null) && (deviceIds.length == 1)) {
+			deviceId = deviceIds[0];
+		}
+		
+		// Create a result object based on whether or not the request
+		// succeeded.
+		String responseString = Request.RESPONSE_SUCCESS_JSON_TEXT;
+		if(request == null) {
+			responseString = Request.RESPONSE_ERROR_JSON_TEXT;
+		}
+		else if(request.isFailed()) {
+			responseString = request.getFailureMessage();
+			
+			if(responseString.length() > MAX_DATABASE_LENGTH) {
+				responseString = responseString.substring(0, MAX_DATABASE_LENGTH - 3) + ELLIPSE;
+			}
+		}
+		
+		// Generate an 'extras' Map based on the HTTP headers.
+		Map<String, String[]> extras = headerMap;
+		
+		// Get any extras from the request.
+		String client = null;
+		if(request != null) {
+			Map<String, String[]> requestExtras = request.getAuditInformation();
+			if(requestExtras != null) {
+				extras.putAll(requestExtras);
+			}
+			
+			if(request instanceof UserRequest) {
+				client = ((UserRequest) request).getClient();
+			}
+		}
+		
+		return
+			new PendingAudit(
+				requestType, 
+				uri, 
+				client,
+				requestId,
+				deviceId, 
+				responseString, 
+				parameterMap, 
+				extras, 
+				receivedTimestamp, 
+				respondTimestamp);
 	}
 	
 	/**
@@ -22,6 +22,7 @@ import java.util.Map;
 import org.joda.time.DateTime;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.Audit;
+import org.ohmage.domain.PendingAudit;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.jee.servlet.RequestServlet;
 import org.ohmage.validator.AuditValidators.ResponseType;
@@ -86,6 +87,18 @@ public interface IAuditQueries {
 		long receivedMillis,
 		long respondMillis) throws DataAccessException;
 
+	/**
+	 * Creates many audit entries in a single transaction. The audits are
+	 * inserted as one batch, and their parameters and extras are inserted
+	 * with multi-row statements. Either all of the audits are created or
+	 * none of them are.
+	 * 
+	 * @param audits The audits to create.
+	 * 
+	 * @throws DataAccessException There was an error creating the audits.
+	 */
+	void createAudits(List<PendingAudit> audits) throws DataAccessException;
+
 	/**
 	 * Retrieves the unique ID for all audits.
 	 * 
@@ -5,9 +5,11 @@ import java.util.List;
 import java.util.Map;
 
 import org.joda.time.DateTime;
+import org.ohmage.cache.StreamUidFilter;
 import org.ohmage.domain.DataStream;
 import org.ohmage.domain.Observer;
 import org.ohmage.domain.Observer.Stream;
+import org.ohmage.domain.StreamReadCursor;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.service.ObserverServices.InvalidPoint;
@@ -169,7 +171,49 @@ public interface IObserverQueries {
 		throws DataAccessException;
 	
 	/**
-	 * Stores the data stream data.
+	 * Counts the IDs that are stored for a user for a stream.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @return The number of IDs.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	public long getNumIds(
+		final String username,
+		final String observerId,
+		final String streamId)
+		throws DataAccessException;
+	
+	/**
+	 * Adds every ID that is stored for a user for a stream to a filter. The
+	 * IDs are streamed to the filter as they are read, and no more are read
+	 * than it takes to saturate the filter.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @param filter The filter to which the IDs are added.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	public void addIds(
+		final String username,
+		final String observerId,
+		final String streamId,
+		final StreamUidFilter.Filter filter)
+		throws DataAccessException;
+	
+	/**
+	 * Stores the data stream data. A point whose ID is already stored for
+	 * the user and stream is skipped.
 	 * 
 	 * @param username The user who is uploading the data.
 	 * 
@@ -222,10 +266,17 @@ public interface IObserverQueries {
 	 * 						If false, the values will be sorted reverse
 	 * 						chronologically. Required.
 	 * 
+	 * @param cursor The position after which to start reading, which was
+	 * 				 returned by a previous read. Optional.
+	 * 
 	 * @param numToSkip The number of data points to skip. Required.
 	 * 
 	 * @param numToReturn The number of data points to return. Required.
 	 * 
+	 * @param nextCursor The builder that is given the position of each point
+	 * 					 as it is read, so that the next read may continue
+	 * 					 from the last one. Optional.
+	 * 
 	 * @return A collection of data points that match the query.
 	 * 
 	 * @throws ServiceException There was an error.
@@ -238,8 +289,64 @@ public interface IObserverQueries {
 		final DateTime startDate,
 		final DateTime endDate,
 		final boolean chronological,
+		final StreamReadCursor cursor,
 		final long numToSkip,
-		final long numToReturn) 
+		final long numToReturn,
+		final StreamReadCursor.Builder nextCursor) 
+		throws DataAccessException;
+	
+	/**
+	 * Reads the data for a stream and passes each point to a handler as it
+	 * is read, so the points are never all in memory at once.
+	 * 
+	 * @param stream The Stream object for the stream whose data is in 
+	 * 				 question. Required.
+	 * 
+	 * @param username The username of the user to which the data must belong.
+	 * 				   Required.
+	 * 
+	 * @param observerId The observer's unique identifier. Optional.
+	 * 
+	 * @param observerVersion The observer's version. Optional.
+	 * 
+	 * @param startDate The earliest data point to return. Optional.
+	 * 
+	 * @param endDate The latest point data point to return. Optional.
+	 * 
+	 * @param chronological If true, the values will be sorted chronologically.
+	 * 						If false, the values will be sorted reverse
+	 * 						chronologically. Required.
+	 * 
+	 * @param cursor The position after which to start reading, which was
+	 * 				 returned by a previous read. Optional.
+	 * 
+	 * @param numToSkip The number of data points to skip. Required.
+	 * 
+	 * @param numToReturn The number of data points to return. Required.
+	 * 
+	 * @param nextCursor The builder that is given the position of each point
+	 * 					 as it is read, so that the next read may continue
+	 * 					 from the last one. Optional.
+	 * 
+	 * @param handler The handler for each point. Required.
+	 * 
+	 * @return The number of points that were read.
+	 * 
+	 * @throws ServiceException There was an error.
+	 */
+	public long streamData(
+		final Stream stream,
+		final String username,
+		final String observerId,
+		final Long observerVersion,
+		final DateTime startDate,
+		final DateTime endDate,
+		final boolean chronological,
+		final StreamReadCursor cursor,
+		final long numToSkip,
+		final long numToReturn,
+		final StreamReadCursor.Builder nextCursor,
+		final DataStream.RawDataHandler handler) 
 		throws DataAccessException;
 
 	/**
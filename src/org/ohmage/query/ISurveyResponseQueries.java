@@ -25,6 +25,7 @@ import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.ColumnKey;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
+import org.ohmage.domain.campaign.SurveyResponseReadCursor;
 import org.ohmage.exception.DataAccessException;
 
 public interface ISurveyResponseQueries {
@@ -133,6 +134,49 @@ public interface ISurveyResponseQueries {
 			List<SurveyResponse> result) 
 			throws DataAccessException;
 
+	/**
+	 * Retrieves the same survey responses as
+	 * {@link #retrieveSurveyResponses(Campaign, String, Set, Collection, DateTime, DateTime, org.ohmage.domain.campaign.SurveyResponse.PrivacyState, Collection, Collection, String, Set, Collection, List, long, long, List)},
+	 * but gives each one to a handler, in order, as soon as it is complete
+	 * instead of adding them all to a list. Only a bounded number of survey
+	 * responses are in memory at any one time.
+	 * 
+	 * @param cursor The position of the last survey response of a previous
+	 * 				 page, after which this page begins, or null. It may only
+	 * 				 be given with the default sort order and without
+	 * 				 aggregating columns.
+	 * 
+	 * @param handler The handler to give each survey response to.
+	 * 
+	 * @return The total number of results that matched the given criteria,
+	 * 		   not the number that were given to the handler.
+	 * 
+	 * @throws DataAccessException Thrown if there is an error, including if
+	 * 							   the handler fails.
+	 * 
+	 * @throws IllegalArgumentException A cursor was given with a sort order 
+	 * 									or aggregating columns.
+	 */
+	int retrieveSurveyResponses(
+			final Campaign campaign,
+			final String username,
+			final Set<UUID> surveyResponseIds,
+			final Collection<String> usernames,
+			final DateTime startDate,
+			final DateTime endDate,
+			final SurveyResponse.PrivacyState privacyState,
+			final Collection<String> surveyIds,
+			final Collection<String> promptIds,
+			final String promptType,
+			final Set<String> promptResponseSearchTokens,
+			final Collection<ColumnKey> columns, 
+			final List<SortParameter> sortOrder,
+			final long surveyResponsesToSkip,
+			final long surveyResponsesToProcess,
+			final SurveyResponseReadCursor cursor,
+			final SurveyResponse.SurveyResponseHandler handler) 
+			throws DataAccessException;
+
 	/**
 	 * Updates the privacy state on a survey response.
 	 * 
@@ -29,9 +29,10 @@ public interface ISurveyUploadQuery {
 
 	/**
 	 * Inserts surveys into survey_response, prompt_response, and
-	 * url_based_resource (if the payload contains images). Any images are also
-	 * persisted to the file system. The entire persistence process is wrapped
-	 * in one giant transaction.
+	 * url_based_resource (if the payload contains media). Any media is also
+	 * persisted to the file system. The rows are inserted in one transaction,
+	 * and the media is written before it begins and moved into place once it
+	 * is committed.
 	 * 
 	 * @param user
 	 *        The owner of the survey upload.
@@ -15,13 +15,16 @@
  ******************************************************************************/
 package org.ohmage.query;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
 import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
 import org.ohmage.domain.MobilityAggregatePoint;
+import org.ohmage.domain.MobilityModeRollup;
 import org.ohmage.domain.MobilityPoint;
 import org.ohmage.domain.MobilityPoint.LocationStatus;
 import org.ohmage.domain.MobilityPoint.Mode;
@@ -186,4 +189,105 @@ public interface IUserMobilityQueries {
 			final UUID mobilityId, 
 			final MobilityPoint.PrivacyState privacyState) 
 			throws DataAccessException;
+
+	/**
+	 * Recomputes a user's Mobility mode rollups for some days from the 
+	 * user's Mobility stream data and records that those days have been 
+	 * computed. Each day is the day in the time zone of each point. Each day
+	 * is computed in its own transaction, so the days before one that fails 
+	 * remain updated.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param days The days to recompute.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	void updateModeRollups(
+			final String username,
+			final Collection<LocalDate> days)
+			throws DataAccessException;
+	
+	/**
+	 * Retrieves the days in a range for which a user's Mobility mode rollups
+	 * have been computed, including days without any Mobility points.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param startDay The first day, inclusive.
+	 * 
+	 * @param endDay The last day, inclusive.
+	 * 
+	 * @return The days.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	Set<LocalDate> getModeRollupDays(
+			final String username,
+			final LocalDate startDay,
+			final LocalDate endDay)
+			throws DataAccessException;
+	
+	/**
+	 * Forgets that a user's Mobility mode rollups for some days have been 
+	 * computed. The rollups themselves are left until the days are 
+	 * recomputed.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param days The days.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	void deleteModeRollupDays(
+			final String username,
+			final Collection<LocalDate> days)
+			throws DataAccessException;
+	
+	/**
+	 * Retrieves a user's Mobility mode rollups for a range of days.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param startDay The first day, inclusive.
+	 * 
+	 * @param endDay The last day, inclusive.
+	 * 
+	 * @return The rollups ordered by their day and then by the time of their
+	 * 		   mode's first point.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	List<MobilityModeRollup> getModeRollups(
+			final String username,
+			final LocalDate startDay,
+			final LocalDate endDay)
+			throws DataAccessException;
+	
+	/**
+	 * Computes a user's Mobility mode rollups for a day from only those of
+	 * the day's points whose times are within a range, without storing them.
+	 * This is for the parts of days that a range of time only partially 
+	 * covers.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param day The day in the points' time zones.
+	 * 
+	 * @param startTime The earliest time, inclusive, in milliseconds since
+	 * 					the epoch.
+	 * 
+	 * @param endTime The latest time, exclusive, in milliseconds since the 
+	 * 				  epoch.
+	 * 
+	 * @return The rollups in the order in which their modes first appeared.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	List<MobilityModeRollup> computeModeRollups(
+			final String username,
+			final LocalDate day,
+			final long startTime,
+			final long endTime)
+			throws DataAccessException;
 }
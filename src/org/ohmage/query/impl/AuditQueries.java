@@ -20,7 +20,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -32,18 +34,17 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.Audit;
+import org.ohmage.domain.PendingAudit;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.jee.servlet.RequestServlet;
 import org.ohmage.jee.servlet.RequestServlet.RequestType;
 import org.ohmage.query.IAuditQueries;
 import org.ohmage.validator.AuditValidators.ResponseType;
-import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
-import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionException;
 import org.springframework.transaction.TransactionStatus;
@@ -151,23 +152,26 @@ public class AuditQueries extends Query implements IAuditQueries {
 			"WHERE request_type = ?" +
 		"), ?, ?, ?, ?, ?, ?, ?)";
 	
-	// Adds a parameter to an audit.
-	private static final String SQL_INSERT_PARAMETER =
+	// Adds parameters to audits. A row's values are appended once for each
+	// row in the statement.
+	private static final String SQL_INSERT_PARAMETERS =
 		"INSERT INTO audit_parameter(audit_id, param_key, param_value) " +
-		"VALUES ((" +
-			"SELECT id " +
-			"FROM audit " +
-			"WHERE id = ?" +
-		"), ?, ?)";
+		"VALUES ";
 	
-	// Adds an extra from the HTTP request's header to an audit.
-	private static final String SQL_INSERT_EXTRA =
+	// Adds extras from the HTTP requests' headers to audits. A row's values
+	// are appended once for each row in the statement.
+	private static final String SQL_INSERT_EXTRAS =
 		"INSERT INTO audit_extra(audit_id, extra_key, extra_value) " +
-		"VALUES ((" +
-			"SELECT id " +
-			"FROM audit " +
-			"WHERE id = ?" +
-		"), ?, ?)";
+		"VALUES ";
+	
+	// The values for one parameter or extra row.
+	private static final String SQL_ROW_VALUES = "(?, ?, ?)";
+	
+	// The number of columns in a parameter or extra row.
+	private static final int ROW_NUM_COLUMNS = 3;
+	
+	// The maximum number of parameter or extra rows in a single statement.
+	private static final int ROWS_PER_STATEMENT = 500;
 	
 	/**
 	 * Creates this object via dependency injection (reflection).
@@ -204,104 +208,138 @@ public class AuditQueries extends Query implements IAuditQueries {
 			throw new IllegalArgumentException("The response is required and cannot be null.");
 		}
 		
+		try {
+			createAudits(
+				Collections.singletonList(
+					new PendingAudit(
+						requestType,
+						uri,
+						client,
+						requestId,
+						deviceId,
+						response,
+						parameters,
+						extras,
+						receivedMillis,
+						respondMillis)));
+		}
+		catch(DomainException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.ohmage.query.IAuditQueries#createAudits(java.util.List)
+	 */
+	@Override
+	public void createAudits(
+			final List<PendingAudit> audits)
+			throws DataAccessException {
+		
+		if((audits == null) || audits.isEmpty()) {
+			return;
+		}
+		
 		// Create the transaction.
 		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
-		def.setName("Creating a request audit.");
+		def.setName("Creating request audits.");
 		
 		try {
 			// Begin the transaction.
 			PlatformTransactionManager transactionManager = new DataSourceTransactionManager(getDataSource());
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
-			// Create a key holder that will be responsible for referencing 
-			// which row was just inserted.
-			KeyHolder keyHolder = new GeneratedKeyHolder();
-			
-			// Insert the audit entry.
+			// Insert the audit entries as a single JDBC batch and get their
+			// IDs in the same order.
+			final List<Long> auditIds;
 			try {
-				getJdbcTemplate().update(
-						new PreparedStatementCreator() {
+				auditIds =
+					getJdbcTemplate().execute(
+						new ConnectionCallback<List<Long>>() {
+							/**
+							 * Inserts each of the audits in one batch and
+							 * returns their generated IDs.
+							 */
 							@Override
-							public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
-								PreparedStatement ps = connection.prepareStatement(
-									SQL_INSERT_AUDIT, 
-									new String[] {"id"}
-								);
-								
-								ps.setString(1, requestType.name().toLowerCase());
-								ps.setString(2, uri);
-								ps.setString(3, client);
-								ps.setString(4, requestId);
-								ps.setString(5, deviceId);
-								ps.setString(6, response);
-								ps.setLong(7, receivedMillis);
-								ps.setLong(8, respondMillis);
+							public List<Long> doInConnection(
+									final Connection connection)
+									throws SQLException {
 								
-								return ps;
+								PreparedStatement ps =
+									connection.prepareStatement(
+										SQL_INSERT_AUDIT,
+										Statement.RETURN_GENERATED_KEYS);
+								try {
+									for(PendingAudit audit : audits) {
+										ps.setString(1, audit.getRequestType().name().toLowerCase());
+										ps.setString(2, audit.getUri());
+										ps.setString(3, audit.getClient());
+										ps.setString(4, audit.getRequestId());
+										ps.setString(5, audit.getDeviceId());
+										ps.setString(6, audit.getResponse());
+										ps.setLong(7, audit.getReceivedMillis());
+										ps.setLong(8, audit.getRespondedMillis());
+										ps.addBatch();
+									}
+									ps.executeBatch();
+									
+									List<Long> result =
+										new ArrayList<Long>(audits.size());
+									ResultSet keys = ps.getGeneratedKeys();
+									try {
+										while(keys.next()) {
+											result.add(keys.getLong(1));
+										}
+									}
+									finally {
+										keys.close();
+									}
+									
+									if(result.size() != audits.size()) {
+										throw new SQLException(
+											"Expected " +
+												audits.size() +
+												" audit IDs but received " +
+												result.size() +
+												".");
+									}
+									
+									return result;
+								}
+								finally {
+									ps.close();
+								}
 							}
-						}, 
-						keyHolder);
+						});
 			}
 			catch(org.springframework.dao.DataAccessException e) {
 				transactionManager.rollback(status);
 				throw new DataAccessException(
-						"Error while executing SQL '" + SQL_INSERT_AUDIT + "' with parameters: " +
-							requestType.name().toLowerCase() + ", " + 
-							uri + ", " + 
-							client + ", " + 
-							deviceId + ", " + 
-							response + ", " + 
-							receivedMillis + ", " + 
-							respondMillis, 
+						"Error executing SQL '" + SQL_INSERT_AUDIT + "' for " +
+							audits.size() +
+							" audits.", 
 						e);
 			}
 			
-			// Add all of the parameters.
-			if(parameters != null) {
-				for(String key : parameters.keySet()) {
-					for(String value : parameters.get(key)) {
-						try {
-								getJdbcTemplate().update(
-									SQL_INSERT_PARAMETER, 
-									keyHolder.getKey().longValue(), 
-									key, 
-									value);
-						}
-						catch(org.springframework.dao.DataAccessException e) {
-							transactionManager.rollback(status);
-							throw new DataAccessException(
-									"Error while executing SQL '" + SQL_INSERT_PARAMETER + "' with parameters: " +
-										keyHolder.getKey().longValue() + ", " + 
-										key + ", " + 
-										value, 
-									e);
-						}
-					}
-				}
+			// Gather all of the parameters and extras.
+			List<Object> parameterArgs = new ArrayList<Object>();
+			List<Object> extraArgs = new ArrayList<Object>();
+			int index = 0;
+			for(PendingAudit audit : audits) {
+				Long auditId = auditIds.get(index++);
+				
+				addRows(parameterArgs, auditId, audit.getParameters());
+				addRows(extraArgs, auditId, audit.getExtras());
 			}
 			
-			// Add all of the extras.
-			if(extras != null) {
-				for(String key : extras.keySet()) {
-					for(String value : extras.get(key)) {
-						try {
-								getJdbcTemplate().update(
-									SQL_INSERT_EXTRA, 
-									keyHolder.getKey().longValue(), 
-									key, 
-									value);
-						}
-						catch(org.springframework.dao.DataAccessException e) {
-							transactionManager.rollback(status);
-							throw new DataAccessException(
-									"Error while executing SQL '" + SQL_INSERT_EXTRA + "' with parameters: " +
-										keyHolder.getKey().longValue() + ", " + 
-										key + ", " + 
-										value, 
-									e);
-						}
-					}
-				}
+			// Add all of the parameters and extras in multi-row statements.
+			try {
+				insertRows(SQL_INSERT_PARAMETERS, parameterArgs);
+				insertRows(SQL_INSERT_EXTRAS, extraArgs);
+			}
+			catch(DataAccessException e) {
+				transactionManager.rollback(status);
+				throw e;
 			}
 			
 			// Commit the transaction.
@@ -318,6 +356,78 @@ public class AuditQueries extends Query implements IAuditQueries {
 		}
 	}
 	
+	/**
+	 * Adds the arguments for a parameter or extra row for each of the values
+	 * in a map.
+	 * 
+	 * @param args The list of arguments to add to.
+	 * 
+	 * @param auditId The audit's database ID.
+	 * 
+	 * @param values The map of keys to their values.
+	 */
+	private static void addRows(
+			final List<Object> args,
+			final Long auditId,
+			final Map<String, String[]> values) {
+		
+		for(Map.Entry<String, String[]> entry : values.entrySet()) {
+			for(String value : entry.getValue()) {
+				args.add(auditId);
+				args.add(entry.getKey());
+				args.add(value);
+			}
+		}
+	}
+	
+	/**
+	 * Inserts parameter or extra rows with multi-row INSERT statements. This
+	 * must be called within a transaction.
+	 * 
+	 * @param sqlPrefix The INSERT statement up to its "VALUES".
+	 * 
+	 * @param args The arguments for all of the rows.
+	 * 
+	 * @throws DataAccessException There was an error inserting the rows.
+	 */
+	private void insertRows(
+			final String sqlPrefix,
+			final List<Object> args)
+			throws DataAccessException {
+		
+		int numRows = args.size() / ROW_NUM_COLUMNS;
+		for(int row = 0; row < numRows; row += ROWS_PER_STATEMENT) {
+			int numStatementRows = 
+				Math.min(ROWS_PER_STATEMENT, numRows - row);
+			
+			StringBuilder sqlBuilder = new StringBuilder(sqlPrefix);
+			for(int i = 0; i < numStatementRows; i++) {
+				if(i != 0) {
+					sqlBuilder.append(", ");
+				}
+				sqlBuilder.append(SQL_ROW_VALUES);
+			}
+			String sql = sqlBuilder.toString();
+			
+			try {
+				getJdbcTemplate().update(
+					sql, 
+					args
+						.subList(
+							row * ROW_NUM_COLUMNS, 
+							(row + numStatementRows) * ROW_NUM_COLUMNS)
+						.toArray());
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error executing SQL '" + sqlPrefix + "' with " +
+						numStatementRows +
+						" rows.", 
+					e);
+			}
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.ohmage.query.IAuditQueries#getAllAudits()
 	 */
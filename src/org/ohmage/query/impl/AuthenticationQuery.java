@@ -23,6 +23,7 @@ import javax.sql.DataSource;
 import jbcrypt.BCrypt;
 
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.CredentialCache;
 import org.ohmage.domain.User;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.query.IAuthenticationQuery;
@@ -115,8 +116,23 @@ public final class AuthenticationQuery extends Query implements IAuthenticationQ
 		User user = userRequest.getUser();
 		String hashedPassword;
 		
+		// If the same password was verified recently, reuse its hash instead
+		// of hashing it again. Hashing replaces the plaintext password, so
+		// keep it to cache it once it has been verified.
+		boolean plaintext = user.hashPassword();
+		String plaintextPassword = plaintext ? user.getPassword() : null;
+		String cachedPassword = null;
+		if(plaintext) {
+			cachedPassword = 
+				CredentialCache.lookup(user.getUsername(), plaintextPassword);
+		}
+		
+		if(cachedPassword != null) {
+			hashedPassword = cachedPassword;
+			userRequest.getUser().setHashedPassword(hashedPassword);
+		}
 		// Hash the password if necessary.
-		if(user.hashPassword()) {
+		else if(user.hashPassword()) {
 			try {
 				String actualPassword = 
 					(String) instance.getJdbcTemplate().queryForObject(
@@ -160,6 +176,12 @@ public final class AuthenticationQuery extends Query implements IAuthenticationQ
 						}
 					});
 			
+			// Remember the verified password, so it need not be hashed again.
+			if(plaintext && (cachedPassword == null)) {
+				CredentialCache
+					.add(user.getUsername(), plaintextPassword, hashedPassword);
+			}
+			
 			return userInformation;
 		}
 		catch(org.springframework.dao.IncorrectResultSizeDataAccessException e) {
@@ -168,6 +190,11 @@ public final class AuthenticationQuery extends Query implements IAuthenticationQ
 				throw new DataAccessException("Multiple users have the same username.", e);
 			}
 			
+			// If the password was cached, it has since changed.
+			if(cachedPassword != null) {
+				CredentialCache.removeUser(user.getUsername());
+			}
+			
 			// If the username wasn't found or the username and password 
 			// combination were incorrect.
 			userRequest.setFailed(ErrorCode.AUTHENTICATION_FAILED, "Unknown user or incorrect password.");
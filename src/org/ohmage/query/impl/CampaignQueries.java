@@ -34,6 +34,7 @@ import java.util.Set;
 import javax.sql.DataSource;
 
 import org.joda.time.DateTime;
+import org.ohmage.cache.CampaignCache;
 import org.ohmage.domain.Clazz;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.Prompt;
@@ -133,6 +134,14 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 		"AND c.running_state_id = crs.id " +
 		"AND c.privacy_state_id = cps.id";
 
+	// Returns the parts of a campaign that are not part of its XML.
+	private static final String SQL_GET_CAMPAIGN_STATE =
+		"SELECT c.description, crs.running_state, cps.privacy_state, c.creation_timestamp " +
+		"FROM campaign c, campaign_running_state crs, campaign_privacy_state cps " +
+		"WHERE c.urn = ? " +
+		"AND c.running_state_id = crs.id " +
+		"AND c.privacy_state_id = cps.id";
+
 	// Returns the unique identifier for all of the campaigns in the system.
 	private static final String SQL_GET_ALL_IDS =
 		"SELECT urn " +
@@ -836,6 +845,50 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 	 * @see org.ohmage.query.impl.ICampaignQueries#findCampaignConfiguration(java.lang.String)
 	 */
 	public Campaign findCampaignConfiguration(final String campaignId) throws DataAccessException {
+		// If the campaign has already been parsed, its XML isn't needed.
+		try {
+			Campaign result = getJdbcTemplate().queryForObject(
+					SQL_GET_CAMPAIGN_STATE, 
+					new Object[] { campaignId }, 
+					new RowMapper<Campaign>() {
+						@Override
+						public Campaign mapRow(ResultSet rs, int rowNum) 
+								throws SQLException {
+						
+							try {
+								return CampaignCache.lookup(
+										campaignId,
+										rs.getString("description"),
+										Campaign.RunningState.getValue(
+												rs.getString("running_state")),
+										Campaign.PrivacyState.getValue(
+												rs.getString("privacy_state")),
+										rs.getTimestamp("creation_timestamp"));
+							}
+							catch(DomainException e) {
+								throw new SQLException(
+										"The campaign is corrupt.", 
+										e);
+							}
+						}
+					}
+				);
+			
+			if(result != null) {
+				return result;
+			}
+		}
+		catch(IncorrectResultSizeDataAccessException e) {
+			if(e.getActualSize() == 0) {
+				return null;
+			}
+			
+			throw new DataAccessException("Multiple campaigns have the same ID: " + campaignId, e);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException("General error executing SQL '" + SQL_GET_CAMPAIGN_STATE + "' with parameter: " + campaignId, e);
+		}
+		
 		try {
 			return getJdbcTemplate().queryForObject(
 					SQL_GET_CAMPAIGN_INFORMATION, 
@@ -846,9 +899,8 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 								throws SQLException {
 						
 							try {
-								return new Campaign(
-										null,
-										null,
+								return CampaignCache.get(
+										campaignId,
 										rs.getString("description"),
 										Campaign.RunningState.getValue(
 												rs.getString("running_state")),
@@ -1252,9 +1304,8 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 								
 								while(rs.next()) {
 									result.addResult(
-											new Campaign(
-													null,
-													null,
+											CampaignCache.get(
+													rs.getString("urn"),
 													rs.getString("description"),
 													Campaign.RunningState.valueOf(rs.getString("running_state").toUpperCase()),
 													Campaign.PrivacyState.valueOf(rs.getString("privacy_state").toUpperCase()),
@@ -1408,9 +1459,8 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 							
 							try {
 								return
-									new Campaign(
-										null,
-										null,
+									CampaignCache.get(
+										rs.getString("urn"),
 										rs.getString("description"),
 										Campaign.RunningState.getValue(rs.getString("running_state")),
 										Campaign.PrivacyState.getValue(rs.getString("privacy_state")),
@@ -1627,6 +1677,11 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			// The campaign must be parsed again if its XML changed.
+			if(xml != null) {
+				CampaignCache.remove(campaignId);
+			}
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
@@ -1662,6 +1717,8 @@ public final class CampaignQueries extends Query implements ICampaignQueries {
 				transactionManager.rollback(status);
 				throw new DataAccessException("Error while committing the transaction.", e);
 			}
+			
+			CampaignCache.remove(campaignId);
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
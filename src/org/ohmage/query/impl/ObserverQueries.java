@@ -9,9 +9,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.sql.DataSource;
 
@@ -24,17 +27,20 @@ import org.codehaus.jackson.map.MappingJsonFactory;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.ISODateTimeFormat;
+import org.ohmage.cache.StreamUidFilter;
 import org.ohmage.domain.DataStream;
 import org.ohmage.domain.DataStream.MetaData;
 import org.ohmage.domain.Location;
 import org.ohmage.domain.Observer;
 import org.ohmage.domain.Observer.Stream;
+import org.ohmage.domain.StreamReadCursor;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.query.IObserverQueries;
 import org.ohmage.service.ObserverServices.InvalidPoint;
 import org.ohmage.util.StringUtils;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
@@ -52,6 +58,94 @@ import org.springframework.transaction.support.DefaultTransactionDefinition;
  * @author John Jenkins
  */
 public class ObserverQueries extends Query implements IObserverQueries {
+	/**
+	 * The number of columns that are inserted for each stream data point.
+	 */
+	private static final int STORE_DATA_NUM_COLUMNS = 13;
+	/**
+	 * The maximum number of stream data points inserted by a single
+	 * statement.
+	 */
+	private static final int STORE_DATA_ROWS_PER_STATEMENT = 100;
+	/**
+	 * The greatest difference, in milliseconds, between a point's time and
+	 * its adjusted time.
+	 */
+	private static final long MAX_TIME_ZONE_OFFSET = 14 * 60 * 60 * 1000;
+	
+	/**
+	 * The key for a cached observer-stream link ID.
+	 */
+	private static final class StreamLinkKey {
+		private final String observerId;
+		private final long observerVersion;
+		private final String streamId;
+		private final long streamVersion;
+		
+		/**
+		 * Creates a new key.
+		 * 
+		 * @param observerId The observer's ID.
+		 * 
+		 * @param observerVersion The observer's version.
+		 * 
+		 * @param streamId The stream's ID.
+		 * 
+		 * @param streamVersion The stream's version.
+		 */
+		private StreamLinkKey(
+				final String observerId,
+				final long observerVersion,
+				final String streamId,
+				final long streamVersion) {
+			
+			this.observerId = observerId;
+			this.observerVersion = observerVersion;
+			this.streamId = streamId;
+			this.streamVersion = streamVersion;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			int result = 31 + observerId.hashCode();
+			result = 31 * result + (int) (observerVersion ^ (observerVersion >>> 32));
+			result = 31 * result + streamId.hashCode();
+			return 31 * result + (int) (streamVersion ^ (streamVersion >>> 32));
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(final Object obj) {
+			if(this == obj) {
+				return true;
+			}
+			if(! (obj instanceof StreamLinkKey)) {
+				return false;
+			}
+			
+			StreamLinkKey other = (StreamLinkKey) obj;
+			return
+				(observerVersion == other.observerVersion) &&
+				(streamVersion == other.streamVersion) &&
+				observerId.equals(other.observerId) &&
+				streamId.equals(other.streamId);
+		}
+	}
+	
+	/**
+	 * The observer-stream link IDs that have already been looked up. An
+	 * observer's entries are dropped whenever it is updated.
+	 */
+	private final ConcurrentMap<StreamLinkKey, Long> streamLinkIds =
+		new ConcurrentHashMap<StreamLinkKey, Long>();
+	
 	/**
 	 * Creates this object via dependency injection (reflection).
 	 * 
@@ -858,6 +952,139 @@ public class ObserverQueries extends Query implements IObserverQueries {
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IObserverQueries#getNumIds(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public long getNumIds(
+			final String username,
+			final String observerId,
+			final String streamId)
+			throws DataAccessException {
+		
+		String sql =
+			"SELECT COUNT(osd.uid) " +
+			"FROM " +
+				"user u, " +
+				"observer o, " +
+				"observer_stream os, " +
+				"observer_stream_link osl, " +
+				"observer_stream_data osd " +
+			"WHERE u.username = ? " +
+			"AND o.observer_id = ? " +
+			"AND o.id = osl.observer_id " +
+			"AND osl.observer_stream_id = os.id " +
+			"AND os.stream_id = ? " +
+			"AND u.id = osd.user_id " +
+			"AND osl.id = osd.observer_stream_link_id";
+		
+		try {
+			return
+				getJdbcTemplate().queryForLong(
+					sql,
+					new Object[] { username, observerId, streamId });
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					sql +
+					"' with parameters: " +
+					username + ", " +
+					observerId + ", " +
+					streamId,
+				e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IObserverQueries#addIds(java.lang.String, java.lang.String, java.lang.String, org.ohmage.cache.StreamUidFilter.Filter)
+	 */
+	@Override
+	public void addIds(
+			final String username,
+			final String observerId,
+			final String streamId,
+			final StreamUidFilter.Filter filter)
+			throws DataAccessException {
+		
+		final String sql =
+			"SELECT osd.uid " +
+			"FROM " +
+				"user u, " +
+				"observer o, " +
+				"observer_stream os, " +
+				"observer_stream_link osl, " +
+				"observer_stream_data osd " +
+			"WHERE u.username = ? " +
+			"AND o.observer_id = ? " +
+			"AND o.id = osl.observer_id " +
+			"AND osl.observer_stream_id = os.id " +
+			"AND os.stream_id = ? " +
+			"AND u.id = osd.user_id " +
+			"AND osl.id = osd.observer_stream_link_id " +
+			"AND osd.uid IS NOT NULL " +
+			"LIMIT ?";
+		
+		// Reading more IDs than the filter can hold only saturates it, so 
+		// only one more than that is read.
+		final long maxIds = filter.getCapacity() + 1;
+		
+		try {
+			getJdbcTemplate().query(
+				new PreparedStatementCreator() {
+					/**
+					 * Creates a forward-only statement whose rows are streamed
+					 * from the server one at a time instead of being read
+					 * into memory all at once.
+					 */
+					@Override
+					public PreparedStatement createPreparedStatement(
+							final Connection connection)
+							throws SQLException {
+						
+						PreparedStatement ps =
+							connection.prepareStatement(
+								sql,
+								ResultSet.TYPE_FORWARD_ONLY,
+								ResultSet.CONCUR_READ_ONLY);
+						ps.setFetchSize(Integer.MIN_VALUE);
+						
+						ps.setString(1, username);
+						ps.setString(2, observerId);
+						ps.setString(3, streamId);
+						ps.setLong(4, maxIds);
+						
+						return ps;
+					}
+				},
+				new RowCallbackHandler() {
+					/**
+					 * Adds each ID to the filter as it is read.
+					 */
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
+						
+						filter.add(rs.getString("uid"));
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					sql +
+					"' with parameters: " +
+					username + ", " +
+					observerId + ", " +
+					streamId + ", " +
+					maxIds,
+				e);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.ohmage.query.IObserverQueries#storeData(java.lang.String, java.util.Collection)
@@ -869,49 +1096,22 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			final Collection<DataStream> data)
 			throws DataAccessException {
 		
-		String sql =
-			"INSERT INTO observer_stream_data (" +
-				"user_id, " +
-				"observer_stream_link_id, " +
-				"uid, " +
-				"time, " +
-				"time_offset, " +
-				"time_adjusted, " +
-				"time_zone, " +
-				"location_timestamp, " +
-				"location_latitude, " +
-				"location_longitude, " +
-				"location_accuracy, " +
-				"location_provider, " +
-				"data) " +
-			"VALUES (" +
-				"(SELECT id FROM user WHERE username = ?), " +
-				"(" +
-					"SELECT osl.id " +
-					"FROM " +
-						"observer o, " +
-						"observer_stream os, " +
-						"observer_stream_link osl " +
-					"WHERE o.observer_id = ? " +
-					"AND o.version = ? " +
-					"AND os.stream_id = ? " +
-					"AND os.version = ? " +
-					"AND o.id = osl.observer_id " +
-					"AND os.id = osl.observer_stream_id" +
-				"), " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?, " +
-				"?)";
+		if(data.isEmpty()) {
+			return;
+		}
 		
-		List<Object[]> args = new ArrayList<Object[]>(data.size());
+		// Resolve the IDs once for the whole batch instead of once per row.
+		long userId = getUserId(username);
+		Map<Stream, Long> linkIds = new HashMap<Stream, Long>();
+		for(DataStream currData : data) {
+			Stream stream = currData.getStream();
+			if(! linkIds.containsKey(stream)) {
+				linkIds.put(stream, getStreamLinkId(observer, stream));
+			}
+		}
+		
+		List<Object> args = 
+			new ArrayList<Object>(data.size() * STORE_DATA_NUM_COLUMNS);
 		for(DataStream currData : data) {
 			MetaData metaData = currData.getMetaData();
 			String id = null;
@@ -933,26 +1133,19 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			String timeZoneId = 
 				(timestamp == null) ? null : timestamp.getZone().getID();
 			
-			args.add(
-				new Object[] {
-					username,
-					observer.getId(),
-					observer.getVersion(),
-					currData.getStream().getId(),
-					currData.getStream().getVersion(),
-					id,
-					time,
-					timeOffset,
-					timeAdjusted,
-					timeZoneId,
-					(location == null) ? null : (new DateTime(location.getTime(), location.getTimeZone())).toString(),
-					(location == null) ? null : location.getLatitude(),
-					(location == null) ? null : location.getLongitude(),
-					(location == null) ? null : location.getAccuracy(),
-					(location == null) ? null : location.getProvider(),
-					currData.getData().toString()
-				}
-			);
+			args.add(userId);
+			args.add(linkIds.get(currData.getStream()));
+			args.add(id);
+			args.add(time);
+			args.add(timeOffset);
+			args.add(timeAdjusted);
+			args.add(timeZoneId);
+			args.add((location == null) ? null : (new DateTime(location.getTime(), location.getTimeZone())).toString());
+			args.add((location == null) ? null : location.getLatitude());
+			args.add((location == null) ? null : location.getLongitude());
+			args.add((location == null) ? null : location.getAccuracy());
+			args.add((location == null) ? null : location.getProvider());
+			args.add(currData.getData().toString());
 		}
 		
 		// Create the transaction.
@@ -965,14 +1158,28 @@ public class ObserverQueries extends Query implements IObserverQueries {
 				new DataSourceTransactionManager(getDataSource());
 			TransactionStatus status = transactionManager.getTransaction(def);
 			
-			try {
-				getJdbcTemplate().batchUpdate(sql, args);
-			}
-			catch(org.springframework.dao.DataAccessException e) {
-				transactionManager.rollback(status);
-				throw new DataAccessException(
-					"Error executing SQL '" + sql +"'.", 
-					e);
+			// Insert the rows in multi-row statements.
+			int numRows = data.size();
+			for(int row = 0; row < numRows; row += STORE_DATA_ROWS_PER_STATEMENT) {
+				int numStatementRows = 
+					Math.min(STORE_DATA_ROWS_PER_STATEMENT, numRows - row);
+				String sql = getStoreDataSql(numStatementRows);
+				Object[] statementArgs =
+					args
+						.subList(
+							row * STORE_DATA_NUM_COLUMNS, 
+							(row + numStatementRows) * STORE_DATA_NUM_COLUMNS)
+						.toArray();
+				
+				try {
+					getJdbcTemplate().update(sql, statementArgs);
+				}
+				catch(org.springframework.dao.DataAccessException e) {
+					transactionManager.rollback(status);
+					throw new DataAccessException(
+						"Error executing SQL '" + sql +"'.", 
+						e);
+				}
 			}
 			
 			// Commit the transaction.
@@ -992,6 +1199,161 @@ public class ObserverQueries extends Query implements IObserverQueries {
 				e);
 		}
 	}
+	
+	/**
+	 * Builds the multi-row INSERT statement for stream data.
+	 * 
+	 * @param numRows The number of rows in the statement.
+	 * 
+	 * @return The SQL.
+	 */
+	private static String getStoreDataSql(final int numRows) {
+		StringBuilder sqlBuilder =
+			new StringBuilder(
+				"INSERT INTO observer_stream_data (" +
+					"user_id, " +
+					"observer_stream_link_id, " +
+					"uid, " +
+					"time, " +
+					"time_offset, " +
+					"time_adjusted, " +
+					"time_zone, " +
+					"location_timestamp, " +
+					"location_latitude, " +
+					"location_longitude, " +
+					"location_accuracy, " +
+					"location_provider, " +
+					"data) " +
+				"VALUES ");
+		
+		for(int i = 0; i < numRows; i++) {
+			if(i != 0) {
+				sqlBuilder.append(", ");
+			}
+			sqlBuilder.append("(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+		}
+		
+		// A point whose ID was stored after the duplicates were removed, e.g.
+		// by another server, is skipped rather than failing the batch.
+		sqlBuilder.append(" ON DUPLICATE KEY UPDATE id = id");
+		
+		return sqlBuilder.toString();
+	}
+	
+	/**
+	 * Retrieves a user's database ID.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @return The user's database ID.
+	 * 
+	 * @throws DataAccessException The user does not exist or there was an
+	 * 							   error.
+	 */
+	private long getUserId(final String username) throws DataAccessException {
+		String sql = "SELECT id FROM user WHERE username = ?";
+		
+		try {
+			return getJdbcTemplate().queryForLong(sql, new Object[] { username });
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					sql + 
+					"' with parameter: " + 
+					username,
+				e);
+		}
+	}
+	
+	/**
+	 * Retrieves the database ID of the link between an observer and one of
+	 * its streams. If it is not yet cached, all of the observer's links are
+	 * read and cached at once.
+	 * 
+	 * @param observer The observer.
+	 * 
+	 * @param stream The stream.
+	 * 
+	 * @return The link's database ID.
+	 * 
+	 * @throws DataAccessException The link does not exist or there was an
+	 * 							   error.
+	 */
+	private long getStreamLinkId(
+			final Observer observer,
+			final Stream stream)
+			throws DataAccessException {
+		
+		StreamLinkKey key =
+			new StreamLinkKey(
+				observer.getId(),
+				observer.getVersion(),
+				stream.getId(),
+				stream.getVersion());
+		Long result = streamLinkIds.get(key);
+		if(result != null) {
+			return result;
+		}
+		
+		String sql =
+			"SELECT os.stream_id, os.version, osl.id " +
+			"FROM " +
+				"observer o, " +
+				"observer_stream os, " +
+				"observer_stream_link osl " +
+			"WHERE o.observer_id = ? " +
+			"AND o.version = ? " +
+			"AND o.id = osl.observer_id " +
+			"AND os.id = osl.observer_stream_id";
+		
+		try {
+			getJdbcTemplate().query(
+				sql,
+				new Object[] { observer.getId(), observer.getVersion() },
+				new RowMapper<Object>() {
+					/**
+					 * Caches each of the observer's links.
+					 */
+					@Override
+					public Object mapRow(
+							final ResultSet rs,
+							final int rowNum)
+							throws SQLException {
+						
+						streamLinkIds.put(
+							new StreamLinkKey(
+								observer.getId(),
+								observer.getVersion(),
+								rs.getString("stream_id"),
+								rs.getLong("version")),
+							rs.getLong("id"));
+						
+						return null;
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					sql + 
+					"' with parameters: " + 
+					observer.getId() + ", " +
+					observer.getVersion(),
+				e);
+		}
+		
+		result = streamLinkIds.get(key);
+		if(result == null) {
+			throw new DataAccessException(
+				"The stream does not belong to the observer: " +
+					"Observer ID: " + observer.getId() + " " +
+					"Observer Version: " + observer.getVersion() + " " +
+					"Stream ID: " + stream.getId() + " " +
+					"Stream Version: " + stream.getVersion());
+		}
+		return result;
+	}
 
 	/*
 	 * (non-Javadoc)
@@ -1080,7 +1442,7 @@ public class ObserverQueries extends Query implements IObserverQueries {
 
 	/*
 	 * (non-Javadoc)
-	 * @see org.ohmage.query.IObserverQueries#readData(org.ohmage.domain.Observer.Stream, java.lang.String, java.lang.String, java.lang.Long, org.joda.time.DateTime, org.joda.time.DateTime, boolean, long, long)
+	 * @see org.ohmage.query.IObserverQueries#readData(org.ohmage.domain.Observer.Stream, java.lang.String, java.lang.String, java.lang.Long, org.joda.time.DateTime, org.joda.time.DateTime, boolean, org.ohmage.domain.StreamReadCursor, long, long, org.ohmage.domain.StreamReadCursor.Builder)
 	 */
 	@Override
 	public List<DataStream> readData(
@@ -1091,14 +1453,238 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			final DateTime startDate,
 			final DateTime endDate,
 			final boolean chronological,
+			final StreamReadCursor cursor,
+			final long numToSkip,
+			final long numToReturn,
+			final StreamReadCursor.Builder nextCursor) 
+			throws DataAccessException {
+		
+		List<Object> parameters = new LinkedList<Object>();
+		final String sql =
+			buildReadDataSql(
+				stream,
+				username,
+				observerId,
+				observerVersion,
+				startDate,
+				endDate,
+				chronological,
+				cursor,
+				numToSkip,
+				numToReturn,
+				parameters);
+		
+		// Create a JSON factory, which will be used by each data point to
+		// deserialize its data into a JsonNode.
+		final JsonFactory jsonFactory = new MappingJsonFactory();
+		
+		try {
+			return
+				getJdbcTemplate().query(
+					sql,
+					parameters.toArray(),
+					new RowMapper<DataStream>() {
+						/**
+						 * Decodes the resulting data into a data stream.
+						 */
+						@Override
+						public DataStream mapRow(
+								final ResultSet rs, 
+								final int rowNum)
+								throws SQLException {
+							
+							MetaData metaData = readMetaData(rs, nextCursor);
+							String id = metaData.getId();
+							
+							JsonNode data;
+							try {
+								JsonParser parser =
+									jsonFactory
+										.createJsonParser(
+											rs.getString("osd.data"));
+								data = parser.readValueAsTree();
+							}
+							catch(JsonParseException e) {
+								throw new SQLException(
+									"The data in the database is invalid: " +
+										id,
+									e);
+							}
+							catch(IOException e) {
+								throw new SQLException(
+									"There was a problem reading the data: " +
+										id,
+									e);
+							}
+							
+							try {
+								return new DataStream(stream, metaData, data);
+							}
+							catch(DomainException e) {
+								throw new SQLException(
+									"Could not create the data stream.",
+									e);
+							}
+						}
+					});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					sql + 
+					"' with parameters: " +
+					parameters,
+				e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IObserverQueries#streamData(org.ohmage.domain.Observer.Stream, java.lang.String, java.lang.String, java.lang.Long, org.joda.time.DateTime, org.joda.time.DateTime, boolean, org.ohmage.domain.StreamReadCursor, long, long, org.ohmage.domain.StreamReadCursor.Builder, org.ohmage.domain.DataStream.RawDataHandler)
+	 */
+	@Override
+	public long streamData(
+			final Stream stream,
+			final String username,
+			final String observerId,
+			final Long observerVersion,
+			final DateTime startDate,
+			final DateTime endDate,
+			final boolean chronological,
+			final StreamReadCursor cursor,
 			final long numToSkip,
-			final long numToReturn) 
+			final long numToReturn,
+			final StreamReadCursor.Builder nextCursor,
+			final DataStream.RawDataHandler handler) 
 			throws DataAccessException {
 		
-		// Create the initial query and required set of parameters.
+		final List<Object> parameters = new LinkedList<Object>();
+		final String sql =
+			buildReadDataSql(
+				stream,
+				username,
+				observerId,
+				observerVersion,
+				startDate,
+				endDate,
+				chronological,
+				cursor,
+				numToSkip,
+				numToReturn,
+				parameters);
+		
+		final long[] numPoints = new long[] { 0 };
+		try {
+			getJdbcTemplate().query(
+				new PreparedStatementCreator() {
+					/**
+					 * Creates a forward-only statement whose rows are streamed
+					 * from the server one at a time instead of being read
+					 * into memory all at once.
+					 */
+					@Override
+					public PreparedStatement createPreparedStatement(
+							final Connection connection)
+							throws SQLException {
+						
+						PreparedStatement ps =
+							connection.prepareStatement(
+								sql,
+								ResultSet.TYPE_FORWARD_ONLY,
+								ResultSet.CONCUR_READ_ONLY);
+						ps.setFetchSize(Integer.MIN_VALUE);
+						
+						int index = 1;
+						for(Object parameter : parameters) {
+							ps.setObject(index++, parameter);
+						}
+						
+						return ps;
+					}
+				},
+				new RowCallbackHandler() {
+					/**
+					 * Passes each point to the handler as it is read.
+					 */
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
+						
+						MetaData metaData = readMetaData(rs, nextCursor);
+						try {
+							handler.handle(metaData, rs.getString("osd.data"));
+						}
+						catch(IOException e) {
+							throw new SQLException(
+								"The point could not be handled: " +
+									metaData.getId(),
+								e);
+						}
+						numPoints[0]++;
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" + 
+					sql + 
+					"' with parameters: " +
+					parameters,
+				e);
+		}
+		
+		return numPoints[0];
+	}
+	
+	/**
+	 * Builds the query that reads a stream's data.
+	 * 
+	 * @param stream The stream whose data is being read.
+	 * 
+	 * @param username The username of the user to whom the data belongs.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param observerVersion The observer's version. Optional.
+	 * 
+	 * @param startDate The earliest data point to return. Optional.
+	 * 
+	 * @param endDate The latest data point to return. Optional.
+	 * 
+	 * @param chronological Whether or not to sort the data chronologically.
+	 * 
+	 * @param cursor The position after which to start reading. Optional.
+	 * 
+	 * @param numToSkip The number of data points to skip.
+	 * 
+	 * @param numToReturn The number of data points to return.
+	 * 
+	 * @param parameters The list to which the query's parameters are added.
+	 * 
+	 * @return The SQL.
+	 */
+	private static String buildReadDataSql(
+			final Stream stream,
+			final String username,
+			final String observerId,
+			final Long observerVersion,
+			final DateTime startDate,
+			final DateTime endDate,
+			final boolean chronological,
+			final StreamReadCursor cursor,
+			final long numToSkip,
+			final long numToReturn,
+			final List<Object> parameters) {
+		
+		// Create the initial query and required set of parameters. A read
+		// that continues from a cursor seeks directly to it on the index
+		// ordered by time. Otherwise, the index on the adjusted time is used
+		// to find the first page.
 		StringBuilder builder = 
 			new StringBuilder(
 				"SELECT " +
+					"osd.id, " +
 					"osd.uid, " +
 					"osd.time, " +
 					"osd.time_zone, " +
@@ -1109,7 +1695,11 @@ public class ObserverQueries extends Query implements IObserverQueries {
 					"osd.location_provider, " +
 					"osd.data " +
 				"FROM " +
-					"observer_stream_data AS osd FORCE INDEX (observer_stream_data_query)" +
+					"observer_stream_data AS osd FORCE INDEX (" +
+						((cursor == null) ?
+							"observer_stream_data_query" :
+							"observer_stream_data_seek") +
+					") " +
 				"WHERE " +
 					"osd.user_id = (" +
 						"SELECT id " +
@@ -1120,7 +1710,6 @@ public class ObserverQueries extends Query implements IObserverQueries {
 					"( SELECT id FROM observer_stream_link WHERE observer_id = " +
 						"( SELECT id FROM observer WHERE observer_id = ? ");
 				
-		List<Object> parameters = new LinkedList<Object>();
 		parameters.add(username);
 		parameters.add(observerId);
 		
@@ -1163,131 +1752,151 @@ public class ObserverQueries extends Query implements IObserverQueries {
 			parameters.add(endDate.getMillis());
 		}
 		
+		// If a cursor is given, only return the points after it.
+		if(cursor != null) {
+			String comparison = (chronological) ? " > ?" : " < ?";
+			Long cursorTime = cursor.getTime();
+			
+			// Points without a time are ordered before all others.
+			if(cursorTime == null) {
+				if(chronological) {
+					builder
+						.append(
+							" AND (" +
+								"(osd.time IS NULL AND osd.id" + comparison + ") " +
+								"OR osd.time IS NOT NULL" +
+							")");
+				}
+				else {
+					builder
+						.append(" AND osd.time IS NULL AND osd.id" + comparison);
+				}
+				parameters.add(cursor.getId());
+			}
+			else {
+				builder
+					.append(
+						" AND (" +
+							"osd.time" + comparison + " " +
+							"OR (osd.time = ? AND osd.id" + comparison + ")" +
+							((chronological) ? "" : " OR osd.time IS NULL") +
+						")");
+				parameters.add(cursorTime);
+				parameters.add(cursorTime);
+				parameters.add(cursor.getId());
+			}
+			
+			// Bound the seek by the dates. The adjusted time is never more
+			// than a time zone's offset away from the time.
+			if(startDate != null) {
+				builder.append(" AND osd.time >= ?");
+				parameters.add(startDate.getMillis() - MAX_TIME_ZONE_OFFSET);
+			}
+			if(endDate != null) {
+				builder.append(" AND osd.time <= ?");
+				parameters.add(endDate.getMillis() + MAX_TIME_ZONE_OFFSET);
+			}
+		}
+		
 		// Add the ordering based on whether or not these should be 
-		// chronological or reverse chronological.
+		// chronological or reverse chronological. The ID breaks ties, so the
+		// order is stable across pages.
+		String direction = (chronological) ? "ASC" : "DESC";
 		builder
 			.append(
-				" ORDER BY osd.time " + ((chronological) ? "ASC" : "DESC"));
+				" ORDER BY osd.time " + direction + ", osd.id " + direction);
 		
 		// Limit the number of results based on the paging.
 		builder.append(" LIMIT ?, ?");
 		parameters.add(numToSkip);
 		parameters.add(numToReturn);
 		
-		// Create a JSON factory, which will be used by each data point to
-		// deserialize its data into a JsonNode.
-		final JsonFactory jsonFactory = new MappingJsonFactory();
+		return builder.toString();
+	}
+	
+	/**
+	 * Reads the meta-data of a data point from the current row and, if a
+	 * cursor builder is given, moves the cursor to it.
+	 * 
+	 * @param rs The result set positioned on the data point's row.
+	 * 
+	 * @param nextCursor The cursor builder. Optional.
+	 * 
+	 * @return The point's meta-data.
+	 * 
+	 * @throws SQLException The meta-data could not be read.
+	 */
+	private static MetaData readMetaData(
+			final ResultSet rs,
+			final StreamReadCursor.Builder nextCursor)
+			throws SQLException {
+		
+		MetaData.Builder metaDataBuilder = new MetaData.Builder();
+		
+		if(nextCursor != null) {
+			Long cursorTime = rs.getLong("osd.time");
+			if(rs.wasNull()) {
+				cursorTime = null;
+			}
+			nextCursor
+				.setPosition(cursorTime, rs.getLong("osd.id"));
+		}
+		
+		String id = rs.getString("osd.uid");
+		if(id != null) {
+			metaDataBuilder.setId(id);
+		}
+		
+		Long time = rs.getLong("osd.time");
+		if(time != null) {
+			metaDataBuilder.setTimestamp(
+				new DateTime(
+					time,
+					DateTimeZone.forID(
+						rs.getString("osd.time_zone"))));
+		}
+		
+		String locationTimestampString = 
+			rs.getString("location_timestamp");
+		if(locationTimestampString != null) {
+			Location location;
+			try {
+				location =
+					new Location(
+						ISODateTimeFormat
+							.dateTime()
+							.parseDateTime(
+								rs.getString(
+									"osd.location_timestamp")),
+						rs.getDouble("osd.location_latitude"),
+						rs.getDouble("osd.location_longitude"),
+						rs.getDouble("osd.location_accuracy"),
+						rs.getString("osd.location_provider"));
+			}
+			catch(IllegalArgumentException e) {
+				throw new SQLException(
+					"The timestamp in the database is corrupted.",
+					e);
+			}
+			catch(NullPointerException e) {
+				throw new SQLException(
+					"A double in the database is corrupted.",
+					e);
+			}
+			catch(DomainException e) {
+				throw new SQLException(
+					"Could not create the location object.",
+					e);
+			}
+			
+			metaDataBuilder.setLocation(location);
+		}
 		
 		try {
-			return
-				getJdbcTemplate().query(
-					builder.toString(),
-					parameters.toArray(),
-					new RowMapper<DataStream>() {
-						/**
-						 * Decodes the resulting data into a data stream.
-						 */
-						@Override
-						public DataStream mapRow(
-								final ResultSet rs, 
-								final int rowNum)
-								throws SQLException {
-							
-							MetaData.Builder metaDataBuilder =
-								new MetaData.Builder();
-							
-							String id = rs.getString("osd.uid");
-							if(id != null) {
-								metaDataBuilder.setId(id);
-							}
-							
-							Long time = rs.getLong("osd.time");
-							if(time != null) {
-								metaDataBuilder.setTimestamp(
-									new DateTime(
-										time,
-										DateTimeZone.forID(
-											rs.getString("osd.time_zone"))));
-							}
-							
-							String locationTimestampString = 
-								rs.getString("location_timestamp");
-							if(locationTimestampString != null) {
-								Location location;
-								try {
-									location =
-										new Location(
-											ISODateTimeFormat
-												.dateTime()
-												.parseDateTime(
-													rs.getString(
-														"osd.location_timestamp")),
-											rs.getDouble("osd.location_latitude"),
-											rs.getDouble("osd.location_longitude"),
-											rs.getDouble("osd.location_accuracy"),
-											rs.getString("osd.location_provider"));
-								}
-								catch(IllegalArgumentException e) {
-									throw new SQLException(
-										"The timestamp in the database is corrupted.",
-										e);
-								}
-								catch(NullPointerException e) {
-									throw new SQLException(
-										"A double in the database is corrupted.",
-										e);
-								}
-								catch(DomainException e) {
-									throw new SQLException(
-										"Could not create the location object.",
-										e);
-								}
-								
-								metaDataBuilder.setLocation(location);
-							}
-							
-							JsonNode data;
-							try {
-								JsonParser parser =
-									jsonFactory
-										.createJsonParser(
-											rs.getString("osd.data"));
-								data = parser.readValueAsTree();
-							}
-							catch(JsonParseException e) {
-								throw new SQLException(
-									"The data in the database is invalid: " +
-										id,
-									e);
-							}
-							catch(IOException e) {
-								throw new SQLException(
-									"There was a problem reading the data: " +
-										id,
-									e);
-							}
-							
-							try {
-								return new DataStream(
-									stream, 
-									metaDataBuilder.build(), 
-									data);
-							}
-							catch(DomainException e) {
-								throw new SQLException(
-									"Could not create the data stream.",
-									e);
-							}
-						}
-					});
+			return metaDataBuilder.build();
 		}
-		catch(org.springframework.dao.DataAccessException e) {
-			throw new DataAccessException(
-				"Error executing SQL '" + 
-					builder.toString() + 
-					"' with parameters: " +
-					parameters,
-				e);
+		catch(DomainException e) {
+			throw new SQLException("Could not create the meta-data.", e);
 		}
 	}
 
@@ -1664,6 +2273,14 @@ public class ObserverQueries extends Query implements IObserverQueries {
 					"Error while committing the transaction.",
 					e);
 			}
+			
+			// Drop the cached links for this observer.
+			Iterator<StreamLinkKey> keys = streamLinkIds.keySet().iterator();
+			while(keys.hasNext()) {
+				if(keys.next().observerId.equals(observer.getId())) {
+					keys.remove();
+				}
+			}
 		}
 		catch(TransactionException e) {
 			throw new DataAccessException(
@@ -15,17 +15,21 @@
  ******************************************************************************/
 package org.ohmage.query.impl;
 
+import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.sql.DataSource;
 
@@ -38,12 +42,14 @@ import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.ColumnKey;
 import org.ohmage.domain.campaign.SurveyResponse.PrivacyState;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
+import org.ohmage.domain.campaign.SurveyResponseReadCursor;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.query.ISurveyResponseQueries;
 import org.ohmage.util.DateTimeUtils;
 import org.ohmage.util.StringUtils;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -97,38 +103,109 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 			"ON sr.id = pr.survey_response_id ";
 	
 	/**
-	 * Retrieves all of the necessary information for survey responses. It 
-	 * should almost certainly be used with the {@link #SQL_WHERE_ACL} in order
-	 * to ensure that a user cannot see more than they are privileged to see.
-	 * However, this may not be used in the case of administrators when they
-	 * need to see all data regardless of role.<br />
-	 * <br />
-	 * Note: This should never use a GROUP BY clause as you will lose the count
-	 * for the columns that were aggregated together. If you need to group the
-	 * results, use {@link #SQL_GET_SURVEY_RESPONSES_AGGREGATED}, instead.
+	 * Retrieves the database IDs of one page of survey responses. It should
+	 * almost certainly be used with the ACL WHERE clause in order to ensure
+	 * that a user cannot see more than they are privileged to see and with
+	 * {@link #SQL_WHERE_HAS_PROMPT_RESPONSES} so that only survey responses
+	 * with matching prompt responses are returned. The survey responses on
+	 * the page are then retrieved with {@link #SQL_GET_SURVEY_RESPONSES}.
 	 * 
-	 * @see #SQL_WHERE_ACL
 	 * @see #SQL_WHERE_USERNAMES
 	 * @see #SQL_WHERE_ON_OR_AFTER
 	 * @see #SQL_WHERE_ON_OR_BEFORE
 	 * @see #SQL_WHERE_PRIVACY_STATE
 	 * @see #SQL_WHERE_SURVEY_IDS
-	 * @see #SQL_WHERE_PROMPT_IDS
-	 * @see #SQL_WHERE_PROMPT_TYPE
-	 * 
-	 * @see #SQL_ORDER_BY
+	 * @see #SQL_WHERE_HAS_PROMPT_RESPONSES
 	 */
-	private static final String SQL_GET_SURVEY_RESPONSES_INDIVIDUAL =
+	private static final String SQL_GET_SURVEY_RESPONSE_IDS_PAGE =
+		// The UUID is selected so that the sort order may refer to it.
+		"SELECT sr.id, sr.uuid " +
+			SQL_BASE_FROM;
+	
+	/**
+	 * Retrieves a set of survey responses without any of their prompt
+	 * responses. This SQL is incomplete and ends with "IN ". The user will 
+	 * need to fill in a parenthetical of "?"s and supply an equal number of
+	 * survey response database IDs to the parameter list. The prompt
+	 * responses are then retrieved with {@link #SQL_GET_PROMPT_RESPONSES}.
+	 */
+	private static final String SQL_GET_SURVEY_RESPONSES =
 		// Retrieve all of the columns necessary to build a SurveyResponse
 		// object.
 		"SELECT u.username, c.urn, " +
 			"sr.id, sr.uuid, sr.client, " +
 			"sr.epoch_millis, sr.phone_timezone, " +
 			"sr.survey_id, sr.launch_context, " +
-			"sr.location_status, sr.location, srps.privacy_state, " +
-			"pr.prompt_id, pr.response, pr.repeatable_set_iteration " +
+			"sr.location_status, sr.location, srps.privacy_state " +
 			SQL_BASE_FROM +
-			SQL_FROM_WITH_PROMPT_RESPONSE;
+		"WHERE sr.id IN ";
+	
+	/**
+	 * Counts the survey responses. This should be used with the same WHERE
+	 * clause as {@link #SQL_GET_SURVEY_RESPONSE_IDS_PAGE}.
+	 */
+	private static final String SQL_COUNT_SURVEY_RESPONSES =
+		"SELECT COUNT(sr.id) " +
+			SQL_BASE_FROM;
+	
+	/**
+	 * Limits the survey responses to only those that have at least one prompt
+	 * response that matches the prompt response criteria. This SQL is
+	 * incomplete and is missing its closing parenthesis. The user will need
+	 * to add any prompt response criteria and then close it.
+	 * 
+	 * This is not a correlated sub-query, so the database may begin with the
+	 * matching prompt responses, e.g. from the full-text index, rather than
+	 * checking each survey response in the campaign.
+	 * 
+	 * @see #SQL_WHERE_PROMPT_IDS
+	 * @see #SQL_WHERE_PROMPT_TYPE
+	 * @see #SQL_WHERE_PROMPT_RESPONSE_MATCH
+	 * @see #SQL_WHERE_PROMPT_RESPONSE_SEARCH_TOKEN
+	 */
+	private static final String SQL_WHERE_HAS_PROMPT_RESPONSES =
+		" AND sr.id IN (" +
+			"SELECT pr.survey_response_id " +
+			"FROM prompt_response AS pr " +
+			"WHERE TRUE";
+	
+	/**
+	 * Limits the survey responses to only those after a cursor in the default
+	 * order, which is newest first and then by UUID. The parameters are the
+	 * cursor's time, its time again, and its UUID. With the campaign criteria,
+	 * this lets the database seek into the campaign's time index instead of
+	 * reading and discarding every survey response on the earlier pages.
+	 * 
+	 * @see org.ohmage.domain.campaign.SurveyResponseReadCursor
+	 */
+	private static final String SQL_WHERE_AFTER_CURSOR =
+		" AND (" +
+			"sr.epoch_millis < ? OR " +
+			"(sr.epoch_millis = ? AND sr.uuid > ?)" +
+		")";
+	
+	/**
+	 * Retrieves the prompt responses for a set of survey responses, in the
+	 * order in which they were stored. This SQL is incomplete and ends with
+	 * "IN ". The user will need to fill in a parenthetical of "?"s and supply
+	 * an equal number of survey response database IDs to the parameter list.
+	 * 
+	 * @see #SQL_WHERE_PROMPT_IDS
+	 * @see #SQL_WHERE_PROMPT_TYPE
+	 * @see #SQL_WHERE_PROMPT_RESPONSE_SEARCH_TOKEN
+	 */
+	private static final String SQL_GET_PROMPT_RESPONSES =
+		"SELECT pr.survey_response_id, " +
+			"pr.prompt_id, pr.response, pr.repeatable_set_iteration " +
+		"FROM prompt_response AS pr " +
+		"WHERE pr.survey_response_id IN ";
+	
+	/**
+	 * The maximum number of survey responses, and their prompt responses, that
+	 * are retrieved by a single query. This is also the most survey responses
+	 * that are in memory at any one time while they are being handled.
+	 */
+	private static final int MAX_SURVEY_RESPONSES_PER_QUERY = 1000;
 	
 	/**
 	 * Retrieves all of the necessary information for survey responses. It also
@@ -290,6 +367,18 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 	private static final String SQL_WHERE_PROMPT_TYPE =
 		" AND pr.prompt_type = ?";
 	
+	/**
+	 * Limit the responses to only those whose prompt response contains words
+	 * that begin with the search words. This uses the full-text index on the
+	 * prompt responses and should be followed by 
+	 * {@link #SQL_WHERE_PROMPT_RESPONSE_SEARCH_TOKEN} for each token, which
+	 * checks the exact tokens.
+	 * 
+	 * @see #buildFullTextSearch(Set)
+	 */
+	private static final String SQL_WHERE_PROMPT_RESPONSE_MATCH =
+		" AND MATCH(pr.response) AGAINST (? IN BOOLEAN MODE)";
+	
 	/**
 	 * Limit the responses to only those whose prompt response contains a given 
 	 * token.
@@ -297,6 +386,30 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 	private static final String SQL_WHERE_PROMPT_RESPONSE_SEARCH_TOKEN =
 		" AND pr.response LIKE ?";
 	
+	/**
+	 * The words in a search token that may be found in the full-text index.
+	 */
+	private static final Pattern PATTERN_FULL_TEXT_WORD =
+		Pattern.compile("[\\p{L}\\p{N}_]+");
+	
+	/**
+	 * The shortest word that is in the full-text index, which is MySQL's
+	 * default "innodb_ft_min_token_size".
+	 */
+	private static final int MIN_FULL_TEXT_WORD_LENGTH = 3;
+	
+	/**
+	 * The words that are never in the full-text index, which is MySQL's
+	 * default InnoDB stopword list.
+	 */
+	private static final Set<String> FULL_TEXT_STOPWORDS =
+		new HashSet<String>(
+			Arrays.asList(
+				"a", "about", "an", "are", "as", "at", "be", "by", "com",
+				"de", "en", "for", "from", "how", "i", "in", "is", "it",
+				"la", "of", "on", "or", "that", "the", "this", "to", "was",
+				"what", "when", "where", "who", "will", "with", "und", "www"));
+	
 	/**
 	 * Order the results first by the number of milliseconds since the epoch at
 	 * which time the survey was taken and then, if there is a collision, by
@@ -410,6 +523,69 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 			final List<SurveyResponse> result)
 			throws DataAccessException {
 		
+		return
+			retrieveSurveyResponses(
+				campaign,
+				username,
+				surveyResponseIds,
+				usernames,
+				startDate,
+				endDate,
+				privacyState,
+				surveyIds,
+				promptIds,
+				promptType,
+				promptResponseSearchTokens,
+				columns,
+				sortOrder,
+				surveyResponsesToSkip,
+				surveyResponsesToProcess,
+				null,
+				new SurveyResponse.SurveyResponseHandler() {
+					/**
+					 * Adds each survey response to the result.
+					 */
+					@Override
+					public void handle(
+							final SurveyResponse surveyResponse) {
+						
+						result.add(surveyResponse);
+					}
+				});
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.ISurveyResponseQueries#retrieveSurveyResponses(org.ohmage.domain.campaign.Campaign, java.lang.String, java.util.Set, java.util.Collection, org.joda.time.DateTime, org.joda.time.DateTime, org.ohmage.domain.campaign.SurveyResponse.PrivacyState, java.util.Collection, java.util.Collection, java.lang.String, java.util.Set, java.util.Collection, java.util.List, long, long, org.ohmage.domain.campaign.SurveyResponseReadCursor, org.ohmage.domain.campaign.SurveyResponse.SurveyResponseHandler)
+	 */
+	@Override
+	public int retrieveSurveyResponses(
+			final Campaign campaign,
+			final String username,
+			final Set<UUID> surveyResponseIds,
+			final Collection<String> usernames, 
+			final DateTime startDate,
+			final DateTime endDate, 
+			final SurveyResponse.PrivacyState privacyState,
+			final Collection<String> surveyIds,
+			final Collection<String> promptIds,
+			final String promptType,
+			final Set<String> promptResponseSearchTokens,
+			final Collection<ColumnKey> columns,
+			final List<SortParameter> sortOrder,
+			final long surveyResponsesToSkip,
+			final long surveyResponsesToProcess,
+			final SurveyResponseReadCursor cursor,
+			final SurveyResponse.SurveyResponseHandler handler)
+			throws DataAccessException {
+		
+		// The cursor is a position in the default order of individual survey
+		// responses.
+		if((cursor != null) && ((sortOrder != null) || (columns != null))) {
+			throw new IllegalArgumentException(
+				"A cursor may only be used with the default sort order and without aggregating.");
+		}
+		
 		if(
 			((surveyIds != null) && (surveyIds.size() == 0)) ||
 			((promptIds != null) && (promptIds.size() == 0)) ||
@@ -418,22 +594,568 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 			return 0;
 		}
 		
+		// Build the criteria for the survey responses, which includes the
+		// ACLs, and the criteria for their prompt responses separately, so
+		// that the prompt response criteria may be reused on their own.
 		List<Object> parameters = new LinkedList<Object>();
-		String sql = buildSqlAndParameters(
+		String surveyResponseWhere = 
+			buildSurveyResponseWhereAndParameters(
 				campaign,
 				username,
 				surveyResponseIds,
-				usernames, 
+				usernames,
 				startDate,
-				endDate, 
+				endDate,
 				privacyState,
 				surveyIds,
+				parameters);
+		
+		List<Object> promptResponseParameters = new LinkedList<Object>();
+		String promptResponseWhere =
+			buildPromptResponseWhereAndParameters(
 				promptIds,
 				promptType,
 				promptResponseSearchTokens,
+				promptResponseParameters);
+		
+		if(columns == null) {
+			return retrieveIndividualSurveyResponses(
+				campaign,
+				surveyResponseWhere,
+				parameters,
+				promptResponseWhere,
+				promptResponseParameters,
+				sortOrder,
+				surveyResponsesToSkip,
+				surveyResponsesToProcess,
+				cursor,
+				handler);
+		}
+		else {
+			return retrieveAggregatedSurveyResponses(
+				campaign,
+				surveyResponseWhere,
+				parameters,
+				promptResponseWhere,
+				promptResponseParameters,
+				columns,
+				sortOrder,
+				surveyResponsesToSkip,
+				surveyResponsesToProcess,
+				handler);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.ohmage.query.impl.ISurveyResponseQueries#updateSurveyResponsePrivacyState(java.lang.Long, org.ohmage.domain.campaign.SurveyResponse.PrivacyState)
+	 */
+	public void updateSurveyResponsesPrivacyState(
+			final Set<UUID> surveyResponseIds, 
+			final SurveyResponse.PrivacyState newPrivacyState)
+			throws DataAccessException {
+		
+		StringBuilder sqlBuilder = 
+				new StringBuilder(SQL_UPDATE_SURVEY_RESPONSES_PRIVACY_STATE);
+		sqlBuilder.append(
+				StringUtils.generateStatementPList(surveyResponseIds.size()));
+
+		List<Object> parameters = 
+				new ArrayList<Object>(surveyResponseIds.size() + 1);
+		parameters.add(newPrivacyState.toString());
+		for(UUID surveyResponseId : surveyResponseIds) {
+			parameters.add(surveyResponseId.toString());
+		}
+		
+		// Create the transaction.
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Updating a survey response.");
+		
+		try {
+			// Begin the transaction.
+			PlatformTransactionManager transactionManager = 
+					new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+			
+			try {
+				getJdbcTemplate().update(
+						sqlBuilder.toString(), 
+						parameters.toArray());
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+						"Error executing SQL '" + 
+								sqlBuilder.toString() + 
+							"' with parameters: " + 
+								parameters.toArray(), 
+						e);
+			}
+			
+			// Commit the transaction.
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException("Error while committing the transaction.", e);
+			}
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.ohmage.query.impl.ISurveyResponseQueries#deleteSurveyResponse(java.lang.Long)
+	 */
+	public void deleteSurveyResponse(
+			final UUID surveyResponseId) 
+			throws DataAccessException {
+		
+		// Create the transaction.
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Deleting a survey response.");
+		
+		try {
+			// Begin the transaction.
+			PlatformTransactionManager transactionManager = 
+					new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+			
+			try {
+				getJdbcTemplate().update(
+						SQL_DELETE_SURVEY_RESPONSE, 
+						new Object[] { surveyResponseId.toString() });
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+						"Error executing SQL '" + 
+								SQL_DELETE_SURVEY_RESPONSE + 
+								"' with parameter: " + 
+								surveyResponseId.toString(), 
+						e);
+			}
+			
+			// Commit the transaction.
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException("Error while committing the transaction.", e);
+			}
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
+		}
+	}
+	
+	/**
+	 * Retrieves one page of survey responses and their prompt responses and
+	 * gives them to a handler.
+	 * 
+	 * The page is selected entirely by the database, which only returns the
+	 * database IDs of the survey responses on that page. The survey responses
+	 * and their prompt responses are then retrieved a limited number at a
+	 * time and given to the handler in page order before the next ones are
+	 * retrieved, so only the IDs of the page and one group of survey
+	 * responses are ever in memory. Finally, the total number of survey
+	 * responses is counted by the database without returning them, unless it
+	 * is already known because this is the last page.
+	 * 
+	 * There must be some ordering on the results in order for subsequent
+	 * results to skip / process the same rows. The agreed upon ordering is by
+	 * time taken time stamp. Therefore, if a user were viewing results as
+	 * they were being generated and/or uploaded, it could be that subsequent
+	 * calls return the same result as a previous call. This is analogous to
+	 * viewing a page of feed data and going to the next page and seeing some
+	 * feed items that you just saw on the previous page. It was decided that
+	 * this is a common and acceptable way to view live data.
+	 * 
+	 * Skipping survey responses still makes the database read every one that
+	 * is skipped. A cursor, which is only allowed with the default order,
+	 * instead lets the database seek to the first survey response after it,
+	 * so any page is as fast as the first one.
+	 * 
+	 * @param campaign The campaign to which the survey responses belong.
+	 * 
+	 * @param surveyResponseWhere The WHERE clause for the survey responses.
+	 * 
+	 * @param surveyResponseParameters The parameters for the survey response
+	 * 								   WHERE clause.
+	 * 
+	 * @param promptResponseWhere The criteria for the prompt responses.
+	 * 
+	 * @param promptResponseParameters The parameters for the prompt response
+	 * 								   criteria.
+	 * 
+	 * @param sortOrder The order in which the survey responses are sorted.
+	 * 
+	 * @param surveyResponsesToSkip The number of survey responses to skip.
+	 * 
+	 * @param surveyResponsesToProcess The maximum number of survey responses
+	 * 								   to return.
+	 * 
+	 * @param cursor The position after which the page begins or null to
+	 * 				 begin with the first survey response.
+	 * 
+	 * @param handler The handler to give each survey response to.
+	 * 
+	 * @return The total number of survey responses that matched the criteria,
+	 * 		   regardless of paging.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private int retrieveIndividualSurveyResponses(
+			final Campaign campaign,
+			final String surveyResponseWhere,
+			final List<Object> surveyResponseParameters,
+			final String promptResponseWhere,
+			final List<Object> promptResponseParameters,
+			final List<SortParameter> sortOrder,
+			final long surveyResponsesToSkip,
+			final long surveyResponsesToProcess,
+			final SurveyResponseReadCursor cursor,
+			final SurveyResponse.SurveyResponseHandler handler)
+			throws DataAccessException {
+		
+		// Only survey responses with at least one matching prompt response
+		// are included.
+		String where =
+			surveyResponseWhere +
+				SQL_WHERE_HAS_PROMPT_RESPONSES +
+				promptResponseWhere +
+				")";
+		List<Object> whereParameters =
+			new ArrayList<Object>(
+				surveyResponseParameters.size() + 
+					promptResponseParameters.size());
+		whereParameters.addAll(surveyResponseParameters);
+		whereParameters.addAll(promptResponseParameters);
+		
+		// Get the database IDs of the page of survey responses, in order,
+		// beginning after the cursor if one was given.
+		List<Object> pageParameters = new ArrayList<Object>(whereParameters);
+		String pageWhere = where;
+		if(cursor != null) {
+			pageWhere += SQL_WHERE_AFTER_CURSOR;
+			pageParameters.add(cursor.getTime());
+			pageParameters.add(cursor.getTime());
+			pageParameters.add(cursor.getId().toString());
+		}
+		String pageSql =
+			SQL_GET_SURVEY_RESPONSE_IDS_PAGE +
+				pageWhere +
+				buildOrderBy(sortOrder) +
+				" LIMIT ?, ?";
+		pageParameters.add(surveyResponsesToSkip);
+		pageParameters.add(surveyResponsesToProcess);
+		
+		final List<Long> page = new ArrayList<Long>();
+		try {
+			getJdbcTemplate().query(
+				pageSql,
+				pageParameters.toArray(),
+				new RowCallbackHandler() {
+					/**
+					 * Keeps only the database ID of each survey response.
+					 */
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
+						
+						page.add(rs.getLong("id"));
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				buildErrorMessage(pageSql, pageParameters),
+				e);
+		}
+		
+		// Retrieve the survey responses and their prompt responses a group at
+		// a time and hand them off before retrieving the next group.
+		for(
+			int start = 0;
+			start < page.size();
+			start += MAX_SURVEY_RESPONSES_PER_QUERY) {
+			
+			List<Long> ids =
+				page.subList(
+					start,
+					Math.min(
+						start + MAX_SURVEY_RESPONSES_PER_QUERY,
+						page.size()));
+			
+			Map<Long, SurveyResponse> surveyResponses =
+				retrieveSurveyResponses(campaign, ids);
+			retrievePromptResponses(
+				campaign,
+				surveyResponses,
+				promptResponseWhere,
+				promptResponseParameters);
+			
+			for(Long id : ids) {
+				SurveyResponse surveyResponse = surveyResponses.get(id);
+				
+				// The survey response may have been deleted since the page
+				// was read.
+				if(surveyResponse == null) {
+					continue;
+				}
+				
+				try {
+					handler.handle(surveyResponse);
+				}
+				catch(IOException e) {
+					throw new DataAccessException(
+						"The survey response could not be handled.",
+						e);
+				}
+			}
+		}
+		
+		// If this page was not full, then it was the last page and the total
+		// is already known. This is not true if the page was empty because
+		// too many survey responses were skipped or if it began after a
+		// cursor, because the survey responses before the cursor were not
+		// counted.
+		long numReturned = page.size();
+		if(
+			(cursor == null) &&
+			(numReturned < surveyResponsesToProcess) &&
+			((numReturned > 0) || (surveyResponsesToSkip == 0))) {
+			
+			return (int) (surveyResponsesToSkip + numReturned);
+		}
+		
+		// Otherwise, count them.
+		String countSql = SQL_COUNT_SURVEY_RESPONSES + where;
+		try {
+			return 
+				getJdbcTemplate().queryForInt(
+					countSql,
+					whereParameters.toArray());
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				buildErrorMessage(countSql, whereParameters),
+				e);
+		}
+	}
+	
+	/**
+	 * Retrieves a group of survey responses, without their prompt responses,
+	 * by their database IDs.
+	 * 
+	 * @param campaign The campaign to which the survey responses belong.
+	 * 
+	 * @param ids The survey responses' database IDs. There should be no more
+	 * 			  than {@link #MAX_SURVEY_RESPONSES_PER_QUERY} of them.
+	 * 
+	 * @return The survey responses keyed by their database ID.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private Map<Long, SurveyResponse> retrieveSurveyResponses(
+			final Campaign campaign,
+			final List<Long> ids)
+			throws DataAccessException {
+		
+		String sql =
+			SQL_GET_SURVEY_RESPONSES +
+				StringUtils.generateStatementPList(ids.size());
+		
+		final Map<Long, SurveyResponse> result =
+			new HashMap<Long, SurveyResponse>();
+		try {
+			getJdbcTemplate().query(
+				sql,
+				ids.toArray(),
+				new RowCallbackHandler() {
+					/**
+					 * Creates each survey response as it is read.
+					 */
+					@Override
+					public void processRow(
+							final ResultSet rs)
+							throws SQLException {
+						
+						result.put(
+							rs.getLong("id"),
+							mapSurveyResponse(campaign, rs, false));
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				buildErrorMessage(sql, new ArrayList<Object>(ids)),
+				e);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Retrieves the prompt responses for a set of survey responses and adds
+	 * them to their survey responses. To keep the queries reasonably sized,
+	 * the prompt responses are retrieved for a limited number of survey
+	 * responses at a time.
+	 * 
+	 * @param campaign The campaign to which the survey responses belong.
+	 * 
+	 * @param surveyResponses The survey responses keyed by their database ID.
+	 * 
+	 * @param promptResponseWhere The criteria for the prompt responses.
+	 * 
+	 * @param promptResponseParameters The parameters for the prompt response
+	 * 								   criteria.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private void retrievePromptResponses(
+			final Campaign campaign,
+			final Map<Long, SurveyResponse> surveyResponses,
+			final String promptResponseWhere,
+			final List<Object> promptResponseParameters)
+			throws DataAccessException {
+		
+		// This is necessary to map tiny integers in SQL to Java's integer.
+		final Map<String, Class<?>> typeMapping = new HashMap<String, Class<?>>();
+		typeMapping.put("tinyint", Integer.class);
+		
+		List<Long> ids = new ArrayList<Long>(surveyResponses.keySet());
+		for(
+			int start = 0;
+			start < ids.size();
+			start += MAX_SURVEY_RESPONSES_PER_QUERY) {
+			
+			List<Long> batch =
+				ids.subList(
+					start,
+					Math.min(
+						start + MAX_SURVEY_RESPONSES_PER_QUERY,
+						ids.size()));
+			
+			String sql =
+				SQL_GET_PROMPT_RESPONSES +
+					StringUtils.generateStatementPList(batch.size()) +
+					promptResponseWhere +
+					" ORDER BY pr.id";
+			List<Object> parameters =
+				new ArrayList<Object>(
+					batch.size() + promptResponseParameters.size());
+			parameters.addAll(batch);
+			parameters.addAll(promptResponseParameters);
+			
+			try {
+				getJdbcTemplate().query(
+					sql,
+					parameters.toArray(),
+					new RowCallbackHandler() {
+						/**
+						 * Adds each prompt response to its survey response
+						 * as it is read.
+						 */
+						@Override
+						public void processRow(
+								final ResultSet rs)
+								throws SQLException {
+							
+							SurveyResponse surveyResponse =
+								surveyResponses.get(
+									rs.getLong("survey_response_id"));
+							
+							try {
+								surveyResponse.addPromptResponse(
+									campaign
+										.getPrompt(
+											surveyResponse.getSurvey().getId(),
+											rs.getString("prompt_id"))
+										.createResponse(
+											(Integer) rs.getObject(
+												"repeatable_set_iteration", 
+												typeMapping),
+											rs.getObject("response")));
+							}
+							catch(DomainException e) {
+								throw new SQLException(
+									"The prompt response value from the database is not a valid response value for this prompt.", 
+									e);
+							}
+						}
+					});
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					buildErrorMessage(sql, parameters),
+					e);
+			}
+		}
+	}
+	
+	/**
+	 * Retrieves the survey responses aggregated by a set of columns. Each
+	 * aggregated survey response is counted as one survey response for
+	 * paging.
+	 * 
+	 * @param campaign The campaign to which the survey responses belong.
+	 * 
+	 * @param surveyResponseWhere The WHERE clause for the survey responses.
+	 * 
+	 * @param surveyResponseParameters The parameters for the survey response
+	 * 								   WHERE clause.
+	 * 
+	 * @param promptResponseWhere The criteria for the prompt responses.
+	 * 
+	 * @param promptResponseParameters The parameters for the prompt response
+	 * 								   criteria.
+	 * 
+	 * @param columns The columns on which to aggregate the survey responses.
+	 * 
+	 * @param sortOrder The order in which the survey responses are sorted.
+	 * 
+	 * @param surveyResponsesToSkip The number of survey responses to skip.
+	 * 
+	 * @param surveyResponsesToProcess The maximum number of survey responses
+	 * 								   to return.
+	 * 
+	 * @param handler The handler to give each aggregated survey response to
+	 * 				  as soon as it is complete.
+	 * 
+	 * @return The total number of aggregated survey responses.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private int retrieveAggregatedSurveyResponses(
+			final Campaign campaign,
+			final String surveyResponseWhere,
+			final List<Object> surveyResponseParameters,
+			final String promptResponseWhere,
+			final List<Object> promptResponseParameters,
+			final Collection<ColumnKey> columns,
+			final List<SortParameter> sortOrder,
+			final long surveyResponsesToSkip,
+			final long surveyResponsesToProcess,
+			final SurveyResponse.SurveyResponseHandler handler)
+			throws DataAccessException {
+		
+		final List<Object> parameters =
+			new ArrayList<Object>(
+				surveyResponseParameters.size() + 
+					promptResponseParameters.size());
+		parameters.addAll(surveyResponseParameters);
+		parameters.addAll(promptResponseParameters);
+		
+		final String sql =
+			buildAggregatedSql(
+				surveyResponseWhere,
+				promptResponseWhere,
 				columns,
-				sortOrder,
-				parameters);
+				sortOrder);
 
 		// This is necessary to map tiny integers in SQL to Java's integer.
 		final Map<String, Class<?>> typeMapping = new HashMap<String, Class<?>>();
@@ -444,38 +1166,27 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 		final Collection<Integer> totalCount = new ArrayList<Integer>(1);
 		
 		try {
-			result.addAll(getJdbcTemplate().query(
+			getJdbcTemplate().query(
 				sql,
 				parameters.toArray(),
-				new ResultSetExtractor<List<SurveyResponse>>() {
+				new ResultSetExtractor<Object>() {
 					/**
 					 * First, it skips a set of rows based on the parameterized
 					 * number of survey responses to skip. Then, it aggregates  
 					 * the information from the number of desired survey 
-					 * responses.
-					 * 
-					 * There must be some ordering on the results in order for
-					 * subsequent results to skip / process the same rows. The
-					 * agreed upon ordering is by time taken time stamp. 
-					 * Therefore, if a user were viewing results as they were
-					 * being generated and/or uploaded, it could be that
-					 * subsequent calls return the same result as a previous
-					 * call. This is analogous to viewing a page of feed data
-					 * and going to the next page and seeing some feed items
-					 * that you just saw on the previous page. It was decided
-					 * that this is a common and acceptable way to view live
-					 * data.
+					 * responses, handing off each one once all of its rows
+					 * have been read.
 					 */
 					@Override
-					public List<SurveyResponse> extractData(ResultSet rs)
+					public Object extractData(ResultSet rs)
 							throws SQLException,
 							org.springframework.dao.DataAccessException {
 						
-						// If the result set is empty, we can simply return an
-						// empty list.
+						// If the result set is empty, there is nothing to
+						// handle.
 						if(! rs.next()) {
 							totalCount.add(0);
-							return Collections.emptyList();
+							return null;
 						}
 						
 						// Keep track of the number of survey responses we have
@@ -495,18 +1206,14 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 							while(surveyResponseId.equals(rs.getString("uuid"))) {
 								// We were skipping the last survey response,
 								// therefore, there are no survey responses to
-								// return and we can return an empty list.
+								// handle.
 								if(! rs.next()) {
 									totalCount.add(surveyResponsesSkipped);
-									return Collections.emptyList();
+									return null;
 								}
 							}
 						}
 						
-						// Create a list of the results.
-						List<SurveyResponse> result =
-								new LinkedList<SurveyResponse>();
-						
 						// Cycle through the rows until the maximum number of
 						// rows has been processed or there are no more rows to
 						// process.
@@ -517,47 +1224,11 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 							// processing this and all of its survey responses.
 							
 							// First, create the survey response object.
-							SurveyResponse surveyResponse;
-							try {
-								JSONObject locationJson = null;
-								String locationString = rs.getString("location");
-								if(locationString != null) {
-									locationJson = new JSONObject(locationString);
-								}
-								
-								surveyResponse =
-									new SurveyResponse(
-											campaign.getSurveys().get(rs.getString("survey_id")),
-											UUID.fromString(rs.getString("uuid")),
-											rs.getString("username"),
-											rs.getString("urn"),
-											rs.getString("client"),
-											rs.getLong("epoch_millis"),
-											DateTimeUtils.getDateTimeZoneFromString(rs.getString("phone_timezone")),
-											new JSONObject(rs.getString("launch_context")),
-											rs.getString("location_status"),
-											locationJson,
-											SurveyResponse.PrivacyState.getValue(rs.getString("privacy_state")));
-								
-								if(columns != null) {
-									surveyResponse.setCount(
-											rs.getLong("count"));
-								}
-							}
-							catch(IllegalArgumentException e) {
-								throw new SQLException("The TimeZone is unknown.", e);
-							}
-							catch(JSONException e) {
-								throw new SQLException("Error creating a JSONObject.", e);
-							}
-							catch(DomainException e) {
-								throw new SQLException("Error creating the survey response information object.", e);
-							}
+							SurveyResponse surveyResponse =
+								mapSurveyResponse(campaign, rs, true);
 							
-							// Add the current survey response to the result
-							// list and increase the number of survey responses
+							// Increase the number of survey responses
 							// processed.
-							result.add(surveyResponse);
 							surveyResponsesProcessed++;
 							
 							// Get a string representation of the survey
@@ -615,6 +1286,17 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 							else {
 								rs.next();
 							}
+							
+							// All of this survey response's rows have been
+							// read, so it is complete.
+							try {
+								handler.handle(surveyResponse);
+							}
+							catch(IOException e) {
+								throw new SQLException(
+									"The survey response could not be handled.",
+									e);
+							}
 									
 							// If we exited the loop because we passed the last
 							// record, break out of the survey response 
@@ -649,149 +1331,134 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 									otherIds);
 						}
 						
-						// Finally, return only the survey responses as a list.
-						return result;
+						// The survey responses have all been handled.
+						return null;
 					}
 				}
-			));
+			);
 			
 			return totalCount.iterator().next();
 		}
 		catch(org.springframework.dao.DataAccessException e) {
-			StringBuilder errorBuilder =
-				new StringBuilder(
-					"Error executing SQL '" + sql + "' with parameters: ");
-			
-			boolean firstPass = true;
-			for(Object parameter : parameters) {
-				if(firstPass) {
-					firstPass = false;
-				}
-				else {
-					errorBuilder.append(", ");
-				}
-				errorBuilder.append(parameter.toString());
-			}
-			
-			throw new DataAccessException(errorBuilder.toString(), e);
+			throw new DataAccessException(
+				buildErrorMessage(sql, parameters),
+				e);
 		}
 	}
 	
-	/* (non-Javadoc)
-	 * @see org.ohmage.query.impl.ISurveyResponseQueries#updateSurveyResponsePrivacyState(java.lang.Long, org.ohmage.domain.campaign.SurveyResponse.PrivacyState)
+	/**
+	 * Creates a survey response from the current row of a result.
+	 * 
+	 * @param campaign The campaign to which the survey response belongs.
+	 * 
+	 * @param rs The result, whose current row contains the survey response's
+	 * 			 columns.
+	 * 
+	 * @param aggregated Whether or not the row is an aggregate of survey
+	 * 					 responses, in which case it also has a count.
+	 * 
+	 * @return The survey response without any prompt responses.
+	 * 
+	 * @throws SQLException The row could not be read or was invalid.
 	 */
-	public void updateSurveyResponsesPrivacyState(
-			final Set<UUID> surveyResponseIds, 
-			final SurveyResponse.PrivacyState newPrivacyState)
-			throws DataAccessException {
-		
-		StringBuilder sqlBuilder = 
-				new StringBuilder(SQL_UPDATE_SURVEY_RESPONSES_PRIVACY_STATE);
-		sqlBuilder.append(
-				StringUtils.generateStatementPList(surveyResponseIds.size()));
-
-		List<Object> parameters = 
-				new ArrayList<Object>(surveyResponseIds.size() + 1);
-		parameters.add(newPrivacyState.toString());
-		for(UUID surveyResponseId : surveyResponseIds) {
-			parameters.add(surveyResponseId.toString());
-		}
-		
-		// Create the transaction.
-		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
-		def.setName("Updating a survey response.");
+	private static SurveyResponse mapSurveyResponse(
+			final Campaign campaign,
+			final ResultSet rs,
+			final boolean aggregated)
+			throws SQLException {
 		
 		try {
-			// Begin the transaction.
-			PlatformTransactionManager transactionManager = 
-					new DataSourceTransactionManager(getDataSource());
-			TransactionStatus status = transactionManager.getTransaction(def);
-			
-			try {
-				getJdbcTemplate().update(
-						sqlBuilder.toString(), 
-						parameters.toArray());
-			}
-			catch(org.springframework.dao.DataAccessException e) {
-				transactionManager.rollback(status);
-				throw new DataAccessException(
-						"Error executing SQL '" + 
-								sqlBuilder.toString() + 
-							"' with parameters: " + 
-								parameters.toArray(), 
-						e);
+			JSONObject locationJson = null;
+			String locationString = rs.getString("location");
+			if(locationString != null) {
+				locationJson = new JSONObject(locationString);
 			}
 			
-			// Commit the transaction.
-			try {
-				transactionManager.commit(status);
-			}
-			catch(TransactionException e) {
-				transactionManager.rollback(status);
-				throw new DataAccessException("Error while committing the transaction.", e);
+			SurveyResponse result =
+				new SurveyResponse(
+						campaign.getSurveys().get(rs.getString("survey_id")),
+						UUID.fromString(rs.getString("uuid")),
+						rs.getString("username"),
+						rs.getString("urn"),
+						rs.getString("client"),
+						rs.getLong("epoch_millis"),
+						DateTimeUtils.getDateTimeZoneFromString(rs.getString("phone_timezone")),
+						new JSONObject(rs.getString("launch_context")),
+						rs.getString("location_status"),
+						locationJson,
+						SurveyResponse.PrivacyState.getValue(rs.getString("privacy_state")));
+			
+			if(aggregated) {
+				result.setCount(rs.getLong("count"));
 			}
+			
+			return result;
 		}
-		catch(TransactionException e) {
-			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
+		catch(IllegalArgumentException e) {
+			throw new SQLException("The TimeZone is unknown.", e);
+		}
+		catch(JSONException e) {
+			throw new SQLException("Error creating a JSONObject.", e);
+		}
+		catch(DomainException e) {
+			throw new SQLException("Error creating the survey response information object.", e);
 		}
 	}
 	
-	/* (non-Javadoc)
-	 * @see org.ohmage.query.impl.ISurveyResponseQueries#deleteSurveyResponse(java.lang.Long)
+	/**
+	 * Builds an error message for a failed query that includes its SQL and
+	 * parameters.
+	 * 
+	 * @param sql The SQL.
+	 * 
+	 * @param parameters The parameters.
+	 * 
+	 * @return The error message.
 	 */
-	public void deleteSurveyResponse(
-			final UUID surveyResponseId) 
-			throws DataAccessException {
+	private static String buildErrorMessage(
+			final String sql,
+			final Collection<Object> parameters) {
 		
-		// Create the transaction.
-		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
-		def.setName("Deleting a survey response.");
+		StringBuilder errorBuilder =
+			new StringBuilder(
+				"Error executing SQL '" + sql + "' with parameters: ");
 		
-		try {
-			// Begin the transaction.
-			PlatformTransactionManager transactionManager = 
-					new DataSourceTransactionManager(getDataSource());
-			TransactionStatus status = transactionManager.getTransaction(def);
-			
-			try {
-				getJdbcTemplate().update(
-						SQL_DELETE_SURVEY_RESPONSE, 
-						new Object[] { surveyResponseId.toString() });
-			}
-			catch(org.springframework.dao.DataAccessException e) {
-				transactionManager.rollback(status);
-				throw new DataAccessException(
-						"Error executing SQL '" + 
-								SQL_DELETE_SURVEY_RESPONSE + 
-								"' with parameter: " + 
-								surveyResponseId.toString(), 
-						e);
-			}
-			
-			// Commit the transaction.
-			try {
-				transactionManager.commit(status);
+		boolean firstPass = true;
+		for(Object parameter : parameters) {
+			if(firstPass) {
+				firstPass = false;
 			}
-			catch(TransactionException e) {
-				transactionManager.rollback(status);
-				throw new DataAccessException("Error while committing the transaction.", e);
+			else {
+				errorBuilder.append(", ");
 			}
+			errorBuilder.append(parameter.toString());
 		}
-		catch(TransactionException e) {
-			throw new DataAccessException("Error while attempting to rollback the transaction.", e);
-		}
+		
+		return errorBuilder.toString();
 	}
 	
 	/**
-	 * Builds the SQL for the survey response SELECT and generates a parameter
-	 * list that corresponds to that SQL. The parameter list is returned and
-	 * the SQL is set as the final parameter.
+	 * Builds the WHERE clause for the survey responses, which includes the
+	 * ACLs, and generates a parameter list that corresponds to that clause.
+	 * 
+	 * The ACLs are:
+	 * <ul>
+	 * <li>Administrators may see all survey responses.</li>
+	 * <li>Supervisors may see all survey responses in the campaign.</li>
+	 * <li>Users may always see their own survey responses.</li>
+	 * <li>Authors may see shared survey responses.</li>
+	 * <li>Analysts may see shared survey responses if the campaign is
+	 * 	   shared.</li>
+	 * </ul>
 	 * 
 	 * @param campaign The campaign to which the survey responses must belong.
 	 * 
 	 * @param username The username of the user that is making this request.
 	 * 				   This is used by the ACLs to limit who sees what.
 	 * 
+	 * @param surveyResponseIds Limits the results to only those survey
+	 * 							responses with these IDs.
+	 * 
 	 * @param usernames Limits the results to only those submitted by any one 
 	 * 					of the users in the list.
 	 * 
@@ -807,23 +1474,15 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 	 * @param surveyIds Limits the results to only those survey responses that 
 	 * 					were derived from a survey in this collection.
 	 * 
-	 * @param promptIds Limits the results to only those survey responses that 
-	 * 					were derived from a prompt in this collection.
-	 * 
-	 * @param promptType Limits the results to only those survey responses that
-	 * 					 are of the given prompt type.
-	 * 
-	 * @param columns Aggregates the data based on the column keys. If this is
-	 * 				  null, no aggregation is performed. If the list is empty,
-	 * 				  an empty list is returned.
-	 * 
 	 * @param parameters This is a list created by the caller to be populated
 	 * 					 with the parameters aggregated while generating this
 	 * 					 SQL.
 	 * 
-	 * @return The list of parameters that corresponds with the generated SQL.
+	 * @return The WHERE clause.
+	 * 
+	 * @throws DataAccessException There was an error querying about the user.
 	 */
-	private String buildSqlAndParameters(
+	private String buildSurveyResponseWhereAndParameters(
 		final Campaign campaign,
 		final String username,
 		final Set<UUID> surveyResponseIds,
@@ -832,16 +1491,9 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 		final DateTime endDate, 
 		final SurveyResponse.PrivacyState privacyState,
 		final Collection<String> surveyIds,
-		final Collection<String> promptIds,
-		final String promptType,
-		final Set<String> promptResponseSearchTokens,
-		final Collection<ColumnKey> columns,
-		final List<SortParameter> sortOrder,
 		final Collection<Object> parameters) 
 		throws DataAccessException {
 		
-		// Begin with the SQL string which gets all results or the one that
-		// aggregates results.
 		StringBuilder sqlBuilder = new StringBuilder(SQL_BASE_WHERE);
 		parameters.add(campaign.getId());
 		
@@ -953,6 +1605,40 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 			sqlBuilder.append(StringUtils.generateStatementPList(surveyIds.size()));
 			parameters.addAll(surveyIds);
 		}
+		
+		return sqlBuilder.toString();
+	}
+	
+	/**
+	 * Builds the criteria for the prompt responses and generates a parameter
+	 * list that corresponds to that criteria. Each criterion begins with
+	 * " AND ", so the result may be appended to any WHERE clause that
+	 * includes the prompt_response table as "pr".
+	 * 
+	 * @param promptIds Limits the results to only those prompt responses that
+	 * 					were derived from a prompt in this collection.
+	 * 
+	 * @param promptType Limits the results to only those prompt responses
+	 * 					 that are of the given prompt type.
+	 * 
+	 * @param promptResponseSearchTokens Limits the results to only those
+	 * 									 prompt responses that contain all of
+	 * 									 these tokens.
+	 * 
+	 * @param parameters This is a list created by the caller to be populated
+	 * 					 with the parameters aggregated while generating this
+	 * 					 SQL.
+	 * 
+	 * @return The criteria, which may be empty.
+	 */
+	private String buildPromptResponseWhereAndParameters(
+		final Collection<String> promptIds,
+		final String promptType,
+		final Set<String> promptResponseSearchTokens,
+		final Collection<Object> parameters) {
+		
+		StringBuilder sqlBuilder = new StringBuilder();
+		
 		if(promptIds != null) {
 			sqlBuilder.append(SQL_WHERE_PROMPT_IDS);
 			sqlBuilder.append(StringUtils.generateStatementPList(promptIds.size()));
@@ -963,129 +1649,227 @@ public class SurveyResponseQueries extends Query implements ISurveyResponseQueri
 			parameters.add(promptType);
 		}
 		if(promptResponseSearchTokens != null) {
+			// Use the full-text index to find the candidates, if possible, 
+			// and then check each of them for the exact tokens.
+			String fullTextSearch =
+				buildFullTextSearch(promptResponseSearchTokens);
+			if(fullTextSearch != null) {
+				sqlBuilder.append(SQL_WHERE_PROMPT_RESPONSE_MATCH);
+				parameters.add(fullTextSearch);
+			}
+			
 			for(String promptResponseSearchToken : promptResponseSearchTokens) {
 				sqlBuilder.append(SQL_WHERE_PROMPT_RESPONSE_SEARCH_TOKEN);
 				parameters.add('%' + promptResponseSearchToken + '%');
 			}
 		}
 		
-		// Now, collapse the columns if columns is non-null.
-		boolean onSurveyResponse = true;
-		if(columns != null) {
-			sqlBuilder.append(" GROUP BY ");
+		return sqlBuilder.toString();
+	}
+	
+	/**
+	 * Builds the boolean mode full-text search for a set of search tokens.
+	 * Every word in every token that is in the full-text index is required
+	 * as the beginning of a word in the prompt response. Words that are too
+	 * short or are stopwords are never in the index, so they are left out 
+	 * and only the exact token check applies to them.
+	 * 
+	 * @param promptResponseSearchTokens The search tokens.
+	 * 
+	 * @return The full-text search or null if none of the words are in the
+	 * 		   full-text index.
+	 */
+	private static String buildFullTextSearch(
+		final Set<String> promptResponseSearchTokens) {
+		
+		StringBuilder searchBuilder = new StringBuilder();
+		for(String promptResponseSearchToken : promptResponseSearchTokens) {
+			Matcher wordMatcher =
+				PATTERN_FULL_TEXT_WORD.matcher(promptResponseSearchToken);
 			
-			boolean firstPass = true;
-			for(ColumnKey columnKey : columns) {
-				if(firstPass) {
-					firstPass = false;
-				}
-				else {
-					sqlBuilder.append(", ");
+			while(wordMatcher.find()) {
+				String word = wordMatcher.group().toLowerCase();
+				if(
+					(word.length() < MIN_FULL_TEXT_WORD_LENGTH) ||
+					FULL_TEXT_STOPWORDS.contains(word)) {
+					
+					continue;
 				}
 				
-				switch(columnKey) {
-				case CONTEXT_CLIENT:
-					sqlBuilder.append("sr.client");
-					break;
-					
-				case CONTEXT_DATE:
-					sqlBuilder.append("DATE(CONVERT_TZ(FROM_UNIXTIME(epoch_millis / 1000), 'UTC', phone_timezone))");
-					break;
-					
-				case CONTEXT_TIMESTAMP:
-				case CONTEXT_UTC_TIMESTAMP:
-					sqlBuilder.append("(sr.epoch_millis / 1000)");
-					break;
-					
-				case CONTEXT_EPOCH_MILLIS:
-					sqlBuilder.append("sr.epoch_millis");
-					break;
-					
-				case CONTEXT_TIMEZONE:
-					sqlBuilder.append("sr.phone_timezone");
-					break;
-					
-				case CONTEXT_LAUNCH_CONTEXT_LONG:
-				case CONTEXT_LAUNCH_CONTEXT_SHORT:
-					sqlBuilder.append("sr.launch_context");
-					break;
-					
-				case CONTEXT_LOCATION_STATUS:
-					sqlBuilder.append("sr.location_status");
-					break;
-					
-				case USER_ID:
-					sqlBuilder.append("u.username");
-					break;
-					
-				case SURVEY_ID:
-					sqlBuilder.append("sr.survey_id");
-					break;
-					
-				case SURVEY_RESPONSE_ID:
-					sqlBuilder.append("sr.uuid");
-					break;
-					
-				case SURVEY_PRIVACY_STATE:
-					sqlBuilder.append("srps.privacy_state");
-					break;
-					
-				case REPEATABLE_SET_ID:
-					onSurveyResponse = false;
-					sqlBuilder.append("pr.repeatable_set_id");
-					break;
-					
-				case REPEATABLE_SET_ITERATION:
-					onSurveyResponse = false;
-					sqlBuilder.append("pr.repeatable_set_iteration");
-					break;
-					
-				case PROMPT_RESPONSE:
-					onSurveyResponse = false;
-					sqlBuilder.append("pr.response");
-					break;
-					
-				// This is inaccurate and will only work if the entire 
-				// JSONObject is the same. We cannot do this without JSONObject
-				// dissection in SQL.
-				case CONTEXT_LOCATION_LATITUDE:
-				case CONTEXT_LOCATION_LONGITUDE:
-				case CONTEXT_LOCATION_TIMESTAMP:
-				case CONTEXT_LOCATION_TIMEZONE:
-				case CONTEXT_LOCATION_ACCURACY:
-				case CONTEXT_LOCATION_PROVIDER:
-					sqlBuilder.append("sr.location");
-					break;
-					
-				// This cannot be done without XML manipulation in the SQL. 
-				// Instead, we shouldn't dump the XML in the database and 
-				// should explode it into its own series of columns and, if
-				// necessary, additional tables.
-				case SURVEY_TITLE:
-					
-				case SURVEY_DESCRIPTION:
-					
-				default:
-					int length = sqlBuilder.length();
-					sqlBuilder.delete(length - 2, length);
+				if(searchBuilder.length() > 0) {
+					searchBuilder.append(' ');
 				}
+				searchBuilder.append('+').append(word).append('*');
 			}
 		}
-		// Now, go back and insert the correct SELECT clause based on if we are
-		// grouping or not and, if so, if we are doing it at the survey level
-		// or the prompt level.
-		if(columns == null) { 
-			sqlBuilder.insert(0, SQL_GET_SURVEY_RESPONSES_INDIVIDUAL);
+		
+		if(searchBuilder.length() == 0) {
+			return null;
+		}
+		return searchBuilder.toString();
+	}
+	
+	/**
+	 * Builds the SQL for the aggregated survey response SELECT.
+	 * 
+	 * @param surveyResponseWhere The WHERE clause for the survey responses.
+	 * 
+	 * @param promptResponseWhere The criteria for the prompt responses.
+	 * 
+	 * @param columns Aggregates the data based on the column keys.
+	 * 
+	 * @param sortOrder The order in which the survey responses are sorted.
+	 * 
+	 * @return The SQL.
+	 */
+	private String buildAggregatedSql(
+		final String surveyResponseWhere,
+		final String promptResponseWhere,
+		final Collection<ColumnKey> columns,
+		final List<SortParameter> sortOrder) {
+		
+		StringBuilder sqlBuilder = new StringBuilder();
+		
+		// Collapse the columns.
+		boolean onSurveyResponse = true;
+		sqlBuilder.append(" GROUP BY ");
+		
+		boolean firstPass = true;
+		for(ColumnKey columnKey : columns) {
+			if(firstPass) {
+				firstPass = false;
+			}
+			else {
+				sqlBuilder.append(", ");
+			}
+			
+			switch(columnKey) {
+			case CONTEXT_CLIENT:
+				sqlBuilder.append("sr.client");
+				break;
+				
+			case CONTEXT_DATE:
+				sqlBuilder.append("DATE(CONVERT_TZ(FROM_UNIXTIME(epoch_millis / 1000), 'UTC', phone_timezone))");
+				break;
+				
+			case CONTEXT_TIMESTAMP:
+			case CONTEXT_UTC_TIMESTAMP:
+				sqlBuilder.append("(sr.epoch_millis / 1000)");
+				break;
+				
+			case CONTEXT_EPOCH_MILLIS:
+				sqlBuilder.append("sr.epoch_millis");
+				break;
+				
+			case CONTEXT_TIMEZONE:
+				sqlBuilder.append("sr.phone_timezone");
+				break;
+				
+			case CONTEXT_LAUNCH_CONTEXT_LONG:
+			case CONTEXT_LAUNCH_CONTEXT_SHORT:
+				sqlBuilder.append("sr.launch_context");
+				break;
+				
+			case CONTEXT_LOCATION_STATUS:
+				sqlBuilder.append("sr.location_status");
+				break;
+				
+			case USER_ID:
+				sqlBuilder.append("u.username");
+				break;
+				
+			case SURVEY_ID:
+				sqlBuilder.append("sr.survey_id");
+				break;
+				
+			case SURVEY_RESPONSE_ID:
+				sqlBuilder.append("sr.uuid");
+				break;
+				
+			case SURVEY_PRIVACY_STATE:
+				sqlBuilder.append("srps.privacy_state");
+				break;
+				
+			case REPEATABLE_SET_ID:
+				onSurveyResponse = false;
+				sqlBuilder.append("pr.repeatable_set_id");
+				break;
+				
+			case REPEATABLE_SET_ITERATION:
+				onSurveyResponse = false;
+				sqlBuilder.append("pr.repeatable_set_iteration");
+				break;
+				
+			case PROMPT_RESPONSE:
+				onSurveyResponse = false;
+				sqlBuilder.append("pr.response");
+				break;
+				
+			// This is inaccurate and will only work if the entire 
+			// JSONObject is the same. We cannot do this without JSONObject
+			// dissection in SQL.
+			case CONTEXT_LOCATION_LATITUDE:
+			case CONTEXT_LOCATION_LONGITUDE:
+			case CONTEXT_LOCATION_TIMESTAMP:
+			case CONTEXT_LOCATION_TIMEZONE:
+			case CONTEXT_LOCATION_ACCURACY:
+			case CONTEXT_LOCATION_PROVIDER:
+				sqlBuilder.append("sr.location");
+				break;
+				
+			// This cannot be done without XML manipulation in the SQL. 
+			// Instead, we shouldn't dump the XML in the database and 
+			// should explode it into its own series of columns and, if
+			// necessary, additional tables.
+			case SURVEY_TITLE:
+				
+			case SURVEY_DESCRIPTION:
+				
+			default:
+				int length = sqlBuilder.length();
+				sqlBuilder.delete(length - 2, length);
+			}
 		}
-		else if(onSurveyResponse) {
+		
+		// Now, go back and insert the correct SELECT clause and WHERE clause
+		// based on if we are doing it at the survey level or the prompt level.
+		// At the survey level, the prompt responses are not joined, so their
+		// criteria must be checked separately.
+		if(onSurveyResponse) {
+			if(promptResponseWhere.length() > 0) {
+				sqlBuilder.insert(0, ")");
+				sqlBuilder.insert(0, promptResponseWhere);
+				sqlBuilder.insert(0, SQL_WHERE_HAS_PROMPT_RESPONSES);
+			}
+			sqlBuilder.insert(0, surveyResponseWhere);
 			sqlBuilder.insert(0, SQL_GET_SURVEY_RESPONSES_AGGREGATED_SURVEY);
 		}
 		else {
+			sqlBuilder.insert(0, promptResponseWhere);
+			sqlBuilder.insert(0, surveyResponseWhere);
 			sqlBuilder.insert(0, SQL_GET_SURVEY_RESPONSES_AGGREGATED_PROMPT);
 		}
 		
 		// Finally, add some ordering to facilitate consistent results in the
 		// paging system.
+		sqlBuilder.append(buildOrderBy(sortOrder));
+		
+		return sqlBuilder.toString();
+	}
+	
+	/**
+	 * Builds the ORDER BY clause for the survey responses. The survey
+	 * responses are always ordered by their UUID last, so that the order is
+	 * consistent and all of the rows for a survey response are together.
+	 * 
+	 * @param sortOrder The order in which the survey responses are sorted or
+	 * 					null to sort them with the most recent first.
+	 * 
+	 * @return The ORDER BY clause.
+	 */
+	private String buildOrderBy(final List<SortParameter> sortOrder) {
+		StringBuilder sqlBuilder = new StringBuilder();
+		
 		if(sortOrder == null) {
 			sqlBuilder.append(" ORDER BY epoch_millis DESC, uuid");
 		}
@@ -24,14 +24,24 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.ResultSet;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Pattern;
 
 import javax.sql.DataSource;
@@ -40,13 +50,17 @@ import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.ohmage.cache.AsyncImageProcessor;
 import org.ohmage.cache.AudioDirectoryCache;
 import org.ohmage.cache.PreferenceCache;
+import org.ohmage.cache.StagedMediaReconciler;
 import org.ohmage.cache.VideoDirectoryCache;
 import org.ohmage.domain.Audio;
 import org.ohmage.domain.Image;
 import org.ohmage.domain.Location;
 import org.ohmage.domain.Location.LocationColumnKey;
+import org.ohmage.domain.Media;
+import org.ohmage.domain.UploadedFile;
 import org.ohmage.domain.Video;
 import org.ohmage.domain.campaign.PromptResponse;
 import org.ohmage.domain.campaign.RepeatableSet;
@@ -65,11 +79,13 @@ import org.ohmage.exception.DomainException;
 import org.ohmage.query.ISurveyUploadQuery;
 import org.ohmage.request.JsonInputKeys;
 import org.ohmage.util.DateTimeUtils;
+import org.ohmage.util.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.dao.DataIntegrityViolationException;
-import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
-import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionException;
 import org.springframework.transaction.TransactionStatus;
@@ -80,7 +96,9 @@ import org.springframework.transaction.support.DefaultTransactionDefinition;
  * 
  * @author Joshua Selsky
  */
-public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUploadQuery {
+public class SurveyUploadQuery
+	extends AbstractUploadQuery
+	implements ISurveyUploadQuery, DisposableBean {
 	// The current directory to which the next image should be saved.
 	private static File imageLeafDirectory;
 	
@@ -109,54 +127,255 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 	private static final Logger LOGGER = 
 		Logger.getLogger(SurveyUploadQuery.class);
 	
+	// Retrieves the database IDs of the uploader, the campaign, and the
+	// privacy state of the new survey responses.
+	private static final String SQL_GET_UPLOAD_IDS =
+		"SELECT u.id AS user_id, c.id AS campaign_id, " +
+			"srps.id AS privacy_state_id " +
+		"FROM user u, campaign c, survey_response_privacy_state srps " +
+		"WHERE u.username = ? " +
+		"AND c.urn = ? " +
+		"AND srps.privacy_state = ?";
+
+	// Retrieves which of a set of survey response UUIDs already exist. The
+	// parameter list is appended.
+	private static final String SQL_GET_EXISTING_SURVEY_RESPONSE_IDS =
+		"SELECT uuid " +
+		"FROM survey_response " +
+		"WHERE uuid IN ";
+
+	// Inserts survey responses. A row's values are appended once for each
+	// row in the statement.
 	private static final String SQL_INSERT_SURVEY_RESPONSE =
-		"INSERT into survey_response " +
-		"SET uuid = ?, " +
-		"user_id = (SELECT id from user where username = ?), " +
-		"campaign_id = (SELECT id from campaign where urn = ?), " +
-		"epoch_millis = ?, " +
-		"phone_timezone = ?, " +
-		"location_status = ?, " +
-		"location = ?, " +
-		"survey_id = ?, " +
-		"survey = ?, " +
-		"client = ?, " +
-		"upload_timestamp = ?, " +
-		"launch_context = ?, " +
-		"privacy_state_id = (SELECT id FROM survey_response_privacy_state WHERE privacy_state = ?)";
-		
+		"INSERT INTO survey_response(uuid, user_id, campaign_id, " +
+			"epoch_millis, phone_timezone, location_status, location, " +
+			"survey_id, survey, client, upload_timestamp, launch_context, " +
+			"privacy_state_id) " +
+		"VALUES ";
+
+	// The values for one survey response row.
+	private static final String SQL_SURVEY_RESPONSE_ROW_VALUES =
+		"(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	// Inserts prompt responses. A row's values are appended once for each
+	// row in the statement.
 	private static final String SQL_INSERT_PROMPT_RESPONSE =
-		"INSERT into prompt_response " +
-        "(survey_response_id, repeatable_set_id, repeatable_set_iteration," +
-        "prompt_type, prompt_id, response) " +
-        "VALUES (?,?,?,?,?,?)";
-	
-	// Inserts an images information into the url_based_resource table.
-	private static final String SQL_INSERT_IMAGE = 
+		"INSERT INTO prompt_response(survey_response_id, repeatable_set_id, " +
+			"repeatable_set_iteration, prompt_type, prompt_id, response) " +
+		"VALUES ";
+
+	// The values for one prompt response row.
+	private static final String SQL_PROMPT_RESPONSE_ROW_VALUES =
+		"(?, ?, ?, ?, ?, ?)";
+
+	// Inserts the information about images, videos, and audio files into the
+	// url_based_resource table. A row's values are appended once for each
+	// row in the statement.
+	private static final String SQL_INSERT_URL_BASED_RESOURCE =
 		"INSERT INTO url_based_resource(user_id, client, uuid, url) " +
-		"VALUES (" +
-			"(" +	// user_id
-				"SELECT id " +
-				"FROM user " +
-				"WHERE username = ?" +
-			")," +
-			"?," +	// client
-			"?," +	// uuid
-			"?" +	// url
-		")";
-	
+		"VALUES ";
+
+	// The values for one url_based_resource row.
+	private static final String SQL_URL_BASED_RESOURCE_ROW_VALUES =
+		"(?, ?, ?, ?)";
+
+	// The maximum number of survey response rows in a single statement. The
+	// rows contain the entire survey response as JSON, so this is kept well
+	// below the server's maximum packet size.
+	private static final int SURVEY_RESPONSE_ROWS_PER_STATEMENT = 100;
+
+	// The maximum number of prompt response or url_based_resource rows in a
+	// single statement.
+	private static final int ROWS_PER_STATEMENT = 500;
+
+	// The number of times an upload is attempted if another upload inserts
+	// one of its survey responses first.
+	private static final int MAX_ATTEMPTS = 3;
+
+	/**
+	 * The database IDs that are the same for every survey response in an
+	 * upload.
+	 */
+	private static final class UploadIds {
+		private final long userId;
+		private final long campaignId;
+		private final long privacyStateId;
+
+		/**
+		 * Creates the upload's IDs.
+		 *
+		 * @param userId The uploader's database ID.
+		 *
+		 * @param campaignId The campaign's database ID.
+		 *
+		 * @param privacyStateId The new survey responses' privacy state's
+		 * 						 database ID.
+		 */
+		private UploadIds(
+				final long userId,
+				final long campaignId,
+				final long privacyStateId) {
+
+			this.userId = userId;
+			this.campaignId = campaignId;
+			this.privacyStateId = privacyStateId;
+		}
+	}
+
+	/**
+	 * A media file that has been written to a staging directory and the
+	 * directory to which it will be moved once the survey responses that
+	 * reference it are committed.
+	 */
+	private static final class StagedMedia {
+		private final String id;
+		private final File stagingDirectory;
+		private final File destination;
+		private final String fileName;
+
+		/**
+		 * Creates the staged media.
+		 *
+		 * @param id The media's unique identifier.
+		 *
+		 * @param stagingDirectory The directory to which the media was
+		 * 						   written.
+		 *
+		 * @param destination The directory to which the media will be moved.
+		 *
+		 * @param fileName The name of the media's file or, for images, the
+		 * 				   original image's file.
+		 */
+		private StagedMedia(
+				final String id,
+				final File stagingDirectory,
+				final File destination,
+				final String fileName) {
+
+			this.id = id;
+			this.stagingDirectory = stagingDirectory;
+			this.destination = destination;
+			this.fileName = fileName;
+		}
+
+		/**
+		 * Returns the URL of the media once it has been moved.
+		 *
+		 * @return The media's URL.
+		 */
+		private String getUrl() {
+			return
+				"file://" +
+				destination.getAbsolutePath() +
+				"/" +
+				fileName;
+		}
+
+		/**
+		 * Moves the media's files, e.g. each of an image's sizes, to their
+		 * destination. Renaming a file within the same file system is atomic.
+		 *
+		 * @return Whether or not all of the files were moved.
+		 */
+		private boolean publish() {
+			boolean result = true;
+			for(File file : getFiles()) {
+				if(! file.renameTo(new File(destination, file.getName()))) {
+					LOGGER.error(
+						"Could not move the staged media to its destination: " +
+							file.getAbsolutePath());
+					result = false;
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Deletes the media's staged files.
+		 */
+		private void discard() {
+			for(File file : getFiles()) {
+				file.delete();
+			}
+		}
+
+		/**
+		 * Returns the media's files in the staging directory.
+		 *
+		 * @return The media's staged files.
+		 */
+		private File[] getFiles() {
+			File[] result =
+				stagingDirectory.listFiles(
+					new FilenameFilter() {
+						@Override
+						public boolean accept(
+								final File directory,
+								final String name) {
+
+							return name.startsWith(id);
+						}
+					});
+
+			return (result == null) ? new File[0] : result;
+		}
+	}
+
+	/**
+	 * Writes the uploaded media to the staging directories in parallel.
+	 */
+	private final ExecutorService stagingExecutor;
+
 	/**
 	 * Creates this object.
-	 * 
+	 *
 	 * @param dataSource The DataSource to use when querying the database.
 	 */
 	private SurveyUploadQuery(DataSource dataSource) {
 		super(dataSource);
+
+		stagingExecutor =
+			Executors.newFixedThreadPool(
+				Runtime.getRuntime().availableProcessors(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread result =
+							new Thread(
+								runnable,
+								"SurveyUploadQuery - Staging uploaded media.");
+						result.setDaemon(true);
+						return result;
+					}
+				});
 	}
-	
-	/*
-	 * (non-Javadoc)
-	 * @see org.ohmage.query.ISurveyUploadQuery#insertSurveys(java.lang.String, java.lang.String, java.lang.String, java.util.List, java.util.Map, java.util.Map)
+
+	/**
+	 * Stops the threads that stage the uploaded media.
+	 */
+	@Override
+	public void destroy() {
+		stagingExecutor.shutdown();
+	}
+
+	/**
+	 * Inserts the survey responses, their prompt responses, and the
+	 * information about their media in one transaction.
+	 *
+	 * The media is written to staging directories before the transaction
+	 * begins, so the time that the transaction holds its locks does not
+	 * depend on the size of the media. Once the transaction is committed, the
+	 * media is renamed into place. If the server stops before then, the
+	 * {@link org.ohmage.cache.StagedMediaReconciler} finishes moving it.
+	 *
+	 * The database IDs that every survey response shares are looked up once,
+	 * survey responses that already exist are found with a single query
+	 * instead of by attempting to insert them, and the rows for each table
+	 * are inserted with multi-row statements.
+	 *
+	 * If another upload inserts one of these survey responses between the
+	 * check for existing survey responses and the insert, the transaction is
+	 * rolled back and the upload is attempted again.
 	 */
 	@Override
 	public List<Integer> insertSurveys(
@@ -168,587 +387,1116 @@ public class SurveyUploadQuery extends AbstractUploadQuery implements ISurveyUpl
 			final Map<String, Video> videoContentsMap,
 			final Map<String, Audio> audioContentsMap)
 			throws DataAccessException {
-		
+
+		Map<String, StagedMedia> stagedMedia =
+			stageMedia(
+				surveyUploadList,
+				bufferedImageMap,
+				videoContentsMap,
+				audioContentsMap);
+
+		// The media referenced by the survey responses that were committed.
+		List<StagedMedia> committedMedia = new ArrayList<StagedMedia>();
+		boolean committed = false;
+		try {
+			for(int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+				committedMedia.clear();
+
+				List<Integer> duplicateIndexList =
+					insertSurveysOnce(
+						username,
+						client,
+						campaignUrn,
+						surveyUploadList,
+						stagedMedia,
+						committedMedia);
+
+				if(duplicateIndexList != null) {
+					committed = true;
+					return duplicateIndexList;
+				}
+
+				LOGGER.info(
+					"Another upload inserted one of the survey responses " +
+						"first, so the upload will be attempted again.");
+			}
+
+			throw new DataAccessException(
+				"The upload was attempted " +
+					MAX_ATTEMPTS +
+					" times, but other uploads kept inserting the same " +
+					"survey responses.");
+		}
+		finally {
+			// Move the committed media into place. Any media that could not
+			// be moved is left for the reconciler.
+			if(committed) {
+				for(StagedMedia media : committedMedia) {
+					if(! media.publish()) {
+						stagedMedia.remove(media.id);
+					}
+				}
+
+				// Have the new images resized now rather than at the next
+				// periodic sweep.
+				if(! bufferedImageMap.isEmpty()) {
+					AsyncImageProcessor.signal();
+				}
+			}
+
+			// Delete the rest, e.g. the media of the duplicate survey
+			// responses, and then the staging directories, which fails if
+			// they still contain media for the reconciler.
+			for(StagedMedia media : stagedMedia.values()) {
+				media.discard();
+			}
+			for(StagedMedia media : stagedMedia.values()) {
+				media.stagingDirectory.delete();
+			}
+		}
+	}
+
+	/**
+	 * Attempts to insert the survey responses once.
+	 *
+	 * @param stagedMedia The staged media, keyed by its unique identifier.
+	 *
+	 * @param committedMedia The list to which the media referenced by the
+	 * 						 inserted survey responses is added.
+	 *
+	 * @return The indices of the survey responses that already existed or
+	 * 		   null if another upload inserted one of them after they were
+	 * 		   checked, in which case nothing was inserted.
+	 *
+	 * @throws DataAccessException There was an error inserting the survey
+	 * 							   responses. Nothing was inserted.
+	 *
+	 * @see #insertSurveys(String, String, String, List, Map, Map, Map)
+	 */
+	private List<Integer> insertSurveysOnce(
+			final String username,
+			final String client,
+			final String campaignUrn,
+			final List<SurveyResponse> surveyUploadList,
+			final Map<String, StagedMedia> stagedMedia,
+			final List<StagedMedia> committedMedia)
+			throws DataAccessException {
+
 		List<Integer> duplicateIndexList = new ArrayList<Integer>();
-		int numberOfSurveys = surveyUploadList.size();
-		
-		// The following variables are used in logging messages when errors occur
-		SurveyResponse currentSurveyResponse = null;
-		PromptResponse currentPromptResponse = null;
-		String currentSql = null;
 
-		List<File> fileList = new LinkedList<File>();
-		
-		// Wrap all of the inserts in a transaction 
+		// Wrap all of the inserts in a transaction
 		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
 		def.setName("survey upload");
 		DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(getDataSource());
 		TransactionStatus status = transactionManager.getTransaction(def); // begin transaction
-		
-		// Use a savepoint to handle nested rollbacks if duplicates are found
-		Object savepoint = status.createSavepoint();
-		
+
 		try { // handle TransactionExceptions
-			
-			for(int surveyIndex = 0; surveyIndex < numberOfSurveys; surveyIndex++) { 
-				
-				 try { // handle DataAccessExceptions
-					
-					final SurveyResponse surveyUpload = surveyUploadList.get(surveyIndex);
-					currentSurveyResponse = surveyUpload; 
-					currentSql = SQL_INSERT_SURVEY_RESPONSE;
-			
-					KeyHolder idKeyHolder = new GeneratedKeyHolder();
-					
-					// First, insert the survey
-					getJdbcTemplate().update(
-						new PreparedStatementCreator() {
-							public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
-								PreparedStatement ps 
-									= connection.prepareStatement(SQL_INSERT_SURVEY_RESPONSE, Statement.RETURN_GENERATED_KEYS);
-								
-								String locationString = null;
-								Location location = surveyUpload.getLocation();
-								if(location != null) {
-									try {
-										locationString = 
-												location.toJson(false, LocationColumnKey.ALL_COLUMNS).toString();
-									}
-									catch(JSONException e) {
-										throw new SQLException(e);
-									}
-									catch(DomainException e) {
-										throw new SQLException(e);
-									}
-								}
-								
-								ps.setString(1, surveyUpload.getSurveyResponseId().toString());
-								ps.setString(2, username);
-								ps.setString(3, campaignUrn);
-								ps.setLong(4, surveyUpload.getTime());
-								ps.setString(5, surveyUpload.getTimezone().getID());
-								ps.setString(6, surveyUpload.getLocationStatus().toString());
-								ps.setString(7, locationString);
-								ps.setString(8, surveyUpload.getSurvey().getId());
-								try {
-									ps.setString(9, surveyUpload.toJson(false, false, false, false, true, true, true, true, true, false, false, true, true, true, true, false, false).toString());
-								}
-								catch(JSONException e) {
-									throw new SQLException(
-											"Couldn't create the JSON.",
-											e);
-								}
-								catch(DomainException e) {
-									throw new SQLException(
-											"Couldn't create the JSON.",
-											e);
-								}
-								ps.setString(10, client);
-								ps.setTimestamp(11, new Timestamp(System.currentTimeMillis()));
-								try {
-									ps.setString(12, surveyUpload.getLaunchContext().toJson(true).toString());
-								}
-								catch(JSONException e) {
-									throw new SQLException(
-											"Couldn't create the JSON.",
-											e);
-								}
-								try {
-									ps.setString(13, PreferenceCache.instance().lookup(PreferenceCache.KEY_DEFAULT_SURVEY_RESPONSE_SHARING_STATE));
-								} catch (CacheMissException e) {
-									throw new SQLException(
-											"Error reading from the cache.", 
-											e);
-								}
-								return ps;
-							}
-						},
-						idKeyHolder
-					);
-					
-					savepoint = status.createSavepoint();
-					
-					final Number surveyResponseId = idKeyHolder.getKey(); // the primary key on the survey_response table for the 
-					                                                      // just-inserted survey
-					currentSql = SQL_INSERT_PROMPT_RESPONSE;
-					
-					// Now insert each prompt response from the survey
-					Collection<Response> promptUploadList = surveyUpload.getResponses().values();
-					
-					createPromptResponse(
-						username,
-						client,
-						surveyResponseId,
-						fileList,
-						promptUploadList,
-						null,
-						bufferedImageMap,
-						videoContentsMap,
-						audioContentsMap,
-						transactionManager,
-						status);
-					
-				} catch (DataIntegrityViolationException dive) { // a unique index exists only on the survey_response table
-					
-					if(isDuplicate(dive)) {
-						 
+
+			try { // handle DataAccessExceptions
+
+				UploadIds uploadIds = getUploadIds(username, campaignUrn);
+
+				// Skip the survey responses that already exist, including
+				// those that are repeated in this upload.
+				Set<String> surveyResponseIds =
+					getExistingSurveyResponseIds(surveyUploadList);
+				List<SurveyResponse> newSurveyResponses =
+					new ArrayList<SurveyResponse>(surveyUploadList.size());
+				int numberOfSurveys = surveyUploadList.size();
+				for(int surveyIndex = 0; surveyIndex < numberOfSurveys; surveyIndex++) {
+					SurveyResponse surveyUpload = surveyUploadList.get(surveyIndex);
+
+					if(surveyResponseIds.add(surveyUpload.getSurveyResponseId().toString())) {
+						newSurveyResponses.add(surveyUpload);
+					}
+					else {
 						LOGGER.debug("Found a duplicate survey upload message for user " + username);
-						
+
 						duplicateIndexList.add(surveyIndex);
-						status.rollbackToSavepoint(savepoint);
-						
-					} 
-					else {
-					
-						// Some other integrity violation occurred - bad!! All 
-						// of the data to be inserted must be validated before 
-						// this query runs so there is either missing validation 
-						// or somehow an auto_incremented key has been duplicated.
-						
-						LOGGER.error("Caught DataAccessException", dive);
-						logErrorDetails(currentSurveyResponse, currentPromptResponse, currentSql, username, campaignUrn);
-						for(File f : fileList) {
-							f.delete();
+					}
+				}
+
+				if(! newSurveyResponses.isEmpty()) {
+					// First, insert the surveys.
+					List<Long> surveyResponseDatabaseIds;
+					try {
+						surveyResponseDatabaseIds =
+							insertSurveyResponses(
+								uploadIds,
+								client,
+								newSurveyResponses);
+					}
+					catch(DataIntegrityViolationException e) {
+						// A unique index exists only on the survey_response
+						// table, so another upload must have inserted one of
+						// these survey responses since they were checked.
+						if(isDuplicate(e)) {
+							rollback(transactionManager, status);
+							return null;
 						}
-						rollback(transactionManager, status);
-						throw new DataAccessException(dive);
+
+						throw e;
 					}
-						
-				} catch (org.springframework.dao.DataAccessException dae) { 
-					
-					// Some other database problem happened that prevented
-                    // the SQL from completing normally.
-					
-					LOGGER.error("caught DataAccessException", dae);
-					logErrorDetails(currentSurveyResponse, currentPromptResponse, currentSql, username, campaignUrn);
-					for(File f : fileList) {
-						f.delete();
+
+					// Then, gather the rows for each prompt response and
+					// reference their staged media.
+					List<Object> promptResponseArgs = new ArrayList<Object>();
+					List<Object> urlBasedResourceArgs = new ArrayList<Object>();
+					int index = 0;
+					for(SurveyResponse surveyUpload : newSurveyResponses) {
+						createPromptResponse(
+							uploadIds.userId,
+							client,
+							surveyResponseDatabaseIds.get(index++),
+							surveyUpload.getResponses().values(),
+							null,
+							stagedMedia,
+							committedMedia,
+							promptResponseArgs,
+							urlBasedResourceArgs);
 					}
-					rollback(transactionManager, status);
-					throw new DataAccessException(dae);
-				} 
-				
+
+					// Finally, insert the prompt responses and media.
+					insertRows(
+						SQL_INSERT_PROMPT_RESPONSE,
+						SQL_PROMPT_RESPONSE_ROW_VALUES,
+						6,
+						ROWS_PER_STATEMENT,
+						promptResponseArgs);
+					insertRows(
+						SQL_INSERT_URL_BASED_RESOURCE,
+						SQL_URL_BASED_RESOURCE_ROW_VALUES,
+						4,
+						ROWS_PER_STATEMENT,
+						urlBasedResourceArgs);
+				}
 			}
-			
+			catch(DataAccessException e) {
+				LOGGER.error("Error while inserting the survey responses.", e);
+				logErrorDetails(username, campaignUrn, surveyUploadList.size());
+				rollback(transactionManager, status);
+				throw e;
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+
+				// Some other database problem happened that prevented
+				// the SQL from completing normally.
+
+				LOGGER.error("caught DataAccessException", e);
+				logErrorDetails(username, campaignUrn, surveyUploadList.size());
+				rollback(transactionManager, status);
+				throw new DataAccessException(e);
+			}
+
 			// Finally, commit the transaction
 			transactionManager.commit(status);
 			LOGGER.info("Completed survey message persistence");
-		} 
-		
-		catch (TransactionException te) { 
-			
+		}
+
+		catch (TransactionException te) {
+
 			LOGGER.error("failed to commit survey upload transaction, attempting to rollback", te);
 			rollback(transactionManager, status);
-			for(File f : fileList) {
-				f.delete();
-			}
-			logErrorDetails(currentSurveyResponse, currentPromptResponse, currentSql, username, campaignUrn);
+			logErrorDetails(username, campaignUrn, surveyUploadList.size());
 			throw new DataAccessException(te);
 		}
-		
-		LOGGER.info("Finished inserting survey responses and any associated images into the database and the filesystem.");
+
+		LOGGER.info("Finished inserting survey responses and any associated media into the database.");
 		return duplicateIndexList;
 	}
-	
+
 	/**
-	 * Attempts to rollback a transaction. 
+	 * Attempts to rollback a transaction.
 	 */
-	private void rollback(PlatformTransactionManager transactionManager, TransactionStatus transactionStatus) 
+	private void rollback(PlatformTransactionManager transactionManager, TransactionStatus transactionStatus)
 		throws DataAccessException {
-		
+
 		try {
-			
+
 			LOGGER.error("rolling back a failed survey upload transaction");
 			transactionManager.rollback(transactionStatus);
-			
+
 		} catch (TransactionException te) {
-			
+
 			LOGGER.error("failed to rollback survey upload transaction", te);
 			throw new DataAccessException(te);
 		}
 	}
-	
-	private void logErrorDetails(SurveyResponse surveyResponse, PromptResponse promptResponse, String sql, String username,
-			String campaignUrn) {
-	
+
+	private void logErrorDetails(String username, String campaignUrn, int numSurveyResponses) {
+
 		StringBuilder error = new StringBuilder();
 		error.append("\nAn error occurred when attempting to insert survey responses for user ");
 		error.append(username);
 		error.append(" in campaign ");
 		error.append(campaignUrn);
 		error.append(".\n");
-		error.append("The SQL statement at hand was ");
-		error.append(sql);
-		error.append("\n The survey response at hand was ");
-		error.append(surveyResponse);
-		error.append("\n The prompt response at hand was ");
-		error.append(promptResponse);
-		
+		error.append("The upload contained ");
+		error.append(numSurveyResponses);
+		error.append(" survey responses.");
+
 		LOGGER.error(error.toString());
 	}
-	
+
 	/**
-	 * Creates the prompt response entry in the corresponding table and saves
-	 * any attached files, images, videos, etc..
-	 * 
-	 * @param username
-	 *        The username of the user saving this prompt response.
-	 * 
+	 * Retrieves the database IDs that are the same for every survey response
+	 * in an upload.
+	 *
+	 * @param username The uploader's username.
+	 *
+	 * @param campaignUrn The campaign's unique identifier.
+	 *
+	 * @return The upload's database IDs.
+	 *
+	 * @throws DataAccessException The user, campaign, or default privacy
+	 * 							   state does not exist, or there was an error
+	 * 							   looking them up.
+	 */
+	private UploadIds getUploadIds(
+			final String username,
+			final String campaignUrn)
+			throws DataAccessException {
+
+		String privacyState;
+		try {
+			privacyState =
+				PreferenceCache.instance().lookup(
+					PreferenceCache.KEY_DEFAULT_SURVEY_RESPONSE_SHARING_STATE);
+		}
+		catch(CacheMissException e) {
+			throw new DataAccessException(
+				"Error reading from the cache.",
+				e);
+		}
+
+		List<UploadIds> result;
+		try {
+			result =
+				getJdbcTemplate().query(
+					SQL_GET_UPLOAD_IDS,
+					new Object[] { username, campaignUrn, privacyState },
+					new RowMapper<UploadIds>() {
+						@Override
+						public UploadIds mapRow(
+								final ResultSet rs,
+								final int rowNum)
+								throws SQLException {
+
+							return new UploadIds(
+								rs.getLong("user_id"),
+								rs.getLong("campaign_id"),
+								rs.getLong("privacy_state_id"));
+						}
+					});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					SQL_GET_UPLOAD_IDS +
+					"' with parameters: " +
+					username + ", " +
+					campaignUrn + ", " +
+					privacyState,
+				e);
+		}
+
+		if(result.isEmpty()) {
+			throw new DataAccessException(
+				"The user, campaign, or default privacy state does not exist: " +
+					username + ", " +
+					campaignUrn + ", " +
+					privacyState);
+		}
+
+		return result.get(0);
+	}
+
+	/**
+	 * Retrieves which of the survey responses already exist.
+	 *
+	 * @param surveyResponses The survey responses.
+	 *
+	 * @return A modifiable set of the unique identifiers of the survey
+	 * 		   responses that already exist.
+	 *
+	 * @throws DataAccessException There was an error looking them up.
+	 */
+	private Set<String> getExistingSurveyResponseIds(
+			final List<SurveyResponse> surveyResponses)
+			throws DataAccessException {
+
+		Set<String> result = new HashSet<String>();
+		if(surveyResponses.isEmpty()) {
+			return result;
+		}
+
+		List<String> surveyResponseIds =
+			new ArrayList<String>(surveyResponses.size());
+		for(SurveyResponse surveyResponse : surveyResponses) {
+			surveyResponseIds.add(
+				surveyResponse.getSurveyResponseId().toString());
+		}
+
+		String sql =
+			SQL_GET_EXISTING_SURVEY_RESPONSE_IDS +
+			StringUtils.generateStatementPList(surveyResponseIds.size());
+		try {
+			result.addAll(
+				getJdbcTemplate().query(
+					sql,
+					surveyResponseIds.toArray(),
+					new SingleColumnRowMapper<String>()));
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					sql +
+					"' with parameters: " +
+					surveyResponseIds,
+				e);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Inserts the survey responses with multi-row statements and returns
+	 * their generated database IDs in the same order.
+	 *
+	 * @param uploadIds The upload's database IDs.
+	 *
+	 * @param client The software client that performed the upload.
+	 *
+	 * @param surveyResponses The survey responses to insert.
+	 *
+	 * @return The survey responses' database IDs.
+	 *
+	 * @throws org.springframework.dao.DataAccessException There was an error
+	 * 													   inserting them.
+	 */
+	private List<Long> insertSurveyResponses(
+			final UploadIds uploadIds,
+			final String client,
+			final List<SurveyResponse> surveyResponses) {
+
+		final Timestamp uploadTimestamp =
+			new Timestamp(System.currentTimeMillis());
+
+		List<Long> result = new ArrayList<Long>(surveyResponses.size());
+		int numRows = surveyResponses.size();
+		for(int row = 0; row < numRows; row += SURVEY_RESPONSE_ROWS_PER_STATEMENT) {
+			final List<SurveyResponse> statementRows =
+				surveyResponses.subList(
+					row,
+					Math.min(row + SURVEY_RESPONSE_ROWS_PER_STATEMENT, numRows));
+
+			StringBuilder sqlBuilder =
+				new StringBuilder(SQL_INSERT_SURVEY_RESPONSE);
+			for(int i = 0; i < statementRows.size(); i++) {
+				if(i != 0) {
+					sqlBuilder.append(", ");
+				}
+				sqlBuilder.append(SQL_SURVEY_RESPONSE_ROW_VALUES);
+			}
+			final String sql = sqlBuilder.toString();
+
+			result.addAll(
+				getJdbcTemplate().execute(
+					new ConnectionCallback<List<Long>>() {
+						/**
+						 * Inserts the rows in one statement and returns
+						 * their generated IDs.
+						 */
+						@Override
+						public List<Long> doInConnection(
+								final Connection connection)
+								throws SQLException {
+
+							PreparedStatement ps =
+								connection.prepareStatement(
+									sql,
+									Statement.RETURN_GENERATED_KEYS);
+							try {
+								int parameter = 1;
+								for(SurveyResponse surveyUpload : statementRows) {
+									parameter =
+										setSurveyResponseParameters(
+											ps,
+											parameter,
+											uploadIds,
+											client,
+											uploadTimestamp,
+											surveyUpload);
+								}
+								ps.executeUpdate();
+
+								List<Long> ids =
+									new ArrayList<Long>(statementRows.size());
+								ResultSet keys = ps.getGeneratedKeys();
+								try {
+									while(keys.next()) {
+										ids.add(keys.getLong(1));
+									}
+								}
+								finally {
+									keys.close();
+								}
+
+								if(ids.size() != statementRows.size()) {
+									throw new SQLException(
+										"Expected " +
+											statementRows.size() +
+											" survey response IDs but " +
+											"received " +
+											ids.size() +
+											".");
+								}
+
+								return ids;
+							}
+							finally {
+								ps.close();
+							}
+						}
+					}));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Sets the parameters for one survey response row.
+	 *
+	 * @param ps The statement.
+	 *
+	 * @param firstParameter The index of the row's first parameter.
+	 *
+	 * @param uploadIds The upload's database IDs.
+	 *
+	 * @param client The software client that performed the upload.
+	 *
+	 * @param uploadTimestamp The time of the upload.
+	 *
+	 * @param surveyUpload The survey response.
+	 *
+	 * @return The index of the next row's first parameter.
+	 *
+	 * @throws SQLException The survey response could not be converted to
+	 * 						JSON or a parameter could not be set.
+	 */
+	private static int setSurveyResponseParameters(
+			final PreparedStatement ps,
+			final int firstParameter,
+			final UploadIds uploadIds,
+			final String client,
+			final Timestamp uploadTimestamp,
+			final SurveyResponse surveyUpload)
+			throws SQLException {
+
+		String locationString = null;
+		String surveyString;
+		String launchContextString;
+		try {
+			Location location = surveyUpload.getLocation();
+			if(location != null) {
+				locationString =
+						location.toJson(false, LocationColumnKey.ALL_COLUMNS).toString();
+			}
+
+			surveyString =
+				surveyUpload.toJson(false, false, false, false, true, true, true, true, true, false, false, true, true, true, true, false, false).toString();
+			launchContextString =
+				surveyUpload.getLaunchContext().toJson(true).toString();
+		}
+		catch(JSONException e) {
+			throw new SQLException(
+					"Couldn't create the JSON.",
+					e);
+		}
+		catch(DomainException e) {
+			throw new SQLException(
+					"Couldn't create the JSON.",
+					e);
+		}
+
+		int parameter = firstParameter;
+		ps.setString(parameter++, surveyUpload.getSurveyResponseId().toString());
+		ps.setLong(parameter++, uploadIds.userId);
+		ps.setLong(parameter++, uploadIds.campaignId);
+		ps.setLong(parameter++, surveyUpload.getTime());
+		ps.setString(parameter++, surveyUpload.getTimezone().getID());
+		ps.setString(parameter++, surveyUpload.getLocationStatus().toString());
+		ps.setString(parameter++, locationString);
+		ps.setString(parameter++, surveyUpload.getSurvey().getId());
+		ps.setString(parameter++, surveyString);
+		ps.setString(parameter++, client);
+		ps.setTimestamp(parameter++, uploadTimestamp);
+		ps.setString(parameter++, launchContextString);
+		ps.setLong(parameter++, uploadIds.privacyStateId);
+
+		return parameter;
+	}
+
+	/**
+	 * Inserts rows with multi-row INSERT statements. This must be called
+	 * within a transaction.
+	 *
+	 * @param sqlPrefix The INSERT statement up to its "VALUES".
+	 *
+	 * @param rowValues The values for one row.
+	 *
+	 * @param numColumns The number of columns in a row.
+	 *
+	 * @param rowsPerStatement The maximum number of rows in a statement.
+	 *
+	 * @param args The arguments for all of the rows.
+	 *
+	 * @throws DataAccessException There was an error inserting the rows.
+	 */
+	private void insertRows(
+			final String sqlPrefix,
+			final String rowValues,
+			final int numColumns,
+			final int rowsPerStatement,
+			final List<Object> args)
+			throws DataAccessException {
+
+		int numRows = args.size() / numColumns;
+		for(int row = 0; row < numRows; row += rowsPerStatement) {
+			int numStatementRows =
+				Math.min(rowsPerStatement, numRows - row);
+
+			StringBuilder sqlBuilder = new StringBuilder(sqlPrefix);
+			for(int i = 0; i < numStatementRows; i++) {
+				if(i != 0) {
+					sqlBuilder.append(", ");
+				}
+				sqlBuilder.append(rowValues);
+			}
+			String sql = sqlBuilder.toString();
+
+			try {
+				getJdbcTemplate().update(
+					sql,
+					args
+						.subList(
+							row * numColumns,
+							(row + numStatementRows) * numColumns)
+						.toArray());
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				throw new DataAccessException(
+					"Error executing SQL '" + sqlPrefix + "' with " +
+						numStatementRows +
+						" rows.",
+					e);
+			}
+		}
+	}
+
+	/**
+	 * Gathers the rows for the prompt responses and the rows for the staged
+	 * media that they reference. The rows are inserted by the caller.
+	 *
+	 * @param userId
+	 *        The database ID of the user saving this prompt response.
+	 *
 	 * @param client
 	 *        The name of the device used to generate the response.
-	 * 
+	 *
 	 * @param surveyResponseId
-	 *        The unique identifier for this survey response.
-	 * 
-	 * @param fileList
-	 *        The list of files saved to the disk, which should be a reference
-	 *        to a list that will be populated by this function.
-	 * 
+	 *        The database ID for this survey response.
+	 *
 	 * @param promptUploadList
 	 *        The collection of prompt responses to store.
-	 * 
+	 *
 	 * @param repeatableSetIteration
 	 *        If these prompt responses were part of a repeatable set, this is
 	 *        the iteration of that repeatable set; otherwise, null.
-	 * 
-	 * @param bufferedImageMap
-	 *        The map of image IDs to their contents.
-	 * 
-	 * @param videoContentsMap
-	 *        The map of video IDs to their contents.
-	 * 
-	 * @param transactionManager
-	 *        The manager for this transaction.
-	 * 
-	 * @param status
-	 *        The status of this transaction.
-	 * 
+	 *
+	 * @param stagedMedia
+	 *        The staged media, keyed by its unique identifier.
+	 *
+	 * @param committedMedia
+	 *        The list to which the media referenced by these prompt responses
+	 *        is added.
+	 *
+	 * @param promptResponseArgs
+	 *        The arguments for the prompt_response rows, to which these
+	 *        prompt responses' rows are added.
+	 *
+	 * @param urlBasedResourceArgs
+	 *        The arguments for the url_based_resource rows, to which these
+	 *        prompt responses' media rows are added.
+	 *
 	 * @throws DataAccessException
-	 *         There was an error saving the information.
+	 *         A prompt response references media that was not staged.
 	 */
 	private void createPromptResponse(
-			final String username, final String client,
-			final Number surveyResponseId,
-			final List<File> fileList,
+			final long userId, final String client,
+			final long surveyResponseId,
 			final Collection<Response> promptUploadList,
 			final Integer repeatableSetIteration,
-            final Map<UUID, Image> bufferedImageMap,
-            final Map<String, Video> videoContentsMap, 
-            final Map<String, Audio> audioContentsMap, 
-            final DataSourceTransactionManager transactionManager,
-            final TransactionStatus status) 
+			final Map<String, StagedMedia> stagedMedia,
+			final List<StagedMedia> committedMedia,
+			final List<Object> promptResponseArgs,
+			final List<Object> urlBasedResourceArgs)
 			throws DataAccessException {
-		
+
 		for(Response response : promptUploadList) {
 			if(response instanceof RepeatableSetResponse) {
 				Map<Integer, Map<Integer, Response>> iterationToResponse =
 					((RepeatableSetResponse) response).getResponseGroups();
-				
+
 				for(Integer iteration : iterationToResponse.keySet()) {
 					createPromptResponse(
-						username,
+						userId,
 						client,
 						surveyResponseId,
-						fileList,
 						iterationToResponse.get(iteration).values(),
 						iteration,
-						bufferedImageMap,
-						videoContentsMap,
-						audioContentsMap,
-						transactionManager,
-						status);
+						stagedMedia,
+						committedMedia,
+						promptResponseArgs,
+						urlBasedResourceArgs);
 				}
 				continue;
 			}
 			final PromptResponse promptResponse = (PromptResponse) response;
-			
-			getJdbcTemplate().update(
-				new PreparedStatementCreator() {
-					public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
-						PreparedStatement ps 
-							= connection.prepareStatement(SQL_INSERT_PROMPT_RESPONSE);
-						ps.setLong(1, surveyResponseId.longValue());
-						
-						RepeatableSet parent = promptResponse.getPrompt().getParent();
-						if(parent == null) {
-							ps.setNull(2, java.sql.Types.NULL);
-							ps.setNull(3, java.sql.Types.NULL);
-						}
-						else {
-							ps.setString(2, parent.getId());
-							ps.setInt(3, repeatableSetIteration);
-						}
-						ps.setString(4, promptResponse.getPrompt().getType().toString());
-						ps.setString(5, promptResponse.getPrompt().getId());
-						
-						Object response = promptResponse.getResponse();
-						if(response instanceof DateTime) {
-							ps.setString(
-								6,
-								DateTimeUtils
-									.getW3cIso8601DateString(
-										(DateTime) response,
-										true));
-						}
-						else if((promptResponse instanceof MultiChoiceCustomPromptResponse) && (response instanceof Collection)) {
-							JSONArray json = new JSONArray();
-							
-							for(Object currResponse : (Collection<?>) response) {
-								json.put(currResponse);
-							}
-							
-							ps.setString(6, json.toString());
-						}
-						else {
-							ps.setString(6, response.toString());
-						}
-						
-						return ps;
-					}
+
+			promptResponseArgs.add(surveyResponseId);
+			RepeatableSet parent = promptResponse.getPrompt().getParent();
+			if(parent == null) {
+				promptResponseArgs.add(null);
+				promptResponseArgs.add(null);
+			}
+			else {
+				promptResponseArgs.add(parent.getId());
+				promptResponseArgs.add(repeatableSetIteration);
+			}
+			promptResponseArgs.add(promptResponse.getPrompt().getType().toString());
+			promptResponseArgs.add(promptResponse.getPrompt().getId());
+			promptResponseArgs.add(getResponseString(promptResponse));
+
+			String mediaId = getMediaId(promptResponse);
+			if(mediaId != null) {
+				StagedMedia media = stagedMedia.get(mediaId);
+				if(media == null) {
+					throw new DataAccessException(
+						"The media was not staged: " + mediaId);
 				}
-			);
-			
-			if(promptResponse instanceof PhotoPromptResponse) {
-				// Grab the associated image and save it
-				String imageId = promptResponse.getResponse().toString();
-				
-				// If it wasn't skipped and it was displayed, save the
-				// associated images.
-				if(! JsonInputKeys.PROMPT_SKIPPED.equals(imageId) && 
-					! JsonInputKeys.PROMPT_NOT_DISPLAYED.equals(imageId) &&
-					! JsonInputKeys.IMAGE_NOT_UPLOADED.equals(imageId)) {
-					
-					// Get the directory to save the image and save it.
-					File originalFile;
-					try {
-						originalFile =
-							bufferedImageMap
-								.get(UUID.fromString(imageId))
-								.saveImage(getDirectory());
-					}
-					catch(DomainException e) {
-						rollback(transactionManager, status);
-						throw
-							new DataAccessException(
-								"Error saving the images.",
-								e);
-					}
-					
-					// Get the image's URL.
-					String url = "file://" + originalFile.getAbsolutePath();
-					// Insert the image URL into the database.
-					try {
-						getJdbcTemplate().update(
-								SQL_INSERT_IMAGE, 
-								new Object[] { username, client, imageId, url }
-							);
-					}
-					catch(org.springframework.dao.DataAccessException e) {
-						transactionManager.rollback(status);
-						throw new DataAccessException(
-							"Error executing SQL '" + 
-								SQL_INSERT_IMAGE + 
-								"' with parameters: " +
-								username + ", " + 
-								client + ", " + 
-								imageId + ", " + 
-								url,
-							e);
-					}
+
+				// Insert the media's URL into the database.
+				addUrlBasedResource(
+					urlBasedResourceArgs,
+					userId,
+					client,
+					mediaId,
+					media.getUrl());
+				committedMedia.add(media);
+			}
+		}
+	}
+
+	/**
+	 * Returns the unique identifier of the media that a prompt response
+	 * references.
+	 *
+	 * @param promptResponse The prompt response.
+	 *
+	 * @return The media's unique identifier or null if the prompt response
+	 * 		   is not a media prompt response or does not reference any media,
+	 * 		   e.g. it was skipped.
+	 */
+	private static String getMediaId(final PromptResponse promptResponse) {
+		Object responseValue = promptResponse.getResponse();
+
+		if(promptResponse instanceof PhotoPromptResponse) {
+			String imageId = responseValue.toString();
+
+			// If it wasn't skipped, it was displayed, and it was uploaded,
+			// then it references an image.
+			if(! JsonInputKeys.PROMPT_SKIPPED.equals(imageId) &&
+				! JsonInputKeys.PROMPT_NOT_DISPLAYED.equals(imageId) &&
+				! JsonInputKeys.IMAGE_NOT_UPLOADED.equals(imageId)) {
+
+				return imageId;
+			}
+		}
+		else if(
+			(promptResponse instanceof VideoPromptResponse) ||
+			(promptResponse instanceof AudioPromptResponse)) {
+
+			// Make sure the response contains an actual media response.
+			if(!
+				(	(responseValue instanceof NoResponse) ||
+					(responseValue instanceof NoResponseMedia)
+				)) {
+
+				return responseValue.toString();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Adds the media prompt responses to a map of media IDs to the prompt
+	 * responses that reference them.
+	 *
+	 * @param responses The responses, which may include repeatable sets.
+	 *
+	 * @param mediaResponses The map to which the media prompt responses are
+	 * 						 added.
+	 */
+	private static void getMediaResponses(
+			final Collection<Response> responses,
+			final Map<String, PromptResponse> mediaResponses) {
+
+		for(Response response : responses) {
+			if(response instanceof RepeatableSetResponse) {
+				for(Map<Integer, Response> group :
+						((RepeatableSetResponse) response)
+							.getResponseGroups()
+							.values()) {
+
+					getMediaResponses(group.values(), mediaResponses);
 				}
+				continue;
 			}
-			// Save the video.
-			else if(promptResponse instanceof VideoPromptResponse) {
-				// Make sure the response contains an actual video response.
-				Object responseValue = promptResponse.getResponse();
-				if(! 
-					(	(responseValue instanceof NoResponse) || 
-						(responseValue instanceof NoResponseMedia)
-					)) {
-					
-					// Attempt to write it to the file system.
-					try {
-						// Get the current video directory.
-						File currVideoDirectory = 
-							VideoDirectoryCache.getDirectory();
 
-						// Get the video ID.
-						String responseValueString = responseValue.toString();
-						
-						// Get the video object.
-						Video video = 
-							videoContentsMap.get(responseValueString);
-						
-						// Get the file.
-						File videoFile = 
-							new File(
-								currVideoDirectory.getAbsolutePath() +
-								"/" +
-								responseValueString +
-								"." +
-								video.getType());
-						
-						// Get the video contents.
-						InputStream content = video.getContentStream();
-						if(content == null) {
-							transactionManager.rollback(status);
+			PromptResponse promptResponse = (PromptResponse) response;
+			String mediaId = getMediaId(promptResponse);
+			if(mediaId != null) {
+				mediaResponses.put(mediaId, promptResponse);
+			}
+		}
+	}
+
+	/**
+	 * Writes the media referenced by the survey responses to staging
+	 * directories. Each file is written by a separate task, so large uploads
+	 * are written in parallel. Media that is referenced more than once is
+	 * only written once.
+	 *
+	 * @param surveyUploadList
+	 *        The survey responses.
+	 *
+	 * @param bufferedImageMap
+	 *        The map of image IDs to their contents.
+	 *
+	 * @param videoContentsMap
+	 *        The map of video IDs to their contents.
+	 *
+	 * @param audioContentsMap
+	 *        The map of audio IDs to their contents.
+	 *
+	 * @return The staged media, keyed by its unique identifier.
+	 *
+	 * @throws DataAccessException
+	 *         The contents of some media were missing or there was an error
+	 *         writing them. Nothing is left staged.
+	 */
+	private Map<String, StagedMedia> stageMedia(
+			final List<SurveyResponse> surveyUploadList,
+			final Map<UUID, Image> bufferedImageMap,
+			final Map<String, Video> videoContentsMap,
+			final Map<String, Audio> audioContentsMap)
+			throws DataAccessException {
+
+		Map<String, PromptResponse> mediaResponses =
+			new LinkedHashMap<String, PromptResponse>();
+		for(SurveyResponse surveyUpload : surveyUploadList) {
+			getMediaResponses(
+				surveyUpload.getResponses().values(),
+				mediaResponses);
+		}
+
+		Map<String, StagedMedia> result = new HashMap<String, StagedMedia>();
+		if(mediaResponses.isEmpty()) {
+			return result;
+		}
+
+		// The staging directories, keyed by their root directories'
+		// preference keys.
+		Map<String, File> stagingDirectories = new HashMap<String, File>();
+		Map<String, File> destinations = new HashMap<String, File>();
+		Map<String, File> mediaStagingDirectories = new HashMap<String, File>();
+		Map<String, Future<String>> stagedFileNames =
+			new LinkedHashMap<String, Future<String>>();
+		boolean staged = false;
+		try {
+			for(Map.Entry<String, PromptResponse> entry : mediaResponses.entrySet()) {
+				String mediaId = entry.getKey();
+				PromptResponse promptResponse = entry.getValue();
+
+				Callable<String> task;
+				File stagingDirectory;
+				File destination;
+				try {
+					if(promptResponse instanceof PhotoPromptResponse) {
+						final Image image =
+							bufferedImageMap.get(UUID.fromString(mediaId));
+						if(image == null) {
 							throw new DataAccessException(
-								"The video contents did not exist in the map.");
+								"The image contents did not exist in the map.");
 						}
-						
-						// Write the video contents to disk.
-						FileOutputStream fos = new FileOutputStream(videoFile);
-						
-						// Write the content to the output stream.
-						int bytesRead;
-						byte[] buffer = new byte[4096];
-						while((bytesRead = content.read(buffer)) != -1) {
-							fos.write(buffer, 0, bytesRead);
-						}
-						fos.close();
 
-						// Store the file reference in the video list.
-						fileList.add(videoFile);
-						
-						// Get the video's URL.
-						String url = "file://" + videoFile.getAbsolutePath();
-						
-						// Insert the video URL into the database.
-						try {
-							getJdbcTemplate().update(
-									SQL_INSERT_IMAGE, 
-									new Object[] { 
-										username, 
-										client, 
-										responseValueString,
-										url }
-								);
-						}
-						catch(org.springframework.dao.DataAccessException e) {
-							videoFile.delete();
-							transactionManager.rollback(status);
+						stagingDirectory =
+							getStagingDirectory(
+								stagingDirectories,
+								PreferenceCache.KEY_IMAGE_DIRECTORY);
+						destination = getDirectory();
+
+						final File imageStagingDirectory = stagingDirectory;
+						task = new Callable<String>() {
+							@Override
+							public String call() throws DomainException {
+								return
+									image
+										.saveImage(imageStagingDirectory)
+										.getName();
+							}
+						};
+					}
+					else if(promptResponse instanceof VideoPromptResponse) {
+						Video video = videoContentsMap.get(mediaId);
+						if((video == null) || (video.getContentStream() == null)) {
 							throw new DataAccessException(
-								"Error executing SQL '" + 
-									SQL_INSERT_IMAGE + 
-									"' with parameters: " +
-									username + ", " + 
-									client + ", " + 
-									responseValueString + ", " + 
-									url, 
-								e);
+								"The video contents did not exist in the map.");
 						}
+
+						stagingDirectory =
+							getStagingDirectory(
+								stagingDirectories,
+								PreferenceCache.KEY_VIDEO_DIRECTORY);
+						destination = VideoDirectoryCache.getDirectory();
+						task =
+							createStagingTask(
+								video,
+								new File(
+									stagingDirectory,
+									mediaId + "." + video.getType()));
 					}
-					// If it fails, roll back the transaction.
-					catch(DomainException e) {
-						transactionManager.rollback(status);
-						throw new DataAccessException(
-							"Could not get the video directory.",
-							e);
-					}
-					catch(IOException e) {
-						transactionManager.rollback(status);
-						throw new DataAccessException(
-							"Could not write the file.",
-							e);
+					else {
+						Audio audio = audioContentsMap.get(mediaId);
+						if((audio == null) || (audio.getContentStream() == null)) {
+							throw new DataAccessException(
+								"The audio contents did not exist in the map.");
+						}
+
+						stagingDirectory =
+							getStagingDirectory(
+								stagingDirectories,
+								PreferenceCache.KEY_AUDIO_DIRECTORY);
+						destination = AudioDirectoryCache.getDirectory();
+						task =
+							createStagingTask(
+								audio,
+								new File(
+									stagingDirectory,
+									mediaId + "." + audio.getType()));
 					}
 				}
+				catch(DomainException e) {
+					throw new DataAccessException(
+						"Could not get the media's directory.",
+						e);
+				}
+
+				mediaStagingDirectories.put(mediaId, stagingDirectory);
+				destinations.put(mediaId, destination);
+				stagedFileNames.put(mediaId, stagingExecutor.submit(task));
 			}
-			else if(promptResponse instanceof AudioPromptResponse) {
-				// Make sure the response contains an actual audio response.
-				Object responseValue = promptResponse.getResponse();
-				if(! 
-					(	(responseValue instanceof NoResponse) || 
-						(responseValue instanceof NoResponseMedia)
-					)) {
-					
-					// Attempt to write it to the file system.
-					try {
-						// Get the current audio directory.
-						File currAudioDirectory = 
-							AudioDirectoryCache.getDirectory();
 
-						// Get the audio ID.
-						String responseValueString = responseValue.toString();
-						
-						// Get the audio object.
-						Audio audio = 
-							audioContentsMap.get(responseValueString);
-						
-						// Get the file.
-						File audioFile = 
-							new File(
-								currAudioDirectory.getAbsolutePath() +
-								"/" +
-								responseValueString +
-								"." +
-								audio.getType());
-						
-						// Get the video contents.
-						InputStream content = audio.getContentStream();
-						if(content == null) {
-							transactionManager.rollback(status);
-							throw new DataAccessException(
-								"The audio contents did not exist in the map.");
-						}
-						
-						// Write the video contents to disk.
-						FileOutputStream fos = new FileOutputStream(audioFile);
-						
-						// Write the content to the output stream.
-						int bytesRead;
-						byte[] buffer = new byte[4096];
-						while((bytesRead = content.read(buffer)) != -1) {
-							fos.write(buffer, 0, bytesRead);
-						}
-						fos.close();
+			for(Map.Entry<String, Future<String>> entry : stagedFileNames.entrySet()) {
+				String mediaId = entry.getKey();
 
-						// Store the file reference in the video list.
-						fileList.add(audioFile);
-						
-						// Get the video's URL.
-						String url = "file://" + audioFile.getAbsolutePath();
-						
-						// Insert the video URL into the database.
+				result.put(
+					mediaId,
+					new StagedMedia(
+						mediaId,
+						mediaStagingDirectories.get(mediaId),
+						destinations.get(mediaId),
+						entry.getValue().get()));
+			}
+
+			staged = true;
+			return result;
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DataAccessException(
+				"Interrupted while staging the media.",
+				e);
+		}
+		catch(ExecutionException e) {
+			throw new DataAccessException(
+				"Could not write the media.",
+				e.getCause());
+		}
+		finally {
+			if(! staged) {
+				// Wait for the tasks that have already started to finish
+				// before deleting what they wrote.
+				for(Future<String> stagedFileName : stagedFileNames.values()) {
+					if(! stagedFileName.cancel(false)) {
 						try {
-							getJdbcTemplate().update(
-									SQL_INSERT_IMAGE, 
-									new Object[] { 
-										username, 
-										client, 
-										responseValueString,
-										url }
-								);
+							stagedFileName.get();
 						}
-						catch(org.springframework.dao.DataAccessException e) {
-							audioFile.delete();
-							transactionManager.rollback(status);
-							throw new DataAccessException(
-								"Error executing SQL '" + 
-									SQL_INSERT_IMAGE + 
-									"' with parameters: " +
-									username + ", " + 
-									client + ", " + 
-									responseValueString + ", " + 
-									url, 
-								e);
+						catch(Exception e) {
+							// The error, if any, has already been reported
+							// or doesn't matter as the file is being
+							// deleted.
 						}
 					}
-					// If it fails, roll back the transaction.
-					catch(DomainException e) {
-						transactionManager.rollback(status);
-						throw new DataAccessException(
-							"Could not get the video directory.",
-							e);
+				}
+
+				for(File stagingDirectory : stagingDirectories.values()) {
+					File[] files = stagingDirectory.listFiles();
+					if(files != null) {
+						for(File file : files) {
+							file.delete();
+						}
 					}
-					catch(IOException e) {
-						transactionManager.rollback(status);
-						throw new DataAccessException(
-							"Could not write the file.",
-							e);
+					stagingDirectory.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns this upload's staging directory for a root media directory,
+	 * creating it if it doesn't exist yet.
+	 *
+	 * @param stagingDirectories
+	 *        This upload's staging directories, keyed by their root
+	 *        directories' preference keys.
+	 *
+	 * @param rootDirectoryKey
+	 *        The root directory's preference key.
+	 *
+	 * @return The staging directory.
+	 *
+	 * @throws DomainException
+	 *         The staging directory could not be created.
+	 */
+	private static File getStagingDirectory(
+			final Map<String, File> stagingDirectories,
+			final String rootDirectoryKey)
+			throws DomainException {
+
+		File result = stagingDirectories.get(rootDirectoryKey);
+		if(result == null) {
+			result =
+				StagedMediaReconciler.createStagingDirectory(
+					rootDirectoryKey);
+			stagingDirectories.put(rootDirectoryKey, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a task that writes some media's content to a file. If the
+	 * media was uploaded to a file on the same file system, that file is
+	 * moved instead of copied.
+	 *
+	 * @param media
+	 *        The media.
+	 *
+	 * @param file
+	 *        The file.
+	 *
+	 * @return A task that writes the content and returns the file's name.
+	 */
+	private static Callable<String> createStagingTask(
+			final Media media,
+			final File file) {
+
+		return new Callable<String>() {
+			@Override
+			public String call() throws IOException {
+				UploadedFile uploadedFile = media.getUploadedFile();
+				if((uploadedFile != null) &&
+					uploadedFile.getFile().renameTo(file)) {
+
+					return file.getName();
+				}
+
+				InputStream content = media.getContentStream();
+				FileOutputStream fos = new FileOutputStream(file);
+				try {
+					int bytesRead;
+					byte[] buffer = new byte[4096];
+					while((bytesRead = content.read(buffer)) != -1) {
+						fos.write(buffer, 0, bytesRead);
 					}
 				}
+				finally {
+					fos.close();
+				}
+
+				return file.getName();
 			}
+		};
+	}
+
+	/**
+	 * Converts a prompt response's value into the string that is stored.
+	 *
+	 * @param promptResponse The prompt response.
+	 *
+	 * @return The prompt response's value as a string.
+	 */
+	private static String getResponseString(
+			final PromptResponse promptResponse) {
+
+		Object response = promptResponse.getResponse();
+		if(response instanceof DateTime) {
+			return
+				DateTimeUtils
+					.getW3cIso8601DateString(
+						(DateTime) response,
+						true);
+		}
+		else if((promptResponse instanceof MultiChoiceCustomPromptResponse) && (response instanceof Collection)) {
+			JSONArray json = new JSONArray();
+
+			for(Object currResponse : (Collection<?>) response) {
+				json.put(currResponse);
+			}
+
+			return json.toString();
 		}
+		else {
+			return response.toString();
+		}
+	}
+
+	/**
+	 * Adds the arguments for a url_based_resource row.
+	 *
+	 * @param args The list of arguments to add to.
+	 *
+	 * @param userId The database ID of the user that owns the media.
+	 *
+	 * @param client The software client that performed the upload.
+	 *
+	 * @param uuid The media's unique identifier.
+	 *
+	 * @param url The media's URL.
+	 */
+	private static void addUrlBasedResource(
+			final List<Object> args,
+			final long userId,
+			final String client,
+			final String uuid,
+			final String url) {
+
+		args.add(userId);
+		args.add(client);
+		args.add(uuid);
+		args.add(url);
 	}
 	
 	/**
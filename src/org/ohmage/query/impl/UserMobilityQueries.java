@@ -21,23 +21,27 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 
 import javax.sql.DataSource;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.domain.Location;
 import org.ohmage.domain.Location.LocationColumnKey;
 import org.ohmage.domain.MobilityAggregatePoint;
+import org.ohmage.domain.MobilityModeRollup;
 import org.ohmage.domain.MobilityPoint;
 import org.ohmage.domain.MobilityPoint.ClassifierData;
 import org.ohmage.domain.MobilityPoint.ClassifierData.ClassifierDataColumnKey;
@@ -51,6 +55,7 @@ import org.ohmage.exception.DomainException;
 import org.ohmage.query.IUserMobilityQueries;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
@@ -142,6 +147,111 @@ public final class UserMobilityQueries extends AbstractUploadQuery implements IU
 		"AND time_adjusted <= ? " +
 		"GROUP BY (time_adjusted DIV " + MILLIS_PER_DAY + ")";
 	
+	// The Mobility observer's regular and extended stream data for a user,
+	// from the most recent version of the observer.
+	private static final String SQL_FROM_MOBILITY_STREAM_DATA =
+		"FROM observer_stream_data " +
+		"WHERE user_id = (SELECT id FROM user WHERE username = ?) " +
+		"AND observer_stream_link_id IN (" +
+			"SELECT id " +
+			"FROM observer_stream_link " +
+			"WHERE observer_id = (" +
+				"SELECT id " +
+				"FROM observer " +
+				"WHERE observer_id = 'edu.ucla.cens.Mobility' " +
+				"ORDER BY version DESC LIMIT 1" +
+			") " +
+			"AND observer_stream_id IN (" +
+				"SELECT id " +
+				"FROM observer_stream " +
+				"WHERE stream_id IN ('regular', 'extended') " +
+				"AND version = 2012050700" +
+			")" +
+		") ";
+	
+	// Retrieves the time and data of each Mobility point for a user within a
+	// range of adjusted times, in chronological order.
+	private static final String SQL_GET_MOBILITY_STREAM_DATA_FOR_ROLLUP =
+		"SELECT time, data " +
+		SQL_FROM_MOBILITY_STREAM_DATA +
+		"AND time_adjusted >= ? " +
+		"AND time_adjusted < ? " +
+		"ORDER BY time, id";
+	
+	// Retrieves the time and data of each Mobility point for a user within a
+	// range of adjusted times and a range of times, in chronological order.
+	private static final String SQL_GET_MOBILITY_STREAM_DATA_FOR_PARTIAL_ROLLUP =
+		"SELECT time, data " +
+		SQL_FROM_MOBILITY_STREAM_DATA +
+		"AND time_adjusted >= ? " +
+		"AND time_adjusted < ? " +
+		"AND time >= ? " +
+		"AND time < ? " +
+		"ORDER BY time, id";
+	
+	// Retrieves a user's database ID.
+	private static final String SQL_GET_USER_ID =
+		"SELECT id FROM user WHERE username = ?";
+	
+	// Records that a user's Mobility mode rollups for a day have been 
+	// computed and locks that record until the transaction ends.
+	private static final String SQL_LOCK_MODE_ROLLUP_DAY =
+		"INSERT INTO mobility_mode_rollup_day(user_id, day) " +
+		"VALUES (?, ?) " +
+		"ON DUPLICATE KEY UPDATE day = VALUES(day)";
+	
+	// Retrieves the modes of a user's Mobility mode rollups for a day.
+	private static final String SQL_GET_MODE_ROLLUP_MODES =
+		"SELECT mode " +
+		"FROM mobility_mode_rollup " +
+		"WHERE user_id = ? " +
+		"AND day = ?";
+	
+	// Inserts or replaces a Mobility mode rollup.
+	private static final String SQL_UPSERT_MODE_ROLLUP =
+		"INSERT INTO mobility_mode_rollup(" +
+			"user_id, day, mode, duration, count, first_time, last_time) " +
+		"VALUES (?, ?, ?, ?, ?, ?, ?) " +
+		"ON DUPLICATE KEY UPDATE " +
+			"duration = VALUES(duration), " +
+			"count = VALUES(count), " +
+			"first_time = VALUES(first_time), " +
+			"last_time = VALUES(last_time)";
+	
+	// Deletes one of a user's Mobility mode rollups.
+	private static final String SQL_DELETE_MODE_ROLLUP =
+		"DELETE FROM mobility_mode_rollup " +
+		"WHERE user_id = ? " +
+		"AND day = ? " +
+		"AND mode = ?";
+	
+	// Retrieves the days in a range for which a user's Mobility mode rollups
+	// have been computed.
+	private static final String SQL_GET_MODE_ROLLUP_DAYS =
+		"SELECT mmrd.day " +
+		"FROM user u, mobility_mode_rollup_day mmrd " +
+		"WHERE u.username = ? " +
+		"AND u.id = mmrd.user_id " +
+		"AND mmrd.day >= ? " +
+		"AND mmrd.day <= ?";
+	
+	// Forgets that a user's Mobility mode rollups for a day were computed.
+	private static final String SQL_DELETE_MODE_ROLLUP_DAY =
+		"DELETE FROM mobility_mode_rollup_day " +
+		"WHERE user_id = (SELECT id FROM user WHERE username = ?) " +
+		"AND day = ?";
+	
+	// Retrieves a user's Mobility mode rollups for a range of days.
+	private static final String SQL_GET_MODE_ROLLUPS =
+		"SELECT mmr.day, mmr.mode, mmr.duration, mmr.count, " +
+			"mmr.first_time, mmr.last_time " +
+		"FROM user u, mobility_mode_rollup mmr " +
+		"WHERE u.username = ? " +
+		"AND u.id = mmr.user_id " +
+		"AND mmr.day >= ? " +
+		"AND mmr.day <= ? " +
+		"ORDER BY mmr.day, mmr.first_time";
+	
 	// Inserts a mode-only entry into the database.
 	private static final String SQL_INSERT =
 		"INSERT INTO mobility(uuid, user_id, client, epoch_millis, phone_timezone, location_status, location, mode, upload_timestamp, privacy_state_id) " +
@@ -844,4 +954,451 @@ public final class UserMobilityQueries extends AbstractUploadQuery implements IU
 				e);
 		}
 	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserMobilityQueries#updateModeRollups(java.lang.String, java.util.Collection)
+	 */
+	@Override
+	public void updateModeRollups(
+			final String username,
+			final Collection<LocalDate> days)
+			throws DataAccessException {
+		
+		// Each day is recomputed in its own transaction, so a transaction
+		// only ever holds one day's lock and reads the points as they were
+		// when that lock was granted.
+		for(LocalDate day : new TreeSet<LocalDate>(days)) {
+			updateModeRollups(username, day);
+		}
+	}
+	
+	/**
+	 * Recomputes a user's Mobility mode rollups for a day in one 
+	 * transaction.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param day The day.
+	 * 
+	 * @throws DataAccessException There was an error.
+	 */
+	private void updateModeRollups(
+			final String username,
+			final LocalDate day)
+			throws DataAccessException {
+		
+		// Create the transaction.
+		DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+		def.setName("Updating the Mobility mode rollups for a day.");
+		
+		try {
+			// Begin the transaction.
+			PlatformTransactionManager transactionManager = 
+				new DataSourceTransactionManager(getDataSource());
+			TransactionStatus status = transactionManager.getTransaction(def);
+			
+			long userId;
+			try {
+				userId = 
+					getJdbcTemplate().queryForLong(SQL_GET_USER_ID, username);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_GET_USER_ID +
+						"' with parameter: " +
+						username,
+					e);
+			}
+			
+			// Lock the day's row, creating it if this is the first time the
+			// day has been computed. A concurrent update of the same day 
+			// waits here until this one has committed. The day's rollups 
+			// are only changed while this lock is held.
+			try {
+				getJdbcTemplate().update(
+					SQL_LOCK_MODE_ROLLUP_DAY,
+					new Object[] { userId, day.toString() });
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_LOCK_MODE_ROLLUP_DAY +
+						"' with parameters: " +
+						userId + ", " +
+						day.toString(),
+					e);
+			}
+			
+			// The adjusted time is the point's time in its own time 
+			// zone, so the day's points are those whose adjusted time 
+			// falls within the day in UTC.
+			long dayStart = 
+				day.toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+			Object[] parameters = 
+				new Object[] { username, dayStart, dayStart + MILLIS_PER_DAY };
+			
+			MobilityModeRollup.Builder builder =
+				new MobilityModeRollup.Builder(day);
+			try {
+				addPoints(
+					SQL_GET_MOBILITY_STREAM_DATA_FOR_ROLLUP,
+					parameters,
+					builder);
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_GET_MOBILITY_STREAM_DATA_FOR_ROLLUP +
+						"' with parameters: " +
+						username + ", " +
+						parameters[1] + ", " +
+						parameters[2],
+					e);
+			}
+			
+			// Get the modes that the day had before, so that the ones it no
+			// longer has may be deleted by their keys.
+			Set<String> oldModes;
+			try {
+				oldModes =
+					new HashSet<String>(
+						getJdbcTemplate().query(
+							SQL_GET_MODE_ROLLUP_MODES,
+							new Object[] { userId, day.toString() },
+							new SingleColumnRowMapper<String>()));
+			}
+			catch(org.springframework.dao.DataAccessException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error executing SQL '" +
+						SQL_GET_MODE_ROLLUP_MODES +
+						"' with parameters: " +
+						userId + ", " +
+						day.toString(),
+					e);
+			}
+			
+			List<Object[]> rollupParameters = new ArrayList<Object[]>();
+			for(MobilityModeRollup rollup : builder.build()) {
+				String mode = rollup.getMode().toString().toLowerCase();
+				oldModes.remove(mode);
+				
+				rollupParameters.add(
+					new Object[] {
+						userId,
+						day.toString(),
+						mode,
+						rollup.getDuration(),
+						rollup.getCount(),
+						rollup.getFirstTime(),
+						rollup.getLastTime() });
+			}
+			
+			if(! rollupParameters.isEmpty()) {
+				try {
+					getJdbcTemplate().batchUpdate(
+						SQL_UPSERT_MODE_ROLLUP,
+						rollupParameters);
+				}
+				catch(org.springframework.dao.DataAccessException e) {
+					transactionManager.rollback(status);
+					throw new DataAccessException(
+						"Error executing SQL '" +
+							SQL_UPSERT_MODE_ROLLUP +
+							"' for day: " +
+							day.toString(),
+						e);
+				}
+			}
+			
+			if(! oldModes.isEmpty()) {
+				List<Object[]> deleteParameters = new ArrayList<Object[]>();
+				for(String mode : oldModes) {
+					deleteParameters.add(
+						new Object[] { userId, day.toString(), mode });
+				}
+				
+				try {
+					getJdbcTemplate().batchUpdate(
+						SQL_DELETE_MODE_ROLLUP,
+						deleteParameters);
+				}
+				catch(org.springframework.dao.DataAccessException e) {
+					transactionManager.rollback(status);
+					throw new DataAccessException(
+						"Error executing SQL '" +
+							SQL_DELETE_MODE_ROLLUP +
+							"' for day: " +
+							day.toString(),
+						e);
+				}
+			}
+			
+			// Commit the transaction.
+			try {
+				transactionManager.commit(status);
+			}
+			catch(TransactionException e) {
+				transactionManager.rollback(status);
+				throw new DataAccessException(
+					"Error while committing the transaction.", 
+					e);
+			}
+		}
+		catch(TransactionException e) {
+			throw new DataAccessException(
+				"Error while attempting to rollback the transaction.", 
+				e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserMobilityQueries#getModeRollupDays(java.lang.String, org.joda.time.LocalDate, org.joda.time.LocalDate)
+	 */
+	@Override
+	public Set<LocalDate> getModeRollupDays(
+			final String username,
+			final LocalDate startDay,
+			final LocalDate endDay)
+			throws DataAccessException {
+		
+		Object[] parameters = 
+			new Object[] { 
+				username, 
+				startDay.toString(), 
+				endDay.toString() };
+		
+		try {
+			return new HashSet<LocalDate>(
+				getJdbcTemplate().query(
+					SQL_GET_MODE_ROLLUP_DAYS,
+					parameters,
+					new RowMapper<LocalDate>() {
+						/**
+						 * Reads each day.
+						 */
+						@Override
+						public LocalDate mapRow(
+								final ResultSet rs,
+								final int rowNum)
+								throws SQLException {
+							
+							return new LocalDate(rs.getString("day"));
+						}
+					}));
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					SQL_GET_MODE_ROLLUP_DAYS +
+					"' with parameters: " +
+					username + ", " +
+					startDay.toString() + ", " +
+					endDay.toString(),
+				e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserMobilityQueries#deleteModeRollupDays(java.lang.String, java.util.Collection)
+	 */
+	@Override
+	public void deleteModeRollupDays(
+			final String username,
+			final Collection<LocalDate> days)
+			throws DataAccessException {
+		
+		List<Object[]> parameters = new ArrayList<Object[]>(days.size());
+		for(LocalDate day : days) {
+			parameters.add(new Object[] { username, day.toString() });
+		}
+		
+		try {
+			getJdbcTemplate().batchUpdate(
+				SQL_DELETE_MODE_ROLLUP_DAY,
+				parameters);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					SQL_DELETE_MODE_ROLLUP_DAY +
+					"' with parameters: " +
+					username + ", " +
+					days,
+				e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserMobilityQueries#getModeRollups(java.lang.String, org.joda.time.LocalDate, org.joda.time.LocalDate)
+	 */
+	@Override
+	public List<MobilityModeRollup> getModeRollups(
+			final String username,
+			final LocalDate startDay,
+			final LocalDate endDay)
+			throws DataAccessException {
+		
+		Object[] parameters = 
+			new Object[] { 
+				username, 
+				startDay.toString(), 
+				endDay.toString() };
+		
+		try {
+			return getJdbcTemplate().query(
+				SQL_GET_MODE_ROLLUPS,
+				parameters,
+				new RowMapper<MobilityModeRollup>() {
+					/**
+					 * Creates each rollup.
+					 */
+					@Override
+					public MobilityModeRollup mapRow(
+							final ResultSet rs,
+							final int rowNum)
+							throws SQLException {
+						
+						try {
+							return new MobilityModeRollup(
+								new LocalDate(rs.getString("day")),
+								Mode.valueOf(
+									rs.getString("mode").toUpperCase()),
+								rs.getLong("duration"),
+								rs.getLong("count"),
+								rs.getLong("first_time"),
+								rs.getLong("last_time"));
+						}
+						catch(IllegalArgumentException e) {
+							throw new SQLException(
+								"The mode is unknown.",
+								e);
+						}
+						catch(DomainException e) {
+							throw new SQLException(
+								"Error building the MobilityModeRollup object. This suggests malformed data in the database.", 
+								e);
+						}
+					}
+				});
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					SQL_GET_MODE_ROLLUPS +
+					"' with parameters: " +
+					username + ", " +
+					startDay.toString() + ", " +
+					endDay.toString(),
+				e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.ohmage.query.IUserMobilityQueries#computeModeRollups(java.lang.String, org.joda.time.LocalDate, long, long)
+	 */
+	@Override
+	public List<MobilityModeRollup> computeModeRollups(
+			final String username,
+			final LocalDate day,
+			final long startTime,
+			final long endTime)
+			throws DataAccessException {
+		
+		long dayStart = 
+			day.toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+		Object[] parameters = 
+			new Object[] { 
+				username, 
+				dayStart, 
+				dayStart + MILLIS_PER_DAY,
+				startTime,
+				endTime };
+		
+		MobilityModeRollup.Builder builder =
+			new MobilityModeRollup.Builder(day);
+		try {
+			addPoints(
+				SQL_GET_MOBILITY_STREAM_DATA_FOR_PARTIAL_ROLLUP,
+				parameters,
+				builder);
+		}
+		catch(org.springframework.dao.DataAccessException e) {
+			throw new DataAccessException(
+				"Error executing SQL '" +
+					SQL_GET_MOBILITY_STREAM_DATA_FOR_PARTIAL_ROLLUP +
+					"' with parameters: " +
+					username + ", " +
+					dayStart + ", " +
+					(dayStart + MILLIS_PER_DAY) + ", " +
+					startTime + ", " +
+					endTime,
+				e);
+		}
+		
+		return builder.build();
+	}
+	
+	/**
+	 * Reads Mobility points in chronological order and adds each to a 
+	 * builder as it is read. Points without a valid mode cannot be 
+	 * aggregated, so they are skipped.
+	 * 
+	 * @param sql The SQL that selects each point's time and data.
+	 * 
+	 * @param parameters The SQL's parameters.
+	 * 
+	 * @param builder The builder.
+	 * 
+	 * @throws org.springframework.dao.DataAccessException There was an 
+	 * 													   error.
+	 */
+	private void addPoints(
+			final String sql,
+			final Object[] parameters,
+			final MobilityModeRollup.Builder builder) {
+		
+		getJdbcTemplate().query(
+			sql,
+			parameters,
+			new RowCallbackHandler() {
+				/**
+				 * Adds each point to the rollups as it is read.
+				 */
+				@Override
+				public void processRow(
+						final ResultSet rs)
+						throws SQLException {
+					
+					Mode mode;
+					try {
+						mode =
+							Mode.valueOf(
+								new JSONObject(rs.getString("data"))
+									.getString("mode")
+									.toUpperCase());
+						
+						builder.addPoint(rs.getLong("time"), mode);
+					}
+					catch(JSONException e) {
+						return;
+					}
+					catch(IllegalArgumentException e) {
+						return;
+					}
+					catch(DomainException e) {
+						return;
+					}
+				}
+			});
+	}
 }
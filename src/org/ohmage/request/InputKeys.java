@@ -169,6 +169,7 @@ public final class InputKeys {
 	public static final String DESCRIPTION = "description";
 	public static final String NUM_TO_SKIP = "num_to_skip";
 	public static final String NUM_TO_RETURN = "num_to_return";
+	public static final String CURSOR = "cursor";
 	public static final String CAPTCHA_CHALLENGE = "recaptcha_challenge_field";
 	public static final String CAPTCHA_RESPONSE = "recaptcha_response_field";
 	public static final String REDIRECT = "redirect";
@@ -40,6 +40,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.domain.UploadedFile;
+import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.jee.filter.GzipFilter;
@@ -552,6 +554,62 @@ public abstract class Request {
 	 * 								 size for a single value.
 	 */
 	protected byte[] getMultipartValue(HttpServletRequest httpRequest, String key) throws ValidationException {
+		InputStream partInputStream = 
+			getMultipartInputStream(httpRequest, key);
+		if(partInputStream == null) {
+			return null;
+		}
+		
+		try {
+			// Parse the data.
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			byte[] chunk = new byte[4096];
+			int amountRead;
+			while((amountRead = partInputStream.read(chunk)) != -1) {
+				outputStream.write(chunk, 0, amountRead);
+			}
+			
+			if(outputStream.size() == 0) {
+				return null;
+			}
+			else {
+				return outputStream.toByteArray();
+			}
+		}
+		catch(IOException e) {
+			LOGGER
+				.info("There was a problem with the zipping of the data.", e);
+			throw
+				new ValidationException(
+					ErrorCode.SERVER_INVALID_GZIP_DATA,
+					"The zipped data was not valid zip data.",
+					e);
+		}
+	}
+	
+	/**
+	 * Returns a stream over the value of a part in a "multipart/form-data"
+	 * request without reading it into memory. If the part is GZIP'd, the
+	 * stream will decompress it as it is read. The stream is only valid for
+	 * the lifetime of the request.
+	 * 
+	 * @param httpRequest A "multipart/form-data" request that contains the 
+	 * 					  parameter that has a key value 'key'.
+	 * 
+	 * @param key The key for the value we are after in the 'httpRequest'.
+	 * 
+	 * @return Returns null if there is no such key in the request. Otherwise,
+	 * 		   it returns a stream over the value associated with the key.
+	 * 
+	 * @throws ValidationException Thrown if the 'httpRequest' is not a
+	 * 							   "multipart/form-data" request or if the
+	 * 							   part claims to be GZIP'd but is not.
+	 */
+	protected InputStream getMultipartInputStream(
+			final HttpServletRequest httpRequest,
+			final String key)
+			throws ValidationException {
+		
 		try {
 			Part part = httpRequest.getPart(key);
 			if(part == null) {
@@ -568,20 +626,7 @@ public abstract class Request {
 				partInputStream = new GZIPInputStream(partInputStream);
 			}
 			
-			// Parse the data.
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			byte[] chunk = new byte[4096];
-			int amountRead;
-			while((amountRead = partInputStream.read(chunk)) != -1) {
-				outputStream.write(chunk, 0, amountRead);
-			}
-			
-			if(outputStream.size() == 0) {
-				return null;
-			}
-			else {
-				return outputStream.toByteArray();
-			}
+			return partInputStream;
 		}
 		catch(ServletException e) {
 			LOGGER.error("This is not a multipart/form-data POST.", e);
@@ -599,6 +644,70 @@ public abstract class Request {
 		}
 	}
 	
+	/**
+	 * Streams the value of a part in a "multipart/form-data" request to a
+	 * temporary file without reading it into memory. If the part is GZIP'd,
+	 * it is decompressed as it is written.
+	 * 
+	 * @param httpRequest A "multipart/form-data" request that contains the 
+	 * 					  parameter that has a key value 'key'.
+	 * 
+	 * @param key The key for the value we are after in the 'httpRequest'.
+	 * 
+	 * @param suffix The suffix for the temporary file's name, which may be
+	 * 				 null.
+	 * 
+	 * @param maxSize The maximum size of the value in bytes after it has been
+	 * 				  decompressed.
+	 * 
+	 * @return Returns null if there is no such key in the request or if the
+	 * 		   value is empty. Otherwise, it returns the uploaded file, which
+	 * 		   the caller must delete once it is no longer needed.
+	 * 
+	 * @throws ValidationException Thrown if the 'httpRequest' is not a
+	 * 							   "multipart/form-data" request, if the part
+	 * 							   claims to be GZIP'd but is not, if the
+	 * 							   value is too large, or if the temporary
+	 * 							   file could not be written.
+	 */
+	protected UploadedFile getMultipartFile(
+			final HttpServletRequest httpRequest,
+			final String key,
+			final String suffix,
+			final long maxSize)
+			throws ValidationException {
+		
+		InputStream partInputStream = 
+			getMultipartInputStream(httpRequest, key);
+		if(partInputStream == null) {
+			return null;
+		}
+		
+		try {
+			return UploadedFile.create(partInputStream, suffix, maxSize);
+		}
+		catch(DomainException e) {
+			throw new ValidationException(e);
+		}
+		catch(IOException e) {
+			LOGGER
+				.info("There was a problem with the zipping of the data.", e);
+			throw
+				new ValidationException(
+					ErrorCode.SERVER_INVALID_GZIP_DATA,
+					"The zipped data was not valid zip data.",
+					e);
+		}
+		finally {
+			try {
+				partInputStream.close();
+			}
+			catch(IOException e) {
+				LOGGER.warn("Could not close the part's stream.", e);
+			}
+		}
+	}
+	
 	/**
 	 * Sets the response headers to disallow client caching.
 	 */
@@ -0,0 +1,217 @@
+package org.ohmage.request;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * <p>
+ * Holds part of a response while it is being built, so that it may be
+ * written after the parts that describe it, e.g. a result's meta-data, and
+ * so that nothing is sent if it cannot be built.
+ * </p>
+ *
+ * <p>
+ * Only a small window of the contents is kept in memory. When the window
+ * fills, it is appended to a temporary file, so the memory used does not
+ * depend on the size of the contents.
+ * </p>
+ *
+ * <p>
+ * The buffer must be {@link #close() closed} once it is no longer needed,
+ * which deletes the temporary file.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ResponseBuffer {
+	/**
+	 * The prefix for the temporary files' names.
+	 */
+	private static final String FILE_PREFIX = "ohmage-response-";
+
+	/**
+	 * The number of characters held in memory before they are written to the
+	 * file.
+	 */
+	private static final int MAX_BUFFERED_CHARS = 1024 * 64;
+
+	/**
+	 * The encoding of the file.
+	 */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private final StringBuilder buffer = new StringBuilder();
+
+	private File file = null;
+	private Writer fileWriter = null;
+
+	/**
+	 * The writer that appends to this buffer. Closing it does nothing, so it
+	 * may be given to a generator that closes its target.
+	 */
+	private final Writer writer = new Writer() {
+		@Override
+		public void write(
+			final char[] cbuf,
+			final int off,
+			final int len)
+			throws IOException {
+
+			bufferChars(cbuf, off, len);
+		}
+
+		@Override
+		public void flush() {
+			// Everything is flushed when it is read back.
+		}
+
+		@Override
+		public void close() {
+			// The buffer is closed by its owner.
+		}
+	};
+
+	/**
+	 * Returns a writer that appends to this buffer.
+	 *
+	 * @return The writer.
+	 */
+	public Writer getWriter() {
+		return writer;
+	}
+
+	/**
+	 * Writes the contents to a writer.
+	 *
+	 * @param target
+	 *        The writer to write to.
+	 *
+	 * @throws IOException
+	 *         The contents could not be read from the file or written to the
+	 *         writer.
+	 */
+	public void writeTo(final Writer target) throws IOException {
+		if(fileWriter != null) {
+			fileWriter.flush();
+
+			Reader reader =
+				new InputStreamReader(new FileInputStream(file), CHARSET);
+			try {
+				int amountRead;
+				char[] chars = new char[MAX_BUFFERED_CHARS];
+				while((amountRead = reader.read(chars)) != -1) {
+					target.write(chars, 0, amountRead);
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+
+		target.write(buffer.toString());
+	}
+
+	/**
+	 * Writes the contents to a generator as raw JSON, without changing the
+	 * generator's state. The contents should be a single, complete value,
+	 * and the generator must be at a point where a value is expected.
+	 *
+	 * @param generator
+	 *        The generator to write to.
+	 *
+	 * @throws IOException
+	 *         The contents could not be read from the file or written to the
+	 *         generator.
+	 */
+	public void writeTo(final JsonGenerator generator) throws IOException {
+		// Write nothing as a value, so that the generator knows a value was
+		// written, and then write the contents as they are.
+		generator.writeRawValue("");
+		writeTo(
+			new Writer() {
+				@Override
+				public void write(
+					final char[] cbuf,
+					final int off,
+					final int len)
+					throws IOException {
+
+					generator.writeRaw(cbuf, off, len);
+				}
+
+				@Override
+				public void flush() {
+					// The generator is flushed by its owner.
+				}
+
+				@Override
+				public void close() {
+					// The generator is closed by its owner.
+				}
+			});
+	}
+
+	/**
+	 * Closes and deletes the temporary file, if one was created.
+	 */
+	public void close() {
+		if(fileWriter != null) {
+			try {
+				fileWriter.close();
+			}
+			catch(IOException e) {
+				// The file is being deleted anyway.
+			}
+			fileWriter = null;
+		}
+		if(file != null) {
+			file.delete();
+			file = null;
+		}
+	}
+
+	/**
+	 * Appends characters to the window and writes the window to the file if
+	 * it is full.
+	 *
+	 * @param chars
+	 *        The characters.
+	 *
+	 * @param offset
+	 *        The index of the first character to append.
+	 *
+	 * @param length
+	 *        The number of characters to append.
+	 *
+	 * @throws IOException
+	 *         The file could not be created or written.
+	 */
+	private void bufferChars(
+		final char[] chars,
+		final int offset,
+		final int length)
+		throws IOException {
+
+		buffer.append(chars, offset, length);
+		if(buffer.length() < MAX_BUFFERED_CHARS) {
+			return;
+		}
+
+		if(fileWriter == null) {
+			file = File.createTempFile(FILE_PREFIX, ".tmp");
+			fileWriter =
+				new OutputStreamWriter(new FileOutputStream(file), CHARSET);
+		}
+		fileWriter.write(buffer.toString());
+		buffer.setLength(0);
+	}
+}
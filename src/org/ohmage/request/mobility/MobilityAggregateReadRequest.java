@@ -1,36 +1,33 @@
 package org.ohmage.request.mobility;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.ohmage.annotator.Annotator;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.cache.PreferenceCache;
-import org.ohmage.domain.DataStream;
+import org.ohmage.domain.MobilityModeRollup;
 import org.ohmage.domain.MobilityPoint;
-import org.ohmage.domain.MobilityPoint.SubType;
 import org.ohmage.exception.CacheMissException;
-import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.UserRequest;
-import org.ohmage.request.observer.StreamReadRequest;
 import org.ohmage.service.MobilityServices;
 import org.ohmage.service.UserClassServices;
 import org.ohmage.service.UserServices;
@@ -90,14 +87,11 @@ public class MobilityAggregateReadRequest extends UserRequest {
 			Logger.getLogger(MobilityAggregateReadRequest.class);
 	
 	private final DateTime startDate;
-	//private final DateTime endDate;
+	private final DateTime endDate;
 	private final Long duration;
 	private final String username;
 	
-	private final StreamReadRequest regularReadRequest;
-	private final StreamReadRequest extendedReadRequest;
-	
-	private List<MobilityPoint> points;
+	private List<MobilityModeRollup> rollups;
 	
 	/**
 	 * Creates a new Mobility aggregate read request.
@@ -116,13 +110,10 @@ public class MobilityAggregateReadRequest extends UserRequest {
 		super(httpRequest, false, TokenLocation.EITHER, null);
 
 		DateTime tStartDate = null;
-		//DateTime tEndDate = null;
+		DateTime tEndDate = null;
 		Long tDuration = null;
 		String tUsername = null;
 		
-		StreamReadRequest tRegularReadRequest = null;
-		StreamReadRequest tExtendedReadRequest = null;
-		
 		if(! isFailed()) {
 			LOGGER.info("Creating a Mobility aggregate read request.");
 			String[] t;
@@ -204,51 +195,7 @@ public class MobilityAggregateReadRequest extends UserRequest {
 					tUsername = UserValidators.validateUsername(t[0]);
 				}
 				
-				// Always get all of the columns.
-				try {
-					tRegularReadRequest = 
-						new StreamReadRequest(
-							httpRequest,
-							getParameterMap(),
-							false,
-							TokenLocation.EITHER,
-							false,
-							tUsername,
-							"edu.ucla.cens.Mobility",
-							null,
-							"regular",
-							2012050700,
-							tStartDate,
-							endDate,
-							null,
-							true,
-							null,
-							Long.MAX_VALUE);
-					
-					tExtendedReadRequest = 
-						new StreamReadRequest(
-							httpRequest,
-							getParameterMap(),
-							false,
-							TokenLocation.EITHER,
-							false,
-							tUsername,
-							"edu.ucla.cens.Mobility",
-							null,
-							"extended",
-							2012050700,
-							tStartDate,
-							endDate,
-							null,
-							true,
-							null,
-							Long.MAX_VALUE);
-				}
-				catch(IllegalArgumentException e) {
-					throw new ValidationException(
-						"There was an error creating the request.",
-						e);
-				}
+				tEndDate = endDate;
 			}
 			catch(ValidationException e) {
 				e.failRequest(this);
@@ -257,14 +204,11 @@ public class MobilityAggregateReadRequest extends UserRequest {
 		}
 		
 		startDate = tStartDate;
-		//endDate = tEndDate;
+		endDate = tEndDate;
 		duration = tDuration;
 		username = tUsername;
 		
-		regularReadRequest = tRegularReadRequest;
-		extendedReadRequest = tExtendedReadRequest;
-		
-		points = new ArrayList<MobilityPoint>(); 
+		rollups = Collections.emptyList();
 	}
 
 	/*
@@ -273,13 +217,12 @@ public class MobilityAggregateReadRequest extends UserRequest {
 	 */
 	@Override
 	public void service() {
-		// If any of the sub-requests have failed, then return.
-		if(regularReadRequest.isFailed() || extendedReadRequest.isFailed()) {
+		LOGGER.info("Servicing the Mobility aggregate read request.");
+		
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
 			return;
 		}
 		
-		LOGGER.info("Servicing the Mobility read request.");
-		
 		try {
 			if((username != null) && (! username.equals(getUser().getUsername()))) {
 				try {
@@ -318,67 +261,14 @@ public class MobilityAggregateReadRequest extends UserRequest {
 				}
 			}
 			
-			// Service the read requests.
-			regularReadRequest.service();
-			if(regularReadRequest.isFailed()) {
-				Annotator annotator = regularReadRequest.getAnnotator();
-				throw
-					new ServiceException(
-						annotator.getErrorCode(),
-						annotator.getErrorText());
-			}
-			extendedReadRequest.service();
-			if(extendedReadRequest.isFailed()) {
-				Annotator annotator = extendedReadRequest.getAnnotator();
-				throw
-					new ServiceException(
-						annotator.getErrorCode(),
-						annotator.getErrorText());
-			}
-			
-			LOGGER.info("Aggregating the resulting points.");
-			Collection<DataStream> regularResults = 
-				regularReadRequest.getResults();
-			for(DataStream dataStream : regularResults) {
-				try {
-					points.add(
-						new MobilityPoint(
-							dataStream, 
-							SubType.MODE_ONLY,
-							MobilityPoint.PrivacyState.PRIVATE));
-				}
-				catch(DomainException e) {
-					throw new ServiceException(
-						"One of the points was invalid.",
-						e);
-				}
-			}
-
-			Collection<DataStream> extendedResults = 
-				extendedReadRequest.getResults();
-			for(DataStream dataStream : extendedResults) {
-				try {
-					points.add(
-						new MobilityPoint(
-							dataStream, 
-							SubType.SENSOR_DATA,
-							MobilityPoint.PrivacyState.PRIVATE));
-				}
-				catch(DomainException e) {
-					throw new ServiceException(
-						"One of the points was invalid.",
-						e);
-				}
-			}
-			
-			LOGGER.info("Sorting the aggregated points.");
-			Collections.sort(points);
+			String requestee = 
+				(username == null) ? getUser().getUsername() : username;
 			
-			// Run them through the classifier.
-			LOGGER.info("Classifying the points.");
-			MobilityServices.instance().classifyData(
-				regularReadRequest.getUser().getUsername(),
-				points);
+			LOGGER.info("Gathering the Mobility mode rollups.");
+			rollups = 
+				MobilityServices
+					.instance()
+					.getModeRollups(requestee, startDate, endDate);
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -399,52 +289,28 @@ public class MobilityAggregateReadRequest extends UserRequest {
 		
 		if(! isFailed()) {
 			try {
-				// Get the "day value" or "bucket number" for the start date.
-				int startYear = startDate.getYear() - 1;
-				int startBucketNum =
-					(startYear * 365) + (startYear / 4) - (startYear / 100) + (startYear / 400);
-				startBucketNum += startDate.getDayOfYear();
-				
-				// Bucket the data based on its duration. The first bucket begins at 
-				// the start date not at the earliest point.
-				Map<Long, List<MobilityPoint>> buckets = 
-						new HashMap<Long, List<MobilityPoint>>();
-				for(MobilityPoint mobilityPoint : points) {
-					// Get the point's date and time.
-					DateTime pointDateTime = mobilityPoint.getDate();
-					
-					// Calculate this points "day value".
-					int year = pointDateTime.getYear() - 1;
-					long bucketNum =
-						(year * 365) + (year / 4) - (year / 100) + (year / 400);
-					bucketNum += pointDateTime.getDayOfYear();
-					
-					// Subtract the starting bucket number to get a  
-					// zero-indexed bucket number.
-					bucketNum -= startBucketNum;
+				// Bucket the rollups by their day. The first bucket begins 
+				// at the start date not at the earliest point.
+				LocalDate startDay = startDate.toLocalDate();
+				Map<Integer, List<MobilityModeRollup>> buckets = 
+					new TreeMap<Integer, List<MobilityModeRollup>>();
+				for(MobilityModeRollup rollup : rollups) {
+					int bucketNum = 
+						(int) (Days.daysBetween(startDay, rollup.getDay())
+							.getDays() / duration);
 					
-					// Figure out the actual bucket number based on the 
-					// duration.
-					bucketNum /= duration;
-					
-					// Add this point to its appropriate bucket.
-					List<MobilityPoint> bucket = 
-						buckets.get(bucketNum);
+					List<MobilityModeRollup> bucket = buckets.get(bucketNum);
 					if(bucket == null) {
-						bucket = new LinkedList<MobilityPoint>();
+						bucket = new LinkedList<MobilityModeRollup>();
 						buckets.put(bucketNum, bucket);
 					}
-					bucket.add(mobilityPoint);
+					bucket.add(rollup);
 				}
 				
 				JSONArray result = new JSONArray();
 				
 				// Parse each bucket.
-				for(Long bucketNum : buckets.keySet()) {
-					// Get the buckets.
-					List<MobilityPoint> mobilityPoints = 
-							buckets.get(bucketNum);
-					
+				for(Integer bucketNum : buckets.keySet()) {
 					// Create a map to hold the mode to duration times.
 					JSONObject currResult = new JSONObject();
 					result.put(currResult);
@@ -462,56 +328,57 @@ public class MobilityAggregateReadRequest extends UserRequest {
 					JSONArray data = new JSONArray();
 					currResult.put(JSON_KEY_DATA, data);
 					
-					Map<MobilityPoint.Mode, JSONObject> modeToObjectMap =
-							new HashMap<MobilityPoint.Mode, JSONObject>();
+					// Sum the time in each mode, in the order in which the 
+					// modes first appeared.
+					Map<MobilityPoint.Mode, Long> modeDurations = 
+						new LinkedHashMap<MobilityPoint.Mode, Long>();
 					
-					// Go from point to point looking backwards to determine 
-					// how much time should be added to this mode.
-					MobilityPoint previousPoint = null;
-					for(MobilityPoint mobilityPoint : mobilityPoints) {
-						// Get this point's mode.
-						MobilityPoint.Mode mode = mobilityPoint.getMode();
+					LocalDate previousDay = null;
+					Long previousLastTime = null;
+					Long lastTime = null;
+					for(MobilityModeRollup rollup : buckets.get(bucketNum)) {
+						long modeDuration = rollup.getDuration();
 						
-						// Retrieve the mode/duration JSONObject for this chunk
-						// and mode or create it with an initial duration of 0 
-						// if it doesn't exist.
-						JSONObject modeDurationObject = 
-								modeToObjectMap.get(mode);
-						if(modeDurationObject == null) {
-							modeDurationObject = new JSONObject();
-							modeDurationObject.put(
-									JSON_KEY_MODE, 
-									mode.toString().toLowerCase());
-							modeDurationObject.put(JSON_KEY_DURATION, 0);
+						// The first point of each day counted for the 
+						// default time, but if the previous day's last point
+						// was close enough, it counts for the time since 
+						// that point instead.
+						if(! rollup.getDay().equals(previousDay)) {
+							previousDay = rollup.getDay();
+							previousLastTime = lastTime;
 							
-							data.put(modeDurationObject);
-							modeToObjectMap.put(mode, modeDurationObject);
-						}
-						
-						// Get the current duration.
-						long duration = 
-								modeDurationObject.getLong(JSON_KEY_DURATION);
-						
-						// Compute the additional duration for this mode.
-						long additionalDuration;
-						if(previousPoint == null) {
-							additionalDuration = 60000;
+							if(previousLastTime != null) {
+								modeDuration +=
+									MobilityModeRollup.getPointDuration(
+										previousLastTime,
+										rollup.getFirstTime()) -
+									MobilityModeRollup.DEFAULT_POINT_DURATION;
+							}
 						}
-						else {
-							long difference = 
-									mobilityPoint.getDate().getMillis() - 
-									previousPoint.getDate().getMillis();
+						if((lastTime == null) || 
+							(rollup.getLastTime() > lastTime)) {
 							
-							additionalDuration = 
-								(difference <= 360000) ? difference : 60000;
+							lastTime = rollup.getLastTime();
 						}
 						
-						// Update the duration with the additional duration.
+						Long currDuration = modeDurations.get(rollup.getMode());
+						modeDurations.put(
+							rollup.getMode(),
+							(currDuration == null) ?
+								modeDuration :
+								currDuration + modeDuration);
+					}
+					
+					for(MobilityPoint.Mode mode : modeDurations.keySet()) {
+						JSONObject modeDurationObject = new JSONObject();
+						modeDurationObject.put(
+							JSON_KEY_MODE, 
+							mode.toString().toLowerCase());
 						modeDurationObject.put(
-								JSON_KEY_DURATION, 
-								duration + additionalDuration);
+							JSON_KEY_DURATION, 
+							modeDurations.get(mode));
 						
-						previousPoint = mobilityPoint;
+						data.put(modeDurationObject);
 					}
 				}
 				
@@ -25,9 +25,10 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
@@ -39,16 +40,18 @@ import org.ohmage.domain.Location.LocationColumnKey;
 import org.ohmage.domain.MobilityPoint;
 import org.ohmage.domain.MobilityPoint.MobilityColumnKey;
 import org.ohmage.domain.MobilityPoint.SubType;
+import org.ohmage.domain.Observer.Stream;
 import org.ohmage.exception.CacheMissException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
-import org.ohmage.request.Request;
-import org.ohmage.request.UserRequest.TokenLocation;
+import org.ohmage.request.UserRequest;
 import org.ohmage.request.observer.StreamReadRequest;
 import org.ohmage.service.MobilityServices;
+import org.ohmage.service.ObserverServices;
+import org.ohmage.service.ObserverServices.MergedStreamData;
 import org.ohmage.service.UserClassServices;
 import org.ohmage.service.UserServices;
 import org.ohmage.util.StringUtils;
@@ -100,9 +103,26 @@ import org.ohmage.validator.UserValidators;
  * 
  * @author John Jenkins
  */
-public class MobilityReadRequest extends Request {
+public class MobilityReadRequest extends UserRequest {
 	private static final Logger LOGGER = Logger.getLogger(MobilityReadRequest.class);
 	
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	
+	/**
+	 * The Mobility observer's stream that contains the mode-only points.
+	 */
+	private static final String REGULAR_STREAM_ID = "regular";
+	
+	/**
+	 * The Mobility observer's stream that contains the sensor data points.
+	 */
+	private static final String EXTENDED_STREAM_ID = "extended";
+	
+	/**
+	 * The version of the Mobility observer's streams.
+	 */
+	private static final long STREAM_VERSION = 2012050700;
+	
 	private static final Collection<ColumnKey> DEFAULT_COLUMNS;
 	static {
 		Collection<ColumnKey> columnKeys = new ArrayList<ColumnKey>();
@@ -127,11 +147,9 @@ public class MobilityReadRequest extends Request {
 	private final String username;
 	private final DateTime startDate;
 	
-	private final StreamReadRequest regularReadRequest;
-	private final StreamReadRequest extendedReadRequest;
-	
 	private final Collection<ColumnKey> columns;
-	private final List<MobilityPoint> points;
+	
+	private MergedStreamData data = null;
 	
 	/**
 	 * Creates a Mobility read request.
@@ -145,16 +163,13 @@ public class MobilityReadRequest extends Request {
 	 * @throws IOException There was an error reading from the request.
 	 */
 	public MobilityReadRequest(HttpServletRequest httpRequest) throws IOException, InvalidRequestException {
-		super(httpRequest, null);
+		super(httpRequest, false, TokenLocation.EITHER, null);
 		
 		LOGGER.info("Creating a Mobility read request.");
 		
 		String tUsername = null;
 		DateTime tStartDate = null;
 		
-		StreamReadRequest tRegularReadRequest = null;
-		StreamReadRequest tExtendedReadRequest = null;
-		
 		Collection<ColumnKey> tColumns = null;
 		
 		if(! isFailed()) {
@@ -249,52 +264,6 @@ public class MobilityReadRequest extends Request {
 				else if(t.length == 1) {
 					tUsername = UserValidators.validateUsername(t[0]);
 				}
-				
-				// Always get all of the columns.
-				try {
-					tRegularReadRequest = 
-						new StreamReadRequest(
-							httpRequest,
-							getParameterMap(),
-							false,
-							TokenLocation.EITHER,
-							false,
-							tUsername,
-							"edu.ucla.cens.Mobility",
-							null,
-							"regular",
-							2012050700,
-							tStartDate.minusMinutes(10),
-							tStartDate.plusDays(1),
-							null,
-							true,
-							null,
-							null);
-					
-					tExtendedReadRequest = 
-						new StreamReadRequest(
-							httpRequest,
-							getParameterMap(),
-							false,
-							TokenLocation.EITHER,
-							false,
-							tUsername,
-							"edu.ucla.cens.Mobility",
-							null,
-							"extended",
-							2012050700,
-							tStartDate.minusMinutes(10),
-							tStartDate.plusDays(1),
-							null,
-							true,
-							null,
-							null);
-				}
-				catch(IllegalArgumentException e) {
-					throw new ValidationException(
-						"There was an error creating the request.",
-						e);
-				}
 			}
 			catch(ValidationException e) {
 				e.failRequest(this);
@@ -305,11 +274,7 @@ public class MobilityReadRequest extends Request {
 		username = tUsername;
 		startDate = tStartDate;
 		
-		regularReadRequest = tRegularReadRequest;
-		extendedReadRequest = tExtendedReadRequest;
-		
 		columns = tColumns;
-		points = new ArrayList<MobilityPoint>();
 	}
 
 	/**
@@ -317,19 +282,18 @@ public class MobilityReadRequest extends Request {
 	 */
 	@Override
 	public void service() {
-		// If any of the sub-requests have failed, then return.
-		if(regularReadRequest.isFailed() || extendedReadRequest.isFailed()) {
+		LOGGER.info("Servicing the Mobility read request.");
+		
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
 			return;
 		}
 		
-		LOGGER.info("Servicing the Mobility read request.");
-		
 		try {
-			if((username != null) && (! username.equals(regularReadRequest.getUser().getUsername()))) {
+			if((username != null) && (! username.equals(getUser().getUsername()))) {
 				try {
 					LOGGER.info("Checking if the user is an admin.");
 					UserServices.instance().verifyUserIsAdmin(
-						regularReadRequest.getUser().getUsername());
+						getUser().getUsername());
 				}
 				catch(ServiceException notAdmin) {
 					LOGGER.info("The user is not an admin.");
@@ -353,7 +317,7 @@ public class MobilityReadRequest extends Request {
 						UserClassServices
 							.instance()
 							.userIsPrivilegedInAnotherUserClass(
-								regularReadRequest.getUser().getUsername(), 
+								getUser().getUsername(), 
 								username);
 					}
 					else {
@@ -364,87 +328,34 @@ public class MobilityReadRequest extends Request {
 				}
 			}
 			
-			// Service the read requests.
-			regularReadRequest.service();
-			if(regularReadRequest.isFailed()) {
-				return;
-			}
-			extendedReadRequest.service();
-			if(extendedReadRequest.isFailed()) {
-				return;
-			}
-			
-			LOGGER.info("Aggregating the resulting points.");
-			Collection<DataStream> regularResults = 
-				regularReadRequest.getResults();
-			for(DataStream dataStream : regularResults) {
-				MetaData metaData = dataStream.getMetaData();
-				if(metaData == null) {
-					LOGGER.info("A Mobility point is missing meta-data.");
-					continue;
-				}
-				
-				DateTime timestamp = metaData.getTimestamp();
-				if(timestamp == null) {
-					LOGGER.info(
-						"A Mobility point is missing a timestamp: " +
-							metaData.getId());
-					continue;
-				}
+			LOGGER.info("Retrieving the stream definitions.");
+			List<Stream> streams = new ArrayList<Stream>(2);
+			for(String streamId : 
+				new String[] { REGULAR_STREAM_ID, EXTENDED_STREAM_ID }) {
 				
-				try {
-					points.add(
-						new MobilityPoint(
-							dataStream, 
-							SubType.MODE_ONLY,
-							MobilityPoint.PrivacyState.PRIVATE));
-				}
-				catch(DomainException e) {
-					throw new ServiceException(
-						"One of the points was invalid.",
-						e);
+				Stream stream =
+					ObserverServices.instance().getStream(
+						MobilityServices.MOBILITY_OBSERVER_ID,
+						streamId,
+						STREAM_VERSION);
+				if(stream != null) {
+					streams.add(stream);
 				}
 			}
-
-			Collection<DataStream> extendedResults = 
-				extendedReadRequest.getResults();
-			for(DataStream dataStream : extendedResults) {
-				MetaData metaData = dataStream.getMetaData();
-				if(metaData == null) {
-					LOGGER.info("A Mobility point is missing meta-data.");
-					continue;
-				}
-				
-				DateTime timestamp = metaData.getTimestamp();
-				if(timestamp == null) {
-					LOGGER.info(
-						"A Mobility point is missing a timestamp: " +
-							metaData.getId());
-					continue;
-				}
-				
-				try {
-					points.add(
-						new MobilityPoint(
-							dataStream, 
-							SubType.SENSOR_DATA,
-							MobilityPoint.PrivacyState.PRIVATE));
-				}
-				catch(DomainException e) {
-					throw new ServiceException(
-						"One of the points was invalid.",
-						e);
-				}
-			}
-			
-			LOGGER.info("Sorting the aggregated points.");
-			Collections.sort(points);
 			
-			// Run them through the classifier.
-			LOGGER.info("Classifying the points.");
-			MobilityServices.instance().classifyData(
-				regularReadRequest.getUser().getUsername(),
-				points);
+			// Both streams are read at the same time and merged as the
+			// response is written. The points from the 10 minutes before 
+			// the day are only used to classify the day's first points.
+			LOGGER.info("Reading the streams.");
+			data =
+				ObserverServices.instance().mergeStreamData(
+					streams,
+					(username == null) ? getUser().getUsername() : username,
+					MobilityServices.MOBILITY_OBSERVER_ID,
+					null,
+					startDate.minusMinutes(10),
+					startDate.plusDays(1),
+					StreamReadRequest.MAX_NUMBER_TO_RETURN);
 		}
 		catch(ServiceException e) {
 			e.failRequest(this);
@@ -460,35 +371,148 @@ public class MobilityReadRequest extends Request {
 		LOGGER.info("Responding to the Mobiltiy read request.");
 
 		if(isFailed()) {
-			super.respond(httpRequest, httpResponse, null);
-		}
-		else if(regularReadRequest.isFailed()) {
-			regularReadRequest.respond(httpRequest, httpResponse);
-		}
-		else if(extendedReadRequest.isFailed()) {
-			extendedReadRequest.respond(httpRequest, httpResponse);
+			if(data != null) {
+				data.close();
+			}
+			super.respond(httpRequest, httpResponse, (JSONObject) null);
+			return;
 		}
 		
-		JSONObject resultObject = new JSONObject();
+		// Refresh the token cookie.
+		refreshTokenCookie(httpResponse);
+		
+		// Expire the response, but this may be a bad idea.
+		expireResponse(httpResponse);
+		
+		// Set the content type to JSON.
+		httpResponse.setContentType("application/json");
+		
+		JsonGenerator generator = null;
 		try {
-			JSONArray resultArray = new JSONArray();
-			long startDateMillis = startDate.getMillis();
-			for(MobilityPoint mobilityPoint : points) {
-				if((mobilityPoint.getTime() + mobilityPoint.getTimezone().getOffset(mobilityPoint.getTime()))>= startDateMillis) {
-					resultArray.put(mobilityPoint.toJson(true, columns));
-				}
-			}
-			resultObject.put(JSON_KEY_DATA, resultArray);
+			generator = 
+				JSON_FACTORY.createJsonGenerator(
+					getOutputStream(httpRequest, httpResponse));
+			
+			generator.writeStartObject();
+			generator.writeStringField(JSON_KEY_RESULT, RESULT_SUCCESS);
+			
+			// Write each point as it is merged.
+			generator.writeArrayFieldStart(JSON_KEY_DATA);
+			long numPoints = writePoints(generator);
+			generator.writeEndArray();
+			
+			generator.writeEndObject();
+			LOGGER.info("Returned " + numPoints + " points.");
+		}
+		catch(IOException e) {
+			LOGGER.info(
+				"The response could no longer be written to the response",
+				e);
+			httpResponse.setStatus(
+				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 		}
 		catch(JSONException e) {
 			LOGGER.error("Error creating the JSONObject.", e);
-			setFailed();
+			httpResponse.setStatus(
+				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 		}
 		catch(DomainException e) {
 			LOGGER.error("Error creating the JSONObject.", e);
-			setFailed();
+			httpResponse.setStatus(
+				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 		}
-
-		super.respond(httpRequest, httpResponse, resultObject);
+		catch(ServiceException e) {
+			// The response has already been started, so the best that can be
+			// done is to record the failure and truncate the response.
+			e.failRequest(this);
+			e.logException(LOGGER);
+			httpResponse.setStatus(
+				HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+		finally {
+			data.close();
+			
+			if(generator != null) {
+				try {
+					generator.close();
+				}
+				catch(IOException e) {
+					LOGGER.info("Could not close the generator.", e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Classifies each merged point in order and writes the ones on or after
+	 * the start date to the generator. The generator must be at the point 
+	 * where it has an array open.
+	 * 
+	 * @param generator The generator to write to.
+	 * 
+	 * @return The number of points that were written.
+	 * 
+	 * @throws ServiceException A stream could not be read or a point could
+	 * 							not be classified.
+	 * 
+	 * @throws DomainException A point could not be converted to JSON.
+	 * 
+	 * @throws JSONException A point could not be converted to JSON.
+	 * 
+	 * @throws IOException The point could not be written.
+	 */
+	private long writePoints(
+			final JsonGenerator generator)
+			throws ServiceException, DomainException, JSONException, IOException {
+		
+		MobilityServices.PointClassifier classifier = 
+			new MobilityServices.PointClassifier();
+		long startDateMillis = startDate.getMillis();
+		
+		long result = 0;
+		DataStream dataStream;
+		while((dataStream = data.next()) != null) {
+			MetaData metaData = dataStream.getMetaData();
+			if(metaData == null) {
+				LOGGER.info("A Mobility point is missing meta-data.");
+				continue;
+			}
+			
+			DateTime timestamp = metaData.getTimestamp();
+			if(timestamp == null) {
+				LOGGER.info(
+					"A Mobility point is missing a timestamp: " +
+						metaData.getId());
+				continue;
+			}
+			
+			MobilityPoint mobilityPoint;
+			try {
+				mobilityPoint =
+					new MobilityPoint(
+						dataStream, 
+						(EXTENDED_STREAM_ID.equals(
+							dataStream.getStream().getId())) ?
+							SubType.SENSOR_DATA :
+							SubType.MODE_ONLY,
+						MobilityPoint.PrivacyState.PRIVATE);
+			}
+			catch(DomainException e) {
+				throw new ServiceException(
+					"One of the points was invalid.",
+					e);
+			}
+			
+			// Run it through the classifier.
+			classifier.classify(mobilityPoint);
+			
+			if((mobilityPoint.getTime() + mobilityPoint.getTimezone().getOffset(mobilityPoint.getTime()))>= startDateMillis) {
+				generator.writeRawValue(
+					mobilityPoint.toJson(true, columns).toString());
+				result++;
+			}
+		}
+		
+		return result;
 	}
-}
\ No newline at end of file
+}
@@ -19,7 +19,10 @@ import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonGenerator.Feature;
 import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.MappingJsonFactory;
 import org.codehaus.jackson.node.ArrayNode;
 import org.codehaus.jackson.node.ObjectNode;
@@ -32,6 +35,7 @@ import org.ohmage.domain.DataStream;
 import org.ohmage.domain.Location;
 import org.ohmage.domain.Location.LocationColumnKey;
 import org.ohmage.domain.Observer;
+import org.ohmage.domain.StreamReadCursor;
 import org.ohmage.exception.CacheMissException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
@@ -39,6 +43,7 @@ import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.RequestBuilder;
+import org.ohmage.request.ResponseBuffer;
 import org.ohmage.request.UserRequest;
 import org.ohmage.request.omh.OmhReadResponder;
 import org.ohmage.service.ObserverServices;
@@ -113,6 +118,14 @@ import org.ohmage.validator.UserValidators;
  *     <td>false</td>
  *   </tr>
  *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CURSOR}</td>
+ *     <td>The cursor from the meta-data of a previous response. Only the data
+ *       points after the last one in that response will be returned. This is
+ *       the fastest way to page through the data, and the "next" URL will use
+ *       it.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr>
  *     <td>{@value org.ohmage.request.InputKeys#NUM_TO_RETURN}</td>
  *     <td>The number of data points that match the given query that should be
  *       returned after skipping. This is used to facilitate paging.</td>
@@ -301,9 +314,19 @@ public class StreamReadRequest
 	private final long numToSkip;
 	private final long numToReturn;
 	
+	// Optional.
+	private final StreamReadCursor cursor;
+	
 	// The stream created during the servicing of the request.
 	private Observer.Stream stream;
 	
+	// The position of the last point that was read.
+	private StreamReadCursor nextCursor = null;
+	
+	// Whether the data is read while the response is being written instead
+	// of being collected when the request is serviced.
+	private final boolean streamResults;
+	
 	// The collection results from this request.
 	private final List<DataStream> results;
 	
@@ -419,6 +442,9 @@ public class StreamReadRequest
 			this.numToReturn = numToReturn;
 		}
 		
+		this.cursor = null;
+		
+		streamResults = false;
 		results = new LinkedList<DataStream>();
 	}
 	
@@ -449,6 +475,7 @@ public class StreamReadRequest
 		boolean tChronological = true;
 		long tNumToSkip = 0;
 		long tNumToReturn = MAX_NUMBER_TO_RETURN;
+		StreamReadCursor tCursor = null;
 		
 		if(! isFailed()) {
 			LOGGER.info("Creating a stream read request.");
@@ -600,6 +627,17 @@ public class StreamReadRequest
 						ObserverValidators
 							.validateNumToReturn(t[0], MAX_NUMBER_TO_RETURN);
 				}
+				
+				t = getParameterValues(InputKeys.CURSOR);
+				if(t.length > 1) {
+					throw new ValidationException(
+						ErrorCode.OBSERVER_INVALID_CURSOR,
+						"Multiple cursors were given: " + 
+							InputKeys.CURSOR);
+				}
+				else if(t.length == 1) {
+					tCursor = ObserverValidators.validateCursor(t[0]);
+				}
 			}
 			catch(ValidationException e) {
 				e.failRequest(this);
@@ -618,7 +656,9 @@ public class StreamReadRequest
 		chronological = tChronological;
 		numToSkip = tNumToSkip;
 		numToReturn = tNumToReturn;
+		cursor = tCursor;
 		
+		streamResults = true;
 		results = new LinkedList<DataStream>();
 	}
 	
@@ -706,7 +746,14 @@ public class StreamReadRequest
 				return;
 			}
 			
+			// The data will be read as the response is written.
+			if(streamResults) {
+				return;
+			}
+			
 			LOGGER.info("Gathering the data.");
+			StreamReadCursor.Builder nextCursorBuilder =
+				new StreamReadCursor.Builder();
 			results.addAll(
 				ObserverServices.instance().getStreamData(
 					stream,
@@ -716,8 +763,11 @@ public class StreamReadRequest
 					startDate,
 					endDate,
 					chronological,
+					cursor,
 					numToSkip,
-					numToReturn));
+					numToReturn,
+					nextCursorBuilder));
+			nextCursor = nextCursorBuilder.build();
 			LOGGER.info("Returning " + results.size() + " points.");
 		}
 		catch(ServiceException e) {
@@ -741,6 +791,60 @@ public class StreamReadRequest
 			return;
 		}
 		
+		// Read the streamed points before anything is written, so that a
+		// failure may still be reported and the database is not held while
+		// the response is being sent.
+		long count = results.size();
+		ResponseBuffer dataBuffer = null;
+		if(streamResults) {
+			dataBuffer = new ResponseBuffer();
+			try {
+				count = bufferData(dataBuffer);
+			}
+			catch(ServiceException e) {
+				e.failRequest(this);
+				e.logException(LOGGER);
+			}
+			catch(IOException e) {
+				LOGGER.error("The data could not be buffered.", e);
+				setFailed();
+			}
+			
+			if(isFailed()) {
+				dataBuffer.close();
+				super.respond(httpRequest, httpResponse, (JSONObject) null);
+				return;
+			}
+		}
+		
+		try {
+			writeResponse(httpRequest, httpResponse, count, dataBuffer);
+		}
+		finally {
+			if(dataBuffer != null) {
+				dataBuffer.close();
+			}
+		}
+	}
+	
+	/**
+	 * Writes the successful response.
+	 * 
+	 * @param httpRequest The HTTP request.
+	 * 
+	 * @param httpResponse The HTTP response.
+	 * 
+	 * @param count The number of points in the response.
+	 * 
+	 * @param dataBuffer The buffered "data" array if the points were
+	 * 					 streamed, or null if they are in the results.
+	 */
+	private void writeResponse(
+			final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse,
+			final long count,
+			final ResponseBuffer dataBuffer) {
+		
 		// Refresh the token cookie.
 		refreshTokenCookie(httpResponse);
 		
@@ -790,6 +894,7 @@ public class StreamReadRequest
 		 * 		"metadata":{
 		 * 			"count":<A number representing the number of results.>,
 		 * 			"prev":"<The URL for the previous set of results.>",
+		 * 			"cursor":"<The position of the last result.>",
 		 * 			"next":"<The URL for the next set of results.>"
 		 * 		},
 		 * 		"data":[
@@ -800,6 +905,10 @@ public class StreamReadRequest
 		 * 			...
 		 * 		]
 		 * 	}
+		 * 
+		 * When the data is streamed, it is read into a buffer first, so the
+		 * "metadata" object, which needs the count and cursor, still comes
+		 * before the "data" array.
 		 */
 		try {
 			// Start the resulting object.
@@ -808,126 +917,18 @@ public class StreamReadRequest
 			// Add the result to the object.
 			generator.writeObjectField("result", "success");
 			
-			// Add the meta-data.
-			generator.writeObjectFieldStart("metadata");
-			
-			// Add the count to the meta-data.
-			generator.writeNumberField("count", results.size());
-
-			// Get the URL that will be the base for the "previous" and "next"
-			// URLs.
-			StringBuilder prevAndNextUrlBuilder = buildNextAndPrevUrl();
-			
-			// If the number of entries skipped was non-zero, add a previous
-			// pointer.
-			if((prevAndNextUrlBuilder != null) && (numToSkip != 0)) {
-				// Create a copy of the existing string builder.
-				StringBuilder prevUrl = 
-					new StringBuilder(prevAndNextUrlBuilder);
-				
-				// Calculate the number of results to skip and return for the
-				// "previous" URL.
-				long prevNumToSkip = numToSkip - numToReturn - 1;
-				boolean returnNumToSkipAsNumToReturn = false;
-				if(prevNumToSkip < 0) {
-					returnNumToSkipAsNumToReturn = true;
-					prevNumToSkip = 0;
-				}
-				
-				// Add the number of results to skip and return.
-				prevUrl
-					.append('&')
-					.append(InputKeys.NUM_TO_SKIP)
-					.append('=')
-					.append(prevNumToSkip);
-				prevUrl
-					.append('&')
-					.append(InputKeys.NUM_TO_RETURN)
-					.append('=')
-					.append((returnNumToSkipAsNumToReturn) ? numToSkip - 1 : numToReturn);
-				
-				// Add the "previous" URL to the meta-data.
-				generator.writeStringField("previous", prevUrl.toString());
-			}
-			
-			// Generate and add the "next" URL if the number of results is 
-			// to the number requested. The only reason it would be less is if
-			// there weren't that many to return. If there were more than that
-			if((prevAndNextUrlBuilder != null) &&
-				(numToReturn == results.size())) {
-				
-				StringBuilder nextUrl = prevAndNextUrlBuilder;
-				
-				// Calculate the number to skip.
-				long nextNumToSkip = numToSkip + numToReturn;
-				
-				// Add the number of results to skip and return to the "next"
-				// URL.
-				nextUrl
-					.append('&')
-					.append(InputKeys.NUM_TO_SKIP)
-					.append('=')
-					.append(nextNumToSkip);
-				nextUrl
-					.append('&')
-					.append(InputKeys.NUM_TO_RETURN)
-					.append('=')
-					.append(numToReturn);
-				
-				// Add the "next" URL to the meta-data.
-				generator.writeStringField("next", nextUrl.toString());
-			}
-			
-			// End the meta-data.
-			generator.writeEndObject();
+			writeMetaData(generator, count);
 			
 			// Add a "data" key that is an array of the results.
-			generator.writeArrayFieldStart("data");
-			for(DataStream dataStream : results) {
-				// Begin this data stream.
-				generator.writeStartObject();
-				
-				// Write the meta-data.
-				DataStream.MetaData metaData = dataStream.getMetaData();
-				if(metaData != null) {
-					generator.writeObjectFieldStart("metadata");
-					
-					String id = metaData.getId();
-					if(id != null) {
-						generator.writeStringField("id", id);
-					}
-					
-					DateTime timestamp = metaData.getTimestamp();
-					if(timestamp != null) {
-						generator.writeStringField(
-							"timestamp",
-							ISODateTimeFormat.dateTime().print(timestamp));
-					}
-					
-					Location location = metaData.getLocation();
-					if(location != null) {
-						generator.writeObjectFieldStart("location");
-						location.streamJson(
-							generator, 
-							false, 
-							LocationColumnKey.ALL_COLUMNS);
-						generator.writeEndObject();
-					}
-					
-					generator.writeEndObject();
-				}
-				
-				// Write the data.
-				handleGeneric(
-					generator,
-					dataStream.getData(), 
-					columnsRoot, 
-					"data");
-				
-				// End this data stream.
-				generator.writeEndObject();
+			if(dataBuffer != null) {
+				generator.writeFieldName("data");
+				dataBuffer.writeTo(generator);
+			}
+			else {
+				generator.writeArrayFieldStart("data");
+				writeData(generator, columnsRoot);
+				generator.writeEndArray();
 			}
-			generator.writeEndArray();
 			
 			// End the overall object.
 			generator.writeEndObject();
@@ -1079,6 +1080,266 @@ public class StreamReadRequest
 		return result;
 	}
 	
+	/**
+	 * Writes the meta-data for the whole response, which includes the number
+	 * of points and the URLs for the previous and next pages.
+	 * 
+	 * @param generator The generator to write to.
+	 * 
+	 * @param count The number of points in the response.
+	 * 
+	 * @throws JsonGenerationException There was an error generating the JSON.
+	 * 
+	 * @throws IOException There was an error writing to the generator.
+	 */
+	private void writeMetaData(
+			final JsonGenerator generator,
+			final long count)
+			throws JsonGenerationException, IOException {
+		
+		// Add the meta-data.
+		generator.writeObjectFieldStart("metadata");
+		
+		// Add the count to the meta-data.
+		generator.writeNumberField("count", count);
+
+		// Get the URL that will be the base for the "previous" and "next"
+		// URLs.
+		StringBuilder prevAndNextUrlBuilder = buildNextAndPrevUrl();
+		
+		// If the number of entries skipped was non-zero, add a previous
+		// pointer. There is no way to page backwards from a cursor.
+		if((prevAndNextUrlBuilder != null) &&
+			(cursor == null) &&
+			(numToSkip != 0)) {
+			
+			// Create a copy of the existing string builder.
+			StringBuilder prevUrl = 
+				new StringBuilder(prevAndNextUrlBuilder);
+			
+			// Calculate the number of results to skip and return for the
+			// "previous" URL.
+			long prevNumToSkip = numToSkip - numToReturn - 1;
+			boolean returnNumToSkipAsNumToReturn = false;
+			if(prevNumToSkip < 0) {
+				returnNumToSkipAsNumToReturn = true;
+				prevNumToSkip = 0;
+			}
+			
+			// Add the number of results to skip and return.
+			prevUrl
+				.append('&')
+				.append(InputKeys.NUM_TO_SKIP)
+				.append('=')
+				.append(prevNumToSkip);
+			prevUrl
+				.append('&')
+				.append(InputKeys.NUM_TO_RETURN)
+				.append('=')
+				.append((returnNumToSkipAsNumToReturn) ? numToSkip - 1 : numToReturn);
+			
+			// Add the "previous" URL to the meta-data.
+			generator.writeStringField("previous", prevUrl.toString());
+		}
+		
+		// Generate and add the "next" URL if the number of results is 
+		// to the number requested. The only reason it would be less is if
+		// there weren't that many to return. If there were more than that
+		if((prevAndNextUrlBuilder != null) &&
+			(numToReturn == count) &&
+			(nextCursor != null)) {
+			
+			// Add the cursor so that the next page may be read without
+			// skipping over this one.
+			generator.writeStringField("cursor", nextCursor.toString());
+			
+			StringBuilder nextUrl = prevAndNextUrlBuilder;
+			
+			// Add the cursor and number of results to return to the 
+			// "next" URL.
+			nextUrl
+				.append('&')
+				.append(InputKeys.CURSOR)
+				.append('=')
+				.append(nextCursor.toString());
+			nextUrl
+				.append('&')
+				.append(InputKeys.NUM_TO_RETURN)
+				.append('=')
+				.append(numToReturn);
+			
+			// Add the "next" URL to the meta-data.
+			generator.writeStringField("next", nextUrl.toString());
+		}
+		
+		// End the meta-data.
+		generator.writeEndObject();
+	}
+	
+	/**
+	 * Reads the data points and writes them to a buffer as the "data" array.
+	 * The database is only read while the buffer is being written, so it is
+	 * not held while the response is sent.
+	 * 
+	 * @param dataBuffer The buffer to write to.
+	 * 
+	 * @return The number of points that were written.
+	 * 
+	 * @throws ServiceException There was an error reading the points.
+	 * 
+	 * @throws IOException There was an error writing to the buffer.
+	 */
+	private long bufferData(
+			final ResponseBuffer dataBuffer)
+			throws ServiceException, IOException {
+		
+		JsonGenerator generator = 
+			JSON_FACTORY.createJsonGenerator(dataBuffer.getWriter());
+		generator.writeStartArray();
+		long result = streamData(generator);
+		generator.writeEndArray();
+		generator.close();
+		
+		return result;
+	}
+	
+	/**
+	 * Reads the data points and writes each one to the generator as it is
+	 * read. The stored data is copied as-is unless only some columns were
+	 * requested, in which case it is filtered as it is copied. The generator
+	 * must be at the point where it has an array open.
+	 * 
+	 * @param generator The generator to write to.
+	 * 
+	 * @return The number of points that were written.
+	 * 
+	 * @throws ServiceException There was an error reading the points or
+	 * 							writing them to the generator.
+	 */
+	private long streamData(
+			final JsonGenerator generator)
+			throws ServiceException {
+		
+		// If the stream doesn't exist, there is no data.
+		if(stream == null) {
+			return 0;
+		}
+		
+		LOGGER.info("Streaming the data.");
+		StreamReadCursor.Builder nextCursorBuilder =
+			new StreamReadCursor.Builder();
+		long result =
+			ObserverServices.instance().streamStreamData(
+				stream,
+				(username == null) ? getUser().getUsername() : username,
+				observerId,
+				observerVersion,
+				startDate,
+				endDate,
+				chronological,
+				cursor,
+				numToSkip,
+				numToReturn,
+				nextCursorBuilder,
+				new DataStream.RawDataHandler() {
+					/**
+					 * Writes a single point to the generator.
+					 */
+					@Override
+					public void handle(
+							final DataStream.MetaData metaData,
+							final String data)
+							throws IOException {
+						
+						// Begin this data stream.
+						generator.writeStartObject();
+						
+						// Write the meta-data.
+						try {
+							writePointMetaData(generator, metaData);
+						}
+						catch(DomainException e) {
+							throw new IOException(
+								"The meta-data could not be written.",
+								e);
+						}
+						
+						// Write the data.
+						generator.writeFieldName("data");
+						if(columnsRoot.isLeaf()) {
+							generator.writeRawValue(data);
+						}
+						else {
+							JsonParser parser =
+								JSON_FACTORY.createJsonParser(data);
+							try {
+								parser.nextToken();
+								copyColumns(parser, generator, columnsRoot);
+							}
+							finally {
+								parser.close();
+							}
+						}
+						
+						// End this data stream.
+						generator.writeEndObject();
+					}
+				});
+		
+		nextCursor = nextCursorBuilder.build();
+		LOGGER.info("Returned " + result + " points.");
+		return result;
+	}
+	
+	/**
+	 * Writes a data point's meta-data to the generator, if it has any.
+	 * 
+	 * @param generator The generator to write to.
+	 * 
+	 * @param metaData The meta-data, which may be null.
+	 * 
+	 * @throws JsonGenerationException There was an error generating the JSON.
+	 * 
+	 * @throws IOException There was an error writing to the generator.
+	 * 
+	 * @throws DomainException The location could not be written.
+	 */
+	private static void writePointMetaData(
+			final JsonGenerator generator,
+			final DataStream.MetaData metaData)
+			throws JsonGenerationException, IOException, DomainException {
+		
+		if(metaData == null) {
+			return;
+		}
+		
+		generator.writeObjectFieldStart("metadata");
+		
+		String id = metaData.getId();
+		if(id != null) {
+			generator.writeStringField("id", id);
+		}
+		
+		DateTime timestamp = metaData.getTimestamp();
+		if(timestamp != null) {
+			generator.writeStringField(
+				"timestamp",
+				ISODateTimeFormat.dateTime().print(timestamp));
+		}
+		
+		Location location = metaData.getLocation();
+		if(location != null) {
+			generator.writeObjectFieldStart("location");
+			location.streamJson(
+				generator, 
+				false, 
+				LocationColumnKey.ALL_COLUMNS);
+			generator.writeEndObject();
+		}
+		
+		generator.writeEndObject();
+	}
+	
 	/**
 	 * Writes the data points to the generator. The generator be at the point 
 	 * where it has an array open.
@@ -1106,34 +1367,7 @@ public class StreamReadRequest
 			generator.writeStartObject();
 			
 			// Write the meta-data.
-			DataStream.MetaData metaData = dataStream.getMetaData();
-			if(metaData != null) {
-				generator.writeObjectFieldStart("metadata");
-				
-				String id = metaData.getId();
-				if(id != null) {
-					generator.writeStringField("id", id);
-				}
-				
-				DateTime timestamp = metaData.getTimestamp();
-				if(timestamp != null) {
-					generator.writeStringField(
-						"timestamp",
-						ISODateTimeFormat.dateTime().print(timestamp));
-				}
-				
-				Location location = metaData.getLocation();
-				if(location != null) {
-					generator.writeObjectFieldStart("location");
-					location.streamJson(
-						generator, 
-						false, 
-						LocationColumnKey.ALL_COLUMNS);
-					generator.writeEndObject();
-				}
-				
-				generator.writeEndObject();
-			}
+			writePointMetaData(generator, dataStream.getMetaData());
 			
 			// Write the data.
 			handleGeneric(
@@ -1147,6 +1381,65 @@ public class StreamReadRequest
 		}
 	}
 	
+	/**
+	 * Copies the value at the parser's current token to the generator and
+	 * only includes the specified columns. This is the streaming equivalent
+	 * of {@link #handleGeneric(JsonGenerator, JsonNode, ColumnNode, String)}
+	 * and never builds the value in memory.
+	 * 
+	 * @param parser The parser positioned at the start of the value.
+	 * 
+	 * @param generator The generator to copy the value to.
+	 * 
+	 * @param columns The columns to restrict the output.
+	 * 
+	 * @throws JsonParseException The value is not valid JSON.
+	 * 
+	 * @throws IOException Could not read the value or write to the output
+	 * 					   stream.
+	 */
+	private static void copyColumns(
+			final JsonParser parser,
+			final JsonGenerator generator,
+			final ColumnNode<String> columns)
+			throws JsonParseException, IOException {
+		
+		// If all of the columns are requested, copy the whole value.
+		if(columns.isLeaf()) {
+			generator.copyCurrentStructure(parser);
+		}
+		// If it's an array, restrict each of its elements.
+		else if(parser.getCurrentToken() == JsonToken.START_ARRAY) {
+			generator.writeStartArray();
+			while(parser.nextToken() != JsonToken.END_ARRAY) {
+				copyColumns(parser, generator, columns);
+			}
+			generator.writeEndArray();
+		}
+		// If it's an object, only copy the requested keys.
+		else if(parser.getCurrentToken() == JsonToken.START_OBJECT) {
+			generator.writeStartObject();
+			while(parser.nextToken() != JsonToken.END_OBJECT) {
+				String key = parser.getCurrentName();
+				parser.nextToken();
+				
+				ColumnNode<String> child = columns.getChild(key);
+				if(child == null) {
+					parser.skipChildren();
+				}
+				else {
+					generator.writeFieldName(key);
+					copyColumns(parser, generator, child);
+				}
+			}
+			generator.writeEndObject();
+		}
+		// Otherwise, it is a single value.
+		else {
+			generator.copyCurrentEvent(parser);
+		}
+	}
+	
 	/**
 	 * Feeds a generic object into an output stream and only includes the
 	 * specified columns.
@@ -15,7 +15,6 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
-import org.ohmage.domain.DataStream;
 import org.ohmage.domain.Observer;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
@@ -24,6 +23,7 @@ import org.ohmage.request.InputKeys;
 import org.ohmage.request.UserRequest;
 import org.ohmage.service.ObserverServices;
 import org.ohmage.service.ObserverServices.InvalidPoint;
+import org.ohmage.service.ObserverServices.UploadStatistics;
 import org.ohmage.util.StringUtils;
 import org.ohmage.validator.ObserverValidators;
 
@@ -87,8 +87,7 @@ public class StreamUploadRequest extends UserRequest {
 	private final JsonParser data;
 	private final boolean preserveInvalidPoints;
 
-	private long numValidPoints = 0;
-	private long numDuplicatePoints = 0;
+	private final UploadStatistics statistics = new UploadStatistics();
 	private final List<InvalidPoint> invalidPoints =
 		new LinkedList<InvalidPoint>();
 	
@@ -215,16 +214,6 @@ public class StreamUploadRequest extends UserRequest {
 				}
 				
 				t = getParameterValues(InputKeys.DATA);
-				if(t.length == 0) {
-					LOGGER
-						.info(
-							"Attempting to get the data as a multipart part.");
-					t = new String[1];
-					t[0] =
-						new String(
-							getMultipartValue(httpRequest, InputKeys.DATA));
-				}
-
 				if(t.length > 1) {
 					throw new ValidationException(
 						ErrorCode.OBSERVER_INVALID_STREAM_DATA,
@@ -234,6 +223,19 @@ public class StreamUploadRequest extends UserRequest {
 				else if(t.length == 1) {
 					tData = ObserverValidators.validateData(t[0]);
 				}
+				else {
+					// Parse the part as it is read rather than buffering it,
+					// so the upload's size does not dictate its memory use.
+					LOGGER
+						.info(
+							"Attempting to get the data as a multipart part.");
+					tData = 
+						ObserverValidators
+							.validateData(
+								getMultipartInputStream(
+									httpRequest,
+									InputKeys.DATA));
+				}
 				if(tData == null) {
 					throw new ValidationException(
 						ErrorCode.OBSERVER_INVALID_STREAM_DATA,
@@ -301,52 +303,35 @@ public class StreamUploadRequest extends UserRequest {
 			// Get the first observer which should be the most recent.
 			Observer observer = observers.iterator().next();
 			
-			LOGGER.info("Validating the uploaded data.");
-			Collection<DataStream> dataStreams =
-				ObserverServices
-					.instance()
-					.validateData(observer, data, invalidPoints);
-			
+			LOGGER.info("Validating and storing the uploaded data.");
+			ObserverServices
+				.instance()
+				.uploadData(
+					getUser().getUsername(),
+					observer,
+					data,
+					preserveInvalidPoints,
+					invalidPoints,
+					statistics);
+			LOGGER
+				.info(
+					"Pruned out " + 
+						statistics.getNumDuplicatePoints() + 
+						" points.");
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
+		finally {
 			try {
-				data.close();
+				if(data != null) {
+					data.close();
+				}
 			}
 			catch(IOException e) {
 				LOGGER.info("Error closing the data.", e);
 			}
-			
-			long numPoints = numValidPoints = dataStreams.size();
-			LOGGER.info("Pruning out the duplicates from previous uploads.");
-			ObserverServices.instance().removeDuplicates(
-				getUser().getUsername(), 
-				observerId,
-				dataStreams);
-			numDuplicatePoints = numPoints - dataStreams.size();
-			LOGGER.info("Pruned out " + numDuplicatePoints + " points.");
-			numPoints = dataStreams.size();
-			
-			LOGGER.info("Storing the uploaded data: " + numPoints + " points");
-			ObserverServices.instance().storeData(
-				getUser().getUsername(), 
-				observer,
-				dataStreams);
-			
-			if(preserveInvalidPoints) {
-				LOGGER
-					.info(
-						"Storing the invalid data: " +
-							invalidPoints.size() +
-							" points");
-				ObserverServices
-					.instance()
-					.storeInvalidData(
-						getUser().getUsername(),
-						observer,
-						invalidPoints);
-			}
-		}
-		catch(ServiceException e) {
-			e.failRequest(this);
-			e.logException(LOGGER);
 		}
 	}
 
@@ -379,13 +364,13 @@ public class StreamUploadRequest extends UserRequest {
 		result
 			.put(
 				AUDIT_NUM_VALID_POINTS, 
-				new String[] { Long.toString(numValidPoints) });
+				new String[] { Long.toString(statistics.getNumValidPoints()) });
 		
 		// Put the number of dupliate points.
 		result
 			.put(
 				AUDIT_NUM_DUPLICATE_POINTS, 
-				new String[] { Long.toString(numDuplicatePoints) });
+				new String[] { Long.toString(statistics.getNumDuplicatePoints()) });
 		
 		// Put the number of invalid points.
 		result
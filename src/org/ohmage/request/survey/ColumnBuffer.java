@@ -0,0 +1,169 @@
+package org.ohmage.request.survey;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * <p>
+ * Holds the values of each column of a column-oriented response. The results
+ * are read one row at a time, but they are written one column at a time, so
+ * every value must be held until the last row has been read.
+ * </p>
+ *
+ * <p>
+ * Each column keeps only a small window of its values in memory. When the
+ * window fills, it is appended to a temporary file that all of the columns
+ * share, and the location of that chunk is remembered. The columns are then
+ * written by reading back their chunks in order, so the memory used does not
+ * depend on the number of rows.
+ * </p>
+ *
+ * <p>
+ * The buffer must be {@link #close() closed} once it is no longer needed,
+ * which deletes the temporary file.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+class ColumnBuffer {
+	/**
+	 * The prefix for the temporary files' names.
+	 */
+	private static final String FILE_PREFIX = "ohmage-columns-";
+
+	/**
+	 * The number of characters a column holds in memory before they are
+	 * written to the file.
+	 */
+	private static final int MAX_BUFFERED_CHARS = 4096;
+
+	/**
+	 * The encoding of the file.
+	 */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private final StringBuilder[] buffers;
+	private final List<List<long[]>> chunks;
+
+	private File file = null;
+	private RandomAccessFile contents = null;
+
+	/**
+	 * Creates a new, empty buffer.
+	 *
+	 * @param numColumns
+	 *        The number of columns.
+	 */
+	public ColumnBuffer(final int numColumns) {
+		buffers = new StringBuilder[numColumns];
+		chunks = new ArrayList<List<long[]>>(numColumns);
+		for(int i = 0; i < numColumns; i++) {
+			buffers[i] = new StringBuilder();
+			chunks.add(new ArrayList<long[]>());
+		}
+	}
+
+	/**
+	 * Adds the next value to a column.
+	 *
+	 * @param column
+	 *        The column's index.
+	 *
+	 * @param jsonValue
+	 *        The value, already serialized as JSON.
+	 *
+	 * @throws IOException
+	 *         The column's values could not be written to the file.
+	 */
+	public void add(final int column, final String jsonValue)
+		throws IOException {
+
+		StringBuilder buffer = buffers[column];
+		if((buffer.length() > 0) || (! chunks.get(column).isEmpty())) {
+			buffer.append(',');
+		}
+		buffer.append(jsonValue);
+
+		if(buffer.length() >= MAX_BUFFERED_CHARS) {
+			spill(column);
+		}
+	}
+
+	/**
+	 * Writes a column's values as a JSON array. The generator must be at a
+	 * point where a value is expected.
+	 *
+	 * @param column
+	 *        The column's index.
+	 *
+	 * @param generator
+	 *        The generator to write to.
+	 *
+	 * @throws IOException
+	 *         The values could not be read from the file or written to the
+	 *         generator.
+	 */
+	public void writeColumn(final int column, final JsonGenerator generator)
+		throws IOException {
+
+		generator.writeRawValue("[");
+		for(long[] chunk : chunks.get(column)) {
+			byte[] bytes = new byte[(int) chunk[1]];
+			contents.seek(chunk[0]);
+			contents.readFully(bytes);
+			generator.writeRaw(new String(bytes, CHARSET));
+		}
+		generator.writeRaw(buffers[column].toString());
+		generator.writeRaw(']');
+	}
+
+	/**
+	 * Closes and deletes the temporary file, if one was created.
+	 */
+	public void close() {
+		if(contents != null) {
+			try {
+				contents.close();
+			}
+			catch(IOException e) {
+				// The file is being deleted anyway.
+			}
+			contents = null;
+		}
+		if(file != null) {
+			file.delete();
+			file = null;
+		}
+	}
+
+	/**
+	 * Appends the values that a column holds in memory to the end of the
+	 * file and empties its window.
+	 *
+	 * @param column
+	 *        The column's index.
+	 *
+	 * @throws IOException
+	 *         The file could not be created or written.
+	 */
+	private void spill(final int column) throws IOException {
+		if(contents == null) {
+			file = File.createTempFile(FILE_PREFIX, ".json");
+			contents = new RandomAccessFile(file, "rw");
+		}
+
+		byte[] bytes = buffers[column].toString().getBytes(CHARSET);
+		long offset = contents.length();
+		contents.seek(offset);
+		contents.write(bytes);
+
+		chunks.get(column).add(new long[] { offset, bytes.length });
+		buffers[column].setLength(0);
+	}
+}
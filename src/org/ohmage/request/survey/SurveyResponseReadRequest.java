@@ -20,13 +20,10 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -64,6 +61,7 @@ import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.ColumnKey;
 import org.ohmage.domain.campaign.SurveyResponse.OutputFormat;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
+import org.ohmage.domain.campaign.SurveyResponseReadCursor;
 import org.ohmage.domain.campaign.prompt.ChoicePrompt;
 import org.ohmage.domain.campaign.prompt.CustomChoicePrompt;
 import org.ohmage.domain.campaign.response.MultiChoiceCustomPromptResponse;
@@ -73,8 +71,10 @@ import org.ohmage.domain.campaign.response.SingleChoicePromptResponse;
 import org.ohmage.exception.CacheMissException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
+import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
+import org.ohmage.request.ResponseBuffer;
 import org.ohmage.request.observer.StreamReadRequest.ColumnNode;
 import org.ohmage.request.omh.OmhReadResponder;
 import org.ohmage.util.DateTimeUtils;
@@ -198,6 +198,17 @@ import org.ohmage.validator.SurveyResponseValidators;
  *       </td>
  *     <td>false</td>
  *   </tr>
+ *   <tr>
+ *     <td>{@value org.ohmage.request.InputKeys#CURSOR}</td>
+ *     <td>The cursor from the metadata of a previous response. Only the
+ *       survey responses after that response's last one are returned. This
+ *       is the fastest way to page through the survey responses. It may not
+ *       be combined with 
+ *       {@value org.ohmage.request.InputKeys#SORT_ORDER} or
+ *       {@value org.ohmage.request.InputKeys#COLLAPSE}, which must still be
+ *       paged with {@value org.ohmage.request.InputKeys#NUM_TO_SKIP}.</td>
+ *     <td>false</td>
+ *   </tr>
  * </table>
  * 
  * @author Joshua Selsky
@@ -259,6 +270,37 @@ public final class SurveyResponseReadRequest
 	 * @see org.ohmage.request.InputKeys#COLLAPSE
 	 */
 	public static final String JSON_KEY_COUNT = "count";
+	/**
+	 * The JSON key in the metadata for the position of the last survey
+	 * response in the results. It is only present if the page was full and
+	 * the default sort order was used without collapsing.
+	 * 
+	 * @see org.ohmage.request.InputKeys#CURSOR
+	 */
+	public static final String JSON_KEY_CURSOR = "cursor";
+	/**
+	 * The key of the column for the number of records that were collapsed 
+	 * into each record if the input parameter
+	 * {@link org.ohmage.request.InputKeys#COLLAPSE collapse} is true.
+	 * 
+	 * @see org.ohmage.domain.campaign.SurveyResponse.OutputFormat#JSON_COLUMNS
+	 * @see org.ohmage.domain.campaign.SurveyResponse.OutputFormat#CSV
+	 */
+	private static final String COLUMN_KEY_COUNT = "urn:ohmage:context:count";
+	
+	/**
+	 * A survey response handler that counts the survey responses and prompts
+	 * it has handled, so that they may be added to the metadata once all of
+	 * the survey responses have been written.
+	 *
+	 * @author John Jenkins
+	 */
+	private abstract static class CountingHandler
+			implements SurveyResponse.SurveyResponseHandler {
+		
+		protected int numSurveys = 0;
+		protected int numPrompts = 0;
+	}
 	
 	final Collection<SurveyResponse.ColumnKey> columns;
 	private final SurveyResponse.OutputFormat outputFormat;
@@ -272,6 +314,16 @@ public final class SurveyResponseReadRequest
 	final long surveyResponsesToSkip;
 	final long surveyResponsesToProcess;
 	
+	// The position after which the survey responses begin or null.
+	private final SurveyResponseReadCursor cursor;
+	// The position of the last survey response that was written, if there
+	// may be more after it.
+	private SurveyResponseReadCursor nextCursor = null;
+	
+	// Whether the survey responses are written as they are read rather than
+	// being gathered while servicing the request.
+	private final boolean streamResults;
+	
 	/**
 	 * Creates a survey response read request. The 'httpRequest', 'parameters',
 	 * and 'campaignId' parameters are required. The rest are optional and will
@@ -410,6 +462,9 @@ public final class SurveyResponseReadRequest
 		else {
 			this.surveyResponsesToProcess = numResponsesToReturn;
 		}
+		
+		cursor = null;
+		streamResults = false;
 	}
 	
 	/**
@@ -435,6 +490,7 @@ public final class SurveyResponseReadRequest
 		Boolean tSuppressMetadata = null;
 		
 		long tSurveyResponsesToSkip = 0;
+		SurveyResponseReadCursor tCursor = null;
 		long tSurveyResponsesToProcess = -1;
 		try {
 			tSurveyResponsesToProcess = 
@@ -609,6 +665,37 @@ public final class SurveyResponseReadRequest
 										t[0], 
 										tSurveyResponsesToProcess);
 				}
+				
+				// The cursor from a previous page.
+				t = getParameterValues(InputKeys.CURSOR);
+				if(t.length > 1) {
+					throw new ValidationException(
+							ErrorCode.SURVEY_INVALID_CURSOR, 
+							"Multiple cursors were given: " + 
+								InputKeys.CURSOR);
+				}
+				else if(t.length == 1) {
+					tCursor = SurveyResponseValidators.validateCursor(t[0]);
+					
+					// The cursor is a position in the default order of the
+					// individual survey responses.
+					if((tCursor != null) && (tSortOrder != null)) {
+						throw new ValidationException(
+								ErrorCode.SURVEY_INVALID_CURSOR, 
+								"A cursor may not be combined with a sort order: " + 
+									InputKeys.SORT_ORDER);
+					}
+					else if(
+						(tCursor != null) && 
+						(tCollapse != null) && 
+						tCollapse) {
+						
+						throw new ValidationException(
+								ErrorCode.SURVEY_INVALID_CURSOR, 
+								"A cursor may not be combined with collapsing: " + 
+									InputKeys.COLLAPSE);
+					}
+				}
 			}
 			catch (ValidationException e) {
 				e.failRequest(this);
@@ -627,6 +714,9 @@ public final class SurveyResponseReadRequest
 		
 		surveyResponsesToSkip = tSurveyResponsesToSkip;
 		surveyResponsesToProcess = tSurveyResponsesToProcess;
+		
+		cursor = tCursor;
+		streamResults = true;
 	}
 	
 	/*
@@ -636,6 +726,20 @@ public final class SurveyResponseReadRequest
 	@Override
 	public void service() {
 		LOGGER.info("Servicing a survey response read request.");
+		
+		// The survey responses will be read while the response is being
+		// written.
+		if(streamResults) {
+			prepare(
+				columns, 
+				null, 
+				sortOrder,
+				collapse, 
+				surveyResponsesToSkip, 
+				surveyResponsesToProcess);
+			return;
+		}
+		
 		super.service(
 				columns, 
 				null, 
@@ -656,7 +760,15 @@ public final class SurveyResponseReadRequest
 	
 	/**
 	 * Builds the output depending on the state of this request and whatever
-	 * output format the requester selected.
+	 * output format the requester selected. The survey responses are read
+	 * from the database a group at a time, so they are never all in memory.
+	 * 
+	 * The survey responses are read into a {@link ColumnBuffer} for
+	 * {@link OutputFormat#JSON_COLUMNS}, because the values must be
+	 * transposed, or a {@link ResponseBuffer} for the other formats before
+	 * any output is written. The metadata, which counts them, can then be
+	 * written before the data, and the requester still receives a failure
+	 * message if they cannot be read.
 	 */
 	@Override
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
@@ -667,6 +779,90 @@ public final class SurveyResponseReadRequest
 			return;
 		}
 		
+		boolean allColumns = columns.equals(URN_SPECIAL_ALL_LIST);
+		
+		// The contexts of the prompts, the keys of the columns in the order 
+		// they should be output, the metadata, and the buffered data.
+		Map<String, JSONObject> promptContexts = 
+			new HashMap<String, JSONObject>();
+		List<String> columnKeys = null;
+		JSONObject metadata = null;
+		ColumnBuffer columnBuffer = null;
+		ResponseBuffer dataBuffer = null;
+		try {
+			if(OutputFormat.JSON_ROWS.equals(outputFormat)) {
+				// If metadata is not suppressed, create it. The counts and
+				// items are added once the survey responses have been read.
+				if((suppressMetadata == null) || (! suppressMetadata)) {
+					metadata = new JSONObject();
+				}
+				
+				dataBuffer = bufferJsonRows(allColumns, metadata);
+			}
+			else {
+				// If the user requested to know information about prompt
+				// responses, populate the prompt contexts with the 
+				// information about each of the prompts that were 
+				// requested.
+				if(allColumns ||
+						columns.contains(ColumnKey.PROMPT_RESPONSE)) {
+					
+					populatePromptContexts(promptContexts);
+				}
+				
+				columnKeys = 
+					getColumnKeys(allColumns, promptContexts.keySet());
+				
+				// If metadata is not suppressed, create it. The counts are
+				// added once the survey responses have been read.
+				if((suppressMetadata == null) || (! suppressMetadata)) {
+					metadata = new JSONObject();
+					
+					metadata.put(InputKeys.CAMPAIGN_URN, getCampaignId());
+				}
+				
+				if(OutputFormat.JSON_COLUMNS.equals(outputFormat)) {
+					columnBuffer = 
+						bufferColumns(allColumns, columnKeys, metadata);
+				}
+				else if(OutputFormat.CSV.equals(outputFormat)) {
+					dataBuffer = 
+						bufferCsvRows(allColumns, columnKeys, metadata);
+				}
+			}
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+		}
+		catch(JSONException e) {
+			LOGGER.error(e.toString(), e);
+			setFailed();
+		}
+		catch(IllegalStateException e) {
+			LOGGER.error(e.toString(), e);
+			setFailed();
+		}
+		catch(DomainException e) {
+			LOGGER.error(e.toString(), e);
+			setFailed();
+		}
+		catch(IOException e) {
+			LOGGER.error("The survey responses could not be buffered.", e);
+			setFailed();
+		}
+		
+		if(isFailed()) {
+			if(columnBuffer != null) {
+				columnBuffer.close();
+			}
+			if(dataBuffer != null) {
+				dataBuffer.close();
+			}
+			super.respond(httpRequest, httpResponse, (JSONObject) null);
+			return;
+		}
+		
 		// Create a writer for the HTTP response object.
 		Writer writer = null;
 		try {
@@ -674,718 +870,1002 @@ public final class SurveyResponseReadRequest
 		}
 		catch(IOException e) {
 			LOGGER.error("Unable to write response message. Aborting.", e);
+			if(columnBuffer != null) {
+				columnBuffer.close();
+			}
+			if(dataBuffer != null) {
+				dataBuffer.close();
+			}
 			return;
 		}
 		
 		// Sets the HTTP headers to disable caching.
 		expireResponse(httpResponse);
+		
+		try {
+			if(OutputFormat.JSON_ROWS.equals(outputFormat)) {
+				httpResponse.setContentType("text/html");
+				
+				writeJsonRows(createGenerator(writer), metadata, dataBuffer);
+			}
+			else if(OutputFormat.JSON_COLUMNS.equals(outputFormat)) {
+				httpResponse.setContentType("text/html");
 				
-		String resultString = "";
+				writeJsonColumns(
+					createGenerator(writer), 
+					columnKeys, 
+					promptContexts, 
+					metadata, 
+					columnBuffer);
+			}
+			// For CSV output,
+			else if(OutputFormat.CSV.equals(outputFormat)) {
+				// Mark it as an attachment.
+				httpResponse.setContentType("text/csv");
+				httpResponse.setHeader(
+						"Content-Disposition", 
+						"attachment; filename=" + 
+							getCampaign().getName() + 
+							".csv");
+				
+				writeCsv(
+					writer, 
+					allColumns, 
+					promptContexts, 
+					metadata, 
+					dataBuffer);
+			}
+		}
+		catch(ClientAbortException e) {
+			LOGGER.info("The client hung up unexpectedly.", e);
+		}
+		catch(IOException e) {
+			LOGGER.warn("Unable to write response message. Aborting.", e);
+		}
+		// Part of the response has already been written, so it cannot be
+		// replaced with a failure message.
+		catch(JSONException e) {
+			LOGGER.error("The response could not be completed.", e);
+		}
+		catch(IllegalStateException e) {
+			LOGGER.error("The response could not be completed.", e);
+		}
+		finally {
+			if(columnBuffer != null) {
+				columnBuffer.close();
+			}
+			if(dataBuffer != null) {
+				dataBuffer.close();
+			}
+		}
 		
-		if(! isFailed()) {
-			try {
-				boolean allColumns = columns.equals(URN_SPECIAL_ALL_LIST);
+		// Close it.
+		try {
+			writer.close();
+		}
+		catch(ClientAbortException e) {
+			LOGGER.info("The client hung up unexpectedly.", e);
+		}
+		catch(IOException e) {
+			LOGGER.warn("Unable to close the writer.", e);
+		}
+	}
+	
+	/**
+	 * Creates a generator that writes to the response, pretty printing if
+	 * the requester asked for it.
+	 * 
+	 * @param writer The writer for the response.
+	 * 
+	 * @return The generator.
+	 * 
+	 * @throws IOException The generator could not be created.
+	 */
+	private JsonGenerator createGenerator(
+			final Writer writer)
+			throws IOException {
+		
+		JsonGenerator result = JSON_FACTORY.createJsonGenerator(writer);
+		if((prettyPrint != null) && prettyPrint) {
+			result.useDefaultPrettyPrinter();
+		}
+		return result;
+	}
+	
+	/**
+	 * Writes a JSONObject or JSONArray to the generator as a single value.
+	 * 
+	 * @param generator The generator to write to.
+	 * 
+	 * @param json The JSONObject or JSONArray.
+	 * 
+	 * @throws IOException There was an error writing to the generator.
+	 */
+	private void writeJson(
+			final JsonGenerator generator,
+			final Object json)
+			throws IOException {
+		
+		// When pretty printing, the value must be parsed so that the
+		// generator can indent it. Otherwise, it is copied as-is.
+		if((prettyPrint != null) && prettyPrint) {
+			generator.writeTree(
+				JSON_FACTORY
+					.createJsonParser(json.toString())
+					.readValueAsTree());
+		}
+		else {
+			generator.writeRawValue(json.toString());
+		}
+	}
+	
+	/**
+	 * Reads the survey responses and writes the {@link OutputFormat#JSON_ROWS}
+	 * "data" array to a new response buffer, one survey response at a time.
+	 * Once they have all been read, their counts and the items that describe
+	 * them are added to the metadata.
+	 * 
+	 * @param allColumns Whether or not all of the columns were requested.
+	 * 
+	 * @param metadata The metadata or null if it is being suppressed.
+	 * 
+	 * @return The response buffer, which the caller must close.
+	 * 
+	 * @throws JSONException The counts could not be added to the metadata.
+	 * 
+	 * @throws IOException The buffer could not be written.
+	 * 
+	 * @throws ServiceException The survey responses could not be read or a
+	 * 							survey response's JSON could not be built.
+	 */
+	private ResponseBuffer bufferJsonRows(
+			final boolean allColumns,
+			final JSONObject metadata)
+			throws JSONException, IOException, ServiceException {
+		
+		final ResponseBuffer result = new ResponseBuffer();
+		
+		boolean buffered = false;
+		try {
+			final JsonGenerator generator = 
+				createGenerator(result.getWriter());
+			final Set<String> uniquePromptIds = new HashSet<String>();
 			
-				// TODO: I am fairly confident that these two branches can be
-				// merged further and subsequently cleaned up, but I don't have
-				// the time to tackle it right now.
-				if(OutputFormat.JSON_ROWS.equals(outputFormat)) {
-					httpResponse.setContentType("text/html");
-					
-					JSONObject result = new JSONObject();
-					result.put(JSON_KEY_RESULT, RESULT_SUCCESS);
+			generator.writeStartArray();
+			CountingHandler handler = new CountingHandler() {
+				/**
+				 * Writes each survey response as its own JSON object.
+				 */
+				@Override
+				public void handle(
+						final SurveyResponse surveyResponse)
+						throws IOException {
 					
-					List<String> uniqueSurveyIds = new LinkedList<String>();
-					List<String> uniquePromptIds = new LinkedList<String>();
-					JSONArray results = new JSONArray();
-					for(SurveyResponse surveyResponse : getSurveyResponses()) {
-						uniqueSurveyIds.add(surveyResponse.getSurvey().getId());
-						uniquePromptIds.addAll(surveyResponse.getPromptIds());
-						
-						JSONObject currResult;
-						currResult = surveyResponse.toJson(
-								allColumns || columns.contains(ColumnKey.USER_ID),
-								allColumns || false,
-								allColumns || columns.contains(ColumnKey.CONTEXT_CLIENT),
-								allColumns || columns.contains(ColumnKey.SURVEY_PRIVACY_STATE),
-								allColumns || columns.contains(ColumnKey.CONTEXT_EPOCH_MILLIS),
-								allColumns || columns.contains(ColumnKey.CONTEXT_TIMEZONE),
-								allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_STATUS),
-								false,
-								allColumns || columns.contains(ColumnKey.SURVEY_ID),
-								allColumns || columns.contains(ColumnKey.SURVEY_TITLE),
-								allColumns || columns.contains(ColumnKey.SURVEY_DESCRIPTION),
-								allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT),
-								allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG),
-								allColumns || columns.contains(ColumnKey.PROMPT_RESPONSE),
-								false,
-								(((returnId == null) ? false : returnId) ||
-								 allColumns ||
-								 columns.contains(ColumnKey.SURVEY_RESPONSE_ID)
-								),
-								((collapse != null) && collapse)
-							);
-						
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_DATE)) {
-							currResult.put(
-									"date", 
-									DateTimeUtils.getIso8601DateString(
-											surveyResponse.getDate(),
-											false));
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMESTAMP)) {
-							currResult.put(
-									"timestamp", 
-									DateTimeUtils.getIso8601DateString(
-											surveyResponse.getDate(),
-											true));
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_UTC_TIMESTAMP)) {
-							Calendar tmpCalendar = 
-									Calendar.getInstance(
-											surveyResponse.getTimezone().toTimeZone());
-							tmpCalendar.setTimeInMillis(
-									surveyResponse.getTime());
-							
-							currResult.put(
-									"utc_timestamp",
-									DateTimeUtils.getIso8601DateString(
-										new DateTime(
-											surveyResponse.getTime(), 
-											DateTimeZone.UTC),
-										true));
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_ACCURACY)) {
-							Location location = surveyResponse.getLocation();
-							
-							if(location == null) {
-								currResult.put(Location.LocationColumnKey.ACCURACY.toString(false), JSONObject.NULL);
-							}
-							else {
-								double accuracy = location.getAccuracy();
-								
-								if(Double.isInfinite(accuracy) || Double.isNaN(accuracy)) {
-									currResult.put(Location.LocationColumnKey.ACCURACY.toString(false), JSONObject.NULL);
-								}
-								else {
-									currResult.put(Location.LocationColumnKey.ACCURACY.toString(false), accuracy);
-								}
-							}
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LATITUDE)) {
-							Location location = surveyResponse.getLocation();
-							
-							if(location == null) {
-								currResult.put(Location.LocationColumnKey.LATITUDE.toString(false), JSONObject.NULL);
-							}
-							else {
-								double latitude = location.getLatitude();
-								
-								if(Double.isInfinite(latitude) || Double.isNaN(latitude)) {
-									currResult.put(Location.LocationColumnKey.LATITUDE.toString(false), JSONObject.NULL);
-								}
-								else {
-									currResult.put(Location.LocationColumnKey.LATITUDE.toString(false), latitude);
-								}
-							}
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LONGITUDE)) {
-							Location location = surveyResponse.getLocation();
-							
-							if(location == null) {
-								currResult.put(Location.LocationColumnKey.LONGITUDE.toString(false), JSONObject.NULL);
-							}
-							else {
-								double longitude = location.getLongitude();
-								
-								if(Double.isInfinite(longitude) || Double.isNaN(longitude)) {
-									currResult.put(Location.LocationColumnKey.LONGITUDE.toString(false), JSONObject.NULL);
-								}
-								else {
-									currResult.put(Location.LocationColumnKey.LONGITUDE.toString(false), longitude);
-								}
-							}
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_PROVIDER)) {
-							Location location = surveyResponse.getLocation();
-							
-							if(location == null) {
-								currResult.put(Location.LocationColumnKey.PROVIDER.toString(false), JSONObject.NULL);
-							}
-							else {
-								currResult.put(Location.LocationColumnKey.PROVIDER.toString(false), location.getProvider());
-							}
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
-							Location location = surveyResponse.getLocation();
-							
-							if(location == null) {
-								currResult.put("location_timestamp", JSONObject.NULL);
-							}
-							else {
-								currResult.put("location_timestamp", location.getTime());
-							}
-						}
-						if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
-							Location location = surveyResponse.getLocation();
-							
-							if(location == null) {
-								currResult.put("location_timezone", JSONObject.NULL);
-							}
-							else {
-								currResult.put("location_timezone", location.getTimeZone().getID());
-							}
-						}
-						
-						results.put(currResult);
-					}
-					result.put(JSON_KEY_DATA, results);
+					Set<String> promptIds = surveyResponse.getPromptIds();
+					numSurveys++;
+					numPrompts += promptIds.size();
+					uniquePromptIds.addAll(promptIds);
 					
-					// Metadata
-					if((suppressMetadata == null) || (! suppressMetadata)) {
-						JSONObject metadata = new JSONObject();
-						
-						metadata.put(JSON_KEY_NUM_SURVEYS, uniqueSurveyIds.size());
-						metadata.put(JSON_KEY_NUM_PROMPTS, uniquePromptIds.size());
-						
-						Collection<String> columnsResult = 
-							new HashSet<String>(columns.size());
-						
-						// If it contains the special 'all' value, add them 
-						// all.
-						if(columns.contains(URN_SPECIAL_ALL)) {
-							ColumnKey[] values = SurveyResponse.ColumnKey.values();
-							for(int i = 0; i < values.length; i++) {
-								columnsResult.add(values[i].toString());
-							}
-						}
-						// Otherwise, add cycle through them 
-						else {
-							for(ColumnKey columnKey : columns) {
-								columnsResult.add(columnKey.toString());
-							}
-						}
-						
-						// Check if prompt responses were requested, and, if 
-						// so, add them to the list of columns.
-						if(columns.contains(SurveyResponse.ColumnKey.PROMPT_RESPONSE) ||
-								columns.contains(URN_SPECIAL_ALL)) {
-							
-							for(String promptId : uniquePromptIds) {
-								columnsResult.add(ColumnKey.URN_PROMPT_ID_PREFIX + promptId);
-							}
-						}
-						
-						// Add it to the metadata result.
-						metadata.put(JSON_KEY_ITEMS, columnsResult);
-						
-						// Add the total count to the metadata.
-						metadata.put(
-								JSON_KEY_TOTAL_NUM_RESULTS, 
-								getSurveyResponseCount());
-						
-						result.put(JSON_KEY_METADATA, metadata);
+					try {
+						writeJson(
+							generator, 
+							getJsonRow(allColumns, surveyResponse));
 					}
-					
-					if((prettyPrint != null) && prettyPrint) {
-						resultString = result.toString(4);
+					catch(JSONException e) {
+						throw new IOException(e);
 					}
-					else {
-						resultString = result.toString();
+					catch(DomainException e) {
+						throw new IOException(e);
 					}
 				}
-				else if(OutputFormat.JSON_COLUMNS.equals(outputFormat) || 
-						OutputFormat.CSV.equals(outputFormat)) {
-					
-					JSONArray usernames = new JSONArray();
-					JSONArray clients = new JSONArray();
-					JSONArray privacyStates = new JSONArray();
-					JSONArray dates = new JSONArray();
-					JSONArray timestamps = new JSONArray();
-					JSONArray utcTimestamps = new JSONArray();
-					JSONArray epochMillisTimestamps = new JSONArray();
-					JSONArray timezones = new JSONArray();
-					JSONArray locationStatuses = new JSONArray();
-					JSONArray locationLongitude = new JSONArray();
-					JSONArray locationLatitude = new JSONArray();
-					JSONArray locationTimestamp = new JSONArray();
-					JSONArray locationTimeZone = new JSONArray();
-					JSONArray locationAccuracy = new JSONArray();
-					JSONArray locationProvider = new JSONArray();
-					JSONArray surveyIds = new JSONArray();
-					JSONArray surveyTitles = new JSONArray();
-					JSONArray surveyDescriptions = new JSONArray();
-					JSONArray launchContexts = new JSONArray();
-					JSONArray surveyResponseIds = new JSONArray();
-					JSONArray counts = new JSONArray();
-					Map<String, JSONObject> prompts = new HashMap<String, JSONObject>();
-					
-					// If the user requested to know information about prompt
-					// responses, populate the prompt contexts with the 
-					// information about each of the prompts that were 
-					// requested.
-					if(allColumns ||
-							columns.contains(ColumnKey.PROMPT_RESPONSE)) {
-						
-						// If the user-supplied list of survey IDs is present,
-						if(getSurveyIds() != null) {
-							Map<String, Survey> campaignSurveys = getCampaign().getSurveys();
-							// If the user asked for all surveys for this
-							// campaign, then populate the prompt information
-							// with all of the data about all of the prompts in
-							// all of the surveys in this campaign.
-							if(getSurveyIds().equals(URN_SPECIAL_ALL_LIST)) {
-								for(Survey currSurvey : campaignSurveys.values()) {
-									populatePrompts(currSurvey.getSurveyItems(), prompts);
-								}
-							}
-							// Otherwise, populate the prompt information only
-							// with the data about the requested surveys.
-							else {
-								for(String surveyId : this.getSurveyIds()) {
-									populatePrompts(campaignSurveys.get(surveyId).getSurveyItems(), prompts);
-								}
-							}
-						}
-						// If the user-supplied list of prompt IDs is present,
-						else if(getPromptIds() != null) {
-							// If the user asked for all prompts for this
-							// campaign, then populate the prompt information
-							// with all of the data about all of the prompts in
-							// this campaign.
-							if(getPromptIds().equals(URN_SPECIAL_ALL_LIST)) {
-								for(Survey currSurvey : getCampaign().getSurveys().values()) {
-									populatePrompts(currSurvey.getSurveyItems(), prompts);
-								}
-							}
-							// Otherwise, populate the prompt information with
-							// the data about only the requested prompts.
-							else {
-								int currNumPrompts = 0;
-								Map<Integer, SurveyItem> tempPromptMap = 
-										new HashMap<Integer, SurveyItem>(getPromptIds().size());
-								
-								for(String promptId : getPromptIds()) {
-									try {
-										tempPromptMap.put(
-												currNumPrompts, 
-												getCampaign().getPrompt(
-														getCampaign().getSurveyIdForPromptId(
-																promptId), 
-														promptId));
-									}
-									catch(DomainException e) {
-										LOGGER.error(
-												"A prompt ID that should have already been validated, appears to no longer exist.",
-												e);
-										setFailed();
-										super.respond(
-												httpRequest, 
-												httpResponse, 
-												(JSONObject) null);
-									}
-									currNumPrompts++;
-								}
-								
-								populatePrompts(tempPromptMap, prompts);
-							}
-						}
+			};
+			readSurveyResponses(handler);
+			generator.writeEndArray();
+			generator.close();
+			
+			if(metadata != null) {
+				putCounts(metadata, handler);
+				
+				Collection<String> columnsResult = 
+					new HashSet<String>(columns.size());
+				
+				// If it contains the special 'all' value, add them 
+				// all.
+				if(columns.contains(URN_SPECIAL_ALL)) {
+					ColumnKey[] values = SurveyResponse.ColumnKey.values();
+					for(int i = 0; i < values.length; i++) {
+						columnsResult.add(values[i].toString());
 					}
-					
-					// Process each of the survey responses and keep track of
-					// the number of prompt responses.
-					int numSurveyResponses = getSurveyResponses().size();
-					int numPromptResponses = 0;
-					for(SurveyResponse surveyResponse : getSurveyResponses()) {
-						try {
-							numPromptResponses += processResponses(allColumns, 
-									surveyResponse, 
-									surveyResponse.getResponses(), 
-									prompts, 
-									usernames, clients, privacyStates, 
-									dates, timestamps, utcTimestamps, 
-									epochMillisTimestamps, timezones, 
-									locationStatuses, locationLongitude, 
-									locationLatitude, locationTimestamp, 
-									locationTimeZone,
-									locationAccuracy, locationProvider,
-									surveyIds, surveyTitles, surveyDescriptions, 
-									launchContexts, surveyResponseIds, counts
-								);
-						} 
-						catch(DomainException e) {
-							LOGGER.error(
-									"There was a problem aggregating the responses.",
-									e);
-							setFailed();
-							super.respond(httpRequest, httpResponse, (JSONObject) null);
-						}
+				}
+				// Otherwise, add cycle through them 
+				else {
+					for(ColumnKey columnKey : columns) {
+						columnsResult.add(columnKey.toString());
 					}
+				}
+				
+				// Check if prompt responses were requested, and, if 
+				// so, add them to the list of columns.
+				if(columns.contains(SurveyResponse.ColumnKey.PROMPT_RESPONSE) ||
+						columns.contains(URN_SPECIAL_ALL)) {
 					
-					// Add all of the applicable output stuff.
-					JSONObject result = new JSONObject();
-					JSONArray keysOrdered = new JSONArray();
-					
-					// For each of the requested columns, add their respective
-					// data to the result in a specific order per Hongsuda's
-					// request.
-					if(allColumns || columns.contains(ColumnKey.SURVEY_ID)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, surveyIds);
-						result.put(ColumnKey.SURVEY_ID.toString(), values);
-						keysOrdered.put(ColumnKey.SURVEY_ID.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.SURVEY_TITLE)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, surveyTitles);
-						result.put(ColumnKey.SURVEY_TITLE.toString(), values);
-						keysOrdered.put(ColumnKey.SURVEY_TITLE.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.SURVEY_DESCRIPTION)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, surveyDescriptions);
-						result.put(ColumnKey.SURVEY_DESCRIPTION.toString(), values);
-						keysOrdered.put(ColumnKey.SURVEY_DESCRIPTION.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.USER_ID)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, usernames);
-						result.put(ColumnKey.USER_ID.toString(), values);
-						keysOrdered.put(ColumnKey.USER_ID.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_CLIENT)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, clients);
-						result.put(ColumnKey.CONTEXT_CLIENT.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_CLIENT.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_UTC_TIMESTAMP)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, utcTimestamps);
-						result.put(ColumnKey.CONTEXT_UTC_TIMESTAMP.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_UTC_TIMESTAMP.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_EPOCH_MILLIS)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, epochMillisTimestamps);
-						result.put(ColumnKey.CONTEXT_EPOCH_MILLIS.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_EPOCH_MILLIS.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_DATE)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, timestamps);
-						result.put(ColumnKey.CONTEXT_DATE.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_DATE.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMESTAMP)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, timestamps);
-						result.put(ColumnKey.CONTEXT_TIMESTAMP.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_TIMESTAMP.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMEZONE)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, timezones);
-						result.put(ColumnKey.CONTEXT_TIMEZONE.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_TIMEZONE.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.PROMPT_RESPONSE)) {
-						List<String> unorderedList = new LinkedList<String>();
-						for(String promptId : prompts.keySet()) {
-							result.put(
-									SurveyResponse.ColumnKey.URN_PROMPT_ID_PREFIX + promptId, 
-									prompts.get(promptId));
-							unorderedList.add(SurveyResponse.ColumnKey.URN_PROMPT_ID_PREFIX + promptId);
-						}
-						Collections.sort(unorderedList);
-						
-						for(String columnId : unorderedList) {
-							keysOrdered.put(columnId);
-						}
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_STATUS)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, locationStatuses);
-						result.put(ColumnKey.CONTEXT_LOCATION_STATUS.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_STATUS.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LATITUDE)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, locationLatitude);
-						result.put(ColumnKey.CONTEXT_LOCATION_LATITUDE.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_LATITUDE.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LONGITUDE)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, locationLongitude);
-						result.put(ColumnKey.CONTEXT_LOCATION_LONGITUDE.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_LONGITUDE.toString());
+					for(String promptId : uniquePromptIds) {
+						columnsResult.add(ColumnKey.URN_PROMPT_ID_PREFIX + promptId);
 					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_PROVIDER)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, locationProvider);
-						result.put(ColumnKey.CONTEXT_LOCATION_PROVIDER.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_PROVIDER.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
-						JSONObject timeValues = new JSONObject();
-						timeValues.put(JSON_KEY_VALUES, locationTimestamp);
-						result.put(ColumnKey.CONTEXT_LOCATION_TIMESTAMP.toString(), timeValues);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_TIMESTAMP.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMEZONE)) {
-						JSONObject timeZoneValues = new JSONObject();
-						timeZoneValues.put(JSON_KEY_VALUES, locationTimeZone);
-						result.put(ColumnKey.CONTEXT_LOCATION_TIMEZONE.toString(), timeZoneValues);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_TIMEZONE.toString());
-					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_ACCURACY)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, locationAccuracy);
-						result.put(ColumnKey.CONTEXT_LOCATION_ACCURACY.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LOCATION_ACCURACY.toString());
+				}
+				
+				// Add it to the metadata result.
+				metadata.put(JSON_KEY_ITEMS, columnsResult);
+			}
+			
+			buffered = true;
+			return result;
+		}
+		finally {
+			if(! buffered) {
+				result.close();
+			}
+		}
+	}
+	
+	/**
+	 * Writes the {@link OutputFormat#JSON_ROWS} output from the buffered
+	 * "data" array.
+	 * 
+	 * @param generator The generator to write to.
+	 * 
+	 * @param metadata The metadata or null if it is being suppressed.
+	 * 
+	 * @param dataBuffer The buffered "data" array.
+	 * 
+	 * @throws IOException There was an error writing to the generator.
+	 */
+	private void writeJsonRows(
+			final JsonGenerator generator,
+			final JSONObject metadata,
+			final ResponseBuffer dataBuffer)
+			throws IOException {
+		
+		generator.writeStartObject();
+		generator.writeStringField(JSON_KEY_RESULT, RESULT_SUCCESS);
+		
+		if(metadata != null) {
+			generator.writeFieldName(JSON_KEY_METADATA);
+			writeJson(generator, metadata);
+		}
+		
+		generator.writeFieldName(JSON_KEY_DATA);
+		dataBuffer.writeTo(generator);
+		
+		generator.writeEndObject();
+		generator.flush();
+	}
+	
+	/**
+	 * Builds the {@link OutputFormat#JSON_ROWS} JSON for a single survey
+	 * response.
+	 * 
+	 * @param allColumns Whether or not all of the columns were requested.
+	 * 
+	 * @param surveyResponse The survey response.
+	 * 
+	 * @return The survey response's JSON.
+	 * 
+	 * @throws JSONException There was an error building the JSON.
+	 * 
+	 * @throws DomainException There was an error building the JSON.
+	 */
+	private JSONObject getJsonRow(
+			final boolean allColumns,
+			final SurveyResponse surveyResponse)
+			throws JSONException, DomainException {
+		
+		JSONObject currResult;
+		currResult = surveyResponse.toJson(
+				allColumns || columns.contains(ColumnKey.USER_ID),
+				allColumns || false,
+				allColumns || columns.contains(ColumnKey.CONTEXT_CLIENT),
+				allColumns || columns.contains(ColumnKey.SURVEY_PRIVACY_STATE),
+				allColumns || columns.contains(ColumnKey.CONTEXT_EPOCH_MILLIS),
+				allColumns || columns.contains(ColumnKey.CONTEXT_TIMEZONE),
+				allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_STATUS),
+				false,
+				allColumns || columns.contains(ColumnKey.SURVEY_ID),
+				allColumns || columns.contains(ColumnKey.SURVEY_TITLE),
+				allColumns || columns.contains(ColumnKey.SURVEY_DESCRIPTION),
+				allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT),
+				allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG),
+				allColumns || columns.contains(ColumnKey.PROMPT_RESPONSE),
+				false,
+				(((returnId == null) ? false : returnId) ||
+				 allColumns ||
+				 columns.contains(ColumnKey.SURVEY_RESPONSE_ID)
+				),
+				((collapse != null) && collapse)
+			);
+		
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_DATE)) {
+			currResult.put(
+					"date", 
+					DateTimeUtils.getIso8601DateString(
+							surveyResponse.getDate(),
+							false));
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMESTAMP)) {
+			currResult.put(
+					"timestamp", 
+					DateTimeUtils.getIso8601DateString(
+							surveyResponse.getDate(),
+							true));
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_UTC_TIMESTAMP)) {
+			currResult.put(
+					"utc_timestamp",
+					DateTimeUtils.getIso8601DateString(
+						new DateTime(
+							surveyResponse.getTime(), 
+							DateTimeZone.UTC),
+						true));
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_ACCURACY)) {
+			Location location = surveyResponse.getLocation();
+			
+			if(location == null) {
+				currResult.put(Location.LocationColumnKey.ACCURACY.toString(false), JSONObject.NULL);
+			}
+			else {
+				double accuracy = location.getAccuracy();
+				
+				if(Double.isInfinite(accuracy) || Double.isNaN(accuracy)) {
+					currResult.put(Location.LocationColumnKey.ACCURACY.toString(false), JSONObject.NULL);
+				}
+				else {
+					currResult.put(Location.LocationColumnKey.ACCURACY.toString(false), accuracy);
+				}
+			}
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LATITUDE)) {
+			Location location = surveyResponse.getLocation();
+			
+			if(location == null) {
+				currResult.put(Location.LocationColumnKey.LATITUDE.toString(false), JSONObject.NULL);
+			}
+			else {
+				double latitude = location.getLatitude();
+				
+				if(Double.isInfinite(latitude) || Double.isNaN(latitude)) {
+					currResult.put(Location.LocationColumnKey.LATITUDE.toString(false), JSONObject.NULL);
+				}
+				else {
+					currResult.put(Location.LocationColumnKey.LATITUDE.toString(false), latitude);
+				}
+			}
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LONGITUDE)) {
+			Location location = surveyResponse.getLocation();
+			
+			if(location == null) {
+				currResult.put(Location.LocationColumnKey.LONGITUDE.toString(false), JSONObject.NULL);
+			}
+			else {
+				double longitude = location.getLongitude();
+				
+				if(Double.isInfinite(longitude) || Double.isNaN(longitude)) {
+					currResult.put(Location.LocationColumnKey.LONGITUDE.toString(false), JSONObject.NULL);
+				}
+				else {
+					currResult.put(Location.LocationColumnKey.LONGITUDE.toString(false), longitude);
+				}
+			}
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_PROVIDER)) {
+			Location location = surveyResponse.getLocation();
+			
+			if(location == null) {
+				currResult.put(Location.LocationColumnKey.PROVIDER.toString(false), JSONObject.NULL);
+			}
+			else {
+				currResult.put(Location.LocationColumnKey.PROVIDER.toString(false), location.getProvider());
+			}
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
+			Location location = surveyResponse.getLocation();
+			
+			if(location == null) {
+				currResult.put("location_timestamp", JSONObject.NULL);
+			}
+			else {
+				currResult.put("location_timestamp", location.getTime());
+			}
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
+			Location location = surveyResponse.getLocation();
+			
+			if(location == null) {
+				currResult.put("location_timezone", JSONObject.NULL);
+			}
+			else {
+				currResult.put("location_timezone", location.getTimeZone().getID());
+			}
+		}
+		
+		return currResult;
+	}
+	
+	/**
+	 * Reads the survey responses and adds each of their values to a new
+	 * column buffer. Once they have all been read, their counts are added to
+	 * the metadata.
+	 * 
+	 * @param allColumns Whether or not all of the columns were requested.
+	 * 
+	 * @param columnKeys The keys of the columns in the order they will be
+	 * 					 written.
+	 * 
+	 * @param metadata The metadata or null if it is being suppressed.
+	 * 
+	 * @return The column buffer, which the caller must close.
+	 * 
+	 * @throws JSONException The counts could not be added to the metadata.
+	 * 
+	 * @throws IOException The buffer could not be written.
+	 * 
+	 * @throws ServiceException The survey responses could not be read or a
+	 * 							value could not be buffered.
+	 */
+	private ColumnBuffer bufferColumns(
+			final boolean allColumns,
+			final List<String> columnKeys,
+			final JSONObject metadata)
+			throws JSONException, IOException, ServiceException {
+		
+		final int numColumns = columnKeys.size();
+		final ColumnBuffer result = new ColumnBuffer(numColumns);
+		
+		boolean buffered = false;
+		try {
+			final Map<String, Object> row = new HashMap<String, Object>();
+			CountingHandler handler = new CountingHandler() {
+				/**
+				 * Adds each of the survey response's values to its column.
+				 */
+				@Override
+				public void handle(
+						final SurveyResponse surveyResponse)
+						throws IOException {
+					
+					numSurveys++;
+					numPrompts += countPromptResponses(surveyResponse);
+					
+					row.clear();
+					try {
+						processResponses(
+							allColumns, 
+							surveyResponse, 
+							surveyResponse.getResponses(), 
+							row);
+						
+						for(int i = 0; i < numColumns; i++) {
+							result.add(
+								i, 
+								toJsonValue(row.get(columnKeys.get(i))));
+						}
 					}
-					if(allColumns || columns.contains(ColumnKey.SURVEY_PRIVACY_STATE)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, privacyStates);
-						result.put(ColumnKey.SURVEY_PRIVACY_STATE.toString(), values);
-						keysOrdered.put(ColumnKey.SURVEY_PRIVACY_STATE.toString());
+					catch(JSONException e) {
+						throw new IOException(e);
 					}
-					if(allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, launchContexts);
-						result.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG.toString());
+					catch(DomainException e) {
+						throw new IOException(e);
 					}
-					if(columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, launchContexts);
-						result.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT.toString(), values);
-						keysOrdered.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT.toString());
+				}
+			};
+			readSurveyResponses(handler);
+			
+			if(metadata != null) {
+				putCounts(metadata, handler);
+			}
+			
+			buffered = true;
+			return result;
+		}
+		finally {
+			if(! buffered) {
+				result.close();
+			}
+		}
+	}
+	
+	/**
+	 * Writes the {@link OutputFormat#JSON_COLUMNS} output from the buffered
+	 * columns.
+	 * 
+	 * @param generator The generator to write to.
+	 * 
+	 * @param columnKeys The keys of the columns in the order they will be
+	 * 					 written.
+	 * 
+	 * @param promptContexts The contexts of the prompts whose responses are
+	 * 						 being written.
+	 * 
+	 * @param metadata The metadata or null if it is being suppressed.
+	 * 
+	 * @param columnBuffer The buffered values of each column.
+	 * 
+	 * @throws IOException There was an error writing to the generator.
+	 * 
+	 * @throws JSONException The metadata could not be built.
+	 */
+	private void writeJsonColumns(
+			final JsonGenerator generator,
+			final List<String> columnKeys,
+			final Map<String, JSONObject> promptContexts,
+			final JSONObject metadata,
+			final ColumnBuffer columnBuffer)
+			throws IOException, JSONException {
+		
+		generator.writeStartObject();
+		generator.writeStringField(JSON_KEY_RESULT, RESULT_SUCCESS);
+		
+		if(metadata != null) {
+			metadata.put(JSON_KEY_ITEMS, new JSONArray(columnKeys));
+			
+			generator.writeFieldName(JSON_KEY_METADATA);
+			writeJson(generator, metadata);
+		}
+		
+		generator.writeObjectFieldStart(JSON_KEY_DATA);
+		int numColumns = columnKeys.size();
+		for(int i = 0; i < numColumns; i++) {
+			String columnKey = columnKeys.get(i);
+			
+			generator.writeObjectFieldStart(columnKey);
+			
+			// Prompt columns include the prompt's context.
+			if(columnKey.startsWith(ColumnKey.URN_PROMPT_ID_PREFIX)) {
+				JSONObject context = 
+					promptContexts.get(
+						columnKey.substring(
+							ColumnKey.URN_PROMPT_ID_PREFIX.length()));
+				
+				if(context != null) {
+					generator.writeFieldName(JSON_KEY_CONTEXT);
+					writeJson(generator, context);
+				}
+			}
+			
+			generator.writeFieldName(JSON_KEY_VALUES);
+			columnBuffer.writeColumn(i, generator);
+			
+			generator.writeEndObject();
+		}
+		generator.writeEndObject();
+		
+		generator.writeEndObject();
+		generator.flush();
+	}
+	
+	/**
+	 * Reads the survey responses and writes the {@link OutputFormat#CSV}
+	 * header and rows to a new response buffer, one survey response at a
+	 * time. Once they have all been read, their counts are added to the
+	 * metadata.
+	 * 
+	 * @param allColumns Whether or not all of the columns were requested.
+	 * 
+	 * @param columnKeys The keys of the columns in the order they will be
+	 * 					 written.
+	 * 
+	 * @param metadata The metadata or null if it is being suppressed.
+	 * 
+	 * @return The response buffer, which the caller must close.
+	 * 
+	 * @throws JSONException The counts could not be added to the metadata.
+	 * 
+	 * @throws IOException The buffer could not be written.
+	 * 
+	 * @throws ServiceException The survey responses could not be read or a
+	 * 							row could not be built.
+	 */
+	private ResponseBuffer bufferCsvRows(
+			final boolean allColumns,
+			final List<String> columnKeys,
+			final JSONObject metadata)
+			throws JSONException, IOException, ServiceException {
+		
+		final ResponseBuffer result = new ResponseBuffer();
+		
+		boolean buffered = false;
+		try {
+			final Writer writer = result.getWriter();
+			
+			// Get the number of keys.
+			final int keyLength = columnKeys.size();
+			
+			// Create a comma-separated list of the header names.
+			for(int i = 0; i < keyLength; i++) {
+				String header = columnKeys.get(i);
+				if(header.startsWith("urn:ohmage:")) {
+					header = header.substring(11);
+					
+					if(header.startsWith("prompt:id:")) {
+						header = header.substring(10);
 					}
-					if(allColumns || columns.contains(ColumnKey.SURVEY_RESPONSE_ID)) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, surveyResponseIds);
-						result.put(ColumnKey.SURVEY_RESPONSE_ID.toString(), values);
-						keysOrdered.put(ColumnKey.SURVEY_RESPONSE_ID.toString());
+				}
+				writer.write(header);
+				
+				if((i + 1) != keyLength) {
+					writer.write(',');
+				}
+			}
+			writer.write('\n');
+			
+			// For each of the responses, 
+			final Map<String, Object> row = new HashMap<String, Object>();
+			CountingHandler handler = new CountingHandler() {
+				/**
+				 * Writes each survey response as a row.
+				 */
+				@Override
+				public void handle(
+						final SurveyResponse surveyResponse)
+						throws IOException {
+					
+					numSurveys++;
+					numPrompts += countPromptResponses(surveyResponse);
+					
+					row.clear();
+					try {
+						processResponses(
+							allColumns, 
+							surveyResponse, 
+							surveyResponse.getResponses(), 
+							row);
 					}
-					if((collapse != null) && collapse) {
-						JSONObject values = new JSONObject();
-						values.put(JSON_KEY_VALUES, counts);
-						result.put("urn:ohmage:context:count", values);
-						keysOrdered.put("urn:ohmage:context:count");
+					catch(JSONException e) {
+						throw new IOException(e);
 					}
-					
-					// If metadata is not suppressed, create it.
-					JSONObject metadata = null;
-					if((suppressMetadata == null) || (! suppressMetadata)) {
-						metadata = new JSONObject();
-						
-						metadata.put(InputKeys.CAMPAIGN_URN, getCampaignId());
-						metadata.put(JSON_KEY_NUM_SURVEYS, getSurveyResponses().size());
-						metadata.put(JSON_KEY_NUM_PROMPTS, numPromptResponses);
-						
-						// Add the total count to the metadata.
-						metadata.put(
-								JSON_KEY_TOTAL_NUM_RESULTS, 
-								getSurveyResponseCount());
+					catch(DomainException e) {
+						throw new IOException(e);
 					}
 					
-					if(OutputFormat.JSON_COLUMNS.equals(outputFormat)) {
-						httpResponse.setContentType("text/html");
-						
-						JSONObject resultJson = new JSONObject();
-						resultJson.put(JSON_KEY_RESULT, RESULT_SUCCESS);
-						
-						int numHeaders = keysOrdered.length();
-						for(int i = 0; i < numHeaders; i++) {
-							String header = keysOrdered.getString(i);
-							
-							if(header.endsWith(":value") ||
-								header.endsWith(":key")) {
-
-								result.remove(header);
-								keysOrdered.remove(i);
-								i--;
-								numHeaders--;
-							}
-							else if(header.endsWith(":label")) {
-								String prunedHeader = header.substring(0, header.length() - 6);
-
-								result.put(prunedHeader, result.get(header));
-								result.remove(header);
-								
-								keysOrdered.put(i, prunedHeader);
-							}
-						}
+					for(int j = 0; j < keyLength; j++) {
+						Object currResult = row.get(columnKeys.get(j));
 						
-						if((suppressMetadata == null) || (! suppressMetadata)) {
-							JSONArray itemsJson = new JSONArray();
-							Iterator<?> keys = result.keys();
-							while(keys.hasNext()) {
-								itemsJson.put(keys.next());
-							}
-							metadata.put("items", itemsJson);
-							resultJson.put(JSON_KEY_METADATA, metadata);
+						if(! JSONObject.NULL.equals(currResult)) {
+							writer.write('"');
+							writer.write(currResult.toString().replace("\"", "\"\""));
+							writer.write('"');
 						}
 						
-						resultJson.put(JSON_KEY_DATA, result);
-						
-						if((prettyPrint != null) && prettyPrint) {
-							resultString = resultJson.toString(4);
-						}
-						else {
-							resultString = resultJson.toString();
+						if((j + 1) != keyLength) {
+							writer.write(',');
 						}
 					}
-					// For CSV output,
-					else if(OutputFormat.CSV.equals(outputFormat)) {
-						// Mark it as an attachment.
-						httpResponse.setContentType("text/csv");
-						httpResponse.setHeader(
-								"Content-Disposition", 
-								"attachment; filename=" + 
-									getCampaign().getName() + 
-									".csv");
-
-						StringBuilder resultBuilder = new StringBuilder();
-						
-						// If the metadata is not suppressed, add it to the
-						// output builder.
-						if((suppressMetadata == null) || (! suppressMetadata)) {
-							metadata.put(JSON_KEY_RESULT, RESULT_SUCCESS);
-							
-							resultBuilder.append("## begin metadata\n");
-							resultBuilder.append('#').append(metadata.toString().replace(',', ';')).append('\n');
-							resultBuilder.append("## end metadata\n");
-						
-							// Add the prompt contexts to the output builder if 
-							// prompts were desired.
-							if(allColumns || columns.contains(ColumnKey.PROMPT_RESPONSE)) {
-								resultBuilder.append("## begin prompt contexts\n");
-								for(String promptId : prompts.keySet()) {
-									JSONObject promptJson = new JSONObject();
-									
-									// Use the already-generated JSON from each of
-									// the prompts.
-									promptJson.put(
-											promptId, 
-											prompts
-												.get(promptId)
-												.get(JSON_KEY_CONTEXT));
-									
-									resultBuilder
-										.append('#')
-										.append(promptJson.toString())
-										.append('\n');
-								}
-								resultBuilder.append("## end prompt contexts\n");
-							}
-							
-							// Begin the data section of the CSV.
-							resultBuilder.append("## begin data\n");
-						}
-
-						// Get the number of keys.
-						int keyLength = keysOrdered.length();
-						
-						// Create a comma-separated list of the header names.
-						for(int i = 0; i < keyLength; i++) {
-							String header = keysOrdered.getString(i);
-							if(header.startsWith("urn:ohmage:")) {
-								header = header.substring(11);
-								
-								if(header.startsWith("prompt:id:")) {
-									header = header.substring(10);
-								}
-							}
-							resultBuilder.append(header);
-							
-							if((i + 1) != keyLength) {
-								resultBuilder.append(',');
-							}
-						}
-						resultBuilder.append('\n');
-						
-						// For each of the responses, 
-						for(int i = 0; i < numSurveyResponses; i++) {
-							for(int j = 0; j < keyLength; j++) {
-								Object currResult = 
-										result
-											.getJSONObject(keysOrdered.getString(j))
-											.getJSONArray(JSON_KEY_VALUES)
-											.get(i);
-								
-								if(JSONObject.NULL.equals(currResult)) {
-									resultBuilder.append("");
-								}
-								else {
-									resultBuilder
-										.append(
-											"\"" +
-												currResult
-													.toString()
-														.replace(
-															"\"",
-															"\"\"") +
-											"\"");
-								}
-								
-								if((j + 1) != keyLength) {
-									resultBuilder.append(',');
-								}
-							}
-
-							resultBuilder.append('\n');
-						}
-						
-						if((suppressMetadata == null) || (! suppressMetadata)) {
-							resultBuilder.append("## end data");
-						}
-						
-						resultString = resultBuilder.toString();
-					}
+					
+					writer.write('\n');
 				}
+			};
+			readSurveyResponses(handler);
+			
+			if(metadata != null) {
+				putCounts(metadata, handler);
 			}
-			catch(JSONException e) {
-				LOGGER.error(e.toString(), e);
-				setFailed();
-			}
-			catch(IllegalStateException e) {
-				LOGGER.error(e.toString(), e);
-				setFailed();
+			
+			buffered = true;
+			return result;
+		}
+		finally {
+			if(! buffered) {
+				result.close();
 			}
-			catch(DomainException e) {
-				LOGGER.error(e.toString(), e);
-				setFailed();
+		}
+	}
+	
+	/**
+	 * Writes the {@link OutputFormat#CSV} output from the buffered header and
+	 * rows.
+	 * 
+	 * @param writer The writer to write to.
+	 * 
+	 * @param allColumns Whether or not all of the columns were requested.
+	 * 
+	 * @param promptContexts The contexts of the prompts whose responses are
+	 * 						 being written.
+	 * 
+	 * @param metadata The metadata or null if it is being suppressed.
+	 * 
+	 * @param dataBuffer The buffered header and rows.
+	 * 
+	 * @throws IOException There was an error writing to the writer.
+	 * 
+	 * @throws JSONException There was an error building the JSON.
+	 */
+	private void writeCsv(
+			final Writer writer,
+			final boolean allColumns,
+			final Map<String, JSONObject> promptContexts,
+			final JSONObject metadata,
+			final ResponseBuffer dataBuffer)
+			throws IOException, JSONException {
+		
+		// If the metadata is not suppressed, begin with it and the prompt
+		// contexts.
+		if(metadata != null) {
+			metadata.put(JSON_KEY_RESULT, RESULT_SUCCESS);
+			
+			writer.write("## begin metadata\n");
+			writer.write('#');
+			writer.write(metadata.toString().replace(',', ';'));
+			writer.write('\n');
+			writer.write("## end metadata\n");
+			
+			// Add the prompt contexts to the output if prompts were 
+			// desired.
+			if(allColumns || columns.contains(ColumnKey.PROMPT_RESPONSE)) {
+				writer.write("## begin prompt contexts\n");
+				for(String promptId : promptContexts.keySet()) {
+					JSONObject promptJson = new JSONObject();
+					promptJson.put(promptId, promptContexts.get(promptId));
+					
+					writer.write('#');
+					writer.write(promptJson.toString());
+					writer.write('\n');
+				}
+				writer.write("## end prompt contexts\n");
 			}
+			
+			// Begin the data section of the CSV.
+			writer.write("## begin data\n");
 		}
 		
-		if(isFailed()) {
-			httpResponse.setContentType("text/html");
-			resultString = this.getFailureMessage();
+		dataBuffer.writeTo(writer);
+		
+		// If the metadata is not suppressed, end the data.
+		if(metadata != null) {
+			writer.write("## end data");
 		}
+	}
+	
+	/**
+	 * Returns the keys of the columns for the column-based formats in the
+	 * order they should be output, which is a specific order per Hongsuda's
+	 * request.
+	 * 
+	 * @param allColumns Whether or not all of the columns were requested.
+	 * 
+	 * @param promptIds The IDs of the prompt columns.
+	 * 
+	 * @return The keys of the columns in order.
+	 */
+	private List<String> getColumnKeys(
+			final boolean allColumns,
+			final Collection<String> promptIds) {
 		
-		try {
-			writer.write(resultString);
+		List<String> result = new ArrayList<String>();
+		
+		if(allColumns || columns.contains(ColumnKey.SURVEY_ID)) {
+			result.add(ColumnKey.SURVEY_ID.toString());
 		}
-		catch(ClientAbortException e) {
-			LOGGER.info("The client hung up unexpectedly.", e);
+		if(allColumns || columns.contains(ColumnKey.SURVEY_TITLE)) {
+			result.add(ColumnKey.SURVEY_TITLE.toString());
 		}
-		catch(IOException e) {
-			LOGGER.warn("Unable to write response message. Aborting.", e);
+		if(allColumns || columns.contains(ColumnKey.SURVEY_DESCRIPTION)) {
+			result.add(ColumnKey.SURVEY_DESCRIPTION.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.USER_ID)) {
+			result.add(ColumnKey.USER_ID.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_CLIENT)) {
+			result.add(ColumnKey.CONTEXT_CLIENT.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_UTC_TIMESTAMP)) {
+			result.add(ColumnKey.CONTEXT_UTC_TIMESTAMP.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_EPOCH_MILLIS)) {
+			result.add(ColumnKey.CONTEXT_EPOCH_MILLIS.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_DATE)) {
+			result.add(ColumnKey.CONTEXT_DATE.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMESTAMP)) {
+			result.add(ColumnKey.CONTEXT_TIMESTAMP.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMEZONE)) {
+			result.add(ColumnKey.CONTEXT_TIMEZONE.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.PROMPT_RESPONSE)) {
+			List<String> promptColumns = new ArrayList<String>(promptIds.size());
+			for(String promptId : promptIds) {
+				promptColumns.add(ColumnKey.URN_PROMPT_ID_PREFIX + promptId);
+			}
+			Collections.sort(promptColumns);
+			
+			result.addAll(promptColumns);
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_STATUS)) {
+			result.add(ColumnKey.CONTEXT_LOCATION_STATUS.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LATITUDE)) {
+			result.add(ColumnKey.CONTEXT_LOCATION_LATITUDE.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LONGITUDE)) {
+			result.add(ColumnKey.CONTEXT_LOCATION_LONGITUDE.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_PROVIDER)) {
+			result.add(ColumnKey.CONTEXT_LOCATION_PROVIDER.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
+			result.add(ColumnKey.CONTEXT_LOCATION_TIMESTAMP.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMEZONE)) {
+			result.add(ColumnKey.CONTEXT_LOCATION_TIMEZONE.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_ACCURACY)) {
+			result.add(ColumnKey.CONTEXT_LOCATION_ACCURACY.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.SURVEY_PRIVACY_STATE)) {
+			result.add(ColumnKey.SURVEY_PRIVACY_STATE.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG)) {
+			result.add(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG.toString());
+		}
+		if(columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT)) {
+			result.add(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT.toString());
+		}
+		if(allColumns || columns.contains(ColumnKey.SURVEY_RESPONSE_ID)) {
+			result.add(ColumnKey.SURVEY_RESPONSE_ID.toString());
+		}
+		if((collapse != null) && collapse) {
+			result.add(COLUMN_KEY_COUNT);
 		}
 		
-		// Close it.
-		try {
-			writer.close();
+		return result;
+	}
+	
+	/**
+	 * Counts the prompt responses in a survey response.
+	 * 
+	 * @param surveyResponse The survey response.
+	 * 
+	 * @return The number of prompt responses.
+	 */
+	private static int countPromptResponses(
+			final SurveyResponse surveyResponse) {
+		
+		int result = 0;
+		for(Response response : surveyResponse.getResponses().values()) {
+			if(response instanceof PromptResponse) {
+				result++;
+			}
 		}
-		catch(ClientAbortException e) {
-			LOGGER.info("The client hung up unexpectedly.", e);
+		return result;
+	}
+	
+	/**
+	 * Adds the number of survey responses and prompt responses that were
+	 * handled, the total number of survey responses, and the cursor for the
+	 * next page, if any, to the metadata.
+	 * 
+	 * @param metadata The metadata.
+	 * 
+	 * @param handler The handler that was given the survey responses.
+	 * 
+	 * @throws JSONException The counts could not be added.
+	 */
+	private void putCounts(
+			final JSONObject metadata,
+			final CountingHandler handler)
+			throws JSONException {
+		
+		metadata.put(JSON_KEY_NUM_SURVEYS, handler.numSurveys);
+		metadata.put(JSON_KEY_NUM_PROMPTS, handler.numPrompts);
+		
+		// Add the total count to the metadata.
+		metadata.put(
+				JSON_KEY_TOTAL_NUM_RESULTS, 
+				getSurveyResponseCount());
+		
+		// Add the cursor so that the next page may be read without skipping.
+		if(nextCursor != null) {
+			metadata.put(JSON_KEY_CURSOR, nextCursor.toString());
+		}
+	}
+	
+	/**
+	 * Gives each survey response to the handler. If they are being streamed,
+	 * they are read from the database now, and the cursor for the next page
+	 * is recorded. Otherwise, they were already gathered while servicing the
+	 * request.
+	 * 
+	 * @param handler The handler to give each survey response to.
+	 * 
+	 * @throws ServiceException The survey responses could not be read or the
+	 * 							handler failed.
+	 */
+	private void readSurveyResponses(
+			final CountingHandler handler)
+			throws ServiceException {
+		
+		if(streamResults) {
+			final SurveyResponseReadCursor.Builder nextCursorBuilder =
+				new SurveyResponseReadCursor.Builder();
+			streamSurveyResponses(
+				cursor,
+				new SurveyResponse.SurveyResponseHandler() {
+					/**
+					 * Hands off the survey response and remembers its
+					 * position.
+					 */
+					@Override
+					public void handle(
+							final SurveyResponse surveyResponse)
+							throws IOException {
+						
+						handler.handle(surveyResponse);
+						nextCursorBuilder.setPosition(
+							surveyResponse.getTime(), 
+							surveyResponse.getSurveyResponseId());
+					}
+				});
+			
+			// Only a full page may have more survey responses after it, and
+			// the cursor is only a position in the default order of the
+			// individual survey responses.
+			if(
+				(handler.numSurveys >= surveyResponsesToProcess) &&
+				(sortOrder == null) &&
+				((collapse == null) || (! collapse))) {
+				
+				nextCursor = nextCursorBuilder.build();
+			}
+			return;
+		}
+		
+		try {
+			for(SurveyResponse surveyResponse : getSurveyResponses()) {
+				handler.handle(surveyResponse);
+			}
 		}
 		catch(IOException e) {
-			LOGGER.warn("Unable to close the writer.", e);
+			throw new ServiceException(
+				"The survey responses could not be handled.",
+				e);
+		}
+	}
+	
+	/**
+	 * Serializes a single column value as JSON the same way a JSONArray
+	 * would.
+	 * 
+	 * @param value The value, which may be null.
+	 * 
+	 * @return The value's JSON.
+	 * 
+	 * @throws JSONException The value is a non-finite number.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static String toJsonValue(final Object value) throws JSONException {
+		if(JSONObject.NULL.equals(value)) {
+			return "null";
 		}
+		else if(value instanceof Number) {
+			return JSONObject.numberToString((Number) value);
+		}
+		else if(
+			(value instanceof Boolean) || 
+			(value instanceof JSONObject) || 
+			(value instanceof JSONArray)) {
+			
+			return value.toString();
+		}
+		else if(value instanceof Map) {
+			return new JSONObject((Map) value).toString();
+		}
+		else if(value instanceof Collection) {
+			return new JSONArray((Collection) value).toString();
+		}
+		
+		return JSONObject.quote(value.toString());
 	}
 
 	/*
@@ -1596,20 +2076,93 @@ public final class SurveyResponseReadRequest
 	}
 	
 	/**
-	 * Populates the prompts map with all of the prompts from all of the survey
-	 * items. 
+	 * Populates the prompt contexts with the information about each of the
+	 * prompts that were requested.
+	 * 
+	 * @param promptContexts The map of prompt column IDs to their contexts to
+	 * 						 populate.
+	 * 
+	 * @throws JSONException Thrown if there is an error building the JSON.
+	 * 
+	 * @throws DomainException A requested prompt no longer exists.
+	 */
+	private void populatePromptContexts(
+			final Map<String, JSONObject> promptContexts)
+			throws JSONException, DomainException {
+		
+		// If the user-supplied list of survey IDs is present,
+		if(getSurveyIds() != null) {
+			Map<String, Survey> campaignSurveys = getCampaign().getSurveys();
+			// If the user asked for all surveys for this campaign, then
+			// populate the prompt information with all of the data about all
+			// of the prompts in all of the surveys in this campaign.
+			if(getSurveyIds().equals(URN_SPECIAL_ALL_LIST)) {
+				for(Survey currSurvey : campaignSurveys.values()) {
+					populatePrompts(currSurvey.getSurveyItems(), promptContexts);
+				}
+			}
+			// Otherwise, populate the prompt information only with the data
+			// about the requested surveys.
+			else {
+				for(String surveyId : this.getSurveyIds()) {
+					populatePrompts(campaignSurveys.get(surveyId).getSurveyItems(), promptContexts);
+				}
+			}
+		}
+		// If the user-supplied list of prompt IDs is present,
+		else if(getPromptIds() != null) {
+			// If the user asked for all prompts for this campaign, then
+			// populate the prompt information with all of the data about all
+			// of the prompts in this campaign.
+			if(getPromptIds().equals(URN_SPECIAL_ALL_LIST)) {
+				for(Survey currSurvey : getCampaign().getSurveys().values()) {
+					populatePrompts(currSurvey.getSurveyItems(), promptContexts);
+				}
+			}
+			// Otherwise, populate the prompt information with the data about
+			// only the requested prompts.
+			else {
+				int currNumPrompts = 0;
+				Map<Integer, SurveyItem> tempPromptMap = 
+						new HashMap<Integer, SurveyItem>(getPromptIds().size());
+				
+				for(String promptId : getPromptIds()) {
+					try {
+						tempPromptMap.put(
+								currNumPrompts, 
+								getCampaign().getPrompt(
+										getCampaign().getSurveyIdForPromptId(
+												promptId), 
+										promptId));
+					}
+					catch(DomainException e) {
+						throw new DomainException(
+								"A prompt ID that should have already been validated, appears to no longer exist.",
+								e);
+					}
+					currNumPrompts++;
+				}
+				
+				populatePrompts(tempPromptMap, promptContexts);
+			}
+		}
+	}
+	
+	/**
+	 * Populates the prompt contexts with all of the prompts from all of the
+	 * survey items. 
 	 * 
 	 * @param surveyItems The map of survey item indices to the survey item.
 	 * 
-	 * @param prompts The prompts to be populated with all of the prompts in
-	 * 				  the survey item including all of the sub-prompts of 
-	 * 				  repeatable sets.
+	 * @param promptContexts The prompt contexts to be populated with all of
+	 * 						 the prompts in the survey item including all of
+	 * 						 the sub-prompts of repeatable sets.
 	 * 
 	 * @throws JSONException Thrown if there is an error building the JSON.
 	 */
 	private void populatePrompts(
 			final Map<Integer, SurveyItem> surveyItems,
-			Map<String, JSONObject> prompts) 
+			Map<String, JSONObject> promptContexts) 
 			throws JSONException {
 		
 		for(SurveyItem surveyItem : surveyItems.values()) {
@@ -1619,130 +2172,80 @@ public final class SurveyResponseReadRequest
 						(OutputFormat.CSV.equals(outputFormat))) {
 					
 					ChoicePrompt prompt = (ChoicePrompt) surveyItem;
-
-					JSONObject promptJsonKey = new JSONObject();
-					promptJsonKey.put(JSON_KEY_CONTEXT, prompt.toJson());
-					promptJsonKey.put(JSON_KEY_VALUES, new JSONArray());
+					JSONObject context = prompt.toJson();
 					
-					JSONObject promptJsonLabel = new JSONObject();
-					promptJsonLabel.put(JSON_KEY_CONTEXT, prompt.toJson());
-					promptJsonLabel.put(JSON_KEY_VALUES, new JSONArray());
-					
-					prompts.put(prompt.getId() + ":key", promptJsonKey);
-					prompts.put(prompt.getId() + ":label", promptJsonLabel);
+					promptContexts.put(prompt.getId() + ":key", context);
+					promptContexts.put(prompt.getId() + ":label", context);
 					
 					if(prompt.hasValues()) {
-						JSONObject promptJsonValue = new JSONObject();
-						promptJsonValue.put(JSON_KEY_CONTEXT, prompt.toJson());
-						promptJsonValue.put(JSON_KEY_VALUES, new JSONArray());
-
-						prompts.put(prompt.getId() + ":value", promptJsonValue);
+						promptContexts.put(prompt.getId() + ":value", context);
 					}
 				}
 				else {
 					Prompt prompt = (Prompt) surveyItem;
 					
-					JSONObject promptJson = new JSONObject();
-					promptJson.put(JSON_KEY_CONTEXT, prompt.toJson());
-					promptJson.put(JSON_KEY_VALUES, new JSONArray());
-					
-					prompts.put(prompt.getId(), promptJson);
+					promptContexts.put(prompt.getId(), prompt.toJson());
 				}
 			}
 			else if(surveyItem instanceof RepeatableSet) {
 				RepeatableSet repeatableSet = (RepeatableSet) surveyItem;
-				populatePrompts(repeatableSet.getSurveyItems(), prompts);
+				populatePrompts(repeatableSet.getSurveyItems(), promptContexts);
 			}
 		}
 	}
 	
 	/**
-	 * Processes each of the responses in map to populate the JSONObjects by
-	 * placing the value from the response into its corresponding JSONObject.
+	 * Processes a survey response into a single row of the column-based
+	 * formats by placing each of its values into the row under its column's
+	 * key. Prompts that were not given a response have no value in the row.
 	 * 
-	 * @param allColumns Whether or not to populate all JSONObjects.
+	 * @param allColumns Whether or not to populate all columns.
 	 * 
 	 * @param surveyResponse The current survey response.
 	 * 
 	 * @param responses The map of response index from the survey response to
 	 * 					the actual response.
 	 * 
-	 * @param surveys The map of survey IDs to Survey objects.
-	 * 
-	 * @param prompts The map of prompt IDs to Prompt objects.
-	 * 
-	 * @param usernames The usernames JSONArray.
-	 * 
-	 * @param clients The clients JSONArray.
-	 * 
-	 * @param privacyStates The privacy states JSONArray.
-	 * 
-	 * @param timestamps The timestamps JSONArray.
-	 * 
-	 * @param utcTimestamps The timestamps JSONArray where the timestamps are
-	 * 						converted to UTC.
-	 * 
-	 * @param epochMillisTimestamps The epoch millis JSONArray.
-	 * 
-	 * @param timezones The timezones JSONArray.
-	 * 
-	 * @param locationStatuses The location statuses JSONArray.
-	 * 
-	 * @param locations The locations JSONArray.
-	 * 
-	 * @param surveyIds The survey IDs JSONArray.
-	 * 
-	 * @param surveyTitles The survey titles JSONArray.
-	 * 
-	 * @param surveyDescriptions The survey description JSONArray.
-	 * 
-	 * @param launchContexts The launch contexts JSONArray.
+	 * @param row The row to populate.
 	 * 
 	 * @return The total number of prompt responses that were processed.
 	 * 
-	 * @throws JSONException Thrown if there is an error populating any of the
-	 * 						 JSONArrays.
+	 * @throws JSONException Thrown if there is an error building the launch
+	 * 						 context.
 	 * 
 	 * @throws DomainException There was a problem aggregating the data.
 	 */
 	private int processResponses(final boolean allColumns, 
 			final SurveyResponse surveyResponse,
 			final Map<Integer, Response> responses, 
-			Map<String, JSONObject> prompts,
-			JSONArray usernames, JSONArray clients, JSONArray privacyStates,
-			JSONArray dates, JSONArray timestamps, JSONArray utcTimestamps, 
-			JSONArray epochMillisTimestamps, JSONArray timezones,
-			JSONArray locationStatuses, JSONArray locationLongitude,
-			JSONArray locationLatitude, JSONArray locationTime,
-			JSONArray locationTimeZone,
-			JSONArray locationAccuracy, JSONArray locationProvider,
-			JSONArray surveyIds, JSONArray surveyTitles, 
-			JSONArray surveyDescriptions, JSONArray launchContexts,
-			JSONArray surveyResponseIds, JSONArray counts) 
+			final Map<String, Object> row) 
 			throws JSONException, DomainException {
 
 		// Add each of the survey response-wide pieces of information.
 		if(allColumns || columns.contains(ColumnKey.USER_ID)) {
-			usernames.put(surveyResponse.getUsername());
+			row.put(ColumnKey.USER_ID.toString(), surveyResponse.getUsername());
 		}
 		if(allColumns || columns.contains(ColumnKey.CONTEXT_CLIENT)) {
-			clients.put(surveyResponse.getClient());
+			row.put(ColumnKey.CONTEXT_CLIENT.toString(), surveyResponse.getClient());
 		}
 		if(allColumns || columns.contains(ColumnKey.SURVEY_PRIVACY_STATE)) {
-			privacyStates.put(surveyResponse.getPrivacyState().toString());
+			row.put(ColumnKey.SURVEY_PRIVACY_STATE.toString(), surveyResponse.getPrivacyState().toString());
 		}
 		if(allColumns || columns.contains(ColumnKey.CONTEXT_DATE)) {
-			dates.put(
+			row.put(
+					ColumnKey.CONTEXT_DATE.toString(),
 					DateTimeUtils.getIso8601DateString(
 						surveyResponse.getDate(), false));
 		}
 		if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMESTAMP)) {
-			timestamps.put(
+			row.put(
+					ColumnKey.CONTEXT_TIMESTAMP.toString(),
 					DateTimeUtils.getIso8601DateString(
 						surveyResponse.getDate(), true));
 		}
 		if(allColumns || columns.contains(ColumnKey.CONTEXT_UTC_TIMESTAMP)) {
-			utcTimestamps.put(
+			row.put(
+					ColumnKey.CONTEXT_UTC_TIMESTAMP.toString(),
 					DateTimeUtils.getIso8601DateString(
 						new DateTime(
 							surveyResponse.getTime(), 
@@ -1750,93 +2253,58 @@ public final class SurveyResponseReadRequest
 						true));
 		}
 		if(allColumns || columns.contains(ColumnKey.CONTEXT_EPOCH_MILLIS)) {
-			epochMillisTimestamps.put(surveyResponse.getTime());
+			row.put(ColumnKey.CONTEXT_EPOCH_MILLIS.toString(), surveyResponse.getTime());
 		}
 		if(allColumns || columns.contains(ColumnKey.CONTEXT_TIMEZONE)) {
-			timezones.put(surveyResponse.getTimezone().getID());
+			row.put(ColumnKey.CONTEXT_TIMEZONE.toString(), surveyResponse.getTimezone().getID());
 		}
 		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_STATUS)) {
-			locationStatuses.put(surveyResponse.getLocationStatus().toString());
-		}
-		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LONGITUDE)) {
-			Location location = surveyResponse.getLocation();
-			if(location == null) {
-				locationLongitude.put(JSONObject.NULL);
-			}
-			else {
-				locationLongitude.put(location.getLongitude());
-			}
+			row.put(ColumnKey.CONTEXT_LOCATION_STATUS.toString(), surveyResponse.getLocationStatus().toString());
 		}
-		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LATITUDE)) {
-			Location location = surveyResponse.getLocation();
-			if(location == null) {
-				locationLatitude.put(JSONObject.NULL);
+		Location location = surveyResponse.getLocation();
+		if(location != null) {
+			if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LONGITUDE)) {
+				row.put(ColumnKey.CONTEXT_LOCATION_LONGITUDE.toString(), location.getLongitude());
 			}
-			else {
-				locationLatitude.put(location.getLatitude());
+			if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_LATITUDE)) {
+				row.put(ColumnKey.CONTEXT_LOCATION_LATITUDE.toString(), location.getLatitude());
 			}
-		}
-		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
-			Location location = surveyResponse.getLocation();
-			if(location == null) {
-				locationTime.put(JSONObject.NULL);
+			if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
+				row.put(ColumnKey.CONTEXT_LOCATION_TIMESTAMP.toString(), location.getTime());
 			}
-			else {
-				locationTime.put(location.getTime());
+			if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMEZONE)) {
+				row.put(ColumnKey.CONTEXT_LOCATION_TIMEZONE.toString(), location.getTimeZone().getID());
 			}
-		}
-		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_TIMESTAMP)) {
-			Location location = surveyResponse.getLocation();
-			if(location == null) {
-				locationTimeZone.put(JSONObject.NULL);
+			if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_ACCURACY)) {
+				row.put(ColumnKey.CONTEXT_LOCATION_ACCURACY.toString(), location.getAccuracy());
 			}
-			else {
-				locationTimeZone.put(location.getTimeZone().getID());
-			}
-		}
-		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_ACCURACY)) {
-			Location location = surveyResponse.getLocation();
-			if(location == null) {
-				locationAccuracy.put(JSONObject.NULL);
-			}
-			else {
-				locationAccuracy.put(location.getAccuracy());
-			}
-		}
-		if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_PROVIDER)) {
-			Location location = surveyResponse.getLocation();
-			if(location == null) {
-				locationProvider.put(JSONObject.NULL);
-			}
-			else {
-				locationProvider.put(location.getProvider());
+			if(allColumns || columns.contains(ColumnKey.CONTEXT_LOCATION_PROVIDER)) {
+				row.put(ColumnKey.CONTEXT_LOCATION_PROVIDER.toString(), location.getProvider());
 			}
 		}
 		if(allColumns || columns.contains(ColumnKey.SURVEY_ID)) {
-			surveyIds.put(surveyResponse.getSurvey().getId());
+			row.put(ColumnKey.SURVEY_ID.toString(), surveyResponse.getSurvey().getId());
 		}
 		if(allColumns || columns.contains(ColumnKey.SURVEY_TITLE)) {
-			surveyTitles.put(surveyResponse.getSurvey().getTitle());
+			row.put(ColumnKey.SURVEY_TITLE.toString(), surveyResponse.getSurvey().getTitle());
 		}
 		if(allColumns || columns.contains(ColumnKey.SURVEY_DESCRIPTION)) {
-			surveyDescriptions.put(surveyResponse.getSurvey().getDescription());
+			row.put(ColumnKey.SURVEY_DESCRIPTION.toString(), surveyResponse.getSurvey().getDescription());
 		}
 		if(allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG) || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT)) {
-			launchContexts.put(surveyResponse.getLaunchContext().toJson(allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG)));
+			JSONObject launchContext = surveyResponse.getLaunchContext().toJson(allColumns || columns.contains(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG));
+			row.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_LONG.toString(), launchContext);
+			row.put(ColumnKey.CONTEXT_LAUNCH_CONTEXT_SHORT.toString(), launchContext);
 		}
 		if(allColumns || columns.contains(ColumnKey.SURVEY_RESPONSE_ID)) {
-			surveyResponseIds.put(surveyResponse.getSurveyResponseId().toString());
+			row.put(ColumnKey.SURVEY_RESPONSE_ID.toString(), surveyResponse.getSurveyResponseId().toString());
 		}
 		if((collapse != null) && collapse) {
-			counts.put(surveyResponse.getCount());
+			row.put(COLUMN_KEY_COUNT, surveyResponse.getCount());
 		}
 		
 		int numResponses = 0;
 		
-		// Create a map of which prompts were given a response in this 
-		// iteration.
-		Set<String> promptIdsWithResponse = new HashSet<String>();
-		
 		// Get the indices of each response in the list of responses and then
 		// sort them to ensure that we process each response in the correct 
 		// numeric order.
@@ -1856,7 +2324,8 @@ public final class SurveyResponseReadRequest
 					PromptResponse promptResponse = (PromptResponse) response;
 					
 					Prompt prompt = promptResponse.getPrompt();
-					String responseId = response.getId();
+					String responseColumn = 
+						ColumnKey.URN_PROMPT_ID_PREFIX + response.getId();
 					
 					// If it's a ChoicePrompt response, populate all three  
 					// columns, <id>:key, <id>:label, and <id>:value.
@@ -1867,26 +2336,11 @@ public final class SurveyResponseReadRequest
 						Object responseObject = response.getResponse();
 						
 						// If the response was not really a response, e.g.
-						// skipped, not displayed, etc., put a JSONObject.NULL
-						// object in for the key and value and put a quoted
-						// string-representation of the non-response.
+						// skipped, not displayed, etc., leave the key and 
+						// value empty and put a string-representation of the 
+						// non-response in the label.
 						if(responseObject instanceof NoResponse) {
-							JSONArray keys =
-									prompts.get(responseId + ":key")
-										.getJSONArray(JSON_KEY_VALUES);
-							keys.put(JSONObject.NULL);
-							
-							JSONArray labels =
-									prompts.get(responseId + ":label")
-										.getJSONArray(JSON_KEY_VALUES);
-							labels.put(responseObject);
-							
-							if(((ChoicePrompt) prompt).hasValues()) {
-								JSONArray values =
-										prompts.get(responseId + ":value")
-											.getJSONArray(JSON_KEY_VALUES);
-								values.put(JSONObject.NULL);
-							}
+							row.put(responseColumn + ":label", responseObject);
 						}
 						// Otherwise, get the key, label, and, potentially,
 						// value and populate their corresponding columns.
@@ -1972,47 +2426,19 @@ public final class SurveyResponseReadRequest
 								throw new IllegalStateException("There exists a choice prompt that is not a (single/multi) [custom] choice.");
 							}
 						
-							promptIdsWithResponse.add(responseId + ":key");
-							JSONArray keys =
-									prompts.get(responseId + ":key")
-										.getJSONArray(JSON_KEY_VALUES);
-							keys.put(key);
-							
-							promptIdsWithResponse.add(responseId + ":label");
-							JSONArray labels =
-									prompts.get(responseId + ":label")
-										.getJSONArray(JSON_KEY_VALUES);
-							labels.put(label);
+							row.put(responseColumn + ":key", key);
+							row.put(responseColumn + ":label", label);
 							
 							if(choicePrompt.hasValues()) {
-								promptIdsWithResponse
-									.add(responseId + ":value");
-								JSONArray values =
-										prompts.get(responseId + ":value")
-											.getJSONArray(JSON_KEY_VALUES);
-								if(value == null) {
-									values.put("");
-								}
-								else {
-									values.put(value);
-								}
+								row.put(
+									responseColumn + ":value", 
+									(value == null) ? "" : value);
 							}
 						}
-
-						// Finally, indicate that these prompts were given
-						// values so that the others may be populated with
-						// JSONObject.NULLs.
-						promptIdsWithResponse.add(responseId + ":key");
-						promptIdsWithResponse.add(responseId + ":label");
-						promptIdsWithResponse.add(responseId + ":value");
 					}
 					// Otherwise, only populate the value.
 					else {
-						promptIdsWithResponse.add(responseId);
-						prompts
-							.get(responseId)
-								.getJSONArray(JSON_KEY_VALUES)
-									.put(response.getResponse());
+						row.put(responseColumn, response.getResponse());
 					}
 				}
 			}
@@ -2025,50 +2451,11 @@ public final class SurveyResponseReadRequest
 			// the prompt name. The problem is that before this function is 
 			// called we called a generic header creator for each prompt. This
 			// prompt would have had a header that was created but only the 
-			// one. We need to duplicate that header, JSONObject.NULL-out all 
-			// of the previous responses, and give it a new header with the
+			// one. We need to duplicate that header, leave all of the 
+			// previous responses empty, and give it a new header with the
 			// iteration number.
 			else if(response instanceof RepeatableSetResponse) {
-				/*
-				RepeatableSetResponse repeatableSetResponse =
-					(RepeatableSetResponse) response;
-				
-				Map<Integer, Map<Integer, Response>> repeatableSetResponses =
-					repeatableSetResponse.getResponseGroups();
-				
-				List<Integer> rsIterations = 
-					new ArrayList<Integer>(repeatableSetResponses.keySet());
-				
-				for(Integer rsIndex : rsIterations) {
-					numResponses += processResponses(allColumns, 
-							surveyResponse,
-							repeatableSetResponses.get(rsIndex), 
-							prompts, 
-							usernames, clients, privacyStates, 
-							timestamps, utcTimestamps, 
-							epochMillisTimestamps, timezones, 
-							locationStatuses, locationLongitude,
-							locationLatitude, locationTime, locationTimeZone,
-							locationAccuracy, locationProvider,
-							surveyIds, surveyTitles, surveyDescriptions, 
-							launchContexts
-						);
-				}
-				*/
-			}
-		}
-		
-		// Finally, get all of the prompts that didn't receive a value in this
-		// iteration and give them a value of JSONObject.NULL.
-		if(allColumns || columns.contains(ColumnKey.PROMPT_RESPONSE)) {
-			Set<String> promptIdsWithoutResponse = 
-				new HashSet<String>(prompts.keySet());
-			promptIdsWithoutResponse.removeAll(promptIdsWithResponse);
-			for(String currPromptId : promptIdsWithoutResponse) {
-				prompts
-					.get(currPromptId)
-					.getJSONArray(JSON_KEY_VALUES)
-					.put(JSONObject.NULL);
+				// Repeatable set responses are not yet output.
 			}
 		}
 		
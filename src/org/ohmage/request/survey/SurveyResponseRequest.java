@@ -18,6 +18,7 @@ import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
+import org.ohmage.domain.campaign.SurveyResponseReadCursor;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
@@ -65,6 +66,11 @@ public abstract class SurveyResponseRequest extends UserRequest {
 		new ArrayList<SurveyResponse>();
 	private long surveyResponseCount = 0;
 	
+	private Collection<SurveyResponse.ColumnKey> aggregateColumns = null;
+	private List<SortParameter> sortOrder = null;
+	private long numSurveyResponsesToSkip = 0;
+	private long numSurveyResponsesToProcess = 0;
+	
 	/**
 	 * Creates a survey responses request. The optional parameters limit the 
 	 * results to only those that match the criteria.
@@ -410,30 +416,18 @@ public abstract class SurveyResponseRequest extends UserRequest {
 			final long numSurveyResponsesToSkip,
 			final long numSurveyResponsesToProcess) {
 		
-		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+		if(! prepare(
+				columns,
+				promptType,
+				sortOrder,
+				collapse,
+				numSurveyResponsesToSkip,
+				numSurveyResponsesToProcess)) {
+			
 			return;
 		}
 		
 		try {
-		    LOGGER.info("Retrieving campaign configuration.");
-			campaign = CampaignServices.instance().getCampaign(campaignId);
-			if(campaign == null) {
-				throw
-					new ServiceException(
-						ErrorCode.CAMPAIGN_INVALID_ID,
-						"The campaign does not exist.");
-			}
-			
-			if((promptIds != null) && (! promptIds.isEmpty()) && (! URN_SPECIAL_ALL_LIST.equals(promptIds))) {
-				LOGGER.info("Verifying that the prompt ids in the query belong to the campaign.");
-				SurveyResponseReadServices.instance().verifyPromptIdsBelongToConfiguration(promptIds, campaign);
-			}
-			
-			if((surveyIds != null) && (! surveyIds.isEmpty()) && (! URN_SPECIAL_ALL_LIST.equals(surveyIds))) {
-				LOGGER.info("Verifying that the survey ids in the query belong to the campaign.");
-				SurveyResponseReadServices.instance().verifySurveyIdsBelongToConfiguration(surveyIds, campaign);
-			}
-		    
 			LOGGER.info("Dispatching to the data layer.");
 			surveyResponseCount = 
 					SurveyResponseServices.instance().readSurveyResponseInformation(
@@ -448,10 +442,10 @@ public abstract class SurveyResponseRequest extends UserRequest {
 							(URN_SPECIAL_ALL_LIST.equals(promptIds)) ? null : promptIds,
 							null,
 							promptResponseSearchTokens,
-							((collapse != null) && collapse && (! columns.equals(URN_SPECIAL_ALL_LIST))) ? columns : null,
-							sortOrder,
-							numSurveyResponsesToSkip,
-							numSurveyResponsesToProcess,
+							aggregateColumns,
+							this.sortOrder,
+							this.numSurveyResponsesToSkip,
+							this.numSurveyResponsesToProcess,
 							surveyResponseList
 						);
 			
@@ -475,6 +469,121 @@ public abstract class SurveyResponseRequest extends UserRequest {
 		}
 	}
 	
+	/**
+	 * Authenticates the user, retrieves the campaign, and validates the
+	 * parameters against it exactly as
+	 * {@link #service(Collection, String, List, Boolean, long, long)} does,
+	 * but does not read the survey responses. They may then be read with
+	 * {@link #streamSurveyResponses(SurveyResponseReadCursor, SurveyResponse.SurveyResponseHandler)}
+	 * while the response is being written.
+	 * 
+	 * @param columns The columns to gather for each survey response.
+	 * 
+	 * @param promptType Only gather survey responses that contain prompt 
+	 * 					 responses whose prompt type is this.
+	 * 
+	 * @param collapse Whether or not to collapse the results.
+	 * 
+	 * @param numSurveyResponsesToSkip The number of survey responses to skip.
+	 * 
+	 * @param numSurveyResponsesToProcess The number of survey responses to	
+	 * 									  process.
+	 * 
+	 * @return Whether or not the request may continue. If not, it has already
+	 * 		   been failed.
+	 */
+	protected boolean prepare(
+			final Collection<SurveyResponse.ColumnKey> columns,
+			final String promptType,
+			final List<SortParameter> sortOrder,
+			final Boolean collapse,
+			final long numSurveyResponsesToSkip,
+			final long numSurveyResponsesToProcess) {
+		
+		if(! authenticate(AllowNewAccount.NEW_ACCOUNT_DISALLOWED)) {
+			return false;
+		}
+		
+		try {
+		    LOGGER.info("Retrieving campaign configuration.");
+			campaign = CampaignServices.instance().getCampaign(campaignId);
+			if(campaign == null) {
+				throw
+					new ServiceException(
+						ErrorCode.CAMPAIGN_INVALID_ID,
+						"The campaign does not exist.");
+			}
+			
+			if((promptIds != null) && (! promptIds.isEmpty()) && (! URN_SPECIAL_ALL_LIST.equals(promptIds))) {
+				LOGGER.info("Verifying that the prompt ids in the query belong to the campaign.");
+				SurveyResponseReadServices.instance().verifyPromptIdsBelongToConfiguration(promptIds, campaign);
+			}
+			
+			if((surveyIds != null) && (! surveyIds.isEmpty()) && (! URN_SPECIAL_ALL_LIST.equals(surveyIds))) {
+				LOGGER.info("Verifying that the survey ids in the query belong to the campaign.");
+				SurveyResponseReadServices.instance().verifySurveyIdsBelongToConfiguration(surveyIds, campaign);
+			}
+		}
+		catch(ServiceException e) {
+			e.failRequest(this);
+			e.logException(LOGGER);
+			return false;
+		}
+		
+		aggregateColumns = 
+			((collapse != null) && collapse && (! columns.equals(URN_SPECIAL_ALL_LIST))) ? columns : null;
+		this.sortOrder = sortOrder;
+		this.numSurveyResponsesToSkip = numSurveyResponsesToSkip;
+		this.numSurveyResponsesToProcess = numSurveyResponsesToProcess;
+		return true;
+	}
+	
+	/**
+	 * Reads the survey responses that were validated by
+	 * {@link #prepare(Collection, String, List, Boolean, long, long)} and
+	 * gives each one to the handler as soon as it has been read. They are not
+	 * kept, so {@link #getSurveyResponses()} remains empty, but the total
+	 * number of survey responses is available from
+	 * {@link #getSurveyResponseCount()} once this returns.
+	 * 
+	 * @param cursor The position of the last survey response of a previous
+	 * 				 page, after which this page begins, or null. It may only
+	 * 				 be given with the default sort order and without
+	 * 				 collapsing.
+	 * 
+	 * @param handler The handler to give each survey response to.
+	 * 
+	 * @throws ServiceException There was an error reading the survey 
+	 * 							responses or the handler failed.
+	 */
+	protected void streamSurveyResponses(
+			final SurveyResponseReadCursor cursor,
+			final SurveyResponse.SurveyResponseHandler handler)
+			throws ServiceException {
+		
+		LOGGER.info("Streaming the survey responses from the data layer.");
+		surveyResponseCount = 
+				SurveyResponseServices.instance().streamSurveyResponseInformation(
+						campaign,
+						getUser().getUsername(),
+						surveyResponseIds,
+						(URN_SPECIAL_ALL_LIST.equals(usernames) ? null : usernames), 
+						startDate, 
+						endDate, 
+						privacyState, 
+						(URN_SPECIAL_ALL_LIST.equals(surveyIds)) ? null : surveyIds, 
+						(URN_SPECIAL_ALL_LIST.equals(promptIds)) ? null : promptIds,
+						null,
+						promptResponseSearchTokens,
+						aggregateColumns,
+						sortOrder,
+						numSurveyResponsesToSkip,
+						numSurveyResponsesToProcess,
+						cursor,
+						handler
+					);
+	}
+	
 	/**
 	 * The campaign's unique identifier as supplied by the requester.
 	 * 
@@ -517,7 +626,10 @@ public abstract class SurveyResponseRequest extends UserRequest {
 	}
 
 	/**
-	 * The survey responses that matched the query.
+	 * The survey responses that matched the query. This is empty if they
+	 * were streamed with
+	 * {@link #streamSurveyResponses(SurveyResponseReadCursor, SurveyResponse.SurveyResponseHandler)}
+	 * instead.
 	 * 
 	 * @return An unmodifiable collection of the survey responses from the 
 	 * 		   query.
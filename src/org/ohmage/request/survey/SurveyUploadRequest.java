@@ -16,6 +16,7 @@
 package org.ohmage.request.survey;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -37,6 +38,7 @@ import org.json.JSONObject;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.Audio;
 import org.ohmage.domain.Image;
+import org.ohmage.domain.UploadedFile;
 import org.ohmage.domain.Video;
 import org.ohmage.domain.campaign.Campaign;
 import org.ohmage.domain.campaign.SurveyResponse;
@@ -44,6 +46,7 @@ import org.ohmage.exception.DomainException;
 import org.ohmage.exception.InvalidRequestException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.exception.ValidationException;
+import org.ohmage.jee.servlet.RequestServlet;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.UserRequest;
 import org.ohmage.service.CampaignServices;
@@ -124,6 +127,11 @@ public class SurveyUploadRequest extends UserRequest {
 	private final Map<String, Audio> audioContentsMap;
 	private final String owner;
 	
+	// The media parts that were written to temporary files, which are
+	// deleted once the request has been handled.
+	private final List<UploadedFile> uploadedFiles =
+		new ArrayList<UploadedFile>();
+	
 	private Collection<UUID> surveyResponseIds;
 	
 	public SurveyUploadRequest(
@@ -275,8 +283,10 @@ public class SurveyUploadRequest extends UserRequest {
 					}
 				}
 				
-				// Retrieve and validate images and videos.
+				// Retrieve and validate images and videos. Each is streamed
+				// to a temporary file rather than read into memory.
 				List<UUID> imageIds = new ArrayList<UUID>();
+				Map<UUID, String> imageTypes = new HashMap<UUID, String>();
 				tVideoContentsMap = new HashMap<String, Video>();
 				tAudioContentsMap = new HashMap<String, Audio>();
 				Collection<Part> parts = null;
@@ -297,23 +307,33 @@ public class SurveyUploadRequest extends UserRequest {
 						String contentType = p.getContentType();
 						if(contentType.startsWith("image")) {
 							imageIds.add(id);
+							
+							String[] typeParts = contentType.split("/");
+							if(typeParts.length > 1) {
+								imageTypes.put(id, typeParts[1]);
+							}
 						}
 						else if(contentType.startsWith("video/")) {
+							String type = contentType.split("/")[1];
 							tVideoContentsMap.put(
 								name, 
 								new Video(
 									UUID.fromString(name),
-									contentType.split("/")[1],
-									getMultipartValue(httpRequest, name)));
+									type,
+									getUploadedFile(httpRequest, name, type)));
 						}
 						else if(contentType.startsWith("audio/")) {
 							try {
+								String type = contentType.split("/")[1];
 								tAudioContentsMap.put(
 									name,
 									new Audio(
 										UUID.fromString(name),
-										contentType.split("/")[1],
-										getMultipartValue(httpRequest, name)));
+										type,
+										getUploadedFile(
+											httpRequest,
+											name,
+											type)));
 							}
 							catch(DomainException e) {
 								throw
@@ -348,9 +368,10 @@ public class SurveyUploadRequest extends UserRequest {
 						ImageValidators
 							.validateImageContents(
 								imageId,
-								getMultipartValue(
+								getUploadedFile(
 									httpRequest, 
-									imageId.toString()));
+									imageId.toString(),
+									imageTypes.get(imageId)));
 					if(image == null) {
 						throw
 							new ValidationException(
@@ -485,7 +506,85 @@ public class SurveyUploadRequest extends UserRequest {
 	public void respond(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
 		LOGGER.info("Responding to the survey upload request.");
 		
-		super.respond(httpRequest, httpResponse, (JSONObject) null);
+		try {
+			super.respond(httpRequest, httpResponse, (JSONObject) null);
+		}
+		finally {
+			deleteUploadedFiles();
+		}
+	}
+	
+	/**
+	 * Streams a media part to a temporary file, which is deleted once the
+	 * request has been handled.
+	 * 
+	 * @param httpRequest The HTTP request.
+	 * 
+	 * @param name The part's name.
+	 * 
+	 * @param type The media's type, which is used as the temporary file's
+	 * 			   extension, or null if it is unknown.
+	 * 
+	 * @return The uploaded file or null if the part is missing or empty.
+	 * 
+	 * @throws ValidationException The part could not be read, was too large,
+	 * 							   or could not be written.
+	 */
+	private UploadedFile getUploadedFile(
+			final HttpServletRequest httpRequest,
+			final String name,
+			final String type)
+			throws ValidationException {
+		
+		UploadedFile result =
+			getMultipartFile(
+				httpRequest,
+				name,
+				(type == null) ? null : "." + type,
+				RequestServlet.MAX_FILE_SIZE);
+		
+		if(result != null) {
+			uploadedFiles.add(result);
+			
+			if(LOGGER.isDebugEnabled()) {
+				LOGGER.debug(
+					"Received media " + name + ": " +
+						result.getSize() + " bytes.");
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Closes the uploaded media and deletes any of its temporary files that
+	 * were not moved into place.
+	 */
+	private void deleteUploadedFiles() {
+		// The maps are null if the request failed before they were built.
+		List<InputStream> contents = new ArrayList<InputStream>();
+		if(videoContentsMap != null) {
+			for(Video video : videoContentsMap.values()) {
+				contents.add(video.getContentStream());
+			}
+		}
+		if(audioContentsMap != null) {
+			for(Audio audio : audioContentsMap.values()) {
+				contents.add(audio.getContentStream());
+			}
+		}
+		for(InputStream content : contents) {
+			try {
+				content.close();
+			}
+			catch(IOException e) {
+				LOGGER.warn("Could not close the uploaded media.", e);
+			}
+		}
+		
+		for(UploadedFile uploadedFile : uploadedFiles) {
+			uploadedFile.delete();
+		}
 	}
 	
 	/**
@@ -22,6 +22,7 @@ import java.util.Map;
 import org.joda.time.DateTime;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.Audit;
+import org.ohmage.domain.PendingAudit;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.jee.servlet.RequestServlet;
@@ -141,6 +142,26 @@ public class AuditServices {
 		}
 	}
 	
+	/**
+	 * Creates many audit entries at once. Either all of them are created or
+	 * none of them are.
+	 * 
+	 * @param audits The audits to create.
+	 * 
+	 * @throws ServiceException There was an error creating the audits.
+	 */
+	public void createAudits(
+		final List<PendingAudit> audits)
+		throws ServiceException {
+		
+		try {
+			auditQueries.createAudits(audits);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Retrieves the information about all audits that meet the parameterized
 	 * criteria. If all of the parameters are null, except 'request' which 
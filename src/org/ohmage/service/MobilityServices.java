@@ -15,15 +15,21 @@
  ******************************************************************************/
 package org.ohmage.service;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.MobilityAggregatePoint;
+import org.ohmage.domain.MobilityModeRollup;
 import org.ohmage.domain.MobilityPoint;
 import org.ohmage.domain.MobilityPoint.LocationStatus;
 import org.ohmage.domain.MobilityPoint.Mode;
@@ -45,6 +51,12 @@ import edu.ucla.cens.mobilityclassifier.WifiScan;
  * @author John Jenkins
  */
 public final class MobilityServices {
+	/**
+	 * The unique identifier of the observer to which Mobility points are 
+	 * uploaded.
+	 */
+	public static final String MOBILITY_OBSERVER_ID = "edu.ucla.cens.Mobility";
+	
 	/**
 	 * This is the maximum number of milliseconds before a Mobility point that
 	 * we need to get the WiFi data for the classifier.
@@ -52,6 +64,152 @@ public final class MobilityServices {
 	private static final long MAX_MILLIS_OF_PREVIOUS_WIFI_DATA = 
 			1000 * 60 * 10;
 	
+	/**
+	 * The most days of Mobility mode rollups that are computed and stored 
+	 * while reading them. Each day is stored in its own transaction, so this
+	 * keeps a read of old data from waiting on many of them.
+	 */
+	private static final int MAX_ROLLUP_DAYS_STORED_PER_READ = 2;
+	
+	/**
+	 * Classifies a user's Mobility points one at a time. The points must be
+	 * given in chronological order, because each point is classified using
+	 * the WiFi scans of the points before it. This class is mutable and, 
+	 * therefore, not thread-safe.
+	 *
+	 * @author John Jenkins
+	 */
+	public static class PointClassifier {
+		private final MobilityClassifier classifier = new MobilityClassifier();
+		
+		// Place holders for the previous data.
+		private String previousWifiMode = null;
+		private final List<WifiScan> previousWifiScans = 
+			new LinkedList<WifiScan>();
+		
+		/**
+		 * Creates a classifier that has not seen any points.
+		 */
+		public PointClassifier() {
+			// Do nothing.
+		}
+		
+		/**
+		 * Runs the classifier against the next Mobility point.
+		 * 
+		 * @param mobilityPoint The Mobility point to be classified by the
+		 * 						server.
+		 * 
+		 * @throws ServiceException Thrown if there is an error with the 
+		 * 							classification service.
+		 */
+		public void classify(
+				final MobilityPoint mobilityPoint)
+				throws ServiceException {
+			
+			// If the data point is of type error, don't attempt to classify 
+			// it.
+			if(mobilityPoint.getMode().equals(Mode.ERROR)) {
+				return;
+			}
+			
+			// If the SubType is sensor data,
+			if(MobilityPoint.SubType.SENSOR_DATA.equals(mobilityPoint.getSubType())) {
+				SensorData currSensorData = mobilityPoint.getSensorData();
+				
+				// Get the Samples from this new point.
+				List<Sample> samples;
+				try {
+					samples = mobilityPoint.getSamples();
+				}
+				catch(DomainException e) {
+					throw new ServiceException(
+							"There was a problem retrieving the samples.",
+							e);
+				}
+				
+				// Get the new WifiScan from this new point.
+				WifiScan wifiScan;
+				if(mobilityPoint.getSensorData().getWifiData() == null) {
+					wifiScan = null;
+				}
+				else {
+					try {
+						wifiScan = mobilityPoint.getWifiScan();
+					} 
+					catch(DomainException e) {
+						throw new ServiceException(
+								"The Mobility point does not contain WiFi data.",
+								e);
+					}
+				}
+				
+				// Prune out the old WifiScans that are more than 10 minutes 
+				// old.
+				long minPreviousTime = 
+						mobilityPoint.getTime() - 
+							MAX_MILLIS_OF_PREVIOUS_WIFI_DATA;
+				Iterator<WifiScan> previousWifiScansIter = 
+						previousWifiScans.iterator();
+				while(previousWifiScansIter.hasNext()) {
+					if(previousWifiScansIter.next().getTime() < minPreviousTime) {
+						previousWifiScansIter.remove();
+					}
+					else {
+						// Given the fact that the list is ordered, we can now
+						// be assured that all of the remaining WiFi scans are
+						// invalid.
+						break;
+					}
+				}
+
+				// Classify the data.
+				Classification classification =
+						classifier.classify(
+								samples,
+								currSensorData.getSpeed(),
+								wifiScan,
+								previousWifiScans,
+								previousWifiMode);
+				
+				// Update the place holders for the previous data.
+				if(wifiScan != null) {
+					previousWifiScans.add(wifiScan);
+				}
+				previousWifiMode = classification.getWifiMode();
+				
+				// If the classification generated some results, pull them out
+				// and store them in the Mobility point.
+				if(classification.hasFeatures()) {
+					try {
+						mobilityPoint.setClassifierData(
+								classification.getFft(), 
+								classification.getVariance(),
+								classification.getAverage(), 
+								MobilityPoint.Mode.valueOf(classification.getMode().toUpperCase()));
+					}
+					catch(DomainException e) {
+						throw new ServiceException(
+								"There was a problem reading the classification's information.", 
+								e);
+					}
+				}
+				// If the features don't exist, then create the classifier data
+				// with only the mode.
+				else {
+					try {
+						mobilityPoint.setClassifierModeOnly(MobilityPoint.Mode.valueOf(classification.getMode().toUpperCase()));
+					}
+					catch(DomainException e) {
+						throw new ServiceException(
+								"There was a problem reading the classification's mode.", 
+								e);
+					}
+				}
+			}
+		}
+	}
+	
 	private static MobilityServices instance;
 	private IUserQueries userQueries;
 	private IUserMobilityQueries userMobilityQueries;
@@ -141,13 +299,6 @@ public final class MobilityServices {
 			return;
 		}
 		
-		// Create a new classifier.
-		MobilityClassifier classifier = new MobilityClassifier();
-				
-		// Create place holders for the previous data.
-		String previousWifiMode = null;
-		List<WifiScan> previousWifiScans = new LinkedList<WifiScan>();
-		
 		// This is a bit more involved now that we are doing everything through
 		// the observers.
 		/*
@@ -186,108 +337,10 @@ public final class MobilityServices {
 		}
 		*/
 
-		// For each of the Mobility points,
+		// Classify each of the Mobility points in order.
+		PointClassifier classifier = new PointClassifier();
 		for(MobilityPoint mobilityPoint : mobilityPoints) {
-			// If the data point is of type error, don't attempt to classify 
-			// it.
-			if(mobilityPoint.getMode().equals(Mode.ERROR)) {
-				continue;
-			}
-			
-			// If the SubType is sensor data,
-			if(MobilityPoint.SubType.SENSOR_DATA.equals(mobilityPoint.getSubType())) {
-				SensorData currSensorData = mobilityPoint.getSensorData();
-				
-				// Get the Samples from this new point.
-				List<Sample> samples;
-				try {
-					samples = mobilityPoint.getSamples();
-				}
-				catch(DomainException e) {
-					throw new ServiceException(
-							"There was a problem retrieving the samples.",
-							e);
-				}
-				
-				// Get the new WifiScan from this new point.
-				WifiScan wifiScan;
-				if(mobilityPoint.getSensorData().getWifiData() == null) {
-					wifiScan = null;
-				}
-				else {
-					try {
-						wifiScan = mobilityPoint.getWifiScan();
-					} 
-					catch(DomainException e) {
-						throw new ServiceException(
-								"The Mobility point does not contain WiFi data.",
-								e);
-					}
-				}
-				
-				// Prune out the old WifiScans that are more than 10 minutes 
-				// old.
-				long minPreviousTime = 
-						mobilityPoint.getTime() - 
-							MAX_MILLIS_OF_PREVIOUS_WIFI_DATA;
-				Iterator<WifiScan> previousWifiScansIter = 
-						previousWifiScans.iterator();
-				while(previousWifiScansIter.hasNext()) {
-					if(previousWifiScansIter.next().getTime() < minPreviousTime) {
-						previousWifiScansIter.remove();
-					}
-					else {
-						// Given the fact that the list is ordered, we can now
-						// be assured that all of the remaining WiFi scans are
-						// invalid.
-						break;
-					}
-				}
-
-				// Classify the data.
-				Classification classification =
-						classifier.classify(
-								samples,
-								currSensorData.getSpeed(),
-								wifiScan,
-								previousWifiScans,
-								previousWifiMode);
-				
-				// Update the place holders for the previous data.
-				if(wifiScan != null) {
-					previousWifiScans.add(wifiScan);
-				}
-				previousWifiMode = classification.getWifiMode();
-				
-				// If the classification generated some results, pull them out
-				// and store them in the Mobility point.
-				if(classification.hasFeatures()) {
-					try {
-						mobilityPoint.setClassifierData(
-								classification.getFft(), 
-								classification.getVariance(),
-								classification.getAverage(), 
-								MobilityPoint.Mode.valueOf(classification.getMode().toUpperCase()));
-					}
-					catch(DomainException e) {
-						throw new ServiceException(
-								"There was a problem reading the classification's information.", 
-								e);
-					}
-				}
-				// If the features don't exist, then create the classifier data
-				// with only the mode.
-				else {
-					try {
-						mobilityPoint.setClassifierModeOnly(MobilityPoint.Mode.valueOf(classification.getMode().toUpperCase()));
-					}
-					catch(DomainException e) {
-						throw new ServiceException(
-								"There was a problem reading the classification's mode.", 
-								e);
-					}
-				}
-			}
+			classifier.classify(mobilityPoint);
 		}
 	}
 	
@@ -411,6 +464,207 @@ public final class MobilityServices {
 		}
 	}
 	
+	/**
+	 * Recomputes the user's Mobility mode rollups for each day on which one
+	 * of the points was taken, in the point's time zone. This should be 
+	 * called after new Mobility points are stored.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param days The days in the points' time zones.
+	 * 
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public void updateModeRollups(
+			final String username,
+			final Collection<LocalDate> days)
+			throws ServiceException {
+		
+		if(days.isEmpty()) {
+			return;
+		}
+		
+		try {
+			userMobilityQueries.updateModeRollups(username, days);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Forgets that the user's Mobility mode rollups for some days were 
+	 * computed, so that they are computed again the next time they are read.
+	 * This should be called when updating those days' rollups failed.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param days The days.
+	 * 
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public void invalidateModeRollups(
+			final String username,
+			final Collection<LocalDate> days)
+			throws ServiceException {
+		
+		if(days.isEmpty()) {
+			return;
+		}
+		
+		try {
+			userMobilityQueries.deleteModeRollupDays(username, days);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
+	/**
+	 * Retrieves the user's Mobility mode rollups for a range of time. The 
+	 * days that the range only partially covers, at its start and end, are
+	 * computed from only the points within the range. The stored rollups are
+	 * used for the whole days in between. A whole day whose rollups have 
+	 * never been computed, because its points were uploaded before rollups 
+	 * were kept or because updating them failed, is computed and stored 
+	 * first, but only up to {@link #MAX_ROLLUP_DAYS_STORED_PER_READ} days 
+	 * per read. Any others are computed without being stored, and later 
+	 * reads will store them.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param startDate The start of the range, inclusive.
+	 * 
+	 * @param endDate The end of the range, exclusive.
+	 * 
+	 * @return The rollups ordered by their day and then by the time of their
+	 * 		   mode's first point.
+	 * 
+	 * @throws ServiceException Thrown if there is an error.
+	 */
+	public List<MobilityModeRollup> getModeRollups(
+			final String username,
+			final DateTime startDate,
+			final DateTime endDate)
+			throws ServiceException {
+		
+		long startTime = startDate.getMillis();
+		long endTime = endDate.getMillis();
+		
+		LocalDate startDay = startDate.toLocalDate();
+		LocalDate endDay = endDate.toLocalDate();
+		
+		// The whole days are those from the first midnight at or after the
+		// start to the last midnight before the end.
+		LocalDate firstWholeDay = 
+			(startDate.getMillisOfDay() == 0) ? 
+				startDay : 
+				startDay.plusDays(1);
+		LocalDate lastWholeDay = endDay.minusDays(1);
+		
+		try {
+			List<MobilityModeRollup> result = 
+				new ArrayList<MobilityModeRollup>();
+			
+			// The part of the first day after the start.
+			boolean startDayIsPartial = startDay.isBefore(firstWholeDay);
+			if(startDayIsPartial) {
+				result.addAll(
+					userMobilityQueries.computeModeRollups(
+						username, 
+						startDay, 
+						startTime, 
+						endTime));
+			}
+			
+			if(! firstWholeDay.isAfter(lastWholeDay)) {
+				Set<LocalDate> rolledUpDays =
+					userMobilityQueries.getModeRollupDays(
+						username, 
+						firstWholeDay, 
+						lastWholeDay);
+				
+				List<LocalDate> daysToStore = new LinkedList<LocalDate>();
+				for(
+						LocalDate day = firstWholeDay; 
+						! day.isAfter(lastWholeDay); 
+						day = day.plusDays(1)) {
+					
+					if(rolledUpDays.contains(day)) {
+						continue;
+					}
+					
+					if(daysToStore.size() < MAX_ROLLUP_DAYS_STORED_PER_READ) {
+						daysToStore.add(day);
+					}
+					else {
+						result.addAll(
+							userMobilityQueries.computeModeRollups(
+								username, 
+								day, 
+								Long.MIN_VALUE, 
+								Long.MAX_VALUE));
+					}
+				}
+				
+				if(! daysToStore.isEmpty()) {
+					userMobilityQueries.updateModeRollups(
+						username, 
+						daysToStore);
+				}
+				
+				result.addAll(
+					userMobilityQueries.getModeRollups(
+						username, 
+						firstWholeDay, 
+						lastWholeDay));
+			}
+			
+			// The part of the last day before the end, unless that was 
+			// also the part of the first day.
+			if((endDate.getMillisOfDay() != 0) &&
+				(! (startDayIsPartial && endDay.equals(startDay)))) {
+				
+				result.addAll(
+					userMobilityQueries.computeModeRollups(
+						username, 
+						endDay, 
+						startTime, 
+						endTime));
+			}
+			
+			Collections.sort(
+				result, 
+				new Comparator<MobilityModeRollup>() {
+					/**
+					 * Orders the rollups by their day and then by the time
+					 * of their first point.
+					 */
+					@Override
+					public int compare(
+							final MobilityModeRollup first,
+							final MobilityModeRollup second) {
+						
+						int dayComparison = 
+							first.getDay().compareTo(second.getDay());
+						if(dayComparison != 0) {
+							return dayComparison;
+						}
+						
+						return 
+							Long.compare(
+								first.getFirstTime(), 
+								second.getFirstTime());
+					}
+				});
+			
+			return result;
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Verifies that a Mobility point can be updated by the requesting user.
 	 * 
@@ -1,6 +1,7 @@
 package org.ohmage.service;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -9,24 +10,45 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipException;
 
 import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.MappingJsonFactory;
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.StreamUidFilter;
 import org.ohmage.domain.DataStream;
 import org.ohmage.domain.DataStream.MetaData;
 import org.ohmage.domain.Observer;
 import org.ohmage.domain.Observer.Stream;
+import org.ohmage.domain.StreamReadCursor;
 import org.ohmage.exception.DataAccessException;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ServiceException;
 import org.ohmage.query.IObserverQueries;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  * <p>
@@ -36,7 +58,7 @@ import org.ohmage.query.IObserverQueries;
  *
  * @author John Jenkins
  */
-public class ObserverServices {
+public class ObserverServices implements DisposableBean {
 	private static final Logger LOGGER = 
 		Logger.getLogger(ObserverServices.class);
 	
@@ -146,9 +168,266 @@ public class ObserverServices {
 		}
 	}
 	
+	/**
+	 * The running totals for a streamed upload. These are updated after each
+	 * batch is stored, so they are accurate even if the upload fails part of
+	 * the way through.
+	 *
+	 * @author John Jenkins
+	 */
+	public static class UploadStatistics {
+		private long numValidPoints = 0;
+		private long numDuplicatePoints = 0;
+		
+		/**
+		 * Returns the number of valid points that have been read, including
+		 * those that were duplicates.
+		 *
+		 * @return The number of valid points.
+		 */
+		public long getNumValidPoints() {
+			return numValidPoints;
+		}
+		
+		/**
+		 * Returns the number of valid points that were not stored because
+		 * they had already been uploaded.
+		 *
+		 * @return The number of duplicate points.
+		 */
+		public long getNumDuplicatePoints() {
+			return numDuplicatePoints;
+		}
+	}
+	
+	/**
+	 * The data of several streams, each of which is usually read on its own
+	 * thread and database connection, merged into one chronological sequence
+	 * as it is read. Each stream reads all of its points, of which there are
+	 * at most the number requested, without waiting for the merge, so its
+	 * connection is returned as soon as it has been read rather than once the
+	 * merged points have been written. This class is not thread-safe, and it
+	 * must be {@link #close() closed} once it is no longer needed.
+	 *
+	 * @author John Jenkins
+	 */
+	public static class MergedStreamData {
+		/**
+		 * Marks the end of a stream's data in its queue.
+		 */
+		private static final Object END = new Object();
+		
+		/**
+		 * The next point from one of the streams.
+		 *
+		 * @author John Jenkins
+		 */
+		private static class Head implements Comparable<Head> {
+			private final DataStream point;
+			private final long time;
+			private final int source;
+			
+			/**
+			 * Creates the head of a stream.
+			 * 
+			 * @param point The point.
+			 * 
+			 * @param source The index of the stream from which it was read.
+			 */
+			private Head(final DataStream point, final int source) {
+				this.point = point;
+				this.source = source;
+				
+				MetaData metaData = point.getMetaData();
+				if((metaData == null) || (metaData.getTimestamp() == null)) {
+					time = Long.MIN_VALUE;
+				}
+				else {
+					time = metaData.getTimestamp().getMillis();
+				}
+			}
+			
+			/**
+			 * Orders the heads by their time and then by their stream, so 
+			 * that points with the same time are returned in the order of 
+			 * their streams.
+			 */
+			@Override
+			public int compareTo(final Head other) {
+				if(time < other.time) {
+					return -1;
+				}
+				else if(time > other.time) {
+					return 1;
+				}
+				
+				return source - other.source;
+			}
+		}
+		
+		private final List<StreamReader> readers;
+		private final List<Future<?>> futures;
+		private final PriorityQueue<Head> heads;
+		
+		/**
+		 * Creates a merge of streams whose readers have not been started.
+		 * 
+		 * @param readers The readers.
+		 */
+		private MergedStreamData(final List<StreamReader> readers) {
+			this.readers = readers;
+			
+			futures = new ArrayList<Future<?>>(readers.size());
+			heads = new PriorityQueue<Head>(Math.max(1, readers.size()));
+		}
+		
+		/**
+		 * Starts the readers and waits for the first point of each stream.
+		 * 
+		 * @param executor The executor that runs the readers or null if they
+		 * 				   should be run one at a time on this thread.
+		 * 
+		 * @throws ServiceException One of the streams could not be read.
+		 */
+		private void start(
+				final ExecutorService executor)
+				throws ServiceException {
+			
+			for(StreamReader reader : readers) {
+				if(executor == null) {
+					reader.run();
+					continue;
+				}
+				
+				try {
+					futures.add(executor.submit(reader));
+				}
+				catch(RejectedExecutionException e) {
+					throw new ServiceException(
+						"The stream readers have been shut down.",
+						e);
+				}
+			}
+			
+			for(int i = 0; i < readers.size(); i++) {
+				DataStream point = take(i);
+				if(point != null) {
+					heads.add(new Head(point, i));
+				}
+			}
+		}
+		
+		/**
+		 * Returns the next point, waiting for it to be read if necessary.
+		 * 
+		 * @return The earliest point that has not yet been returned or null
+		 * 		   if every stream has been read.
+		 * 
+		 * @throws ServiceException One of the streams could not be read.
+		 */
+		public DataStream next() throws ServiceException {
+			Head head = heads.poll();
+			if(head == null) {
+				return null;
+			}
+			
+			DataStream point = take(head.source);
+			if(point != null) {
+				heads.add(new Head(point, head.source));
+			}
+			
+			return head.point;
+		}
+		
+		/**
+		 * Stops any streams that are still being read.
+		 */
+		public void close() {
+			for(StreamReader reader : readers) {
+				reader.close();
+			}
+			for(Future<?> future : futures) {
+				future.cancel(true);
+			}
+			heads.clear();
+		}
+		
+		/**
+		 * Takes the next point from a stream's queue.
+		 * 
+		 * @param source The index of the stream.
+		 * 
+		 * @return The point or null if the stream has been read.
+		 * 
+		 * @throws ServiceException The stream could not be read.
+		 */
+		private DataStream take(final int source) throws ServiceException {
+			Object result;
+			try {
+				result = readers.get(source).queue.take();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ServiceException(
+					"Interrupted while waiting for the stream data.",
+					e);
+			}
+			
+			if(result == END) {
+				return null;
+			}
+			else if(result instanceof ServiceException) {
+				throw (ServiceException) result;
+			}
+			
+			return (DataStream) result;
+		}
+	}
+	
+	/**
+	 * The number of points that are read from an upload before they are
+	 * de-duplicated and stored.
+	 */
+	public static final int UPLOAD_BATCH_SIZE = 1000;
+	
+	/**
+	 * The number of milliseconds that a merged read waits for the stream
+	 * readers before it reads its streams one at a time instead.
+	 */
+	private static final long MILLIS_TO_WAIT_FOR_READERS = 1000;
+	
+	/**
+	 * The factory that decodes the data of merged reads.
+	 */
+	private static final JsonFactory JSON_FACTORY = new MappingJsonFactory();
+	
 	private static ObserverServices instance;
 	private IObserverQueries observerQueries;
 	
+	/**
+	 * The number of streams that may be read for merged reads at once, each
+	 * of which uses a thread and a database connection.
+	 */
+	private final int numStreamReaders;
+	
+	/**
+	 * The threads that read the streams of merged reads.
+	 */
+	private final ExecutorService streamReaders;
+	
+	/**
+	 * One permit for each stream reader thread. A merge takes the permits for
+	 * all of its streams at once, so it never waits for a thread that is held
+	 * by another merge that is itself waiting.
+	 */
+	private final Semaphore streamReaderPermits;
+	
+	/**
+	 * The filters of the IDs that are already stored for each user's
+	 * streams.
+	 */
+	private final StreamUidFilter uidFilter = new StreamUidFilter();
+	
 	/**
 	 * Default constructor. Privately instantiated via dependency injection
 	 * (reflection).
@@ -156,9 +435,17 @@ public class ObserverServices {
 	 * @throws IllegalStateException if an instance of this class already
 	 * exists
 	 * 
-	 * @throws IllegalArgumentException if iObserverQueries is null
+	 * @param numStreamReaders The number of streams that may be read for 
+	 * 							merged reads at once, each of which uses a
+	 * 							thread and a database connection.
+	 * 
+	 * @throws IllegalArgumentException if iObserverQueries is null or the
+	 * number of stream readers is not positive
 	 */
-	private ObserverServices(final IObserverQueries iObserverQueries) {
+	private ObserverServices(
+			final IObserverQueries iObserverQueries,
+			final int numStreamReaders) {
+		
 		if(instance != null) {
 			throw new IllegalStateException("An instance of this class already exists.");
 		}
@@ -166,11 +453,43 @@ public class ObserverServices {
 		if(iObserverQueries == null) {
 			throw new IllegalArgumentException("An instance of IObserverQueries is required.");
 		}
+		if(numStreamReaders < 1) {
+			throw new IllegalArgumentException(
+				"There must be at least one stream reader.");
+		}
 		
 		observerQueries = iObserverQueries;
+		
+		this.numStreamReaders = numStreamReaders;
+		streamReaderPermits = new Semaphore(numStreamReaders, true);
+		final AtomicInteger numThreads = new AtomicInteger(0);
+		streamReaders =
+			Executors.newFixedThreadPool(
+				numStreamReaders,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread result =
+							new Thread(
+								runnable,
+								"Stream Reader " +
+									numThreads.getAndIncrement());
+						result.setDaemon(true);
+						return result;
+					}
+				});
+		
 		instance = this;
 	}
 	
+	/**
+	 * Stops the threads that read the streams of merged reads.
+	 */
+	@Override
+	public void destroy() {
+		streamReaders.shutdownNow();
+	}
+	
 	/**
 	 * The instance of this service.
 	 * 
@@ -612,60 +931,155 @@ public class ObserverServices {
 	}
 	
 	/**
-	 * Validates that the uploaded data is valid by comparing it to its stream
-	 * schema and creating DataStream objects.
+	 * Reads the uploaded points from the parser one at a time, validates them
+	 * against their stream schemas, and stores them in batches of
+	 * {@link #UPLOAD_BATCH_SIZE}. Each batch is de-duplicated and stored
+	 * before the next one is read, so the memory used by an upload is bounded
+	 * by the batch size rather than the size of the upload.
+	 * 
+	 * @param username The username of the user that will own these points.
 	 * 
 	 * @param observer The observer that contains the streams.
 	 * 
-	 * @param data The data to validate.
+	 * @param data The parser positioned before the JSON array of points.
+	 * 
+	 * @param preserveInvalidPoints Whether or not invalid points should be
+	 * 								stored.
 	 * 
-	 * @param invalidPoints A list of InvalidPoint objects that dictate which
-	 * 						points are not entirely valid and why.
+	 * @param invalidPoints The list to which each invalid point's index and
+	 * 						reason are added. The invalid data itself is not
+	 * 						kept.
 	 * 
-	 * @return A collection of DataStreams where each stream represents a 
-	 * 		   different piece of data.
+	 * @param statistics The running totals for this upload, which are updated
+	 * 					 after each batch.
 	 * 
-	 * @throws ServiceException The data was invalid.
+	 * @throws ServiceException The data was not a well-formed JSON array or
+	 * 							there was an error storing a batch. Any
+	 * 							batches before the failure remain stored.
 	 */
-	public Collection<DataStream> validateData(
+	public void uploadData(
+			final String username,
 			final Observer observer,
 			final JsonParser data,
-			final List<InvalidPoint> invalidPoints)
+			final boolean preserveInvalidPoints,
+			final List<InvalidPoint> invalidPoints,
+			final UploadStatistics statistics)
 			throws ServiceException {
 		
-		JsonNode nodes;
+		List<DataStream> validBatch = 
+			new ArrayList<DataStream>(UPLOAD_BATCH_SIZE);
+		List<InvalidPoint> invalidBatch = new ArrayList<InvalidPoint>();
+		Set<LocalDate> mobilityDays = new HashSet<LocalDate>();
+		
 		try {
-			nodes = data.readValueAsTree();
-		}
-		catch(JsonProcessingException e) {
-			throw new ServiceException(
-				ErrorCode.OBSERVER_INVALID_STREAM_DATA,
-				"The data was not well-formed JSON.",
-				e);
+			uploadData(
+				username,
+				observer,
+				data,
+				preserveInvalidPoints,
+				invalidPoints,
+				statistics,
+				validBatch,
+				invalidBatch,
+				mobilityDays);
 		}
-		catch(IOException e) {
-			throw new ServiceException(
-				ErrorCode.OBSERVER_INVALID_STREAM_DATA,
-				"Could not read the data from the parser.",
-				e);
+		finally {
+			// Any batches that were stored remain stored even if a later one
+			// failed, so their days' Mobility rollups are always updated.
+			updateModeRollups(username, mobilityDays);
 		}
-		int numNodes = nodes.size();
+	}
+	
+	/**
+	 * Updates the user's Mobility mode rollups for the days of the points 
+	 * that were just stored. The points are already stored, so a failure 
+	 * here does not fail the upload. Instead, the days are marked as not
+	 * computed so that they are computed again when they are next read.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param days The days of the stored Mobility points.
+	 */
+	private void updateModeRollups(
+			final String username,
+			final Collection<LocalDate> days) {
 		
-		Collection<DataStream> result = new ArrayList<DataStream>(numNodes);
-		for(int i = 0; i < numNodes; i++) {
-			JsonNode node = nodes.get(i);
+		try {
+			MobilityServices.instance().updateModeRollups(username, days);
+		}
+		catch(ServiceException e) {
+			LOGGER.warn(
+				"The Mobility mode rollups could not be updated for user '" +
+					username +
+					"' on days: " +
+					days,
+				e);
 			
 			try {
-				result.add(observer.getDataStream(node));
+				MobilityServices
+					.instance()
+					.invalidateModeRollups(username, days);
+			}
+			catch(ServiceException invalidateException) {
+				LOGGER.error(
+					"The Mobility mode rollups could not be invalidated " +
+						"for user '" +
+						username +
+						"' on days: " +
+						days,
+					invalidateException);
 			}
-			catch(DomainException e) {
-				if(invalidPoints == null) {
+		}
+	}
+	
+	/**
+	 * Reads, validates, and stores the uploaded points in batches for 
+	 * {@link #uploadData(String, Observer, JsonParser, boolean, List, UploadStatistics)}.
+	 * 
+	 * @param validBatch The empty list to hold each batch of valid points.
+	 * 
+	 * @param invalidBatch The empty list to hold each batch of invalid 
+	 * 					   points.
+	 * 
+	 * @param mobilityDays The set to which the day of each stored Mobility 
+	 * 					   point is added.
+	 * 
+	 * @throws ServiceException The data was not a well-formed JSON array or
+	 * 							there was an error storing a batch.
+	 */
+	private void uploadData(
+			final String username,
+			final Observer observer,
+			final JsonParser data,
+			final boolean preserveInvalidPoints,
+			final List<InvalidPoint> invalidPoints,
+			final UploadStatistics statistics,
+			final List<DataStream> validBatch,
+			final List<InvalidPoint> invalidBatch,
+			final Set<LocalDate> mobilityDays)
+			throws ServiceException {
+		
+		try {
+			if(data.nextToken() != JsonToken.START_ARRAY) {
+				throw new ServiceException(
+					ErrorCode.OBSERVER_INVALID_STREAM_DATA,
+					"The data must be a JSON array.");
+			}
+			
+			long index = 0;
+			JsonToken token;
+			while((token = data.nextToken()) != JsonToken.END_ARRAY) {
+				if(token == null) {
 					throw new ServiceException(
 						ErrorCode.OBSERVER_INVALID_STREAM_DATA,
-						"The data was malformed: " + e.getMessage(),
-						e);
+						"The data was not well-formed JSON.");
 				}
-				else {
+				
+				JsonNode node = data.readValueAsTree();
+				try {
+					validBatch.add(observer.getDataStream(node));
+				}
+				catch(DomainException e) {
 					LOGGER
 						.warn(
 							"An invalid point was detected for observer '" +
@@ -674,26 +1088,70 @@ public class ObserverServices {
 								observer.getVersion() +
 								"': " +
 								e.getMessage());
-					invalidPoints
+					invalidBatch
 						.add(
 							new InvalidPoint(
-								i, 
+								index, 
 								node.toString(), 
 								e.getMessage(), 
 								e));
 				}
+				index++;
+				
+				if((validBatch.size() + invalidBatch.size()) >= 
+					UPLOAD_BATCH_SIZE) {
+					
+					storeBatch(
+						username,
+						observer,
+						validBatch,
+						preserveInvalidPoints,
+						invalidBatch,
+						invalidPoints,
+						statistics,
+						mobilityDays);
+				}
 			}
 		}
+		catch(JsonProcessingException e) {
+			throw new ServiceException(
+				ErrorCode.OBSERVER_INVALID_STREAM_DATA,
+				"The data was not well-formed JSON.",
+				e);
+		}
+		catch(ZipException e) {
+			throw new ServiceException(
+				ErrorCode.SERVER_INVALID_GZIP_DATA,
+				"The zipped data was not valid zip data.",
+				e);
+		}
+		catch(IOException e) {
+			throw new ServiceException(
+				ErrorCode.OBSERVER_INVALID_STREAM_DATA,
+				"Could not read the data from the parser.",
+				e);
+		}
 		
-		return result;
+		storeBatch(
+			username,
+			observer,
+			validBatch,
+			preserveInvalidPoints,
+			invalidBatch,
+			invalidPoints,
+			statistics,
+			mobilityDays);
 	}
 	
 	/**
 	 * Prunes the duplicates from the collection of data elements. A duplicate
 	 * is defined as a point with an ID whose ID already exists for the given
-	 * user and for the associated stream. This will not remove duplicates in
-	 * a single upload.
-	 *  
+	 * user and for the associated stream. Uploads are stored in batches, and
+	 * each batch is stored before the next one is pruned, so a point that
+	 * repeats the ID of a point from an earlier batch of the same upload is
+	 * removed. Points that repeat an ID within this collection are not
+	 * removed.
+	 *
 	 * @param username The username of the user that will own these points.
 	 * 
 	 * @param observerId The observer's unique identifier.
@@ -733,15 +1191,44 @@ public class ObserverServices {
 			}
 			
 			// Get the existing IDs for each stream that are also in this 
-			// upload's IDs.
+			// upload's IDs. The stream's filter rules out most new IDs, so
+			// only the possible duplicates are checked against the database.
 			Collection<String> duplicateIds = new HashSet<String>();
 			for(String streamId : uploadIds.keySet()) {
-				duplicateIds.addAll( 
+				Collection<String> streamIds = uploadIds.get(streamId);
+				
+				StreamUidFilter.Filter filter =
+					getUidFilter(username, observerId, streamId);
+				if(filter == null) {
+					duplicateIds.addAll( 
+						observerQueries.getDuplicateIds(
+							username,
+							observerId,
+							streamId,
+							streamIds));
+					continue;
+				}
+				
+				Collection<String> possibleIds = new LinkedList<String>();
+				for(String id : streamIds) {
+					if(filter.mightContain(id)) {
+						possibleIds.add(id);
+					}
+				}
+				
+				Collection<String> streamDuplicateIds =
 					observerQueries.getDuplicateIds(
 						username,
 						observerId,
 						streamId,
-						uploadIds.get(streamId)));
+						possibleIds);
+				duplicateIds.addAll(streamDuplicateIds);
+				
+				uidFilter
+					.recordChecks(
+						streamIds.size() - possibleIds.size(),
+						possibleIds.size(),
+						streamDuplicateIds.size());
 			}
 			
 			// Remove any of this upload's IDs that already exist.
@@ -764,6 +1251,62 @@ public class ObserverServices {
 		}
 	}
 	
+	/**
+	 * Returns the filter of stored IDs for a user's stream, building and
+	 * priming it from the database if necessary.
+	 * 
+	 * @param username The user's username.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param streamId The stream's unique identifier.
+	 * 
+	 * @return The filter or null if the stream has too many IDs to filter.
+	 * 
+	 * @throws DataAccessException There was an error reading the IDs.
+	 */
+	private StreamUidFilter.Filter getUidFilter(
+			final String username,
+			final String observerId,
+			final String streamId)
+			throws DataAccessException {
+		
+		StreamUidFilter.Filter result =
+			uidFilter.getFilter(username, observerId, streamId);
+		if(result != null) {
+			return result;
+		}
+		
+		long numIds = observerQueries.getNumIds(username, observerId, streamId);
+		result = 
+			uidFilter.createFilter(username, observerId, streamId, numIds);
+		if(result == null) {
+			return null;
+		}
+		
+		LOGGER
+			.info(
+				"Building the duplicate ID filter for '" +
+					username +
+					"', observer '" +
+					observerId +
+					"', stream '" +
+					streamId +
+					"': " +
+					numIds +
+					" IDs");
+		try {
+			observerQueries.addIds(username, observerId, streamId, result);
+		}
+		catch(DataAccessException e) {
+			uidFilter.removeFilter(username, observerId, streamId);
+			throw e;
+		}
+		uidFilter.setPrimed(result);
+		
+		return result;
+	}
+	
 	/**
 	 * Stores the stream data.
 	 * 
@@ -818,6 +1361,116 @@ public class ObserverServices {
 		}
 	}
 
+	/**
+	 * Stores a batch of a streamed upload and then empties it. The valid
+	 * points are de-duplicated and stored, and the invalid points are stored
+	 * if requested. Only the index and reason of each invalid point is
+	 * retained for the response.
+	 * 
+	 * @param username The username of the user that will own these points.
+	 * 
+	 * @param observer The observer to which the points belong.
+	 * 
+	 * @param validBatch The valid points in this batch.
+	 * 
+	 * @param preserveInvalidPoints Whether or not to store the invalid points.
+	 * 
+	 * @param invalidBatch The invalid points in this batch.
+	 * 
+	 * @param invalidPoints The invalid points from the whole upload.
+	 * 
+	 * @param statistics The running totals for the upload.
+	 * 
+	 * @param mobilityDays The set to which the day of each stored point is
+	 * 					   added, in the point's time zone, if this is the
+	 * 					   Mobility observer.
+	 * 
+	 * @throws ServiceException There was an error storing the batch.
+	 */
+	private void storeBatch(
+			final String username,
+			final Observer observer,
+			final List<DataStream> validBatch,
+			final boolean preserveInvalidPoints,
+			final List<InvalidPoint> invalidBatch,
+			final List<InvalidPoint> invalidPoints,
+			final UploadStatistics statistics,
+			final Set<LocalDate> mobilityDays)
+			throws ServiceException {
+		
+		if(! validBatch.isEmpty()) {
+			int numPoints = validBatch.size();
+			statistics.numValidPoints += numPoints;
+			
+			removeDuplicates(username, observer.getId(), validBatch);
+			statistics.numDuplicatePoints += numPoints - validBatch.size();
+			
+			if(! validBatch.isEmpty()) {
+				LOGGER
+					.info(
+						"Storing a batch of uploaded data: " + 
+							validBatch.size() + 
+							" points");
+				storeData(username, observer, validBatch);
+				
+				boolean isMobility = 
+					MobilityServices.MOBILITY_OBSERVER_ID.equals(
+						observer.getId());
+				
+				// Record the stored IDs in their streams' filters and the days
+				// of any Mobility points.
+				for(DataStream dataStream : validBatch) {
+					MetaData dataStreamMetaData = dataStream.getMetaData();
+					if(dataStreamMetaData == null) {
+						continue;
+					}
+					
+					if(isMobility) {
+						DateTime timestamp = dataStreamMetaData.getTimestamp();
+						if(timestamp != null) {
+							mobilityDays.add(timestamp.toLocalDate());
+						}
+					}
+					
+					String id = dataStreamMetaData.getId();
+					if(id != null) {
+						StreamUidFilter.Filter filter =
+							uidFilter.getFilter(
+								username,
+								observer.getId(),
+								dataStream.getStream().getId());
+						if(filter != null) {
+							filter.add(id);
+						}
+					}
+				}
+			}
+			validBatch.clear();
+		}
+		
+		if(! invalidBatch.isEmpty()) {
+			if(preserveInvalidPoints) {
+				LOGGER
+					.info(
+						"Storing a batch of invalid data: " +
+							invalidBatch.size() +
+							" points");
+				storeInvalidData(username, observer, invalidBatch);
+			}
+			
+			for(InvalidPoint invalidPoint : invalidBatch) {
+				invalidPoints
+					.add(
+						new InvalidPoint(
+							invalidPoint.getIndex(),
+							null,
+							invalidPoint.getReason(),
+							null));
+			}
+			invalidBatch.clear();
+		}
+	}
+
 	/**
 	 * Retrieves the data for a stream.
 	 * 
@@ -839,10 +1492,17 @@ public class ObserverServices {
 	 * 						If false, the values will be sorted reverse
 	 * 						chronologically. Required.
 	 * 
+	 * @param cursor The position after which to start reading, which was
+	 * 				 returned by a previous read. Optional.
+	 * 
 	 * @param numToSkip The number of data points to skip. Required.
 	 * 
 	 * @param numToReturn The number of data points to return. Required.
 	 * 
+	 * @param nextCursor The builder that is given the position of each point
+	 * 					 as it is read, so that the next read may continue
+	 * 					 from the last one. Optional.
+	 * 
 	 * @return A list of data points in chronological order that match the 
 	 * 		   query.
 	 * 
@@ -856,8 +1516,10 @@ public class ObserverServices {
 			final DateTime startDate,
 			final DateTime endDate,
 			final boolean chronological,
+			final StreamReadCursor cursor,
 			final long numToSkip,
-			final long numToReturn) 
+			final long numToReturn,
+			final StreamReadCursor.Builder nextCursor) 
 			throws ServiceException {
 		
 		try {
@@ -870,14 +1532,336 @@ public class ObserverServices {
 					startDate,
 					endDate,
 					chronological,
+					cursor,
 					numToSkip,
-					numToReturn);
+					numToReturn,
+					nextCursor);
 		}
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
 		}
 	}
 
+	/**
+	 * Reads the data for a stream and passes each point to a handler as it
+	 * is read.
+	 * 
+	 * @param stream The Stream object for the stream whose data is in 
+	 * 				 question. Required.
+	 * 
+	 * @param username The username of the user to which the data must belong.
+	 * 				   Required.
+	 * 
+	 * @param observerId The observer's unique identifier. Required.
+	 * 
+	 * @param observerVersion The observer's version. Optional.
+	 * 
+	 * @param startDate The earliest data point to return. Optional.
+	 * 
+	 * @param endDate The latest point data point to return. Optional.
+	 * 
+	 * @param chronological If true, the values will be sorted chronologically.
+	 * 						If false, the values will be sorted reverse
+	 * 						chronologically. Required.
+	 * 
+	 * @param cursor The position after which to start reading, which was
+	 * 				 returned by a previous read. Optional.
+	 * 
+	 * @param numToSkip The number of data points to skip. Required.
+	 * 
+	 * @param numToReturn The number of data points to return. Required.
+	 * 
+	 * @param nextCursor The builder that is given the position of each point
+	 * 					 as it is read, so that the next read may continue
+	 * 					 from the last one. Optional.
+	 * 
+	 * @param handler The handler for each point. Required.
+	 * 
+	 * @return The number of points that were read.
+	 * 
+	 * @throws ServiceException There was an error.
+	 */
+	public long streamStreamData(
+			final Stream stream,
+			final String username,
+			final String observerId,
+			final Long observerVersion,
+			final DateTime startDate,
+			final DateTime endDate,
+			final boolean chronological,
+			final StreamReadCursor cursor,
+			final long numToSkip,
+			final long numToReturn,
+			final StreamReadCursor.Builder nextCursor,
+			final DataStream.RawDataHandler handler) 
+			throws ServiceException {
+		
+		try {
+			return 
+				observerQueries.streamData(
+					stream,
+					username,
+					observerId,
+					observerVersion,
+					startDate,
+					endDate,
+					chronological,
+					cursor,
+					numToSkip,
+					numToReturn,
+					nextCursor,
+					handler);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	/**
+	 * Starts reading several streams' data for a user in chronological 
+	 * order, each on its own thread and database connection, and merges them
+	 * into one chronological sequence as they are read. This waits until the
+	 * first point of each stream has been read, so errors in the reads are
+	 * usually reported here rather than by the merge.
+	 * 
+	 * If there are more streams than stream readers, or the stream readers 
+	 * are not free within {@link #MILLIS_TO_WAIT_FOR_READERS}, the streams
+	 * are read one at a time on this thread before this returns instead.
+	 * 
+	 * @param streams The streams whose data should be read.
+	 * 
+	 * @param username The username of the user to whom the data belongs.
+	 * 
+	 * @param observerId The observer's unique identifier.
+	 * 
+	 * @param observerVersion The observer's version. Optional.
+	 * 
+	 * @param startDate The earliest data point to return. Optional.
+	 * 
+	 * @param endDate The latest data point to return. Optional.
+	 * 
+	 * @param numToReturn The number of data points to return from each 
+	 * 					  stream.
+	 * 
+	 * @return The merged data, which must be closed once it is no longer
+	 * 		   needed.
+	 * 
+	 * @throws ServiceException There was an error.
+	 */
+	public MergedStreamData mergeStreamData(
+			final List<Stream> streams,
+			final String username,
+			final String observerId,
+			final Long observerVersion,
+			final DateTime startDate,
+			final DateTime endDate,
+			final long numToReturn)
+			throws ServiceException {
+		
+		boolean concurrent = false;
+		if(streams.size() <= numStreamReaders) {
+			try {
+				concurrent = 
+					streamReaderPermits.tryAcquire(
+						streams.size(),
+						MILLIS_TO_WAIT_FOR_READERS,
+						TimeUnit.MILLISECONDS);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ServiceException(
+					"Interrupted while waiting for the stream readers.",
+					e);
+			}
+		}
+		if(! concurrent) {
+			LOGGER.info(
+				"There are not enough free stream readers, so the " + 
+					streams.size() + 
+					" streams will be read one at a time.");
+		}
+		
+		List<StreamReader> readers = 
+			new ArrayList<StreamReader>(streams.size());
+		for(Stream stream : streams) {
+			readers.add(
+				new StreamReader(
+					stream,
+					username,
+					observerId,
+					observerVersion,
+					startDate,
+					endDate,
+					numToReturn,
+					concurrent));
+		}
+		
+		MergedStreamData result = new MergedStreamData(readers);
+		try {
+			result.start(concurrent ? streamReaders : null);
+		}
+		catch(ServiceException e) {
+			result.close();
+			throw e;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Reads one stream of a merged read into its queue. A reader that runs on
+	 * its own thread holds one of the {@link #streamReaderPermits}, which it
+	 * returns as soon as the stream has been read or, if it never ran, when
+	 * its merge is closed.
+	 *
+	 * @author John Jenkins
+	 */
+	private final class StreamReader implements Runnable {
+		private final Stream stream;
+		private final String username;
+		private final String observerId;
+		private final Long observerVersion;
+		private final DateTime startDate;
+		private final DateTime endDate;
+		private final long numToReturn;
+		private final boolean holdsPermit;
+		
+		/**
+		 * The points that have been read but not yet merged, followed by
+		 * {@link MergedStreamData#END} or the exception that ended the read.
+		 * It is not bounded, so the read never waits for the merge, but it 
+		 * holds at most the number of points to return.
+		 */
+		private final BlockingQueue<Object> queue = 
+			new LinkedBlockingQueue<Object>();
+		
+		/**
+		 * Whether or not the merge has been closed.
+		 */
+		private final AtomicBoolean closed = new AtomicBoolean(false);
+		
+		/**
+		 * Whether either the reader has started or its merge was closed 
+		 * first. Whichever happens first returns the permit.
+		 */
+		private final AtomicBoolean claimed = new AtomicBoolean(false);
+		
+		/**
+		 * Creates a reader.
+		 * 
+		 * @param holdsPermit Whether or not the reader holds a permit, which
+		 * 					  it must return.
+		 */
+		private StreamReader(
+				final Stream stream,
+				final String username,
+				final String observerId,
+				final Long observerVersion,
+				final DateTime startDate,
+				final DateTime endDate,
+				final long numToReturn,
+				final boolean holdsPermit) {
+			
+			this.stream = stream;
+			this.username = username;
+			this.observerId = observerId;
+			this.observerVersion = observerVersion;
+			this.startDate = startDate;
+			this.endDate = endDate;
+			this.numToReturn = numToReturn;
+			this.holdsPermit = holdsPermit;
+		}
+		
+		/**
+		 * Reads the stream into its queue.
+		 */
+		@Override
+		public void run() {
+			if(! claimed.compareAndSet(false, true)) {
+				return;
+			}
+			
+			try {
+				Object result = MergedStreamData.END;
+				try {
+					streamStreamData(
+						stream,
+						username,
+						observerId,
+						observerVersion,
+						startDate,
+						endDate,
+						true,
+						null,
+						0,
+						numToReturn,
+						new StreamReadCursor.Builder(),
+						new DataStream.RawDataHandler() {
+							/**
+							 * Decodes each point and adds it to the queue.
+							 */
+							@Override
+							public void handle(
+									final MetaData metaData,
+									final String data)
+									throws IOException {
+								
+								if(closed.get()) {
+									throw new InterruptedIOException(
+										"The merge was closed.");
+								}
+								
+								DataStream point;
+								JsonParser parser = 
+									JSON_FACTORY.createJsonParser(data);
+								try {
+									point =
+										new DataStream(
+											stream,
+											metaData,
+											parser.readValueAsTree());
+								}
+								catch(DomainException e) {
+									throw new IOException(
+										"Could not create the data stream.",
+										e);
+								}
+								finally {
+									parser.close();
+								}
+								
+								queue.add(point);
+							}
+						});
+				}
+				catch(ServiceException e) {
+					result = e;
+				}
+				catch(RuntimeException e) {
+					result = new ServiceException(e);
+				}
+				
+				queue.add(result);
+			}
+			finally {
+				if(holdsPermit) {
+					streamReaderPermits.release();
+				}
+			}
+		}
+		
+		/**
+		 * Stops the reader. If it has not started, it never will, and its
+		 * permit is returned.
+		 */
+		private void close() {
+			closed.set(true);
+			if(claimed.compareAndSet(false, true) && holdsPermit) {
+				streamReaderPermits.release();
+			}
+		}
+	}
+	
 	/**
 	 * Retrieves the invalid data for a stream.
 	 * 
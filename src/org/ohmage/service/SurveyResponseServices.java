@@ -31,6 +31,7 @@ import org.ohmage.domain.campaign.Response;
 import org.ohmage.domain.campaign.SurveyResponse;
 import org.ohmage.domain.campaign.SurveyResponse.ColumnKey;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
+import org.ohmage.domain.campaign.SurveyResponseReadCursor;
 import org.ohmage.domain.campaign.response.AudioPromptResponse;
 import org.ohmage.domain.campaign.response.PhotoPromptResponse;
 import org.ohmage.domain.campaign.response.VideoPromptResponse;
@@ -391,6 +392,70 @@ public final class SurveyResponseServices {
 		}
 	}
 	
+	/**
+	 * Reads the same survey responses as
+	 * {@link #readSurveyResponseInformation(Campaign, String, Set, Collection, DateTime, DateTime, org.ohmage.domain.campaign.SurveyResponse.PrivacyState, Collection, Collection, String, Set, Collection, List, long, long, List)}
+	 * but gives each one to the handler as soon as it has been read instead
+	 * of collecting them, so that they may be written out without all of
+	 * them being in memory.
+	 * 
+	 * @param cursor The position of the last survey response of a previous
+	 * 				 page, after which this page begins, or null. It may only
+	 * 				 be given with the default sort order and without
+	 * 				 aggregating columns.
+	 * 
+	 * @param handler The handler to give each survey response to.
+	 * 
+	 * @return The total number of results that matched the given criteria,
+	 * 		   not the number that were given to the handler.
+	 * 
+	 * @throws ServiceException Thrown if there is an error, including if the
+	 * 							handler fails.
+	 */
+	public int streamSurveyResponseInformation(
+			final Campaign campaign,
+			final String username,
+			final Set<UUID> surveyResponseIds,
+			final Collection<String> usernames,
+			final DateTime startDate, final DateTime endDate, 
+			final SurveyResponse.PrivacyState privacyState, 
+			final Collection<String> surveyIds, 
+			final Collection<String> promptIds, 
+			final String promptType,
+			final Set<String> promptResponseSearchTokens,
+			final Collection<ColumnKey> columns, 
+			final List<SortParameter> sortOrder,
+			final long surveyResponsesToSkip,
+			final long surveyResponsesToProcess,
+			final SurveyResponseReadCursor cursor,
+			final SurveyResponse.SurveyResponseHandler handler) 
+			throws ServiceException {
+		
+		try {
+			return surveyResponseQueries.retrieveSurveyResponses(
+					campaign, 
+					username,
+					surveyResponseIds,
+					usernames, 
+					startDate, 
+					endDate, 
+					privacyState, 
+					surveyIds, 
+					promptIds, 
+					promptType,
+					promptResponseSearchTokens,
+					columns,
+					sortOrder,
+					surveyResponsesToSkip,
+					surveyResponsesToProcess,
+					cursor,
+					handler);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Updates the privacy state on a survey.
 	 * 
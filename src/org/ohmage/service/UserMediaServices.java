@@ -174,6 +174,24 @@ public class UserMediaServices {
 		}
 	}
 	
+	/**
+	 * Returns the URL of the media.
+	 * 
+	 * @param id The media's unique identifier.
+	 * 
+	 * @return The media's URL or null if the media does not exist.
+	 * 
+	 * @throws ServiceException There was an error.
+	 */
+	public URL getMediaUrl(final UUID id) throws ServiceException {
+		try {
+			return mediaQueries.getMediaUrl(id);
+		}
+		catch(DataAccessException e) {
+			throw new ServiceException(e);
+		}
+	}
+	
 	/**
 	 * Returns an Audio object representing the media.
 	 * 
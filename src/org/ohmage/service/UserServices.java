@@ -43,6 +43,7 @@ import net.tanesha.recaptcha.ReCaptchaImpl;
 import net.tanesha.recaptcha.ReCaptchaResponse;
 
 import org.ohmage.annotator.Annotator.ErrorCode;
+import org.ohmage.cache.CredentialCache;
 import org.ohmage.cache.PreferenceCache;
 import org.ohmage.cache.UserBin;
 import org.ohmage.domain.Clazz;
@@ -1535,6 +1536,12 @@ public final class UserServices {
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
 		}
+		
+		// A disabled user's password must be verified again once they are
+		// re-enabled.
+		if(Boolean.FALSE.equals(enabled)) {
+			CredentialCache.removeUser(username);
+		}
 	}
 
 	/**
@@ -1592,6 +1599,7 @@ public final class UserServices {
 		catch(DataAccessException e) {
 			throw new ServiceException(e);
 		}
+		CredentialCache.removeUser(username);
 		
 		// Get the session.
 		Session smtpSession = getMailSession();
@@ -1713,6 +1721,8 @@ public final class UserServices {
 			
 			userQueries.updateUserPassword(username, hashedPassword, false);
 			
+			CredentialCache.removeUser(username);
+			
 			return hashedPassword;
 		}
 		catch(DataAccessException e) {
@@ -1766,6 +1776,7 @@ public final class UserServices {
 		// Remove the users' authentication tokens if any exist.
 		for(String username : usernames) {
 			UserBin.removeUser(username);
+			CredentialCache.removeUser(username);
 		}
 		
 		// If the transaction succeeded, delete all of the images from the 
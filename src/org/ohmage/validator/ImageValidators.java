@@ -16,11 +16,13 @@
 package org.ohmage.validator;
 
 import java.io.ByteArrayInputStream;
+import java.net.MalformedURLException;
 import java.util.UUID;
 
 import org.apache.log4j.Logger;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.Image;
+import org.ohmage.domain.UploadedFile;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.util.StringUtils;
@@ -140,4 +142,48 @@ public final class ImageValidators {
 				e);
 		}
 	}
+	
+	/**
+	 * Creates an image from an uploaded file. The image's contents are read
+	 * from the file as they are needed rather than held in memory.
+	 * 
+	 * @param imageId The ID for this image.
+	 * 
+	 * @param imageContents The uploaded file that contains the image.
+	 * 
+	 * @return Returns null if the image's contents are null; otherwise, the
+	 * 		   image is returned.
+	 * 
+	 * @throws ValidationException Thrown if the image ID is null or the
+	 * 							   file's location is invalid.
+	 */
+	public static Image validateImageContents(
+			final UUID imageId,
+			final UploadedFile imageContents) throws ValidationException {
+		
+		if(imageId == null) {
+			throw new ValidationException("The image ID is null.");
+		}
+		if(imageContents == null) {
+			return null;
+		}
+		
+		try {
+			return
+				new Image(
+					imageId,
+					imageContents.getFile().toURI().toURL());
+		}
+		catch(MalformedURLException e) {
+			throw new ValidationException(
+				"The uploaded image's location is invalid.",
+				e);
+		}
+		catch(DomainException e) {
+			throw new ValidationException(
+				ErrorCode.IMAGE_INVALID_DATA,
+				"The image data was not valid image data.",
+				e);
+		}
+	}
 }
\ No newline at end of file
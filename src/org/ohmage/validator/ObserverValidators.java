@@ -1,6 +1,7 @@
 package org.ohmage.validator;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -14,6 +15,7 @@ import org.joda.time.format.DateTimeFormatter;
 import org.ohmage.annotator.Annotator.ErrorCode;
 import org.ohmage.domain.ISOW3CDateTimeFormat;
 import org.ohmage.domain.Observer;
+import org.ohmage.domain.StreamReadCursor;
 import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
@@ -281,6 +283,39 @@ public class ObserverValidators {
 		}
 	}
 	
+	/**
+	 * Creates a parser over a stream of uploaded data. Nothing is read until
+	 * the parser is advanced, so the data may be processed incrementally.
+	 * 
+	 * @param value The stream of data.
+	 * 
+	 * @return The JsonParser over the stream or null if the stream was null.
+	 * 
+	 * @throws ValidationException The parser could not be created.
+	 */
+	public static final JsonParser validateData(
+			final InputStream value)
+			throws ValidationException {
+		
+		if(value == null) {
+			return null;
+		}
+		
+		try {
+			return (new MappingJsonFactory()).createJsonParser(value);
+		}
+		catch(JsonParseException e) {
+			throw
+				new ValidationException(
+					ErrorCode.OBSERVER_INVALID_STREAM_DATA,
+					"The data is not valid JSON.",
+					e);
+		}
+		catch(IOException e) {
+			throw new ValidationException("The data could not be read.", e);
+		}
+	}
+	
 	/**
 	 * Validates that a date is a valid date with or without time.
 	 * 
@@ -436,6 +471,32 @@ public class ObserverValidators {
 		}
 	}
 	
+	/**
+	 * Validates that a cursor is one that was previously returned.
+	 * 
+	 * @param value The cursor to validate.
+	 * 
+	 * @return The decoded cursor or null if the value was null or only
+	 * 		   whitespace.
+	 * 
+	 * @throws ValidationException The cursor is invalid.
+	 */
+	public static final StreamReadCursor validateCursor(
+			final String value)
+			throws ValidationException {
+		
+		if(StringUtils.isEmptyOrWhitespaceOnly(value)) {
+			return null;
+		}
+		
+		try {
+			return StreamReadCursor.decode(value.trim());
+		}
+		catch(DomainException e) {
+			throw new ValidationException(e);
+		}
+	}
+	
 	/**
 	 * Validates that the number to return is positive or zero and less than or
 	 * equal to the maximum allowed.
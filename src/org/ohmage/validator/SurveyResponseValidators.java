@@ -39,6 +39,8 @@ import org.ohmage.domain.campaign.SurveyResponse.Function;
 import org.ohmage.domain.campaign.SurveyResponse.FunctionPrivacyStateItem;
 import org.ohmage.domain.campaign.SurveyResponse.OutputFormat;
 import org.ohmage.domain.campaign.SurveyResponse.SortParameter;
+import org.ohmage.domain.campaign.SurveyResponseReadCursor;
+import org.ohmage.exception.DomainException;
 import org.ohmage.exception.ValidationException;
 import org.ohmage.request.InputKeys;
 import org.ohmage.request.survey.SurveyResponseRequest;
@@ -704,6 +706,32 @@ public final class SurveyResponseValidators {
 				"The collapse value is invalid: ");
 	}
 	
+	/**
+	 * Validates that a cursor is one that was previously returned.
+	 * 
+	 * @param value The cursor to validate.
+	 * 
+	 * @return The decoded cursor or null if the value was null or only
+	 * 		   whitespace.
+	 * 
+	 * @throws ValidationException The cursor is invalid.
+	 */
+	public static SurveyResponseReadCursor validateCursor(
+			final String value)
+			throws ValidationException {
+		
+		if(StringUtils.isEmptyOrWhitespaceOnly(value)) {
+			return null;
+		}
+		
+		try {
+			return SurveyResponseReadCursor.decode(value.trim());
+		}
+		catch(DomainException e) {
+			throw new ValidationException(e);
+		}
+	}
+	
 	/**
 	 * Validates the number of survey responses to skip.
 	 * 
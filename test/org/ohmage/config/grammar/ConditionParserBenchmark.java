@@ -0,0 +1,149 @@
+package org.ohmage.config.grammar;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ohmage.config.grammar.custom.ConditionValidator;
+import org.ohmage.config.grammar.parser.ConditionParser;
+
+/**
+ * <p>
+ * Measures how condition parsing scales with the number of threads. Each
+ * thread parses the same number of sentences, so, if parsing scales
+ * linearly, the throughput should grow with the number of threads up to the
+ * number of cores.
+ * </p>
+ *
+ * <p>
+ * Two cases are measured: parsing every sentence with a parser per thread,
+ * which is what happens the first time a sentence is seen, and validating
+ * sentences through {@link ConditionValidator}, which only parses each
+ * sentence once.
+ * </p>
+ *
+ * <p>
+ * This is not run as part of the tests. Run it with:
+ * <code>java org.ohmage.config.grammar.ConditionParserBenchmark [maxThreads]</code>
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ConditionParserBenchmark {
+	private static final int NUM_SENTENCES = 1000;
+	private static final int NUM_ROUNDS = 100;
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *        The maximum number of threads, which defaults to the number of
+	 *        cores.
+	 */
+	public static void main(final String[] args) throws Exception {
+		int maxThreads =
+			(args.length > 0) ?
+				Integer.parseInt(args[0]) :
+				Runtime.getRuntime().availableProcessors();
+
+		final String[] sentences = new String[NUM_SENTENCES];
+		for(int i = 0; i < NUM_SENTENCES; i++) {
+			sentences[i] =
+				"(prompt" + i + " == " + i + " and prompt" + (i + 1) +
+				" != SKIPPED) or (prompt" + (i + 2) + " > " + (i % 7) +
+				" and prompt" + (i + 3) + " <= NOT_DISPLAYED)";
+		}
+
+		System.out.println("threads\tparse/s\tspeedup\tvalidate/s\tspeedup");
+
+		// Warm up.
+		run(1, sentences, true);
+		run(1, sentences, false);
+
+		double baseParse = 0;
+		double baseValidate = 0;
+		for(int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+			double parse = run(numThreads, sentences, true);
+			double validate = run(numThreads, sentences, false);
+			if(numThreads == 1) {
+				baseParse = parse;
+				baseValidate = validate;
+			}
+
+			System.out.println(
+				numThreads + "\t" +
+				Math.round(parse) + "\t" +
+				String.format("%.2f", parse / baseParse) + "\t" +
+				Math.round(validate) + "\t" +
+				String.format("%.2f", validate / baseValidate));
+		}
+	}
+
+	/**
+	 * Parses every sentence {@link #NUM_ROUNDS} times on each thread.
+	 *
+	 * @param numThreads
+	 *        The number of threads.
+	 *
+	 * @param sentences
+	 *        The sentences.
+	 *
+	 * @param parse
+	 *        Whether to always parse the sentence or to validate it through
+	 *        {@link ConditionValidator}.
+	 *
+	 * @return The number of sentences handled per second.
+	 */
+	private static double run(
+			final int numThreads,
+			final String[] sentences,
+			final boolean parse)
+			throws Exception {
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Callable<Integer>> tasks =
+				new ArrayList<Callable<Integer>>(numThreads);
+			for(int i = 0; i < numThreads; i++) {
+				tasks.add(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						ConditionParser parser =
+							new ConditionParser(new StringReader(""));
+
+						int count = 0;
+						for(int round = 0; round < NUM_ROUNDS; round++) {
+							for(String sentence : sentences) {
+								if(parse) {
+									parser.ReInit(new StringReader(sentence));
+									parser.start();
+								}
+								else {
+									ConditionValidator.validate(sentence);
+								}
+								count++;
+							}
+						}
+						return count;
+					}
+				});
+			}
+
+			long start = System.nanoTime();
+			long total = 0;
+			for(Future<Integer> result : executor.invokeAll(tasks)) {
+				total += result.get();
+			}
+			long elapsed = System.nanoTime() - start;
+
+			return total / (elapsed / 1000000000.0);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package org.ohmage.config.grammar.custom;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ohmage.config.grammar.parser.ConditionParser;
+import org.ohmage.config.grammar.syntaxtree.NodeToken;
+import org.ohmage.config.grammar.syntaxtree.Start;
+import org.ohmage.config.grammar.visitor.DepthFirstVisitor;
+
+/**
+ * Tests that {@link ConditionValidator} parses the same way from many
+ * threads at once as a single parser does on its own, and that it reuses the
+ * sentences it has already parsed.
+ */
+public class ConditionValidatorTest extends TestCase {
+	private static final int NUM_THREADS = 8;
+	private static final int NUM_SENTENCES = 200;
+	private static final int NUM_ROUNDS = 5;
+
+	/**
+	 * Writes out the tokens of a syntax tree in order, so that two trees may
+	 * be compared.
+	 */
+	private static class TokenDumper extends DepthFirstVisitor {
+		private final StringBuilder builder = new StringBuilder();
+
+		@Override
+		public void visit(final NodeToken n) {
+			builder.append(n.kind).append(':').append(n.tokenImage).append(' ');
+		}
+
+		@Override
+		public String toString() {
+			return builder.toString();
+		}
+	}
+
+	/**
+	 * Returns the tokens of a syntax tree.
+	 */
+	private static String dump(final Start start) {
+		TokenDumper dumper = new TokenDumper();
+		dumper.visit(start);
+		return dumper.toString();
+	}
+
+	/**
+	 * Parses a sentence with a new parser, without the validator.
+	 */
+	private static String parseAlone(final String sentence) throws Exception {
+		return dump(new ConditionParser(new StringReader(sentence)).start());
+	}
+
+	/**
+	 * Builds sentences that no other test has parsed. The prefix keeps them
+	 * from being found among the validator's parsed sentences.
+	 */
+	private static String[] sentences(final String prefix) {
+		String[] result = new String[NUM_SENTENCES];
+		for(int i = 0; i < NUM_SENTENCES; i++) {
+			result[i] =
+				"(" + prefix + i + " == " + i + " and " + prefix + (i + 1) +
+				" != SKIPPED) or (" + prefix + (i + 2) + " > " + (i % 7) +
+				" and " + prefix + (i + 3) + " <= NOT_DISPLAYED)";
+		}
+		return result;
+	}
+
+	/**
+	 * A sentence that has already been parsed is returned as it was parsed
+	 * the first time.
+	 */
+	@Test
+	public void testCacheHit() {
+		String sentence = "cacheHit == 1 or cacheHit == 2";
+
+		Start first = ConditionValidator.parse(sentence);
+		assertSame(first, ConditionValidator.parse(sentence));
+		assertEquals(
+			ConditionValidator.validate(sentence).toString(),
+			ConditionValidator.validate(sentence).toString());
+	}
+
+	/**
+	 * Threads that parse the same sentences, each starting at a different
+	 * one, and threads that parse their own sentences, some of which are
+	 * invalid, all get the same syntax trees as a single parser.
+	 */
+	@Test
+	public void testConcurrentParse() throws Exception {
+		final String[] shared = sentences("shared");
+		final String[] expectedShared = new String[NUM_SENTENCES];
+		for(int i = 0; i < NUM_SENTENCES; i++) {
+			expectedShared[i] = parseAlone(shared[i]);
+		}
+
+		final String[][] own = new String[NUM_THREADS][];
+		final String[][] expectedOwn = new String[NUM_THREADS][];
+		for(int t = 0; t < NUM_THREADS; t++) {
+			own[t] = sentences("own" + t + "_");
+			expectedOwn[t] = new String[NUM_SENTENCES];
+			for(int i = 0; i < NUM_SENTENCES; i++) {
+				expectedOwn[t][i] = parseAlone(own[t][i]);
+			}
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for(int t = 0; t < NUM_THREADS; t++) {
+				final int thread = t;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+
+						for(int round = 0; round < NUM_ROUNDS; round++) {
+							for(int j = 0; j < NUM_SENTENCES; j++) {
+								int i =
+									(j + (thread * NUM_SENTENCES / NUM_THREADS)) %
+										NUM_SENTENCES;
+
+								assertEquals(
+									expectedShared[i],
+									dump(ConditionValidator.parse(shared[i])));
+
+								// A failed parse must not break the parser
+								// for the next sentence.
+								if((i % 10) == 0) {
+									try {
+										ConditionValidator.parse(
+											own[thread][i] + " and (");
+										fail("An invalid sentence was parsed.");
+									}
+									catch(ConditionParseException e) {
+										// Expected.
+									}
+								}
+
+								assertEquals(
+									expectedOwn[thread][i],
+									dump(ConditionValidator.parse(own[thread][i])));
+							}
+						}
+
+						return null;
+					}
+				}));
+			}
+
+			start.countDown();
+			for(Future<Void> future : futures) {
+				future.get();
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		// Once parsed, every sentence is a cache hit.
+		for(int i = 0; i < NUM_SENTENCES; i++) {
+			assertSame(
+				ConditionValidator.parse(shared[i]),
+				ConditionValidator.parse(shared[i]));
+		}
+	}
+}
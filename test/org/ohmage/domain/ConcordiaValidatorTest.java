@@ -0,0 +1,218 @@
+package org.ohmage.domain;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+import org.ohmage.domain.ConcordiaValidator.Engine;
+import org.ohmage.exception.DomainException;
+
+/**
+ * Tests that the native and the Rhino Concordia engines agree on which data
+ * conforms to a schema.
+ */
+public class ConcordiaValidatorTest extends TestCase {
+	static {
+		if(System.getProperty("webapp.root") == null) {
+			System.setProperty("webapp.root", "web" + File.separator);
+		}
+	}
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/**
+	 * The corpus of schemas, each followed by data that conforms to it and
+	 * then, after a null separator, data that does not.
+	 */
+	private static final String[][] CORPUS = new String[][] {
+		{
+			"{\"type\":\"object\",\"fields\":[" +
+				"{\"name\":\"b\",\"type\":\"boolean\"}," +
+				"{\"name\":\"n\",\"type\":\"number\"}," +
+				"{\"name\":\"s\",\"type\":\"string\"}]}",
+			"{\"b\":true,\"n\":1,\"s\":\"a\"}",
+			"{\"b\":false,\"n\":-1.5e10,\"s\":\"\",\"extra\":[1,2]}",
+			null,
+			"{\"b\":true,\"n\":1}",
+			"{\"b\":null,\"n\":1,\"s\":\"a\"}",
+			"{\"b\":\"true\",\"n\":1,\"s\":\"a\"}",
+			"{\"b\":true,\"n\":\"1\",\"s\":\"a\"}",
+			"{\"b\":true,\"n\":1,\"s\":1}",
+			"[true,1,\"a\"]"
+		},
+		{
+			"{\"type\":\"object\",\"fields\":[" +
+				"{\"name\":\"b\",\"type\":\"boolean\",\"optional\":true}," +
+				"{\"name\":\"o\",\"type\":\"object\",\"optional\":true," +
+					"\"fields\":[{\"name\":\"x\",\"type\":\"number\"}]}," +
+				"{\"name\":\"a\",\"type\":\"array\",\"optional\":false," +
+					"\"constType\":{\"type\":\"string\"}}]}",
+			"{\"a\":[]}",
+			"{\"b\":null,\"o\":null,\"a\":[\"x\",\"y\"]}",
+			"{\"o\":{\"x\":1,\"y\":2},\"a\":[\"x\"]}",
+			null,
+			"{}",
+			"{\"a\":null}",
+			"{\"a\":[\"x\",1]}",
+			"{\"a\":{}}",
+			"{\"o\":{},\"a\":[]}",
+			"{\"o\":[],\"a\":[]}"
+		},
+		{
+			"{\"type\":\"array\",\"constType\":" +
+				"{\"type\":\"object\",\"fields\":[" +
+					"{\"name\":\"t\",\"type\":\"number\"}," +
+					"{\"name\":\"v\",\"type\":\"array\",\"constType\":" +
+						"{\"type\":\"number\",\"optional\":true}}]}}",
+			"[]",
+			"[{\"t\":1,\"v\":[1,2,null]},{\"t\":2,\"v\":[]}]",
+			null,
+			"[{\"t\":1}]",
+			"[{\"t\":1,\"v\":[\"1\"]}]",
+			"[1]",
+			"{\"t\":1,\"v\":[]}"
+		},
+		{
+			"{\"type\":\"array\",\"constLength\":[" +
+				"{\"type\":\"number\"}," +
+				"{\"type\":\"string\"}]}",
+			"[1,\"a\"]",
+			"[\"not\",\"checked\"]",
+			null,
+			"[1]",
+			"[1,\"a\",true]",
+			"{}"
+		},
+		{
+			"{\"type\":\"object\",\"fields\":[]}",
+			"{}",
+			"{\"anything\":true}",
+			null,
+			"[]",
+			"\"a string\"",
+			"1",
+			"true",
+			"null"
+		}
+	};
+
+	/**
+	 * Tests that both engines accept and reject the same data.
+	 */
+	@Test
+	public void testConformance() {
+		for(String[] entry : CORPUS) {
+			ConcordiaValidator rhino = null;
+			ConcordiaValidator nativeValidator = null;
+			try {
+				rhino = ConcordiaValidator.compile(entry[0], Engine.RHINO);
+				nativeValidator =
+					ConcordiaValidator.compile(entry[0], Engine.NATIVE);
+			}
+			catch(DomainException e) {
+				fail("The schema was rejected: " + entry[0]);
+			}
+			assertEquals(Engine.RHINO, rhino.getEngine());
+			assertEquals(Engine.NATIVE, nativeValidator.getEngine());
+
+			boolean valid = true;
+			for(int i = 1; i < entry.length; i++) {
+				if(entry[i] == null) {
+					valid = false;
+					continue;
+				}
+
+				JsonNode data;
+				try {
+					data = MAPPER.readTree(entry[i]);
+				}
+				catch(Exception e) {
+					fail("The test data is not valid JSON: " + entry[i]);
+					return;
+				}
+
+				assertEquals(
+					"Rhino disagreed on '" + entry[i] + "' for: " + entry[0],
+					valid,
+					accepts(rhino, data));
+				assertEquals(
+					"Native disagreed on '" + entry[i] + "' for: " + entry[0],
+					valid,
+					accepts(nativeValidator, data));
+			}
+		}
+	}
+
+	/**
+	 * Tests that invalid schemas are rejected regardless of the engine.
+	 */
+	@Test
+	public void testInvalidSchemas() {
+		String[] invalidSchemas = new String[] {
+			"not json",
+			"[]",
+			"{\"type\":\"string\"}",
+			"{\"type\":\"object\"}",
+			"{\"type\":\"object\",\"fields\":[{\"type\":\"number\"}]}",
+			"{\"type\":\"array\",\"constType\":{\"type\":\"foo\"}}"
+		};
+
+		for(Engine engine : Engine.values()) {
+			for(String schema : invalidSchemas) {
+				try {
+					ConcordiaValidator.compile(schema, engine);
+					fail("The schema was accepted by " + engine + ": " + schema);
+				}
+				catch(DomainException e) {
+					// Passed.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests that the same stream definition returns the same validator.
+	 */
+	@Test
+	public void testCache() {
+		String schema = CORPUS[0][0];
+		try {
+			ConcordiaValidator first =
+				ConcordiaValidator.getValidator("stream", 1, schema);
+			assertSame(
+				first,
+				ConcordiaValidator.getValidator("stream", 1, schema));
+			assertNotSame(
+				first,
+				ConcordiaValidator.getValidator("stream", 2, schema));
+		}
+		catch(DomainException e) {
+			fail("The schema was rejected: " + schema);
+		}
+	}
+
+	/**
+	 * Returns whether or not a validator accepts some data.
+	 *
+	 * @param validator The validator.
+	 *
+	 * @param data The data.
+	 *
+	 * @return Whether or not the data was accepted.
+	 */
+	private static boolean accepts(
+			final ConcordiaValidator validator,
+			final JsonNode data) {
+
+		try {
+			validator.validate(data);
+			return true;
+		}
+		catch(DomainException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package org.ohmage.domain;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import javax.imageio.ImageIO;
+
+import org.ohmage.domain.Image.Size;
+
+/**
+ * <p>
+ * Measures how long it takes, and how much memory it takes, to create the
+ * scaled sizes of 12 megapixel photos, which is what most phones upload.
+ * </p>
+ *
+ * <p>
+ * Two cases are measured: decoding the full-resolution photo and encoding
+ * each size in memory before writing it, which is how the sizes used to be
+ * created, and {@link Image#saveImages(Collection)}, which decodes a
+ * subsampled photo once and encodes each size straight into its file.
+ * </p>
+ *
+ * <p>
+ * This is not run as part of the tests. Run it with:
+ * <code>java org.ohmage.domain.ImageResizeBenchmark [numPhotos]</code>
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ImageResizeBenchmark {
+	private static final int PHOTO_WIDTH = 4000;
+	private static final int PHOTO_HEIGHT = 3000;
+	private static final int NUM_WARM_UP_ROUNDS = 2;
+	private static final int NUM_ROUNDS = 5;
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *        The number of different photos to create, which defaults to 3.
+	 */
+	public static void main(final String[] args) throws Exception {
+		int numPhotos = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+
+		List<Size> sizes = new ArrayList<Size>();
+		for(Size size : Image.getSizes()) {
+			if(! Image.ORIGINAL.equals(size)) {
+				sizes.add(size);
+			}
+		}
+
+		System.out.println(
+			"Creating " +
+				numPhotos +
+				" " +
+				PHOTO_WIDTH +
+				"x" +
+				PHOTO_HEIGHT +
+				" photos.");
+		Random random = new Random(0);
+		List<File> photos = new ArrayList<File>();
+		try {
+			for(int i = 0; i < numPhotos; i++) {
+				photos.add(createPhoto(random));
+			}
+
+			for(int i = 0; i < NUM_WARM_UP_ROUNDS; i++) {
+				runFullDecode(photos, sizes);
+				runSubsampledDecode(photos, sizes);
+			}
+
+			System.out.println("Path\t\tms/photo\tpeak MB");
+			report("full decode", measureFullDecode(photos, sizes));
+			report("subsampled", measureSubsampledDecode(photos, sizes));
+		}
+		finally {
+			for(File photo : photos) {
+				deleteSizes(photo, sizes);
+				photo.delete();
+			}
+		}
+	}
+
+	/**
+	 * Measures the full-resolution decode.
+	 *
+	 * @return The milliseconds per photo and the peak heap usage in bytes.
+	 */
+	private static long[] measureFullDecode(
+			final List<File> photos,
+			final List<Size> sizes)
+			throws Exception {
+
+		long start = System.nanoTime();
+		for(int i = 0; i < NUM_ROUNDS; i++) {
+			runFullDecode(photos, sizes);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		resetPeakHeap();
+		runFullDecode(photos.subList(0, 1), sizes);
+		long peak = getPeakHeap();
+
+		return
+			new long[] {
+				elapsed / 1000000 / NUM_ROUNDS / photos.size(),
+				peak };
+	}
+
+	/**
+	 * Measures the subsampled decode.
+	 *
+	 * @return The milliseconds per photo and the peak heap usage in bytes.
+	 */
+	private static long[] measureSubsampledDecode(
+			final List<File> photos,
+			final List<Size> sizes)
+			throws Exception {
+
+		long start = System.nanoTime();
+		for(int i = 0; i < NUM_ROUNDS; i++) {
+			runSubsampledDecode(photos, sizes);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		resetPeakHeap();
+		runSubsampledDecode(photos.subList(0, 1), sizes);
+		long peak = getPeakHeap();
+
+		return
+			new long[] {
+				elapsed / 1000000 / NUM_ROUNDS / photos.size(),
+				peak };
+	}
+
+	/**
+	 * Creates each size by decoding the full-resolution photo and encoding
+	 * each size in memory before writing it to its file.
+	 */
+	private static void runFullDecode(
+			final List<File> photos,
+			final List<Size> sizes)
+			throws Exception {
+
+		for(File photo : photos) {
+			deleteSizes(photo, sizes);
+
+			BufferedImage original = ImageIO.read(photo);
+			for(Size size : sizes) {
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				ImageIO.write(
+					size.scale(original),
+					Size.IMAGE_STORE_FORMAT,
+					buffer);
+
+				FileOutputStream fos =
+					new FileOutputStream(
+						photo.getAbsolutePath() + size.getExtension());
+				try {
+					buffer.writeTo(fos);
+				}
+				finally {
+					fos.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates each size with {@link Image#saveImages(Collection)}.
+	 */
+	private static void runSubsampledDecode(
+			final List<File> photos,
+			final List<Size> sizes)
+			throws Exception {
+
+		for(File photo : photos) {
+			deleteSizes(photo, sizes);
+
+			new Image(UUID.randomUUID(), photo.toURI().toURL())
+				.saveImages(sizes);
+		}
+	}
+
+	/**
+	 * Creates a photo-like JPEG with gradients and noise, so it compresses
+	 * about as well as a real photo.
+	 */
+	private static File createPhoto(final Random random) throws Exception {
+		BufferedImage image =
+			new BufferedImage(
+				PHOTO_WIDTH,
+				PHOTO_HEIGHT,
+				BufferedImage.TYPE_3BYTE_BGR);
+
+		int redOffset = random.nextInt(256);
+		int greenOffset = random.nextInt(256);
+		for(int y = 0; y < PHOTO_HEIGHT; y++) {
+			for(int x = 0; x < PHOTO_WIDTH; x++) {
+				int noise = random.nextInt(32);
+				int red = ((x * 255 / PHOTO_WIDTH) + redOffset + noise) & 0xFF;
+				int green =
+					((y * 255 / PHOTO_HEIGHT) + greenOffset + noise) & 0xFF;
+				int blue = (((x + y) / 16) + noise) & 0xFF;
+				image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+			}
+		}
+
+		File result = File.createTempFile("ohmage-benchmark-", ".jpg");
+		ImageIO.write(image, Size.IMAGE_STORE_FORMAT, result);
+		return result;
+	}
+
+	/**
+	 * Deletes the scaled sizes of a photo.
+	 */
+	private static void deleteSizes(
+			final File photo,
+			final Collection<Size> sizes) {
+
+		for(Size size : sizes) {
+			new File(photo.getAbsolutePath() + size.getExtension()).delete();
+		}
+	}
+
+	/**
+	 * Collects the garbage and resets the heap's peak usage.
+	 */
+	private static void resetPeakHeap() {
+		System.gc();
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(MemoryType.HEAP.equals(pool.getType())) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * Returns the heap's peak usage since it was last reset.
+	 */
+	private static long getPeakHeap() {
+		long result = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(MemoryType.HEAP.equals(pool.getType())) {
+				result += pool.getPeakUsage().getUsed();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Prints one row of the results.
+	 */
+	private static void report(final String name, final long[] result) {
+		System.out.println(
+			name +
+				"\t" +
+				result[0] +
+				"\t\t" +
+				(result[1] / (1024 * 1024)));
+	}
+}
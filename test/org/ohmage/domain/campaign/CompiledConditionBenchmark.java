@@ -0,0 +1,244 @@
+package org.ohmage.domain.campaign;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ohmage.config.grammar.parser.ConditionParser;
+import org.ohmage.domain.campaign.prompt.NumberPrompt;
+
+/**
+ * <p>
+ * Measures how many conditions can be evaluated per second. A survey of
+ * number prompts is built where the last prompt's condition references every
+ * other prompt, and a set of survey responses with random values is evaluated
+ * against it.
+ * </p>
+ *
+ * <p>
+ * Two cases are measured: evaluating the condition compiled by the
+ * {@link Survey}, and only parsing the condition, which is a lower bound on
+ * evaluating it without compiling it first.
+ * </p>
+ *
+ * <p>
+ * This is not run as part of the tests. Run it with:
+ * <code>java org.ohmage.domain.campaign.CompiledConditionBenchmark [maxThreads]</code>
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class CompiledConditionBenchmark {
+	private static final int NUM_PROMPTS = 8;
+	private static final int NUM_RESPONSES = 1000;
+	private static final int NUM_ROUNDS = 1000;
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *        The maximum number of threads, which defaults to the number of
+	 *        cores.
+	 */
+	public static void main(final String[] args) throws Exception {
+		int maxThreads =
+			(args.length > 0) ?
+				Integer.parseInt(args[0]) :
+				Runtime.getRuntime().availableProcessors();
+
+		// "((q0 == 0 or q0 > 5) and (q1 != SKIPPED and q1 <= 7) and ...) or
+		// (...)", which is parenthesized so that it is not ambiguous and is
+		// evaluated when a survey response is uploaded.
+		StringBuilder conditionBuilder = new StringBuilder();
+		for(int i = 0; i < NUM_PROMPTS; i += 2) {
+			if(i > 0) {
+				conditionBuilder.append((i % 4 == 0) ? ") or (" : " and ");
+			}
+			else {
+				conditionBuilder.append("(");
+			}
+			conditionBuilder
+				.append("(q").append(i).append(" == 0 or q").append(i)
+				.append(" > 5) and (q").append(i + 1)
+				.append(" != SKIPPED and q").append(i + 1).append(" <= 7)");
+		}
+		final String condition = conditionBuilder.append(")").toString();
+
+		Map<Integer, SurveyItem> surveyItems =
+			new HashMap<Integer, SurveyItem>();
+		for(int i = 0; i <= NUM_PROMPTS; i++) {
+			surveyItems.put(
+				i,
+				new NumberPrompt(
+					"q" + i,
+					(i == NUM_PROMPTS) ? condition : null,
+					null,
+					"Question " + i,
+					null,
+					true,
+					"Skip",
+					"Question " + i,
+					BigDecimal.ZERO,
+					BigDecimal.TEN,
+					null,
+					i,
+					true));
+		}
+		Survey survey =
+			new Survey(
+				"survey",
+				"Survey",
+				null,
+				null,
+				"Submit",
+				true,
+				surveyItems);
+		final CompiledCondition compiledCondition =
+			survey.getCompiledCondition("q" + NUM_PROMPTS);
+		if(compiledCondition.isAmbiguous()) {
+			throw new IllegalStateException(
+				"Ambiguous conditions are not evaluated on upload: " +
+					condition);
+		}
+
+		Random random = new Random(0);
+		final List<Map<Integer, Response>> responses =
+			new ArrayList<Map<Integer, Response>>(NUM_RESPONSES);
+		for(int i = 0; i < NUM_RESPONSES; i++) {
+			Map<Integer, Response> response = new HashMap<Integer, Response>();
+			for(int j = 0; j < NUM_PROMPTS; j++) {
+				Prompt prompt = (Prompt) surveyItems.get(j);
+				int value = random.nextInt(12);
+				response.put(
+					j,
+					prompt.createResponse(
+						null,
+						(value > 10) ?
+							Response.NoResponse.SKIPPED.toString() :
+							value));
+			}
+			responses.add(response);
+		}
+
+		System.out.println("Condition: " + condition);
+		System.out.println("threads\tcompiled/s\tspeedup\tparsed/s\tspeedup");
+
+		// Warm up.
+		run(1, compiledCondition, condition, responses, true);
+		run(1, compiledCondition, condition, responses, false);
+
+		double baseCompiled = 0;
+		double baseParsed = 0;
+		for(int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+			double compiled =
+				run(numThreads, compiledCondition, condition, responses, true);
+			double parsed =
+				run(numThreads, compiledCondition, condition, responses, false);
+			if(numThreads == 1) {
+				baseCompiled = compiled;
+				baseParsed = parsed;
+			}
+
+			System.out.println(
+				numThreads + "\t" +
+				Math.round(compiled) + "\t" +
+				String.format("%.2f", compiled / baseCompiled) + "\t" +
+				Math.round(parsed) + "\t" +
+				String.format("%.2f", parsed / baseParsed));
+		}
+	}
+
+	/**
+	 * Evaluates the condition against every response {@link #NUM_ROUNDS}
+	 * times on each thread.
+	 *
+	 * @param numThreads
+	 *        The number of threads.
+	 *
+	 * @param compiledCondition
+	 *        The compiled condition.
+	 *
+	 * @param condition
+	 *        The condition.
+	 *
+	 * @param responses
+	 *        The responses.
+	 *
+	 * @param compiled
+	 *        Whether to evaluate the compiled condition or to parse the
+	 *        condition.
+	 *
+	 * @return The number of evaluations per second.
+	 */
+	private static double run(
+			final int numThreads,
+			final CompiledCondition compiledCondition,
+			final String condition,
+			final List<Map<Integer, Response>> responses,
+			final boolean compiled)
+			throws Exception {
+
+		// Parsing is much slower, so it is done fewer times.
+		final int numRounds = compiled ? NUM_ROUNDS : (NUM_ROUNDS / 100);
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Callable<Integer>> tasks =
+				new ArrayList<Callable<Integer>>(numThreads);
+			for(int i = 0; i < numThreads; i++) {
+				tasks.add(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						ConditionParser parser =
+							new ConditionParser(new StringReader(""));
+
+						int count = 0;
+						int numTrue = 0;
+						for(int round = 0; round < numRounds; round++) {
+							for(Map<Integer, Response> response : responses) {
+								if(compiled) {
+									if(Boolean.TRUE.equals(
+										compiledCondition.evaluate(response))) {
+
+										numTrue++;
+									}
+								}
+								else {
+									parser.ReInit(new StringReader(condition));
+									parser.start();
+								}
+								count++;
+							}
+						}
+
+						// Keep the evaluations from being optimized away.
+						if(numTrue < 0) {
+							System.out.println(numTrue);
+						}
+						return count;
+					}
+				});
+			}
+
+			long start = System.nanoTime();
+			long total = 0;
+			for(Future<Integer> result : executor.invokeAll(tasks)) {
+				total += result.get();
+			}
+			long elapsed = System.nanoTime() - start;
+
+			return total / (elapsed / 1000000000.0);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,444 @@
+package org.ohmage.domain.campaign;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.joda.time.DateTime;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.ohmage.domain.campaign.Campaign.PrivacyState;
+import org.ohmage.domain.campaign.Campaign.RunningState;
+import org.ohmage.domain.campaign.Prompt.LabelValuePair;
+import org.ohmage.domain.campaign.Response.NoResponse;
+import org.ohmage.domain.campaign.prompt.MultiChoicePrompt;
+import org.ohmage.domain.campaign.prompt.NumberPrompt;
+import org.ohmage.domain.campaign.prompt.SingleChoicePrompt;
+import org.ohmage.exception.DomainException;
+
+/**
+ * Tests that compiled conditions evaluate each kind of comparison and
+ * conjunction the way clients do, and that survey responses whose survey
+ * items were displayed against their condition are accepted with a warning.
+ */
+public class CompiledConditionTest extends TestCase {
+	static {
+		if(System.getProperty("webapp.root") == null) {
+			System.setProperty("webapp.root", "web" + File.separator);
+		}
+	}
+
+	private static final int NUMBER_INDEX = 0;
+	private static final int SINGLE_INDEX = 1;
+	private static final int MULTI_INDEX = 2;
+
+	private final Map<Integer, SurveyItem> group =
+		new HashMap<Integer, SurveyItem>();
+	private NumberPrompt number;
+	private SingleChoicePrompt single;
+	private MultiChoicePrompt multi;
+
+	/**
+	 * Creates a group with a number prompt, "n", a single choice prompt,
+	 * "s", and a multiple choice prompt, "m", each of which has the choices
+	 * 0, 1, and 2.
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		Map<Integer, LabelValuePair> choices =
+			new HashMap<Integer, LabelValuePair>();
+		for(int i = 0; i < 3; i++) {
+			choices.put(i, new LabelValuePair("Choice " + i, null));
+		}
+
+		number =
+			new NumberPrompt(
+				"n", null, null, "Number", null, true, "Skip", "Number",
+				BigDecimal.ZERO, BigDecimal.valueOf(100), null,
+				NUMBER_INDEX, false);
+		single =
+			new SingleChoicePrompt(
+				"s", null, null, "Single", null, true, "Skip", "Single",
+				choices, null, SINGLE_INDEX);
+		multi =
+			new MultiChoicePrompt(
+				"m", null, null, "Multi", null, true, "Skip", "Multi",
+				choices, null, MULTI_INDEX);
+
+		group.put(NUMBER_INDEX, number);
+		group.put(SINGLE_INDEX, single);
+		group.put(MULTI_INDEX, multi);
+	}
+
+	/**
+	 * Tests comparing a number prompt to a number.
+	 */
+	@Test
+	public void testNumberComparison() throws DomainException {
+		Map<Integer, Response> responses = new HashMap<Integer, Response>();
+		responses.put(NUMBER_INDEX, number.createResponse(null, 7));
+
+		assertEquals(Boolean.TRUE, evaluate("n == 7", responses));
+		assertEquals(Boolean.FALSE, evaluate("n != 7", responses));
+		assertEquals(Boolean.TRUE, evaluate("n > 5", responses));
+		assertEquals(Boolean.FALSE, evaluate("n < 7", responses));
+		assertEquals(Boolean.TRUE, evaluate("n <= 7", responses));
+		assertEquals(Boolean.FALSE, evaluate("n >= 8", responses));
+		assertEquals(
+			BigDecimal.class,
+			responses.get(NUMBER_INDEX).getResponse().getClass());
+
+		// Numbers that were decoded as whole numbers are compared by value.
+		responses.put(NUMBER_INDEX, new ValueResponse(7L));
+		assertEquals(Boolean.TRUE, evaluate("n == 7", responses));
+		assertEquals(Boolean.TRUE, evaluate("n > 5", responses));
+		assertEquals(Boolean.FALSE, evaluate("n > 7", responses));
+
+		responses.put(NUMBER_INDEX, new ValueResponse(new BigDecimal("7.00")));
+		assertEquals(Boolean.TRUE, evaluate("n == 7", responses));
+		assertEquals(Boolean.FALSE, evaluate("n != 7", responses));
+
+		// Anything else cannot be compared.
+		responses.put(NUMBER_INDEX, new ValueResponse("7"));
+		assertNull(evaluate("n == 7", responses));
+	}
+
+	/**
+	 * Tests comparing single and multiple choice prompts to a key.
+	 */
+	@Test
+	public void testKeyComparison() throws DomainException {
+		Map<Integer, Response> responses = new HashMap<Integer, Response>();
+		responses.put(SINGLE_INDEX, single.createResponse(null, 1));
+
+		assertEquals(Boolean.TRUE, evaluate("s == 1", responses));
+		assertEquals(Boolean.FALSE, evaluate("s != 1", responses));
+		assertEquals(Boolean.TRUE, evaluate("s < 2", responses));
+		assertEquals(Boolean.FALSE, evaluate("s > 1", responses));
+		assertNull(evaluate("s == abc", responses));
+
+		// A prompt with multiple keys equals each of them.
+		responses.put(
+			MULTI_INDEX,
+			multi.createResponse(null, Arrays.asList(0, 2)));
+
+		assertEquals(Boolean.TRUE, evaluate("m == 0", responses));
+		assertEquals(Boolean.TRUE, evaluate("m == 2", responses));
+		assertEquals(Boolean.FALSE, evaluate("m == 1", responses));
+		assertEquals(Boolean.TRUE, evaluate("m != 1", responses));
+		assertEquals(Boolean.FALSE, evaluate("m != 2", responses));
+		assertNull(evaluate("m > 1", responses));
+	}
+
+	/**
+	 * Tests comparing prompts to SKIPPED and NOT_DISPLAYED.
+	 */
+	@Test
+	public void testNoResponseComparison() throws DomainException {
+		Map<Integer, Response> responses = new HashMap<Integer, Response>();
+		responses.put(
+			NUMBER_INDEX,
+			number.createResponse(null, NoResponse.SKIPPED));
+
+		assertEquals(Boolean.TRUE, evaluate("n == SKIPPED", responses));
+		assertEquals(Boolean.FALSE, evaluate("n != SKIPPED", responses));
+		assertEquals(Boolean.FALSE, evaluate("n == NOT_DISPLAYED", responses));
+		assertEquals(Boolean.TRUE, evaluate("n != NOT_DISPLAYED", responses));
+
+		// There is no order to the reasons there is no response.
+		assertNull(evaluate("n < SKIPPED", responses));
+
+		// A prompt without a value cannot be compared to a value.
+		assertNull(evaluate("n == 7", responses));
+		assertNull(evaluate("n != 7", responses));
+
+		// A prompt without a response cannot be compared to anything.
+		responses.remove(NUMBER_INDEX);
+		assertNull(evaluate("n == SKIPPED", responses));
+		assertNull(evaluate("n == 7", responses));
+	}
+
+	/**
+	 * Tests the three-valued logic of "and" and "or" for every combination
+	 * of true, false, and unknown.
+	 */
+	@Test
+	public void testConjunctions() throws DomainException {
+		Map<Integer, Response> responses = new HashMap<Integer, Response>();
+		responses.put(NUMBER_INDEX, number.createResponse(null, 7));
+		responses.put(SINGLE_INDEX, single.createResponse(null, 1));
+
+		// The multiple choice prompt has no response, so it is unknown.
+		String[] operands = new String[] { "n == 7", "s == 0", "m == 0" };
+		Boolean[] values = new Boolean[] { Boolean.TRUE, Boolean.FALSE, null };
+
+		Boolean[][] and = new Boolean[][] {
+			{ Boolean.TRUE, Boolean.FALSE, null },
+			{ Boolean.FALSE, Boolean.FALSE, Boolean.FALSE },
+			{ null, Boolean.FALSE, null }
+		};
+		Boolean[][] or = new Boolean[][] {
+			{ Boolean.TRUE, Boolean.TRUE, Boolean.TRUE },
+			{ Boolean.TRUE, Boolean.FALSE, null },
+			{ Boolean.TRUE, null, null }
+		};
+
+		for(int i = 0; i < operands.length; i++) {
+			assertEquals(operands[i], values[i], evaluate(operands[i], responses));
+
+			for(int j = 0; j < operands.length; j++) {
+				String andCondition = operands[i] + " and " + operands[j];
+				assertEquals(
+					andCondition,
+					and[i][j],
+					evaluate(andCondition, responses));
+
+				String orCondition = operands[i] + " or " + operands[j];
+				assertEquals(
+					orCondition,
+					or[i][j],
+					evaluate(orCondition, responses));
+			}
+		}
+
+		// Parentheses group their sentence.
+		assertEquals(
+			Boolean.TRUE,
+			evaluate("(s == 0 and m == 0) or n == 7", responses));
+		assertEquals(
+			Boolean.FALSE,
+			evaluate("s == 0 and (m == 0 or n == 7)", responses));
+	}
+
+	/**
+	 * Tests that only conditions mixing "and" and "or" without parentheses
+	 * are ambiguous.
+	 */
+	@Test
+	public void testAmbiguity() throws DomainException {
+		assertFalse(compile("n == 7").isAmbiguous());
+		assertFalse(compile("n == 7 and s == 0 and m == 1").isAmbiguous());
+		assertFalse(compile("n == 7 or s == 0 or m == 1").isAmbiguous());
+		assertFalse(compile("(n == 7 and s == 0) or m == 1").isAmbiguous());
+		assertFalse(compile("n == 7 and (s == 0 or m == 1)").isAmbiguous());
+
+		assertTrue(compile("n == 7 and s == 0 or m == 1").isAmbiguous());
+		assertTrue(compile("n == 7 or s == 0 and m == 1").isAmbiguous());
+		assertTrue(compile("(n == 7 and s == 0 or m == 1)").isAmbiguous());
+		assertTrue(
+			compile("s == 2 or (n == 7 or s == 0 and m == 1)").isAmbiguous());
+	}
+
+	/**
+	 * Tests that conditions referencing prompts outside of the group are
+	 * rejected.
+	 */
+	@Test
+	public void testUnknownPrompt() {
+		try {
+			compile("x == 1");
+			fail("A condition on an unknown prompt was compiled.");
+		}
+		catch(DomainException e) {
+			// Passed.
+		}
+	}
+
+	/**
+	 * Keeps the warnings that are logged.
+	 */
+	private static class WarningAppender extends AppenderSkeleton {
+		private final List<String> warnings = new ArrayList<String>();
+
+		@Override
+		protected void append(final LoggingEvent event) {
+			if(Level.WARN.equals(event.getLevel())) {
+				warnings.add(event.getRenderedMessage());
+			}
+		}
+
+		@Override
+		public boolean requiresLayout() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// Nothing to close.
+		}
+	}
+
+	/**
+	 * Tests that a warning is logged, but the survey response is accepted,
+	 * when a survey item was not displayed but its condition is true, or was
+	 * displayed but its condition is false, and that ambiguous conditions are
+	 * not checked.
+	 */
+	@Test
+	public void testSurveyResponseConditions() throws Exception {
+		group.put(
+			3,
+			new NumberPrompt(
+				"q", "n > 5", null, "Question", null, true, "Skip",
+				"Question", BigDecimal.ZERO, BigDecimal.TEN, null, 3, true));
+		group.put(
+			4,
+			new NumberPrompt(
+				"a", "n > 5 and s == 0 or s == 1", null, "Ambiguous", null,
+				true, "Skip", "Ambiguous", BigDecimal.ZERO, BigDecimal.TEN,
+				null, 4, true));
+		Map<String, Survey> surveys = new HashMap<String, Survey>();
+		surveys.put(
+			"survey",
+			new Survey("survey", "Survey", null, null, "Submit", true, group));
+		Campaign campaign =
+			new Campaign(
+				"urn:campaign:test", "Test", null, null, null,
+				RunningState.RUNNING, PrivacyState.SHARED, new DateTime(),
+				surveys, null);
+
+		Logger logger = Logger.getLogger(SurveyResponse.class);
+		WarningAppender appender = new WarningAppender();
+		logger.addAppender(appender);
+		try {
+			// The condition is true and the survey item was displayed.
+			createSurveyResponse(campaign, 7, "3");
+			// The condition is false and the survey item was not displayed.
+			createSurveyResponse(
+				campaign,
+				3,
+				NoResponse.NOT_DISPLAYED.toString());
+			assertEquals(appender.warnings.toString(), 0, appender.warnings.size());
+
+			// The condition is true and the survey item was not displayed.
+			createSurveyResponse(
+				campaign,
+				7,
+				NoResponse.NOT_DISPLAYED.toString());
+			assertEquals(appender.warnings.toString(), 1, appender.warnings.size());
+			assertTrue(
+				appender.warnings.get(0),
+				appender.warnings.get(0).contains("was not displayed"));
+
+			// The condition is false and the survey item was displayed.
+			createSurveyResponse(campaign, 3, "3");
+			assertEquals(appender.warnings.toString(), 2, appender.warnings.size());
+			assertTrue(
+				appender.warnings.get(1),
+				appender.warnings.get(1).contains("was displayed"));
+		}
+		finally {
+			logger.removeAppender(appender);
+		}
+	}
+
+	/**
+	 * Creates a survey response where "n" has the given value, "s" is 1,
+	 * "m" is 0, "q" has the given value, and "a", whose condition is
+	 * ambiguous, was not displayed even though its condition may be true.
+	 */
+	private void createSurveyResponse(
+			final Campaign campaign,
+			final int numberValue,
+			final String questionValue)
+			throws Exception {
+
+		JSONArray responses = new JSONArray();
+		responses.put(promptResponse("n", numberValue));
+		responses.put(promptResponse("s", 1));
+		responses.put(promptResponse("m", new JSONArray().put(0)));
+		responses.put(promptResponse("q", questionValue));
+		responses.put(
+			promptResponse("a", NoResponse.NOT_DISPLAYED.toString()));
+
+		JSONObject launchContext = new JSONObject();
+		launchContext.put("launch_time", 0);
+		launchContext.put("launch_timezone", "UTC");
+		launchContext.put("active_triggers", new JSONArray());
+
+		JSONObject response = new JSONObject();
+		response.put("survey_key", UUID.randomUUID().toString());
+		response.put("time", 0);
+		response.put("timezone", "UTC");
+		response.put("survey_id", "survey");
+		response.put("survey_launch_context", launchContext);
+		response.put("location_status", "unavailable");
+		response.put("responses", responses);
+
+		new SurveyResponse(
+			"user",
+			campaign.getId(),
+			"test",
+			campaign,
+			response);
+	}
+
+	/**
+	 * Creates the JSON for a prompt's response.
+	 */
+	private static JSONObject promptResponse(
+			final String promptId,
+			final Object value)
+			throws Exception {
+
+		JSONObject result = new JSONObject();
+		result.put("prompt_id", promptId);
+		result.put("value", value);
+		return result;
+	}
+
+	/**
+	 * Compiles a condition against the group.
+	 */
+	private CompiledCondition compile(
+			final String condition)
+			throws DomainException {
+
+		return CompiledCondition.compile(condition, group);
+	}
+
+	/**
+	 * Compiles and evaluates a condition against the group.
+	 */
+	private Boolean evaluate(
+			final String condition,
+			final Map<Integer, Response> responses)
+			throws DomainException {
+
+		CompiledCondition compiled = compile(condition);
+		assertEquals(condition, compiled.toString());
+		return compiled.evaluate(responses);
+	}
+
+	/**
+	 * A response whose value is used as it is, so that values which the
+	 * prompts do not create themselves can be compared.
+	 */
+	private static final class ValueResponse extends Response {
+		private ValueResponse(final Object value) {
+			super(value);
+		}
+
+		@Override
+		public JSONObject toJson(final boolean withId) {
+			return new JSONObject();
+		}
+
+		@Override
+		public String getId() {
+			return null;
+		}
+	}
+}